@@ -42,6 +42,25 @@ public interface IMonitorEventProbe extends IEventProbe {
 	 */
 	void setMonitor(Object monitor);
 
+	/**
+	 * Sets the id of the thread. Used for buffered events which do not
+	 * reference the thread anymore.
+	 * 
+	 * @param threadId
+	 *            id of the thread
+	 */
+	void setThreadId(long threadId);
+
+	/**
+	 * Sets the location of the monitor, consisting of the class name of the
+	 * monitor and its identity hash code. Used for buffered events which do
+	 * not reference the monitor anymore.
+	 * 
+	 * @param location
+	 *            monitor location to set
+	 */
+	void setMonitorLocation(String location);
+
 	/**
 	 * Sets the timestamp in microseconds.
 	 * 
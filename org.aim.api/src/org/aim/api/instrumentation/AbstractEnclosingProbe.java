@@ -75,5 +75,9 @@ public abstract class AbstractEnclosingProbe extends AbstractExtensionArtifact {
 	 * common data collector.
 	 */
 	public IDataCollector _GenericProbe_collector;
+	/**
+	 * sampling weight of the call.
+	 */
+	public double _GenericProbe_samplingWeight;
 
 }
@@ -0,0 +1,389 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.instrumentation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * Samples the calls of instrumented methods with a probability which is
+ * adapted at runtime, such that each method produces at most the configured
+ * number of records per second. In contrast to the static granularity of a
+ * restriction, which samples threads, each call is sampled independently.
+ * 
+ * The probes of a method call {@link #sample(int)} with the id the method has
+ * been registered with (see {@link #register(String, double)}). A sampled call
+ * gets the inverse of the sampling probability as weight, which is stored in
+ * the records of the call (see
+ * {@link org.aim.api.measurement.AbstractRecord#getSamplingWeight()}). Thus,
+ * summing up the weights of the records estimates the number of calls.
+ * 
+ * Adaptive sampling is enabled by the agent properties
+ * {@link #MAX_RECORDS_PER_SECOND_KEY} and
+ * {@link #TOTAL_RECORDS_PER_SECOND_KEY}.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class AdaptiveSampler {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(AdaptiveSampler.class);
+
+	/**
+	 * Property key for the maximum number of sampled calls per second and
+	 * method.
+	 */
+	public static final String MAX_RECORDS_PER_SECOND_KEY = "org.aim.sampling.maxRecordsPerSecond";
+
+	/**
+	 * Property key for the maximum number of sampled calls per second of all
+	 * methods. The budget is shared equally by the called methods.
+	 */
+	public static final String TOTAL_RECORDS_PER_SECOND_KEY = "org.aim.sampling.totalRecordsPerSecond";
+
+	/**
+	 * Property key for the interval in milliseconds in which the sampling
+	 * probabilities are adapted.
+	 */
+	public static final String ADJUSTMENT_INTERVAL_KEY = "org.aim.sampling.adjustmentInterval";
+
+	public static final long DEFAULT_ADJUSTMENT_INTERVAL = 1000L;
+
+	/**
+	 * Lower bound of a sampling probability, such that the call rate of a
+	 * method can still be observed.
+	 */
+	public static final double MIN_PROBABILITY = 0.000001;
+
+	/**
+	 * Maximum factor by which a probability grows within one interval.
+	 */
+	private static final double MAX_GROWTH = 2.0;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private static final Map<String, Integer> IDS = new HashMap<>();
+	private static volatile SampledMethod[] methods = new SampledMethod[INITIAL_CAPACITY];
+	private static int numMethods = 0;
+	private static long epoch = 0L;
+
+	private static volatile double maxRecordsPerSecond = 0.0;
+	private static volatile double totalRecordsPerSecond = 0.0;
+	private static long adjustmentInterval = DEFAULT_ADJUSTMENT_INTERVAL;
+
+	private static ScheduledExecutorService scheduler;
+	private static long lastAdjustment;
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private AdaptiveSampler() {
+	}
+
+	/**
+	 * Configures the sampler from the agent properties. Should be called
+	 * before any probe has been injected.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		double newMaxRecords = 0.0;
+		double newTotalRecords = 0.0;
+		long newInterval = DEFAULT_ADJUSTMENT_INTERVAL;
+		if (properties != null) {
+			newMaxRecords = parseRate(properties, MAX_RECORDS_PER_SECOND_KEY);
+			newTotalRecords = parseRate(properties, TOTAL_RECORDS_PER_SECOND_KEY);
+			String intervalValue = properties.getProperty(ADJUSTMENT_INTERVAL_KEY);
+			if (intervalValue != null) {
+				try {
+					newInterval = Long.parseLong(intervalValue.trim());
+					if (newInterval <= 0) {
+						LOGGER.warn("Invalid sampling adjustment interval {}. Using default value {}.", intervalValue,
+								DEFAULT_ADJUSTMENT_INTERVAL);
+						newInterval = DEFAULT_ADJUSTMENT_INTERVAL;
+					}
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Invalid sampling adjustment interval {}. Using default value {}.", intervalValue,
+							DEFAULT_ADJUSTMENT_INTERVAL);
+				}
+			}
+		}
+		configure(newMaxRecords, newTotalRecords, newInterval);
+	}
+
+	private static double parseRate(Properties properties, String key) {
+		String value = properties.getProperty(key);
+		if (value == null) {
+			return 0.0;
+		}
+		try {
+			double rate = Double.parseDouble(value.trim());
+			if (rate >= 0.0) {
+				return rate;
+			}
+		} catch (NumberFormatException e) {
+			// warned below
+		}
+		LOGGER.warn("Invalid value {} for {}. Adaptive sampling is not limited by this property.", value, key);
+		return 0.0;
+	}
+
+	/**
+	 * Configures the sampler.
+	 * 
+	 * @param newMaxRecordsPerSecond
+	 *            maximum number of sampled calls per second and method, a
+	 *            value less or equal to zero means no limit
+	 * @param newTotalRecordsPerSecond
+	 *            maximum number of sampled calls per second of all methods, a
+	 *            value less or equal to zero means no limit
+	 * @param newAdjustmentInterval
+	 *            interval in milliseconds in which the probabilities are
+	 *            adapted
+	 */
+	public static synchronized void configure(double newMaxRecordsPerSecond, double newTotalRecordsPerSecond,
+			long newAdjustmentInterval) {
+		maxRecordsPerSecond = Math.max(newMaxRecordsPerSecond, 0.0);
+		totalRecordsPerSecond = Math.max(newTotalRecordsPerSecond, 0.0);
+		if (newAdjustmentInterval != adjustmentInterval && scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		adjustmentInterval = Math.max(newAdjustmentInterval, 1L);
+		if (isEnabled()) {
+			LOGGER.debug("Adaptive sampling enabled: {} records per second and method, {} records per second in total",
+					maxRecordsPerSecond, totalRecordsPerSecond);
+			if (numMethods > 0) {
+				startScheduler();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return true, if a records-per-second ceiling has been configured
+	 */
+	public static boolean isEnabled() {
+		return maxRecordsPerSecond > 0.0 || totalRecordsPerSecond > 0.0;
+	}
+
+	/**
+	 * Registers a method for adaptive sampling. A method which is registered
+	 * again keeps its id.
+	 * 
+	 * @param methodSignature
+	 *            signature of the instrumented method
+	 * @param maxProbability
+	 *            upper bound of the sampling probability, i.e. the
+	 *            granularity of the instrumentation restriction
+	 * @return the id to pass to {@link #sample(int)}
+	 */
+	public static synchronized int register(String methodSignature, double maxProbability) {
+		double boundedMax = Math.min(Math.max(maxProbability, MIN_PROBABILITY), 1.0);
+		Integer id = IDS.get(methodSignature);
+		if (id != null) {
+			SampledMethod method = methods[id];
+			method.maxProbability = boundedMax;
+			method.probability = Math.min(method.probability, boundedMax);
+			return id;
+		}
+
+		if (numMethods == methods.length) {
+			SampledMethod[] newMethods = new SampledMethod[methods.length * 2];
+			System.arraycopy(methods, 0, newMethods, 0, numMethods);
+			methods = newMethods;
+		}
+		int newId = numMethods;
+		methods[newId] = new SampledMethod(methodSignature, boundedMax);
+		numMethods++;
+		IDS.put(methodSignature, newId);
+
+		if (isEnabled()) {
+			startScheduler();
+		}
+		return newId;
+	}
+
+	/**
+	 * Decides whether the current call of the method with the given id is
+	 * sampled.
+	 * 
+	 * @param id
+	 *            id of the method (see {@link #register(String, double)})
+	 * @return the weight of the call, i.e. the inverse of the sampling
+	 *         probability, or zero, if the call is not sampled. Calls of
+	 *         unknown ids, i.e. of bytecode which is still executed after
+	 *         {@link #reset()}, are not sampled.
+	 */
+	public static double sample(int id) {
+		SampledMethod[] currentMethods = methods;
+		if (id < 0 || id >= currentMethods.length) {
+			return 0.0;
+		}
+		SampledMethod method = currentMethods[id];
+		if (method == null) {
+			return 0.0;
+		}
+		double probability = method.probability;
+		if (probability < 1.0 && ThreadLocalRandom.current().nextDouble() >= probability) {
+			return 0.0;
+		}
+		method.sampledCalls.incrementAndGet();
+		return 1.0 / probability;
+	}
+
+	/**
+	 * 
+	 * @param methodSignature
+	 *            signature of a registered method
+	 * @return the current sampling probability of the method, or -1 if the
+	 *         method has not been registered
+	 */
+	public static synchronized double getProbability(String methodSignature) {
+		Integer id = IDS.get(methodSignature);
+		return id == null ? -1.0 : methods[id].probability;
+	}
+
+	/**
+	 * Adapts the sampling probabilities to the call rates observed since the
+	 * last adjustment. The call rate of a method is estimated by the number
+	 * of sampled calls divided by the sampling probability.
+	 * 
+	 * @param elapsedSeconds
+	 *            time since the last adjustment
+	 */
+	static synchronized void adjust(double elapsedSeconds) {
+		if (elapsedSeconds <= 0.0 || !isEnabled()) {
+			return;
+		}
+		double[] callRates = new double[numMethods];
+		int numCalledMethods = 0;
+		for (int i = 0; i < numMethods; i++) {
+			SampledMethod method = methods[i];
+			long sampledCalls = method.sampledCalls.get();
+			long delta = sampledCalls - method.lastSampledCalls;
+			method.lastSampledCalls = sampledCalls;
+			callRates[i] = delta / method.probability / elapsedSeconds;
+			if (delta > 0) {
+				numCalledMethods++;
+			}
+		}
+
+		double targetRate = maxRecordsPerSecond > 0.0 ? maxRecordsPerSecond : Double.MAX_VALUE;
+		if (totalRecordsPerSecond > 0.0 && numCalledMethods > 0) {
+			targetRate = Math.min(targetRate, totalRecordsPerSecond / numCalledMethods);
+		}
+
+		for (int i = 0; i < numMethods; i++) {
+			SampledMethod method = methods[i];
+			double newProbability = method.probability * MAX_GROWTH;
+			if (callRates[i] > 0.0) {
+				newProbability = Math.min(newProbability, targetRate / callRates[i]);
+			}
+			method.probability = Math.max(Math.min(newProbability, method.maxProbability), MIN_PROBABILITY);
+		}
+	}
+
+	/**
+	 * Returns the epoch of the registered ids. The epoch changes whenever
+	 * {@link #reset()} discards registered ids, thus, bytecode woven with ids
+	 * of an older epoch must not be reused.
+	 * 
+	 * @return the current epoch
+	 */
+	public static synchronized long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Removes all registered methods and stops adapting probabilities.
+	 */
+	public static synchronized void reset() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		if (numMethods > 0) {
+			epoch++;
+		}
+		IDS.clear();
+		methods = new SampledMethod[INITIAL_CAPACITY];
+		numMethods = 0;
+	}
+
+	private static void startScheduler() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "AIM-Adaptive-Sampler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		lastAdjustment = System.nanoTime();
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				long now = System.nanoTime();
+				double elapsedSeconds;
+				synchronized (AdaptiveSampler.class) {
+					elapsedSeconds = (now - lastAdjustment) / 1000000000.0;
+					lastAdjustment = now;
+				}
+				try {
+					adjust(elapsedSeconds);
+				} catch (RuntimeException e) {
+					LOGGER.warn("Failed adapting sampling probabilities: {}", e);
+				}
+			}
+		}, adjustmentInterval, adjustmentInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sampling state of an instrumented method.
+	 */
+	private static final class SampledMethod {
+		private final String methodSignature;
+		private final AtomicLong sampledCalls = new AtomicLong();
+		private long lastSampledCalls = 0L;
+		private volatile double maxProbability;
+		private volatile double probability;
+
+		SampledMethod(String methodSignature, double maxProbability) {
+			this.methodSignature = methodSignature;
+			this.maxProbability = maxProbability;
+			this.probability = maxProbability;
+		}
+
+		@Override
+		public String toString() {
+			return methodSignature + " (p=" + probability + ")";
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.instrumentation;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * Generates unique call ids for probes. Instead of incrementing a single
+ * shared counter on each call, every thread reserves a block of ids from a
+ * shared counter and hands out the ids of its block without any
+ * synchronization. Thus, the shared counter is only written once per block.
+ * 
+ * The strategy is configured by the agent properties:
+ * <ul>
+ * <li>{@link Strategy#BLOCK}: each thread reserves blocks of
+ * {@link #BLOCK_SIZE_KEY} ids (default).</li>
+ * <li>{@link Strategy#THREAD_PREFIXED}: each thread reserves a single range of
+ * 2^{@value #THREAD_PREFIX_SHIFT} ids, thus, the upper bits of an id identify
+ * the thread which created it.</li>
+ * <li>{@link Strategy#SHARED}: all threads increment a single atomic counter,
+ * thus, ids are assigned in the order of the calls.</li>
+ * </ul>
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class CallIdGenerator {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(CallIdGenerator.class);
+
+	/**
+	 * Property key for the call id strategy.
+	 */
+	public static final String STRATEGY_KEY = "org.aim.callId.strategy";
+
+	/**
+	 * Property key for the number of ids a thread reserves at once for the
+	 * {@link Strategy#BLOCK} strategy.
+	 */
+	public static final String BLOCK_SIZE_KEY = "org.aim.callId.blockSize";
+
+	public static final long DEFAULT_BLOCK_SIZE = 1024L;
+	public static final int THREAD_PREFIX_SHIFT = 40;
+
+	/**
+	 * Call id generation strategies.
+	 */
+	public enum Strategy {
+		BLOCK, THREAD_PREFIXED, SHARED
+	}
+
+	private static final long FIRST_ID = 1L;
+
+	private static final AtomicLong NEXT_FREE_ID = new AtomicLong(FIRST_ID);
+
+	private static final ThreadLocal<IdBlock> THREAD_BLOCK = new ThreadLocal<IdBlock>() {
+		@Override
+		protected IdBlock initialValue() {
+			return new IdBlock();
+		}
+	};
+
+	private static volatile Strategy strategy = Strategy.BLOCK;
+	private static volatile long blockSize = DEFAULT_BLOCK_SIZE;
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private CallIdGenerator() {
+	}
+
+	/**
+	 * Configures the strategy from the agent properties. Should be called
+	 * before any probe has been injected.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		Strategy newStrategy = Strategy.BLOCK;
+		long newBlockSize = DEFAULT_BLOCK_SIZE;
+		if (properties != null) {
+			String strategyValue = properties.getProperty(STRATEGY_KEY);
+			if (strategyValue != null) {
+				try {
+					newStrategy = Strategy.valueOf(strategyValue.trim().toUpperCase());
+				} catch (IllegalArgumentException e) {
+					LOGGER.warn("Invalid call id strategy {}. Using strategy {}.", strategyValue, newStrategy);
+				}
+			}
+			String blockSizeValue = properties.getProperty(BLOCK_SIZE_KEY);
+			if (blockSizeValue != null) {
+				try {
+					newBlockSize = Long.parseLong(blockSizeValue.trim());
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Invalid call id block size {}. Using default value {}.", blockSizeValue,
+							DEFAULT_BLOCK_SIZE);
+				}
+			}
+		}
+		configure(newStrategy, newBlockSize);
+	}
+
+	/**
+	 * Configures the strategy.
+	 * 
+	 * @param newStrategy
+	 *            strategy to use
+	 * @param newBlockSize
+	 *            number of ids a thread reserves at once, only used by the
+	 *            {@link Strategy#BLOCK} strategy
+	 */
+	public static void configure(Strategy newStrategy, long newBlockSize) {
+		blockSize = newStrategy == Strategy.THREAD_PREFIXED ? 1L << THREAD_PREFIX_SHIFT : Math.max(newBlockSize, 1L);
+		strategy = newStrategy;
+		LOGGER.debug("Using call id strategy {}", newStrategy);
+	}
+
+	/**
+	 * 
+	 * @return the configured strategy
+	 */
+	public static Strategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Returns a new call id which is unique within the JVM.
+	 * 
+	 * @return a new call id
+	 */
+	public static long nextId() {
+		if (strategy == Strategy.SHARED) {
+			return NEXT_FREE_ID.getAndIncrement();
+		}
+		IdBlock block = THREAD_BLOCK.get();
+		if (block.next >= block.limit) {
+			long size = blockSize;
+			block.next = NEXT_FREE_ID.getAndAdd(size);
+			block.limit = block.next + size;
+		}
+		return block.next++;
+	}
+
+	/**
+	 * Range of ids reserved by a single thread.
+	 */
+	private static final class IdBlock {
+		private long next;
+		private long limit;
+	}
+}
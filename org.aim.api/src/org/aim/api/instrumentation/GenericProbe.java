@@ -24,8 +24,6 @@ import org.aim.api.measurement.collector.IDataCollector;
  */
 public class GenericProbe {
 
-	private static volatile long callID = 1L;
-
 	@ProbeVariable
 	public long _GenericProbe_startTime;
 
@@ -38,6 +36,23 @@ public class GenericProbe {
 	@ProbeVariable
 	public long _GenericProbe_threadId;
 
+	/**
+	 * Weight of the current call, i.e. the inverse of the probability with
+	 * which the call has been sampled (see {@link AdaptiveSampler}).
+	 */
+	@ProbeVariable
+	public double _GenericProbe_samplingWeight;
+
+	/**
+	 * Start time and duration of the probe code of the current call, if it is
+	 * measured (see {@link InvocationStatistics}).
+	 */
+	@ProbeVariable
+	public long _GenericProbe_probeTimeStart;
+
+	@ProbeVariable
+	public long _GenericProbe_probeTime;
+
 	/**
 	 * Code for common before part.
 	 */
@@ -50,9 +65,10 @@ public class GenericProbe {
 
 	/**
 	 * 
-	 * @return a new call id
+	 * @return a new call id, which is unique within the JVM (see
+	 *         {@link CallIdGenerator})
 	 */
 	public static long getNewCallID() {
-		return callID++;
+		return CallIdGenerator.nextId();
 	}
 }
@@ -0,0 +1,261 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.instrumentation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the invocations of instrumented methods and measures the time spent
+ * in their probes. The time is measured only for every
+ * {@value #COST_SAMPLING_PERIOD}th invocation, thus, the statistics are cheap
+ * enough to be collected for every instrumented method.
+ * 
+ * The probes of a method call {@link #enter(int)} before and
+ * {@link #exit(int, long)} after the probe code with the id the method has
+ * been registered with (see {@link #register(String)}). Ids which are not
+ * registered (anymore), e.g. ids of probes woven before a {@link #reset()},
+ * are ignored.
+ * 
+ * The counters of a method are striped over several cache lines, the stripe
+ * is selected by the id of the calling thread. Thus, threads invoking the same
+ * hot method do not contend on a single counter. The stripes are summed up by
+ * {@link #snapshot()}.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class InvocationStatistics {
+	/**
+	 * Every n-th invocation of a method counted by a stripe is used to measure
+	 * the probe time. Must be a power of two.
+	 */
+	public static final int COST_SAMPLING_PERIOD = 128;
+
+	private static final long COST_SAMPLING_MASK = COST_SAMPLING_PERIOD - 1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private static final int MAX_STRIPES = 16;
+	private static final int NUM_STRIPES = computeNumStripes();
+	private static final int STRIPE_MASK = NUM_STRIPES - 1;
+
+	/**
+	 * Number of longs per stripe, a stripe fills a cache line of 64 bytes.
+	 */
+	private static final int STRIPE_LENGTH = 8;
+	private static final int CALLS = 0;
+	private static final int MEASURED_CALLS = 1;
+	private static final int PROBE_NANOS = 2;
+
+	private static final Map<String, Integer> IDS = new HashMap<>();
+	private static volatile MethodStatistics[] methods = new MethodStatistics[INITIAL_CAPACITY];
+	private static int numMethods = 0;
+	private static long epoch = 0L;
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private InvocationStatistics() {
+	}
+
+	private static int computeNumStripes() {
+		int processors = Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES);
+		int stripes = 1;
+		while (stripes < processors) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+
+	private static int stripeOffset() {
+		return ((int) Thread.currentThread().getId() & STRIPE_MASK) * STRIPE_LENGTH;
+	}
+
+	/**
+	 * Registers a method. A method which is registered again keeps its id and
+	 * statistics.
+	 * 
+	 * @param methodSignature
+	 *            signature of the instrumented method
+	 * @return the id to pass to {@link #enter(int)} and
+	 *         {@link #exit(int, long)}
+	 */
+	public static synchronized int register(String methodSignature) {
+		Integer id = IDS.get(methodSignature);
+		if (id != null) {
+			return id;
+		}
+		if (numMethods == methods.length) {
+			MethodStatistics[] newMethods = new MethodStatistics[methods.length * 2];
+			System.arraycopy(methods, 0, newMethods, 0, numMethods);
+			methods = newMethods;
+		}
+		int newId = numMethods;
+		methods[newId] = new MethodStatistics(methodSignature);
+		numMethods++;
+		IDS.put(methodSignature, newId);
+		return newId;
+	}
+
+	/**
+	 * Counts an invocation of the method with the given id.
+	 * 
+	 * @param id
+	 *            id of the method
+	 * @return the current value of {@link System#nanoTime()}, if the probe
+	 *         time of this invocation shall be measured, otherwise zero
+	 */
+	public static long enter(int id) {
+		MethodStatistics method = getMethod(id);
+		if (method != null
+				&& (method.counters.incrementAndGet(stripeOffset() + CALLS) & COST_SAMPLING_MASK) == 0) {
+			return System.nanoTime();
+		}
+		return 0L;
+	}
+
+	/**
+	 * Adds the time spent in the probes of a measured invocation.
+	 * 
+	 * @param id
+	 *            id of the method
+	 * @param probeNanos
+	 *            time spent in the probes in nanoseconds
+	 */
+	public static void exit(int id, long probeNanos) {
+		MethodStatistics method = getMethod(id);
+		if (method == null) {
+			return;
+		}
+		int offset = stripeOffset();
+		method.counters.addAndGet(offset + PROBE_NANOS, probeNanos);
+		method.counters.incrementAndGet(offset + MEASURED_CALLS);
+	}
+
+	private static MethodStatistics getMethod(int id) {
+		MethodStatistics[] currentMethods = methods;
+		if (id < 0 || id >= currentMethods.length) {
+			return null;
+		}
+		return currentMethods[id];
+	}
+
+	/**
+	 * Takes a snapshot of the statistics of all registered methods.
+	 * 
+	 * @return mapping from method signatures to their statistics
+	 */
+	public static synchronized Map<String, Snapshot> snapshot() {
+		Map<String, Snapshot> result = new HashMap<>();
+		for (int i = 0; i < numMethods; i++) {
+			MethodStatistics method = methods[i];
+			long calls = 0L;
+			long measuredCalls = 0L;
+			long probeNanos = 0L;
+			for (int offset = 0; offset < method.counters.length(); offset += STRIPE_LENGTH) {
+				calls += method.counters.get(offset + CALLS);
+				measuredCalls += method.counters.get(offset + MEASURED_CALLS);
+				probeNanos += method.counters.get(offset + PROBE_NANOS);
+			}
+			result.put(method.methodSignature, new Snapshot(calls, measuredCalls, probeNanos));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the epoch of the registered ids. The epoch changes whenever
+	 * {@link #reset()} discards registered ids, thus, bytecode woven with ids
+	 * of an older epoch must not be reused.
+	 * 
+	 * @return the current epoch
+	 */
+	public static synchronized long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Removes all registered methods.
+	 */
+	public static synchronized void reset() {
+		if (numMethods > 0) {
+			epoch++;
+		}
+		IDS.clear();
+		methods = new MethodStatistics[INITIAL_CAPACITY];
+		numMethods = 0;
+	}
+
+	/**
+	 * Statistics of a method at a point in time.
+	 */
+	public static final class Snapshot {
+		private final long calls;
+		private final long measuredCalls;
+		private final long probeNanos;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param calls
+		 *            number of invocations
+		 * @param measuredCalls
+		 *            number of invocations whose probe time has been measured
+		 * @param probeNanos
+		 *            total probe time of the measured invocations
+		 */
+		public Snapshot(long calls, long measuredCalls, long probeNanos) {
+			this.calls = calls;
+			this.measuredCalls = measuredCalls;
+			this.probeNanos = probeNanos;
+		}
+
+		/**
+		 * @return the number of invocations
+		 */
+		public long getCalls() {
+			return calls;
+		}
+
+		/**
+		 * @return the number of invocations whose probe time has been measured
+		 */
+		public long getMeasuredCalls() {
+			return measuredCalls;
+		}
+
+		/**
+		 * @return the total probe time of the measured invocations in
+		 *         nanoseconds
+		 */
+		public long getProbeNanos() {
+			return probeNanos;
+		}
+	}
+
+	/**
+	 * Striped counters of an instrumented method.
+	 */
+	private static final class MethodStatistics {
+		private final String methodSignature;
+		private final AtomicLongArray counters = new AtomicLongArray(NUM_STRIPES * STRIPE_LENGTH);
+
+		MethodStatistics(String methodSignature) {
+			this.methodSignature = methodSignature;
+		}
+	}
+}
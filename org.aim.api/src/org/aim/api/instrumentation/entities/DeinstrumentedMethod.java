@@ -0,0 +1,95 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.instrumentation.entities;
+
+/**
+ * Represents a method whose instrumentation has been reverted automatically
+ * because its probes exceeded the overhead budget.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public class DeinstrumentedMethod {
+	private String method;
+	private double callsPerSecond;
+	private double overhead;
+	private long timestamp;
+
+	/**
+	 * @return the method
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @param method
+	 *            the method to set
+	 */
+	public void setMethod(String method) {
+		this.method = method;
+	}
+
+	/**
+	 * @return the observed number of invocations per second
+	 */
+	public double getCallsPerSecond() {
+		return callsPerSecond;
+	}
+
+	/**
+	 * @param callsPerSecond
+	 *            the observed number of invocations per second to set
+	 */
+	public void setCallsPerSecond(double callsPerSecond) {
+		this.callsPerSecond = callsPerSecond;
+	}
+
+	/**
+	 * @return the estimated fraction of one CPU spent in the probes of the
+	 *         method
+	 */
+	public double getOverhead() {
+		return overhead;
+	}
+
+	/**
+	 * @param overhead
+	 *            the estimated fraction of one CPU spent in the probes of the
+	 *            method to set
+	 */
+	public void setOverhead(double overhead) {
+		this.overhead = overhead;
+	}
+
+	/**
+	 * @return the time in milliseconds when the instrumentation has been
+	 *         reverted
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @param timestamp
+	 *            the time in milliseconds when the instrumentation has been
+	 *            reverted
+	 */
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+}
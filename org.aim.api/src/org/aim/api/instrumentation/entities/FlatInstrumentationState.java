@@ -15,6 +15,7 @@
  */
 package org.aim.api.instrumentation.entities;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.xml.bind.annotation.XmlRootElement;
@@ -29,7 +30,8 @@ import org.codehaus.jackson.annotate.JsonIgnore;
  */
 @XmlRootElement
 public class FlatInstrumentationState {
-	private List<InstrumentationEntity> iEntities;
+	private List<InstrumentationEntity> iEntities = new ArrayList<>();
+	private List<DeinstrumentedMethod> deinstrumentedMethods = new ArrayList<>();
 
 	/**
 	 * @return the iEntity
@@ -62,4 +64,21 @@ public class FlatInstrumentationState {
 		iEntities.add(ie);
 	}
 
+	/**
+	 * @return the methods whose instrumentation has been reverted by the
+	 *         overhead guard
+	 */
+	public List<DeinstrumentedMethod> getDeinstrumentedMethods() {
+		return deinstrumentedMethods;
+	}
+
+	/**
+	 * @param deinstrumentedMethods
+	 *            the methods whose instrumentation has been reverted by the
+	 *            overhead guard
+	 */
+	public void setDeinstrumentedMethods(List<DeinstrumentedMethod> deinstrumentedMethods) {
+		this.deinstrumentedMethods = deinstrumentedMethods;
+	}
+
 }
@@ -18,14 +18,9 @@ package org.aim.api.measurement;
 import java.io.Serializable;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import javax.xml.bind.annotation.XmlAccessType;
@@ -49,10 +44,10 @@ public abstract class AbstractRecord implements Serializable {
 	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(AbstractRecord.class);
 
 	private static final long serialVersionUID = -4324134213075474222L;
-	private static final Map<Class<? extends AbstractRecord>, Field[]> fields = new HashMap<Class<? extends AbstractRecord>, Field[]>();
 	public static final String PAR_TIMESTAMP = "timeStamp";
 	public static final String PAR_CALL_ID = "callId";
 	public static final String PAR_PROCESS_ID = "processId";
+	public static final String PAR_SAMPLING_WEIGHT = "samplingWeight";
 
 	private static final String PROCESS_ID_CONSTANT = ManagementFactory.getRuntimeMXBean().getName();
 
@@ -65,16 +60,31 @@ public abstract class AbstractRecord implements Serializable {
 	@RecordValue(name = PAR_PROCESS_ID, metric = false)
 	String processId;
 
+	/**
+	 * Number of calls the record represents, i.e. the inverse of the
+	 * probability with which the call has been sampled. The weight is not a
+	 * {@link RecordValue} in order to keep the positional layout of the
+	 * string representation. Instead, the {@link RecordSerializer} appends it
+	 * as optional value, if it differs from 1.
+	 */
+	double samplingWeight = 1.0;
+
+	/**
+	 * Pool the record has been borrowed from, null if the record is not
+	 * pooled (see {@link RecordPool}).
+	 */
+	transient RecordPool.LocalPool pool;
+
+	/**
+	 * Link to the next record in a pool.
+	 */
+	transient AbstractRecord nextPooled;
+
 	/**
 	 * Public default constructor required for json realization.
 	 */
 	public AbstractRecord() {
 		setProcessId(PROCESS_ID_CONSTANT);
-		// TODO: remove if possible due to overhead during monitoring
-		for (Field field : getAllParameterFields()) {
-			field.setAccessible(true);
-		}
-
 	}
 
 	/**
@@ -112,15 +122,13 @@ public abstract class AbstractRecord implements Serializable {
 	 * @return string array representation of the record
 	 */
 	public String[] toStringArray() {
-		List<Object> list = toList();
-		String[] strArray = new String[list.size()];
-		int i = 0;
-		for (Object o : list) {
-			if (o instanceof String) {
-				o = ((String) o).replace(";", "#sc#");
-			}
-			strArray[i] = o.toString();
-			i++;
+		RecordSerializer serializer = getSerializer();
+		String[] strArray = new String[serializer.getFields().length];
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < strArray.length; i++) {
+			builder.setLength(0);
+			serializer.appendValue(this, i, builder);
+			strArray[i] = builder.toString();
 		}
 		return strArray;
 	}
@@ -140,16 +148,13 @@ public abstract class AbstractRecord implements Serializable {
 	 * @return Object list representation of the record
 	 */
 	public List<Object> toList() {
-		try {
-			List<Object> values = new ArrayList<Object>();
-			for (Field field : getAllParameterFields()) {
-				field.setAccessible(true);
-				values.add(field.get(this));
-			}
-			return values;
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+		RecordSerializer serializer = getSerializer();
+		int numFields = serializer.getFields().length;
+		List<Object> values = new ArrayList<Object>(numFields);
+		for (int i = 0; i < numFields; i++) {
+			values.add(serializer.getValue(this, i));
 		}
+		return values;
 	}
 
 	/**
@@ -159,16 +164,15 @@ public abstract class AbstractRecord implements Serializable {
 	 *            array of strings containing the values for the record
 	 */
 	public void fromStringArray(String[] array) {
-		Field[] fieldsArray = getAllParameterFields();
-		if (array.length < fieldsArray.length) {
+		RecordSerializer serializer = getSerializer();
+		int numFields = serializer.getFields().length;
+		if (array.length < numFields) {
 			throw new RuntimeException("Number of values does not match number of record fields!");
 		}
 
 		try {
-			for (int i = 0; i < fieldsArray.length; i++) {
-				Field field = fieldsArray[i];
-				field.setAccessible(true);
-				field.set(this, stringToType(array[i], field.getType()));
+			for (int i = 0; i < numFields; i++) {
+				serializer.parseValue(this, i, array[i]);
 			}
 		} catch (Exception e) {
 			LOGGER.error("Monitoring error. Reason: {}", e);
@@ -182,16 +186,15 @@ public abstract class AbstractRecord implements Serializable {
 	 *            list of string containing the values for the record
 	 */
 	public void fromStringList(List<String> list) {
-		Field[] fieldsArray = getAllParameterFields();
-		if (list.size() < fieldsArray.length) {
+		RecordSerializer serializer = getSerializer();
+		int numFields = serializer.getFields().length;
+		if (list.size() < numFields) {
 			throw new RuntimeException("Number of values does not match number of record fields!");
 		}
 
 		try {
-			for (int i = 0; i < fieldsArray.length; i++) {
-				Field field = fieldsArray[i];
-				field.setAccessible(true);
-				field.set(this, stringToType(list.get(i), field.getType()));
+			for (int i = 0; i < numFields; i++) {
+				serializer.parseValue(this, i, list.get(i));
 			}
 		} catch (Exception e) {
 			LOGGER.error("Monitoring error. Reason: {}", e);
@@ -206,16 +209,15 @@ public abstract class AbstractRecord implements Serializable {
 	 */
 	public void fromArray(Object[] array) {
 
-		Field[] fieldsArray = getAllParameterFields();
-		if (array.length < fieldsArray.length) {
+		RecordSerializer serializer = getSerializer();
+		int numFields = serializer.getFields().length;
+		if (array.length < numFields) {
 			throw new RuntimeException("Number of values does not match number of record fields!");
 		}
 
 		try {
-			for (int i = 0; i < fieldsArray.length; i++) {
-				Field field = fieldsArray[i];
-				field.setAccessible(true);
-				field.set(this, array[i]);
+			for (int i = 0; i < numFields; i++) {
+				serializer.setValue(this, i, array[i]);
 			}
 		} catch (Exception e) {
 			LOGGER.error("Monitoring error. Reason: {}", e);
@@ -229,16 +231,15 @@ public abstract class AbstractRecord implements Serializable {
 	 *            list of Objects containing the values for the record
 	 */
 	public void fromList(List<Object> list) {
-		Field[] fieldsArray = getAllParameterFields();
-		if (list.size() < fields.size()) {
+		RecordSerializer serializer = getSerializer();
+		int numFields = serializer.getFields().length;
+		if (list.size() < numFields) {
 			throw new RuntimeException("Number of values does not match number of record fields!");
 		}
 
 		try {
-			for (int i = 0; i < fields.size(); i++) {
-				Field field = fieldsArray[i];
-				field.setAccessible(true);
-				field.set(this, list.get(i));
+			for (int i = 0; i < numFields; i++) {
+				serializer.setValue(this, i, list.get(i));
 			}
 		} catch (Exception e) {
 			LOGGER.error("Monitoring error. Reason: {}", e);
@@ -252,30 +253,16 @@ public abstract class AbstractRecord implements Serializable {
 	 */
 	@JsonIgnore
 	public Field[] getAllParameterFields() {
-		if (!fields.containsKey(this.getClass())) {
-			List<Field> fieldList = new ArrayList<Field>();
-
-			Class<?> clazz = this.getClass();
-			while (!clazz.equals(Object.class)) {
-				for (Field field : clazz.getDeclaredFields()) {
-					if (field.isAnnotationPresent(RecordValue.class)) {
-						fieldList.add(field);
-					}
-				}
-				clazz = clazz.getSuperclass();
-			}
-
-			Collections.sort(fieldList, new Comparator<Field>() {
-
-				public int compare(Field o1, Field o2) {
-					return o1.getName().compareTo(o2.getName());
-				}
-			});
-			fields.put(this.getClass(), fieldList.toArray(new Field[0]));
-		}
-
-		return fields.get(this.getClass());
+		return getSerializer().getFields();
+	}
 
+	/**
+	 * Returns the serializer of this record type.
+	 * 
+	 * @return serializer for this record type
+	 */
+	private RecordSerializer getSerializer() {
+		return RecordSerializer.getSerializer(this.getClass());
 	}
 
 	/**
@@ -369,14 +356,12 @@ public abstract class AbstractRecord implements Serializable {
 	 */
 	@JsonIgnore
 	public List<Object> getNonMetricValues() {
+		RecordSerializer serializer = getSerializer();
+		Field[] fields = serializer.getFields();
 		List<Object> values = new ArrayList<Object>();
-		for (Field field : getAllParameterFields()) {
-			if (!field.getAnnotation(RecordValue.class).metric()) {
-				try {
-					values.add(field.get(this));
-				} catch (Exception e) {
-					throw new RuntimeException(e);
-				}
+		for (int i = 0; i < fields.length; i++) {
+			if (!fields[i].getAnnotation(RecordValue.class).metric()) {
+				values.add(serializer.getValue(this, i));
 			}
 		}
 		return values;
@@ -391,14 +376,12 @@ public abstract class AbstractRecord implements Serializable {
 	 */
 	@JsonIgnore
 	public List<Object> getMetricValues() {
+		RecordSerializer serializer = getSerializer();
+		Field[] fields = serializer.getFields();
 		List<Object> values = new ArrayList<Object>();
-		for (Field field : getAllParameterFields()) {
-			if (field.getAnnotation(RecordValue.class).metric()) {
-				try {
-					values.add(field.get(this));
-				} catch (Exception e) {
-					throw new RuntimeException(e);
-				}
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].getAnnotation(RecordValue.class).metric()) {
+				values.add(serializer.getValue(this, i));
 			}
 		}
 		return values;
@@ -414,16 +397,9 @@ public abstract class AbstractRecord implements Serializable {
 	 */
 	@JsonIgnore
 	public Object getValue(String fieldName) {
-		try {
-			for (Field field : getAllParameterFields()) {
-				if (field.getName().equals(fieldName)) {
-					return field.get(this);
-				}
-			}
-			return null;
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+		RecordSerializer serializer = getSerializer();
+		int index = serializer.indexOf(fieldName);
+		return index < 0 ? null : serializer.getValue(this, index);
 	}
 
 	/**
@@ -436,16 +412,9 @@ public abstract class AbstractRecord implements Serializable {
 	 */
 	@JsonIgnore
 	public Class<?> getType(String fieldName) {
-		try {
-			for (Field field : getAllParameterFields()) {
-				if (field.getName().equals(fieldName)) {
-					return field.getType();
-				}
-			}
-			return null;
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+		RecordSerializer serializer = getSerializer();
+		int index = serializer.indexOf(fieldName);
+		return index < 0 ? null : serializer.getFields()[index].getType();
 	}
 
 	/**
@@ -457,23 +426,21 @@ public abstract class AbstractRecord implements Serializable {
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		try {
-			for (Field field : getAllParameterFields()) {
-				if (field.getType().equals(String.class)) {
-					builder.append((field.get(this) != null) ? (field.get(this).toString().replace(";", "#sc#")) : (""));
-				} else {
-					builder.append((field.get(this) != null) ? (field.get(this).toString()) : (""));
-				}
-				builder.append(';');
-			}
-
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
-		builder.append(this.getClass().getCanonicalName());
+		appendTo(builder);
 		return builder.toString();
 	}
 
+	/**
+	 * Appends the string representation of the record (see
+	 * {@link #toString()}) to the given builder.
+	 * 
+	 * @param builder
+	 *            builder to append to
+	 */
+	public void appendTo(StringBuilder builder) {
+		getSerializer().appendTo(this, builder);
+	}
+
 	/**
 	 * Creates a specific record object from a string representation.
 	 * 
@@ -484,11 +451,7 @@ public abstract class AbstractRecord implements Serializable {
 	 */
 	public static AbstractRecord fromString(String stringRep) {
 		try {
-			String className = stringRep.substring(stringRep.lastIndexOf(';') + 1, stringRep.length());
-			String[] values = stringRep.substring(0, stringRep.lastIndexOf(';')).split(";");
-			AbstractRecord record = (AbstractRecord) Class.forName(className).newInstance();
-			record.fromStringArray(values);
-			return record;
+			return RecordSerializer.fromString(stringRep);
 		} catch (Exception e) {
 			LOGGER.warn("Failed creating record from string, reason: {}", e);
 			return null;
@@ -504,52 +467,12 @@ public abstract class AbstractRecord implements Serializable {
 	 */
 	public void relativiseTimestamps(long relativiseAgainst) {
 		try {
-			for (Field field : getAllParameterFields()) {
-				if (field.getAnnotation(RecordValue.class).isTimestamp()) {
-					long newTimestamp = field.getLong(this) - relativiseAgainst;
-					field.set(this, newTimestamp);
-				}
-			}
+			getSerializer().relativiseTimestamps(this, relativiseAgainst);
 		} catch (Exception e) {
 			LOGGER.error("Monitoring error. Reason: {}", e);
 		}
 	}
 
-	/**
-	 * Creates an object of given type from a string
-	 * 
-	 * @param str
-	 *            string to be parsed
-	 * @param type
-	 *            type of interest
-	 * @return an object of the passed type for the passed string
-	 */
-	private Object stringToType(String str, Type type) {
-		if (type instanceof Class) {
-			String typeName = ((Class<?>) type).getSimpleName();
-
-			if (typeName.equalsIgnoreCase("int") || typeName.equalsIgnoreCase("integer")) {
-				return Integer.parseInt(str);
-			} else if (typeName.equalsIgnoreCase("long")) {
-				return Long.parseLong(str);
-			} else if (typeName.equalsIgnoreCase("short")) {
-				return Short.parseShort(str);
-			} else if (typeName.equalsIgnoreCase("byte")) {
-				return Byte.parseByte(str);
-			} else if (typeName.equalsIgnoreCase("char") || typeName.equalsIgnoreCase("character")) {
-				return new Character(str.charAt(0));
-			} else if (typeName.equalsIgnoreCase("double")) {
-				return Double.parseDouble(str);
-			} else if (typeName.equalsIgnoreCase("string")) {
-				return str.replace("#sc#", ";");
-			} else if (typeName.equalsIgnoreCase("boolean")) {
-				return Boolean.parseBoolean(str);
-			}
-		}
-		LOGGER.error("Monitoring error. Invalid value type of a record parameter!");
-		return null;
-	}
-
 	/**
 	 * @return the callId
 	 */
@@ -565,6 +488,22 @@ public abstract class AbstractRecord implements Serializable {
 		this.callId = callId;
 	}
 
+	/**
+	 * @return the sampling weight, i.e. the number of calls the record
+	 *         represents
+	 */
+	public double getSamplingWeight() {
+		return samplingWeight;
+	}
+
+	/**
+	 * @param samplingWeight
+	 *            the sampling weight to set
+	 */
+	public void setSamplingWeight(double samplingWeight) {
+		this.samplingWeight = samplingWeight;
+	}
+
 	/**
 	 * @return the processId
 	 */
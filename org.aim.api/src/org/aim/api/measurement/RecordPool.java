@@ -0,0 +1,244 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * Opt-in pool for record objects. Probes borrow records from a pool of the
+ * current thread and data sources return the records after they have been
+ * serialized (see
+ * {@link org.aim.api.measurement.collector.AbstractDataSource#releasesRecords()}
+ * ). Thus, in a steady state probes do not allocate any records.
+ * 
+ * Records are returned from the writer thread while the owning thread
+ * borrows them. The returned records are linked in a lock-free stack which
+ * is taken over as a whole by the owning thread, so borrowing a record does
+ * not require any synchronization in most cases and the pool does not
+ * allocate any nodes.
+ * 
+ * Records are not reset when they are reused, thus, probes have to set all
+ * values of a borrowed record. If pooling is disabled (default),
+ * {@link #acquire(Class)} simply creates a new record.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class RecordPool {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(RecordPool.class);
+
+	/**
+	 * Property key for enabling record pooling.
+	 */
+	public static final String ENABLED_KEY = "org.aim.recordPool.enabled";
+
+	/**
+	 * Property key for the maximum number of pooled records per thread and
+	 * record type.
+	 */
+	public static final String CAPACITY_KEY = "org.aim.recordPool.capacity";
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private static volatile boolean enabled = false;
+	private static volatile int capacity = DEFAULT_CAPACITY;
+
+	private static final ClassValue<TypePool> TYPE_POOLS = new ClassValue<TypePool>() {
+		@Override
+		protected TypePool computeValue(Class<?> type) {
+			return new TypePool(RecordSerializer.getSerializer(type.asSubclass(AbstractRecord.class)));
+		}
+	};
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private RecordPool() {
+	}
+
+	/**
+	 * Configures pooling from the agent properties.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		boolean newEnabled = false;
+		int newCapacity = DEFAULT_CAPACITY;
+		if (properties != null) {
+			newEnabled = Boolean.parseBoolean(properties.getProperty(ENABLED_KEY, "false").trim());
+			String capacityValue = properties.getProperty(CAPACITY_KEY);
+			if (capacityValue != null) {
+				try {
+					newCapacity = Integer.parseInt(capacityValue.trim());
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Invalid record pool capacity {}. Using default value {}.", capacityValue,
+							DEFAULT_CAPACITY);
+				}
+			}
+		}
+		configure(newEnabled, newCapacity);
+	}
+
+	/**
+	 * Configures pooling.
+	 * 
+	 * @param poolingEnabled
+	 *            true, if records shall be pooled
+	 * @param poolCapacity
+	 *            maximum number of pooled records per thread and record type
+	 */
+	public static void configure(boolean poolingEnabled, int poolCapacity) {
+		capacity = Math.max(poolCapacity, 1);
+		enabled = poolingEnabled;
+		if (poolingEnabled) {
+			LOGGER.debug("Record pooling enabled with capacity {}", capacity);
+		}
+	}
+
+	/**
+	 * 
+	 * @return true, if records are pooled
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Borrows a record of the given type from the pool of the current thread.
+	 * Creates a new record if the pool is empty or pooling is disabled. The
+	 * record is created without reflection (see
+	 * {@link RecordSerializer#newRecord()}).
+	 * 
+	 * @param type
+	 *            record type with a default constructor
+	 * @return a record of the given type, values of a reused record are not
+	 *         reset
+	 */
+	public static AbstractRecord acquire(Class<? extends AbstractRecord> type) {
+		TypePool typePool = TYPE_POOLS.get(type);
+		if (!enabled) {
+			return typePool.serializer.newRecord();
+		}
+		LocalPool localPool = typePool.localPools.get();
+		AbstractRecord record = localPool.poll();
+		if (record == null) {
+			record = typePool.serializer.newRecord();
+		}
+		record.pool = localPool;
+		return record;
+	}
+
+	/**
+	 * Returns a record to the pool it has been borrowed from. The record must
+	 * not be used afterwards. Records which have not been borrowed from a pool
+	 * are ignored.
+	 * 
+	 * @param record
+	 *            record to return
+	 */
+	public static void release(AbstractRecord record) {
+		LocalPool localPool = record.pool;
+		if (localPool != null) {
+			record.pool = null;
+			localPool.push(record);
+		}
+	}
+
+	/**
+	 * Returns all records of the list to their pools.
+	 * 
+	 * @param records
+	 *            records to return
+	 */
+	public static void releaseAll(List<AbstractRecord> records) {
+		for (AbstractRecord record : records) {
+			release(record);
+		}
+	}
+
+	/**
+	 * Pools of a single record type.
+	 */
+	private static final class TypePool {
+		private final RecordSerializer serializer;
+		private final ThreadLocal<LocalPool> localPools = new ThreadLocal<LocalPool>() {
+			@Override
+			protected LocalPool initialValue() {
+				return new LocalPool();
+			}
+		};
+
+		private TypePool(RecordSerializer serializer) {
+			this.serializer = serializer;
+		}
+	}
+
+	/**
+	 * Pool of a single thread and record type.
+	 */
+	static final class LocalPool {
+		/**
+		 * Records returned by other threads.
+		 */
+		private final AtomicReference<AbstractRecord> returned = new AtomicReference<AbstractRecord>();
+		private final AtomicInteger returnedCount = new AtomicInteger();
+
+		/**
+		 * Records taken over by the owning thread, only accessed by the owning
+		 * thread.
+		 */
+		private AbstractRecord available;
+
+		private AbstractRecord poll() {
+			if (available == null) {
+				available = returned.getAndSet(null);
+				int taken = 0;
+				for (AbstractRecord record = available; record != null; record = record.nextPooled) {
+					taken++;
+				}
+				if (taken > 0) {
+					returnedCount.addAndGet(-taken);
+				}
+			}
+			AbstractRecord record = available;
+			if (record != null) {
+				available = record.nextPooled;
+				record.nextPooled = null;
+			}
+			return record;
+		}
+
+		private void push(AbstractRecord record) {
+			if (returnedCount.get() >= capacity) {
+				// pool is full, leave the record to the garbage collector
+				return;
+			}
+			AbstractRecord head;
+			do {
+				head = returned.get();
+				record.nextPooled = head;
+			} while (!returned.compareAndSet(head, record));
+			returnedCount.incrementAndGet();
+		}
+	}
+}
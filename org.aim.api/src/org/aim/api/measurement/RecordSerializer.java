@@ -0,0 +1,766 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serializer for a specific record type. The serializer is created on first
+ * use of a record type and binds typed method handles to all record fields
+ * annotated with {@link RecordValue}. Thus, records are written to and parsed
+ * from their string representation without reflective field access and
+ * without boxing of primitive values.
+ *
+ * The string representation consists of all record values in the order of
+ * their field names, separated by a semicolon, followed by the canonical name
+ * of the record class. The sampling weight of a record (see
+ * {@link AbstractRecord#getSamplingWeight()}) is not a record value. It is
+ * inserted as additional value before the class name only if it differs from
+ * 1, thus, records of unsampled calls keep the layout they had before.
+ * Semicolons in string values are escaped by {@link #SEMICOLON_ESCAPE}.
+ *
+ * @author Alexander Wert
+ *
+ */
+public final class RecordSerializer {
+	public static final char VALUE_SEPARATOR = ';';
+	public static final String SEMICOLON_ESCAPE = "#sc#";
+
+	private static final Map<Class<? extends AbstractRecord>, RecordSerializer> SERIALIZERS = new ConcurrentHashMap<>();
+	private static final Map<String, RecordSerializer> SERIALIZERS_BY_NAME = new ConcurrentHashMap<>();
+
+	private final Class<? extends AbstractRecord> recordType;
+	private final String recordTypeName;
+	private final Field[] fields;
+	private final FieldAccessor[] accessors;
+	private final Map<String, Integer> fieldIndices;
+	private final MethodHandle constructor;
+
+	/**
+	 * Returns the serializer for the given record type. The serializer is
+	 * created if it does not exist, yet.
+	 *
+	 * @param recordType
+	 *            type of the record
+	 * @return serializer for the record type
+	 */
+	public static RecordSerializer getSerializer(Class<? extends AbstractRecord> recordType) {
+		RecordSerializer serializer = SERIALIZERS.get(recordType);
+		if (serializer == null) {
+			serializer = new RecordSerializer(recordType);
+			SERIALIZERS.put(recordType, serializer);
+		}
+		return serializer;
+	}
+
+	/**
+	 * Returns the serializer for the record type with the given canonical
+	 * name.
+	 *
+	 * @param recordTypeName
+	 *            canonical name of the record type
+	 * @return serializer for the record type
+	 * @throws ClassNotFoundException
+	 *             if the record type cannot be loaded
+	 */
+	public static RecordSerializer getSerializer(String recordTypeName) throws ClassNotFoundException {
+		RecordSerializer serializer = SERIALIZERS_BY_NAME.get(recordTypeName);
+		if (serializer == null) {
+			serializer = getSerializer(Class.forName(recordTypeName).asSubclass(AbstractRecord.class));
+			SERIALIZERS_BY_NAME.put(recordTypeName, serializer);
+		}
+		return serializer;
+	}
+
+	private RecordSerializer(Class<? extends AbstractRecord> recordType) {
+		this.recordType = recordType;
+		this.recordTypeName = recordType.getCanonicalName();
+
+		List<Field> fieldList = new ArrayList<Field>();
+		Class<?> clazz = recordType;
+		while (!clazz.equals(Object.class)) {
+			for (Field field : clazz.getDeclaredFields()) {
+				if (field.isAnnotationPresent(RecordValue.class)) {
+					fieldList.add(field);
+				}
+			}
+			clazz = clazz.getSuperclass();
+		}
+
+		Collections.sort(fieldList, new Comparator<Field>() {
+
+			public int compare(Field o1, Field o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		fields = fieldList.toArray(new Field[0]);
+		accessors = new FieldAccessor[fields.length];
+		fieldIndices = new HashMap<String, Integer>();
+		try {
+			for (int i = 0; i < fields.length; i++) {
+				fields[i].setAccessible(true);
+				accessors[i] = createAccessor(lookup, fields[i]);
+				fieldIndices.put(fields[i].getName(), i);
+			}
+			constructor = createConstructor(lookup, recordType);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Cannot access fields of record type " + recordTypeName, e);
+		}
+	}
+
+	private static MethodHandle createConstructor(MethodHandles.Lookup lookup, Class<? extends AbstractRecord> recordType)
+			throws IllegalAccessException {
+		if (Modifier.isAbstract(recordType.getModifiers())) {
+			return null;
+		}
+		try {
+			Constructor<? extends AbstractRecord> defaultConstructor = recordType.getDeclaredConstructor();
+			defaultConstructor.setAccessible(true);
+			return lookup.unreflectConstructor(defaultConstructor).asType(MethodType.methodType(AbstractRecord.class));
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static FieldAccessor createAccessor(MethodHandles.Lookup lookup, Field field) throws IllegalAccessException {
+		Class<?> type = field.getType();
+		MethodHandle getter = lookup.unreflectGetter(field);
+		MethodHandle setter = lookup.unreflectSetter(field);
+		getter = getter.asType(MethodType.methodType(type, AbstractRecord.class));
+		setter = setter.asType(MethodType.methodType(void.class, AbstractRecord.class, type));
+		if (type.equals(long.class)) {
+			return new LongAccessor(getter, setter);
+		} else if (type.equals(int.class)) {
+			return new IntAccessor(getter, setter);
+		} else if (type.equals(double.class)) {
+			return new DoubleAccessor(getter, setter);
+		} else if (type.equals(boolean.class)) {
+			return new BooleanAccessor(getter, setter);
+		} else if (type.equals(String.class)) {
+			return new StringAccessor(getter, setter);
+		}
+		return new ObjectAccessor(getter, setter, type);
+	}
+
+	/**
+	 * @return the record type handled by this serializer
+	 */
+	public Class<? extends AbstractRecord> getRecordType() {
+		return recordType;
+	}
+
+	/**
+	 * @return all record fields sorted by their name
+	 */
+	public Field[] getFields() {
+		return fields;
+	}
+
+	/**
+	 * Returns the index of the field with the given name.
+	 *
+	 * @param fieldName
+	 *            name of the field
+	 * @return index of the field or -1 if the record type does not have such
+	 *         a field
+	 */
+	public int indexOf(String fieldName) {
+		Integer index = fieldIndices.get(fieldName);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Creates a new, empty record of the type handled by this serializer.
+	 *
+	 * @return new record
+	 */
+	public AbstractRecord newRecord() {
+		if (constructor == null) {
+			throw new IllegalStateException("Record type " + recordTypeName + " has no default constructor!");
+		}
+		try {
+			return (AbstractRecord) constructor.invokeExact();
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the value of the field with the given index.
+	 *
+	 * @param record
+	 *            record to read from
+	 * @param index
+	 *            index of the field
+	 * @return (boxed) value of the field
+	 */
+	public Object getValue(AbstractRecord record, int index) {
+		return accessors[index].get(record);
+	}
+
+	/**
+	 * Sets the value of the field with the given index.
+	 *
+	 * @param record
+	 *            record to write to
+	 * @param index
+	 *            index of the field
+	 * @param value
+	 *            new (boxed) value
+	 */
+	public void setValue(AbstractRecord record, int index, Object value) {
+		accessors[index].set(record, value);
+	}
+
+	/**
+	 * Parses the given string and sets the value of the field with the given
+	 * index.
+	 *
+	 * @param record
+	 *            record to write to
+	 * @param index
+	 *            index of the field
+	 * @param value
+	 *            string representation of the value
+	 */
+	public void parseValue(AbstractRecord record, int index, String value) {
+		accessors[index].parse(record, value);
+	}
+
+	/**
+	 * Returns the value of the long field with the given index.
+	 *
+	 * @param record
+	 *            record to read from
+	 * @param index
+	 *            index of the field
+	 * @return value of the field
+	 */
+	public long getLong(AbstractRecord record, int index) {
+		return ((LongAccessor) accessors[index]).getLong(record);
+	}
+
+	/**
+	 * Sets the value of the long field with the given index.
+	 *
+	 * @param record
+	 *            record to write to
+	 * @param index
+	 *            index of the field
+	 * @param value
+	 *            new value
+	 */
+	public void setLong(AbstractRecord record, int index, long value) {
+		((LongAccessor) accessors[index]).setLong(record, value);
+	}
+
+	/**
+	 * Returns the value of the int field with the given index.
+	 *
+	 * @param record
+	 *            record to read from
+	 * @param index
+	 *            index of the field
+	 * @return value of the field
+	 */
+	public int getInt(AbstractRecord record, int index) {
+		return ((IntAccessor) accessors[index]).getInt(record);
+	}
+
+	/**
+	 * Sets the value of the int field with the given index.
+	 *
+	 * @param record
+	 *            record to write to
+	 * @param index
+	 *            index of the field
+	 * @param value
+	 *            new value
+	 */
+	public void setInt(AbstractRecord record, int index, int value) {
+		((IntAccessor) accessors[index]).setInt(record, value);
+	}
+
+	/**
+	 * Returns the value of the double field with the given index.
+	 *
+	 * @param record
+	 *            record to read from
+	 * @param index
+	 *            index of the field
+	 * @return value of the field
+	 */
+	public double getDouble(AbstractRecord record, int index) {
+		return ((DoubleAccessor) accessors[index]).getDouble(record);
+	}
+
+	/**
+	 * Sets the value of the double field with the given index.
+	 *
+	 * @param record
+	 *            record to write to
+	 * @param index
+	 *            index of the field
+	 * @param value
+	 *            new value
+	 */
+	public void setDouble(AbstractRecord record, int index, double value) {
+		((DoubleAccessor) accessors[index]).setDouble(record, value);
+	}
+
+	/**
+	 * Returns the value of the boolean field with the given index.
+	 *
+	 * @param record
+	 *            record to read from
+	 * @param index
+	 *            index of the field
+	 * @return value of the field
+	 */
+	public boolean getBoolean(AbstractRecord record, int index) {
+		return ((BooleanAccessor) accessors[index]).getBoolean(record);
+	}
+
+	/**
+	 * Sets the value of the boolean field with the given index.
+	 *
+	 * @param record
+	 *            record to write to
+	 * @param index
+	 *            index of the field
+	 * @param value
+	 *            new value
+	 */
+	public void setBoolean(AbstractRecord record, int index, boolean value) {
+		((BooleanAccessor) accessors[index]).setBoolean(record, value);
+	}
+
+	/**
+	 * Returns the (unescaped) value of the String field with the given index.
+	 *
+	 * @param record
+	 *            record to read from
+	 * @param index
+	 *            index of the field
+	 * @return value of the field
+	 */
+	public String getString(AbstractRecord record, int index) {
+		return ((StringAccessor) accessors[index]).getString(record);
+	}
+
+	/**
+	 * Sets the value of the String field with the given index.
+	 *
+	 * @param record
+	 *            record to write to
+	 * @param index
+	 *            index of the field
+	 * @param value
+	 *            new value
+	 */
+	public void setString(AbstractRecord record, int index, String value) {
+		((StringAccessor) accessors[index]).setString(record, value);
+	}
+
+	/**
+	 * Appends the value of the field with the given index to the builder.
+	 * String values are escaped.
+	 *
+	 * @param record
+	 *            record to read from
+	 * @param index
+	 *            index of the field
+	 * @param builder
+	 *            builder to append to
+	 */
+	public void appendValue(AbstractRecord record, int index, StringBuilder builder) {
+		accessors[index].append(record, builder);
+	}
+
+	/**
+	 * Appends the string representation of the record to the builder.
+	 *
+	 * @param record
+	 *            record to serialize
+	 * @param builder
+	 *            builder to append to
+	 */
+	public void appendTo(AbstractRecord record, StringBuilder builder) {
+		for (FieldAccessor accessor : accessors) {
+			accessor.append(record, builder);
+			builder.append(VALUE_SEPARATOR);
+		}
+		if (record.samplingWeight != 1.0) {
+			builder.append(record.samplingWeight);
+			builder.append(VALUE_SEPARATOR);
+		}
+		builder.append(recordTypeName);
+	}
+
+	/**
+	 * Fills the record from the values of the given string representation.
+	 * The record type name at the end of the string representation is
+	 * ignored. An additional value after the record values is parsed as
+	 * sampling weight.
+	 *
+	 * @param record
+	 *            record to fill
+	 * @param stringRep
+	 *            string representation of the record
+	 */
+	public void parseInto(AbstractRecord record, String stringRep) {
+		int end = stringRep.lastIndexOf(VALUE_SEPARATOR);
+		int start = 0;
+		for (int i = 0; i < accessors.length; i++) {
+			if (start > end) {
+				throw new IllegalArgumentException("Number of values does not match number of record fields!");
+			}
+			int next = stringRep.indexOf(VALUE_SEPARATOR, start);
+			accessors[i].parse(record, stringRep.substring(start, next));
+			start = next + 1;
+		}
+		if (start < end) {
+			record.samplingWeight = Double.parseDouble(stringRep.substring(start, end));
+		} else {
+			record.samplingWeight = 1.0;
+		}
+	}
+
+	/**
+	 * Creates a record from its string representation.
+	 *
+	 * @param stringRep
+	 *            string representation of the record
+	 * @return new record
+	 * @throws ClassNotFoundException
+	 *             if the record type cannot be loaded
+	 */
+	public static AbstractRecord fromString(String stringRep) throws ClassNotFoundException {
+		String typeName = stringRep.substring(stringRep.lastIndexOf(VALUE_SEPARATOR) + 1, stringRep.length());
+		RecordSerializer serializer = getSerializer(typeName);
+		AbstractRecord record = serializer.newRecord();
+		serializer.parseInto(record, stringRep);
+		return record;
+	}
+
+	/**
+	 * Relativises all timestamp fields of the record.
+	 *
+	 * @param record
+	 *            record to modify
+	 * @param relativiseAgainst
+	 *            timestamp to relativise against
+	 */
+	public void relativiseTimestamps(AbstractRecord record, long relativiseAgainst) {
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].getAnnotation(RecordValue.class).isTimestamp() && accessors[i] instanceof LongAccessor) {
+				LongAccessor accessor = (LongAccessor) accessors[i];
+				accessor.setLong(record, accessor.getLong(record) - relativiseAgainst);
+			}
+		}
+	}
+
+	/**
+	 * Escapes semicolons in the given string and appends it to the builder.
+	 *
+	 * @param value
+	 *            string to append
+	 * @param builder
+	 *            builder to append to
+	 */
+	static void appendEscaped(String value, StringBuilder builder) {
+		if (value.indexOf(VALUE_SEPARATOR) < 0) {
+			builder.append(value);
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == VALUE_SEPARATOR) {
+				builder.append(SEMICOLON_ESCAPE);
+			} else {
+				builder.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Reverts the escaping of {@link #appendEscaped(String, StringBuilder)}.
+	 *
+	 * @param value
+	 *            escaped string
+	 * @return unescaped string
+	 */
+	static String unescape(String value) {
+		if (value.indexOf(SEMICOLON_ESCAPE) < 0) {
+			return value;
+		}
+		return value.replace(SEMICOLON_ESCAPE, String.valueOf(VALUE_SEPARATOR));
+	}
+
+	/**
+	 * Typed access to a single record field.
+	 */
+	private abstract static class FieldAccessor {
+		protected final MethodHandle getter;
+		protected final MethodHandle setter;
+
+		FieldAccessor(MethodHandle getter, MethodHandle setter) {
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		Object get(AbstractRecord record) {
+			try {
+				return getter.invoke(record);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		void set(AbstractRecord record, Object value) {
+			try {
+				setter.invoke(record, value);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		abstract void append(AbstractRecord record, StringBuilder builder);
+
+		abstract void parse(AbstractRecord record, String value);
+	}
+
+	private static final class LongAccessor extends FieldAccessor {
+		LongAccessor(MethodHandle getter, MethodHandle setter) {
+			super(getter, setter);
+		}
+
+		long getLong(AbstractRecord record) {
+			try {
+				return (long) getter.invokeExact(record);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		void setLong(AbstractRecord record, long value) {
+			try {
+				setter.invokeExact(record, value);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		void append(AbstractRecord record, StringBuilder builder) {
+			builder.append(getLong(record));
+		}
+
+		@Override
+		void parse(AbstractRecord record, String value) {
+			setLong(record, Long.parseLong(value));
+		}
+	}
+
+	private static final class IntAccessor extends FieldAccessor {
+		IntAccessor(MethodHandle getter, MethodHandle setter) {
+			super(getter, setter);
+		}
+
+		int getInt(AbstractRecord record) {
+			try {
+				return (int) getter.invokeExact(record);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		void setInt(AbstractRecord record, int value) {
+			try {
+				setter.invokeExact(record, value);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		void append(AbstractRecord record, StringBuilder builder) {
+			builder.append(getInt(record));
+		}
+
+		@Override
+		void parse(AbstractRecord record, String value) {
+			setInt(record, Integer.parseInt(value));
+		}
+	}
+
+	private static final class DoubleAccessor extends FieldAccessor {
+		DoubleAccessor(MethodHandle getter, MethodHandle setter) {
+			super(getter, setter);
+		}
+
+		double getDouble(AbstractRecord record) {
+			try {
+				return (double) getter.invokeExact(record);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		void setDouble(AbstractRecord record, double value) {
+			try {
+				setter.invokeExact(record, value);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		void append(AbstractRecord record, StringBuilder builder) {
+			builder.append(getDouble(record));
+		}
+
+		@Override
+		void parse(AbstractRecord record, String value) {
+			setDouble(record, Double.parseDouble(value));
+		}
+	}
+
+	private static final class BooleanAccessor extends FieldAccessor {
+		BooleanAccessor(MethodHandle getter, MethodHandle setter) {
+			super(getter, setter);
+		}
+
+		boolean getBoolean(AbstractRecord record) {
+			try {
+				return (boolean) getter.invokeExact(record);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		void setBoolean(AbstractRecord record, boolean value) {
+			try {
+				setter.invokeExact(record, value);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		void append(AbstractRecord record, StringBuilder builder) {
+			builder.append(getBoolean(record));
+		}
+
+		@Override
+		void parse(AbstractRecord record, String value) {
+			setBoolean(record, Boolean.parseBoolean(value));
+		}
+	}
+
+	private static final class StringAccessor extends FieldAccessor {
+		StringAccessor(MethodHandle getter, MethodHandle setter) {
+			super(getter, setter);
+		}
+
+		String getString(AbstractRecord record) {
+			try {
+				return (String) getter.invokeExact(record);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		void setString(AbstractRecord record, String value) {
+			try {
+				setter.invokeExact(record, value);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		void append(AbstractRecord record, StringBuilder builder) {
+			String value = getString(record);
+			if (value != null) {
+				appendEscaped(value, builder);
+			}
+		}
+
+		@Override
+		void parse(AbstractRecord record, String value) {
+			setString(record, unescape(value));
+		}
+	}
+
+	/**
+	 * Fallback for all remaining field types. Values are boxed.
+	 */
+	private static final class ObjectAccessor extends FieldAccessor {
+		private final Class<?> type;
+
+		ObjectAccessor(MethodHandle getter, MethodHandle setter, Class<?> type) {
+			super(getter, setter);
+			this.type = type;
+		}
+
+		@Override
+		void append(AbstractRecord record, StringBuilder builder) {
+			Object value = get(record);
+			if (value != null) {
+				builder.append(value.toString());
+			}
+		}
+
+		@Override
+		void parse(AbstractRecord record, String value) {
+			set(record, parseObject(value, type));
+		}
+
+		private static Object parseObject(String str, Class<?> type) {
+			if (type.equals(Integer.class)) {
+				return Integer.parseInt(str);
+			} else if (type.equals(Long.class)) {
+				return Long.parseLong(str);
+			} else if (type.equals(short.class) || type.equals(Short.class)) {
+				return Short.parseShort(str);
+			} else if (type.equals(byte.class) || type.equals(Byte.class)) {
+				return Byte.parseByte(str);
+			} else if (type.equals(char.class) || type.equals(Character.class)) {
+				return Character.valueOf(str.charAt(0));
+			} else if (type.equals(Double.class)) {
+				return Double.parseDouble(str);
+			} else if (type.equals(Boolean.class)) {
+				return Boolean.parseBoolean(str);
+			}
+			throw new IllegalArgumentException("Invalid value type of a record parameter: " + type.getName());
+		}
+	}
+}
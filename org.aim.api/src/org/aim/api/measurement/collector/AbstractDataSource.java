@@ -15,13 +15,20 @@
  */
 package org.aim.api.measurement.collector;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.aim.api.exceptions.MeasurementException;
 import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.RecordPool;
 import org.aim.logging.AIMLogger;
 import org.aim.logging.AIMLoggerFactory;
 import org.lpe.common.util.system.LpeSystemUtils;
@@ -30,6 +37,11 @@ import org.lpe.common.util.system.LpeSystemUtils;
  * The abstract {@link Datacollector} should be the super-class for all data
  * collectors.
  * 
+ * Records are passed from the producer threads to the drain thread either via
+ * a shared unbounded queue (default) or via bounded per-thread ring buffers
+ * (see {@link #PIPE_MODE_KEY}). In ring buffer mode the records of different
+ * threads are not strictly ordered by their arrival time.
+ * 
  * @author Alexander Wert
  * 
  */
@@ -38,16 +50,75 @@ public abstract class AbstractDataSource implements IDataCollector, IDataReader,
 	protected static final int BUFFER_SIZE = 1024;
 	private static final long MILLISECONDS_TO_WAIT = 500;
 
-	private boolean finished;
+	/**
+	 * Property key for the pipe mode. Valid values are
+	 * {@link #PIPE_MODE_QUEUE} and {@link #PIPE_MODE_RING_BUFFER}.
+	 */
+	public static final String PIPE_MODE_KEY = "org.aim.collector.pipeMode";
+	public static final String PIPE_MODE_QUEUE = "queue";
+	public static final String PIPE_MODE_RING_BUFFER = "ringBuffer";
+
+	/**
+	 * Property key for the capacity of a single per-thread ring buffer.
+	 */
+	public static final String RING_BUFFER_CAPACITY_KEY = "org.aim.collector.ringBuffer.capacity";
+
+	/**
+	 * Property key for the {@link OverflowPolicy} of the per-thread ring
+	 * buffers.
+	 */
+	public static final String OVERFLOW_POLICY_KEY = "org.aim.collector.ringBuffer.overflowPolicy";
+
+	/**
+	 * Property keys for the lower and upper bound of the adaptive batch size
+	 * used by the drain thread.
+	 */
+	public static final String MIN_BATCH_SIZE_KEY = "org.aim.collector.batch.minSize";
+	public static final String MAX_BATCH_SIZE_KEY = "org.aim.collector.batch.maxSize";
+
+	public static final int DEFAULT_RING_BUFFER_CAPACITY = 4096;
+	public static final int DEFAULT_MIN_BATCH_SIZE = 16;
+	public static final int DEFAULT_MAX_BATCH_SIZE = 4096;
+	private static final int BATCH_SHRINK_THRESHOLD = 4;
+	private static final long IDLE_PARK_NANOS = 1000000L;
+	private static final long BLOCK_PARK_NANOS = 10000L;
+
+	private volatile boolean finished;
 
 	private static AbstractDataSource dataSource;
-	private boolean enabled = false;
+	private volatile boolean enabled = false;
 
 	/**
 	 * Pipe for colelcted records.
 	 */
 	protected final BlockingQueue<AbstractRecord> records = new LinkedBlockingQueue<AbstractRecord>();
 
+	private boolean ringBufferMode = false;
+	private int ringBufferCapacity = DEFAULT_RING_BUFFER_CAPACITY;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+	private int minBatchSize = DEFAULT_MIN_BATCH_SIZE;
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private int drainRound = 0;
+
+	/**
+	 * Ring buffers of all producer threads, harvested by the drain thread.
+	 */
+	private final List<RecordRingBuffer> ringBuffers = new CopyOnWriteArrayList<RecordRingBuffer>();
+
+	private final ThreadLocal<RecordRingBuffer> localRingBuffer = new ThreadLocal<RecordRingBuffer>() {
+		@Override
+		protected RecordRingBuffer initialValue() {
+			RecordRingBuffer buffer = new RecordRingBuffer(ringBufferCapacity, Thread.currentThread());
+			ringBuffers.add(buffer);
+			return buffer;
+		}
+	};
+
+	/**
+	 * Dropped records of released ring buffers.
+	 */
+	private final AtomicLong droppedRecords = new AtomicLong(0L);
+
 	/**
 	 * Abstract Constructor.
 	 * 
@@ -87,26 +158,139 @@ public abstract class AbstractDataSource implements IDataCollector, IDataReader,
 	public abstract void initialize(Properties properties);
 
 	/**
-	 * Repeatedly reads data from the pipe and processes it.
+	 * Configures how records are passed from the producer threads to the
+	 * drain thread. Must be called before the data source is enabled.
+	 * 
+	 * @param properties
+	 *            properties containing the pipe configuration
+	 */
+	public void configurePipe(Properties properties) {
+		if (properties == null) {
+			return;
+		}
+		String mode = properties.getProperty(PIPE_MODE_KEY, PIPE_MODE_QUEUE);
+		ringBufferMode = mode.trim().equalsIgnoreCase(PIPE_MODE_RING_BUFFER);
+
+		ringBufferCapacity = parsePositiveInt(properties.getProperty(RING_BUFFER_CAPACITY_KEY),
+				DEFAULT_RING_BUFFER_CAPACITY);
+
+		overflowPolicy = OverflowPolicy.fromName(properties.getProperty(OVERFLOW_POLICY_KEY),
+				OverflowPolicy.DROP_NEWEST);
+
+		minBatchSize = parsePositiveInt(properties.getProperty(MIN_BATCH_SIZE_KEY), DEFAULT_MIN_BATCH_SIZE);
+		maxBatchSize = parsePositiveInt(properties.getProperty(MAX_BATCH_SIZE_KEY), DEFAULT_MAX_BATCH_SIZE);
+		if (maxBatchSize < minBatchSize) {
+			maxBatchSize = minBatchSize;
+		}
+
+		if (ringBufferMode) {
+			LOGGER.debug("Using per-thread ring buffers with capacity {} and overflow policy {}", ringBufferCapacity,
+					overflowPolicy);
+		}
+	}
+
+	private static int parsePositiveInt(String value, int defaultValue) {
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			int result = Integer.parseInt(value.trim());
+			return result > 0 ? result : defaultValue;
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid collector configuration value {}. Using default value {}.", value, defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Repeatedly drains batches of records from the pipe and processes them.
+	 * The batch size adapts to the load: it grows while the pipe delivers full
+	 * batches and shrinks when the pipe runs idle.
 	 */
 	public void run() {
-		while (enabled || !records.isEmpty()) {
-			try {
-				AbstractRecord record = records.poll(MILLISECONDS_TO_WAIT, TimeUnit.MILLISECONDS);
-				if (record != null) {
-					process(record);
+		List<AbstractRecord> batch = new ArrayList<AbstractRecord>(maxBatchSize);
+		int batchSize = minBatchSize;
+		while (enabled || !isPipeEmpty()) {
+			int drained;
+			if (ringBufferMode) {
+				drained = drainRingBuffers(batch, batchSize);
+			} else {
+				drained = drainQueue(batch, batchSize);
+			}
+
+			if (drained > 0) {
+				try {
+					processBatch(batch);
+				} catch (RuntimeException e) {
+					LOGGER.error("Monitoring error. Reason: {}", e);
 				}
-			} catch (InterruptedException e) {
-				LOGGER.error("Monitoring error. Reason: {}", e);
+				if (releasesRecords()) {
+					RecordPool.releaseAll(batch);
+				}
+				batch.clear();
+			} else if (ringBufferMode) {
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
 			}
+			batchSize = adaptBatchSize(batchSize, drained);
 		}
 
 		synchronized (this) {
 			enabled = false;
+			finished = true;
 			this.notifyAll();
 		}
+	}
 
-		finished = true;
+	/**
+	 * Processes a batch of records drained from the pipe. The default
+	 * implementation calls {@link #process(AbstractRecord)} for each record.
+	 * Sinks should override this method to amortize costly operations (e.g.
+	 * writes and flushes) over the whole batch. The passed list is reused by
+	 * the drain thread and must not be stored.
+	 * 
+	 * @param batch
+	 *            records to be processed
+	 */
+	protected void processBatch(List<AbstractRecord> batch) {
+		for (AbstractRecord record : batch) {
+			process(record);
+		}
+	}
+
+	/**
+	 * Indicates whether the records are not referenced anymore after they
+	 * have been processed, e.g. because they have been serialized to a sink.
+	 * In this case, pooled records are returned to their {@link RecordPool}
+	 * after each batch. Data sources which keep the record objects must
+	 * return false (default).
+	 * 
+	 * @return true, if processed records may be reused
+	 */
+	protected boolean releasesRecords() {
+		return false;
+	}
+
+	private int drainQueue(List<AbstractRecord> batch, int batchSize) {
+		try {
+			AbstractRecord record = records.poll(MILLISECONDS_TO_WAIT, TimeUnit.MILLISECONDS);
+			if (record == null) {
+				return 0;
+			}
+			batch.add(record);
+			return 1 + records.drainTo(batch, batchSize - 1);
+		} catch (InterruptedException e) {
+			LOGGER.error("Monitoring error. Reason: {}", e);
+			return 0;
+		}
+	}
+
+	int adaptBatchSize(int batchSize, int drained) {
+		if (drained >= batchSize) {
+			return Math.min(batchSize * 2, maxBatchSize);
+		} else if (drained < batchSize / BATCH_SHRINK_THRESHOLD) {
+			return Math.max(batchSize / 2, minBatchSize);
+		}
+		return batchSize;
 	}
 
 	/**
@@ -120,17 +304,108 @@ public abstract class AbstractDataSource implements IDataCollector, IDataReader,
 		if (!enabled) {
 			return;
 		}
+		if (ringBufferMode) {
+			offerToRingBuffer(record);
+			return;
+		}
 		boolean ok = records.offer(record);
 		if (!ok) {
+			droppedRecords.incrementAndGet();
 			LOGGER.warn("Writer queue is full. Measurement record ignored!");
 		}
 
 	}
 
+	private void offerToRingBuffer(AbstractRecord record) {
+		RecordRingBuffer buffer = localRingBuffer.get();
+		switch (overflowPolicy) {
+		case DROP_OLDEST:
+			buffer.offerDroppingOldest(record);
+			break;
+		case BLOCK:
+			while (!buffer.offer(record)) {
+				if (!enabled) {
+					buffer.recordDrop();
+					return;
+				}
+				LockSupport.parkNanos(BLOCK_PARK_NANOS);
+			}
+			break;
+		case DROP_NEWEST:
+		default:
+			if (!buffer.offer(record)) {
+				buffer.recordDrop();
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Moves records from all per-thread ring buffers to the given batch.
+	 * Buffers of terminated threads are released as soon as they are empty.
+	 * 
+	 * @param batch
+	 *            list where to add the records
+	 * @param batchSize
+	 *            maximum number of records to harvest
+	 * @return number of harvested records
+	 */
+	private int drainRingBuffers(List<AbstractRecord> batch, int batchSize) {
+		int count = 0;
+		int numBuffers = ringBuffers.size();
+		// rotate the start buffer so that all threads are served equally when
+		// the batch limit is reached
+		int start = numBuffers == 0 ? 0 : (drainRound++ & Integer.MAX_VALUE) % numBuffers;
+		for (int i = 0; i < numBuffers && count < batchSize; i++) {
+			RecordRingBuffer buffer;
+			try {
+				buffer = ringBuffers.get((start + i) % numBuffers);
+			} catch (IndexOutOfBoundsException e) {
+				break;
+			}
+			count += buffer.drainTo(batch, batchSize - count);
+			if (buffer.isEmpty() && !buffer.isOwnerAlive()) {
+				ringBuffers.remove(buffer);
+				droppedRecords.addAndGet(buffer.getDroppedRecords());
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return true, if there are no records waiting to be processed
+	 */
+	private boolean isPipeEmpty() {
+		if (!records.isEmpty()) {
+			return false;
+		}
+		for (RecordRingBuffer buffer : ringBuffers) {
+			if (!buffer.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of records which have been dropped since the data
+	 * source has been enabled, because the pipe was full.
+	 * 
+	 * @return number of dropped records
+	 */
+	public long getDroppedRecords() {
+		long dropped = droppedRecords.get();
+		for (RecordRingBuffer buffer : ringBuffers) {
+			dropped += buffer.getDroppedRecords();
+		}
+		return dropped;
+	}
+
 	@Override
 	public void enable() throws MeasurementException {
 		LOGGER.debug("Enabling Data Collector...");
 		init();
+		resetDroppedRecords();
 		enabled = true;
 
 		if (finished) {
@@ -146,7 +421,8 @@ public abstract class AbstractDataSource implements IDataCollector, IDataReader,
 	public void disable() {
 		enabled = false;
 		synchronized (this) {
-			while (!records.isEmpty()) {
+			// wait until the drain thread processed the last batch
+			while (!finished) {
 				try {
 					this.wait();
 				} catch (InterruptedException e) {
@@ -157,9 +433,102 @@ public abstract class AbstractDataSource implements IDataCollector, IDataReader,
 		}
 
 		cleanUp();
+		long dropped = getDroppedRecords();
+		if (dropped > 0) {
+			LOGGER.warn("{} measurement records have been dropped as the record pipe was full!", dropped);
+		}
 		LOGGER.debug("Data Collector disabled");
 	}
 
+	private void resetDroppedRecords() {
+		// the counters of the ring buffers are not reset as they are written
+		// by the producer threads, thus, they are compensated here
+		droppedRecords.set(0L);
+		for (RecordRingBuffer buffer : ringBuffers) {
+			droppedRecords.addAndGet(-buffer.getDroppedRecords());
+		}
+	}
+
+	/**
+	 * Opens an iterator over all records of the data sink. Data sources
+	 * should override this method to stream the records from the sink. The
+	 * default implementation iterates over the result of {@link #read()}.
+	 * 
+	 * @return iterator over the records, which should be closed after use
+	 * @throws MeasurementException
+	 *             thrown if data cannot be read from the data sink
+	 */
+	public RecordIterator openRecordIterator() throws MeasurementException {
+		final Iterator<AbstractRecord> iterator = read().getRecords().iterator();
+		return new RecordIterator() {
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public AbstractRecord next() {
+				return iterator.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				// nothing to release
+			}
+		};
+	}
+
+	/**
+	 * Opens an iterator over the records of the data sink starting at the
+	 * given sequence number. The sequence number of a record is its position
+	 * in the data sink since the data source has been enabled, independent
+	 * of records which have been released in the meantime (see
+	 * {@link #acknowledge(long)}). The default implementation skips the
+	 * records before the sequence number.
+	 * 
+	 * @param fromSequence
+	 *            sequence number of the first record to return
+	 * @return iterator over the records, which should be closed after use
+	 * @throws MeasurementException
+	 *             thrown if data cannot be read from the data sink
+	 */
+	public RecordIterator openRecordIterator(long fromSequence) throws MeasurementException {
+		RecordIterator iterator = openRecordIterator();
+		for (long i = 0; i < fromSequence && iterator.hasNext(); i++) {
+			iterator.next();
+		}
+		return iterator;
+	}
+
+	/**
+	 * Returns the sequence number of the oldest record which is still
+	 * available in the data sink.
+	 * 
+	 * @return sequence number of the oldest available record
+	 */
+	public long getFirstAvailableSequence() {
+		return 0L;
+	}
+
+	/**
+	 * Acknowledges that a client has received all records with a sequence
+	 * number below the given watermark. Data sources may release these
+	 * records. The default implementation keeps all records.
+	 * 
+	 * @param watermark
+	 *            sequence number of the first record which has not been
+	 *            received yet
+	 */
+	public void acknowledge(long watermark) {
+		// all records are kept by default
+	}
+
 	/**
 	 * @return the dataCollector
 	 */
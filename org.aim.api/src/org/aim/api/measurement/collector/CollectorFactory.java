@@ -53,6 +53,7 @@ public final class CollectorFactory {
 		AbstractDataSource dataSource = null;
 		try {
 			dataSource = (AbstractDataSource) Class.forName(collectorType).newInstance();
+			dataSource.configurePipe(properties);
 			dataSource.initialize(properties);
 		} catch (Exception e) {
 			return null;
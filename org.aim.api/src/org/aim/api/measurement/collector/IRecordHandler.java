@@ -0,0 +1,35 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.collector;
+
+import org.aim.api.measurement.AbstractRecord;
+
+/**
+ * Callback for consuming streamed measurement records one by one.
+ *
+ * @author Alexander Wert
+ *
+ */
+public interface IRecordHandler {
+
+	/**
+	 * Handles a single record.
+	 *
+	 * @param record
+	 *            the record
+	 */
+	void handle(AbstractRecord record);
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.collector;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.utils.BinaryRecordWriter;
+
+/**
+ * Protocol constants and encoding of the measurement data transfer between
+ * the agent and its clients.
+ *
+ * A client may request a page of records by passing the number of records
+ * to skip ({@link #PARAM_OFFSET}) and the maximum number of records to
+ * transfer ({@link #PARAM_LIMIT}). As records are only appended to a data
+ * sink, a client can resume an interrupted transfer by requesting the
+ * records after the last record it received. The records are either
+ * transferred as text lines or in the binary record format
+ * ({@link #PARAM_FORMAT}) and can be gzip-compressed.
+ *
+ * Offsets are sequence numbers of the records. While the measurement is
+ * running, a client can tail the data by requesting the records after its
+ * watermark and acknowledging the records it has received
+ * ({@link #PARAM_ACKNOWLEDGE}). The agent may release acknowledged records,
+ * thus, the response header {@link #HEADER_START_OFFSET} states the sequence
+ * number of the first transferred record.
+ *
+ * @author Alexander Wert
+ *
+ */
+public final class MeasurementDataTransfer {
+	public static final String PARAM_OFFSET = "offset";
+	public static final String PARAM_LIMIT = "limit";
+	public static final String PARAM_FORMAT = "format";
+	public static final String PARAM_ACKNOWLEDGE = "ack";
+
+	public static final String FORMAT_TEXT = "text";
+	public static final String FORMAT_BINARY = "binary";
+
+	public static final String CONTENT_TYPE_TEXT = "text/plain";
+	public static final String CONTENT_TYPE_BINARY = "application/octet-stream";
+
+	public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+	public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+	public static final String ENCODING_GZIP = "gzip";
+	public static final String HEADER_START_OFFSET = "X-AIM-Start-Offset";
+
+	private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private MeasurementDataTransfer() {
+	}
+
+	/**
+	 * Checks whether the given Accept-Encoding header allows gzip.
+	 *
+	 * @param acceptEncoding
+	 *            value of the Accept-Encoding header, may be null
+	 * @return true, if gzip encoding is accepted
+	 */
+	public static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String encoding : acceptEncoding.split(",")) {
+			String trimmed = encoding.trim();
+			if (trimmed.startsWith(ENCODING_GZIP) && !trimmed.endsWith("q=0")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes a page of records to the output stream.
+	 *
+	 * @param records
+	 *            records to transfer
+	 * @param oStream
+	 *            stream to write to. The stream is finished but not closed.
+	 * @param offset
+	 *            number of records to skip
+	 * @param limit
+	 *            maximum number of records to write, a value less or equal
+	 *            to zero means no limit
+	 * @param binary
+	 *            true for the binary record format, false for text lines
+	 * @param gzip
+	 *            true, if the output shall be gzip-compressed
+	 * @return number of written records
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public static long writeRecords(RecordIterator records, OutputStream oStream, long offset, long limit,
+			boolean binary, boolean gzip) throws IOException {
+		for (long skipped = 0; skipped < offset && records.hasNext(); skipped++) {
+			records.next();
+		}
+
+		GZIPOutputStream gzipStream = gzip ? new GZIPOutputStream(oStream, TRANSFER_BUFFER_SIZE) : null;
+		OutputStream out = new BufferedOutputStream(gzip ? gzipStream : oStream, TRANSFER_BUFFER_SIZE);
+		long count = 0;
+		if (binary) {
+			BinaryRecordWriter writer = new BinaryRecordWriter(out);
+			while ((limit <= 0 || count < limit) && records.hasNext()) {
+				writer.write(records.next());
+				count++;
+			}
+			writer.flush();
+		} else {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out), TRANSFER_BUFFER_SIZE);
+			StringBuilder builder = new StringBuilder();
+			while ((limit <= 0 || count < limit) && records.hasNext()) {
+				AbstractRecord record = records.next();
+				builder.setLength(0);
+				record.appendTo(builder);
+				builder.append('\n');
+				writer.append(builder);
+				count++;
+			}
+			writer.flush();
+		}
+		if (gzipStream != null) {
+			gzipStream.finish();
+		}
+		oStream.flush();
+		return count;
+	}
+}
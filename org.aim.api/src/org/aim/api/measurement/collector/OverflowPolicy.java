@@ -0,0 +1,62 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.collector;
+
+/**
+ * Determines how a bounded record buffer behaves if a producer thread tries to
+ * add a record while the buffer is full.
+ *
+ * @author Alexander Wert
+ *
+ */
+public enum OverflowPolicy {
+	/**
+	 * The new record is dropped.
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * The oldest record in the buffer is dropped to make room for the new one.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * The producer thread waits until the drain thread made room for the new
+	 * record.
+	 */
+	BLOCK;
+
+	/**
+	 * Returns the overflow policy for the given name.
+	 *
+	 * @param name
+	 *            name of the policy (case insensitive)
+	 * @param defaultPolicy
+	 *            policy to return if name is null or unknown
+	 * @return overflow policy
+	 */
+	public static OverflowPolicy fromName(String name, OverflowPolicy defaultPolicy) {
+		if (name == null) {
+			return defaultPolicy;
+		}
+		for (OverflowPolicy policy : values()) {
+			if (policy.name().equalsIgnoreCase(name.trim())) {
+				return policy;
+			}
+		}
+		return defaultPolicy;
+	}
+}
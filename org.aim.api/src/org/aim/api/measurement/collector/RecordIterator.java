@@ -0,0 +1,33 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.collector;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+import org.aim.api.measurement.AbstractRecord;
+
+/**
+ * Iterator streaming records from a data sink or a stream. The underlying
+ * resources are released when the iterator is closed. Read errors are thrown
+ * as unchecked exceptions by {@link #hasNext()} and {@link #next()}.
+ *
+ * @author Alexander Wert
+ *
+ */
+public interface RecordIterator extends Iterator<AbstractRecord>, Closeable {
+
+}
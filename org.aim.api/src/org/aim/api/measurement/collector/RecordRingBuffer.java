@@ -0,0 +1,191 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.collector;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.aim.api.measurement.AbstractRecord;
+
+/**
+ * Bounded, lock-free ring buffer for records with a single producer (the
+ * owning application thread) and a single consumer (the drain thread of the
+ * {@link AbstractDataSource}).
+ *
+ * The producer only moves the tail, the consumer only moves the head. The
+ * only exception is {@link #offerDroppingOldest(AbstractRecord)} where the
+ * producer discards the oldest record by advancing the head. Therefore, the
+ * head is always moved via compare-and-set.
+ *
+ * @author Alexander Wert
+ *
+ */
+final class RecordRingBuffer {
+
+	private final AtomicReferenceArray<AbstractRecord> slots;
+	private final int capacity;
+	private final int mask;
+
+	private final AtomicLong head = new AtomicLong(0L);
+	private final AtomicLong tail = new AtomicLong(0L);
+	private final AtomicLong droppedRecords = new AtomicLong(0L);
+
+	private final WeakReference<Thread> owner;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param minCapacity
+	 *            minimal number of records the buffer can hold. The actual
+	 *            capacity is the next power of two.
+	 * @param owner
+	 *            producer thread owning this buffer
+	 */
+	RecordRingBuffer(int minCapacity, Thread owner) {
+		if (minCapacity <= 0) {
+			throw new IllegalArgumentException("Capacity of a ring buffer must be positive!");
+		}
+		int cap = 1;
+		while (cap < minCapacity) {
+			cap <<= 1;
+		}
+		capacity = cap;
+		mask = cap - 1;
+		slots = new AtomicReferenceArray<AbstractRecord>(cap);
+		this.owner = new WeakReference<Thread>(owner);
+	}
+
+	/**
+	 * Adds a record to the buffer. Must only be called by the owning thread.
+	 *
+	 * @param record
+	 *            record to add
+	 * @return false, if the buffer is full and the record has not been added
+	 */
+	boolean offer(AbstractRecord record) {
+		long currentTail = tail.get();
+		if (currentTail - head.get() >= capacity) {
+			return false;
+		}
+		slots.lazySet(index(currentTail), record);
+		tail.lazySet(currentTail + 1);
+		return true;
+	}
+
+	/**
+	 * Adds a record to the buffer. If the buffer is full, the oldest record is
+	 * discarded. Must only be called by the owning thread.
+	 *
+	 * @param record
+	 *            record to add
+	 */
+	void offerDroppingOldest(AbstractRecord record) {
+		long currentTail = tail.get();
+		while (true) {
+			long currentHead = head.get();
+			if (currentTail - currentHead < capacity) {
+				break;
+			}
+			if (head.compareAndSet(currentHead, currentHead + 1)) {
+				droppedRecords.incrementAndGet();
+				break;
+			}
+		}
+		slots.lazySet(index(currentTail), record);
+		tail.lazySet(currentTail + 1);
+	}
+
+	/**
+	 * Moves up to maxElements records from the buffer to the target
+	 * collection. Must only be called by the drain thread.
+	 *
+	 * @param target
+	 *            collection where to add the records
+	 * @param maxElements
+	 *            maximum number of records to move
+	 * @return number of moved records
+	 */
+	int drainTo(Collection<? super AbstractRecord> target, int maxElements) {
+		int count = 0;
+		while (count < maxElements) {
+			long currentHead = head.get();
+			if (currentHead >= tail.get()) {
+				break;
+			}
+			int idx = index(currentHead);
+			AbstractRecord record = slots.get(idx);
+			if (head.compareAndSet(currentHead, currentHead + 1)) {
+				// the producer may have already reused the slot
+				slots.compareAndSet(idx, record, null);
+				if (record != null) {
+					target.add(record);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Counts a record which has been dropped outside of this buffer, e.g. when
+	 * a blocked producer gives up.
+	 */
+	void recordDrop() {
+		droppedRecords.incrementAndGet();
+	}
+
+	/**
+	 * @return number of records dropped because this buffer was full
+	 */
+	long getDroppedRecords() {
+		return droppedRecords.get();
+	}
+
+	/**
+	 * @return true, if the buffer does not contain any records
+	 */
+	boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	/**
+	 * @return current number of records in the buffer
+	 */
+	int size() {
+		return (int) Math.max(0L, tail.get() - head.get());
+	}
+
+	/**
+	 * @return capacity of the buffer
+	 */
+	int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return true, if the thread owning this buffer is still alive
+	 */
+	boolean isOwnerAlive() {
+		Thread thread = owner.get();
+		return thread != null && thread.isAlive();
+	}
+
+	private int index(long sequence) {
+		return (int) (sequence & mask);
+	}
+}
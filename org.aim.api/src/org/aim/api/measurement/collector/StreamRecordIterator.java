@@ -0,0 +1,205 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.collector;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.NoSuchElementException;
+
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.utils.BinaryRecordReader;
+
+/**
+ * Streams records from an input stream containing either text lines (see
+ * {@link AbstractRecord#toString()}) or binary records (see
+ * {@link BinaryRecordReader}). Records are decoded lazily, thus, the stream
+ * content does not need to fit into the heap.
+ *
+ * @author Alexander Wert
+ *
+ */
+public class StreamRecordIterator implements RecordIterator {
+
+	private final BufferedReader textReader;
+	private final BinaryRecordReader binaryReader;
+	private final boolean failOnTruncation;
+	private final StringBuilder lineBuilder = new StringBuilder();
+	private AbstractRecord nextRecord;
+	private long numLines = 0;
+
+	/**
+	 * Constructor. A stream which ends with an incomplete record is treated
+	 * as the end of the records.
+	 *
+	 * @param iStream
+	 *            stream to read from
+	 * @param binary
+	 *            true, if the stream contains binary records, false if it
+	 *            contains text lines
+	 * @throws IOException
+	 *             if the stream header cannot be read
+	 */
+	public StreamRecordIterator(InputStream iStream, boolean binary) throws IOException {
+		this(iStream, binary, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param iStream
+	 *            stream to read from
+	 * @param binary
+	 *            true, if the stream contains binary records, false if it
+	 *            contains text lines
+	 * @param failOnTruncation
+	 *            if true, a stream which ends with an incomplete record (or
+	 *            a text line without line break) lets the iteration fail
+	 *            with a {@link RuntimeException} wrapping an
+	 *            {@link EOFException}
+	 * @throws IOException
+	 *             if the stream header cannot be read
+	 */
+	public StreamRecordIterator(InputStream iStream, boolean binary, boolean failOnTruncation) throws IOException {
+		this.failOnTruncation = failOnTruncation;
+		if (binary) {
+			binaryReader = new BinaryRecordReader(iStream, failOnTruncation);
+			textReader = null;
+		} else {
+			binaryReader = null;
+			textReader = new BufferedReader(new InputStreamReader(iStream));
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		try {
+			if (binaryReader != null) {
+				if (nextRecord == null) {
+					nextRecord = binaryReader.read();
+				}
+			} else {
+				while (nextRecord == null) {
+					String line = readLine();
+					if (line == null) {
+						break;
+					}
+					nextRecord = AbstractRecord.fromString(line);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return nextRecord != null;
+	}
+
+	@Override
+	public AbstractRecord next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		AbstractRecord record = nextRecord;
+		nextRecord = null;
+		return record;
+	}
+
+	/**
+	 * Skips the given number of records. Text lines are skipped without
+	 * parsing them.
+	 *
+	 * @param n
+	 *            number of records to skip
+	 * @return number of skipped records
+	 */
+	public long skip(long n) {
+		long skipped = 0;
+		if (nextRecord != null && n > 0) {
+			nextRecord = null;
+			skipped++;
+		}
+		try {
+			while (skipped < n) {
+				if (binaryReader != null) {
+					if (binaryReader.read() == null) {
+						break;
+					}
+				} else if (readLine() == null) {
+					break;
+				}
+				skipped++;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return skipped;
+	}
+
+	/**
+	 * Returns the number of records consumed from the stream, i.e. the
+	 * records returned by {@link #next()} and the records which have been
+	 * skipped, because they could not be decoded. A record which has been
+	 * read ahead by {@link #hasNext()} is not counted. Thus, the value is the
+	 * position in the stream where to resume after the last returned record.
+	 *
+	 * @return number of consumed records
+	 */
+	public long getConsumedRecords() {
+		long read = binaryReader != null ? binaryReader.getNumRecords() : numLines;
+		return nextRecord == null ? read : read - 1;
+	}
+
+	private String readLine() throws IOException {
+		if (!failOnTruncation) {
+			String line = textReader.readLine();
+			if (line != null) {
+				numLines++;
+			}
+			return line;
+		}
+		int c = textReader.read();
+		if (c < 0) {
+			return null;
+		}
+		lineBuilder.setLength(0);
+		while (c != '\n') {
+			if (c < 0) {
+				throw new EOFException("Text record stream ends with an incomplete line.");
+			}
+			if (c != '\r') {
+				lineBuilder.append((char) c);
+			}
+			c = textReader.read();
+		}
+		numLines++;
+		return lineBuilder.toString();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (binaryReader != null) {
+			binaryReader.close();
+		} else {
+			textReader.close();
+		}
+	}
+}
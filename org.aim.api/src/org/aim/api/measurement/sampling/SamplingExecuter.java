@@ -15,20 +15,82 @@
  */
 package org.aim.api.measurement.sampling;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
 
 /**
- * Executes a sample job with a certain delay.
+ * Executes a sample job with a certain delay. The job is executed at a fixed
+ * rate on the {@link SamplingScheduler}: the ticks are aligned to multiples
+ * of the delay on the wall clock and the time spent in the samplers does not
+ * shift subsequent ticks. Ticks which are overdue by more than one delay,
+ * because the samplers took longer than the delay, are skipped and counted as
+ * missed. Each start of the executer begins a new generation of ticks, ticks
+ * of previous generations are not executed anymore.
  * 
  * @author Alexander Wert
  * 
  */
-public class SamplingExecuter implements Runnable {
+public class SamplingExecuter {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(SamplingExecuter.class);
+
 	private long delay;
-	private boolean finished;
-	private boolean stop;
+	private volatile boolean stop;
+	private boolean running;
 	private final List<AbstractSampler> sampler;
+	private final List<SamplerStatistics> samplerStatistics;
+
+	private ScheduledFuture<?> future;
+	private long generation;
+	private long firstTick;
+	private long period;
+	private long tickIndex;
+
+	private long numTicks;
+	private long missedTicks;
+	private long maxDrift;
+
+	/**
+	 * Execution time statistics of a sampler.
+	 */
+	public static final class SamplerStatistics {
+		private long samples;
+		private long totalExecutionTime;
+		private long maxExecutionTime;
+
+		private synchronized void add(long executionTime) {
+			samples++;
+			totalExecutionTime += executionTime;
+			if (executionTime > maxExecutionTime) {
+				maxExecutionTime = executionTime;
+			}
+		}
+
+		/**
+		 * @return number of samples taken
+		 */
+		public synchronized long getSamples() {
+			return samples;
+		}
+
+		/**
+		 * @return total execution time of the sampler in nanoseconds
+		 */
+		public synchronized long getTotalExecutionTime() {
+			return totalExecutionTime;
+		}
+
+		/**
+		 * @return maximum execution time of a sample in nanoseconds
+		 */
+		public synchronized long getMaxExecutionTime() {
+			return maxExecutionTime;
+		}
+	}
 
 	/**
 	 * Construcotr.
@@ -38,7 +100,8 @@ public class SamplingExecuter implements Runnable {
 	 */
 	public SamplingExecuter(long delay) {
 		this.setDelay(delay);
-		sampler = new ArrayList<>();
+		sampler = new CopyOnWriteArrayList<>();
+		samplerStatistics = new CopyOnWriteArrayList<>();
 	}
 
 	/**
@@ -47,43 +110,120 @@ public class SamplingExecuter implements Runnable {
 	 * @param smp
 	 *            sampler to add
 	 */
-	public void addSampler(AbstractSampler smp) {
+	public synchronized void addSampler(AbstractSampler smp) {
+		samplerStatistics.add(new SamplerStatistics());
 		sampler.add(smp);
 	}
 
-	@Override
-	public void run() {
+	/**
+	 * Starts sampling on the shared {@link SamplingScheduler}.
+	 */
+	public synchronized void start() {
+		if (future != null) {
+			return;
+		}
+		awaitRunningTick();
 		stop = false;
-		finished = false;
-		while (!stop) {
-			try {
-				Thread.sleep(getDelay());
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
+		generation++;
+		period = TimeUnit.MILLISECONDS.toNanos(Math.max(getDelay(), 1L));
+		long periodMillis = TimeUnit.NANOSECONDS.toMillis(period);
+		long now = System.nanoTime();
+		firstTick = now + TimeUnit.MILLISECONDS.toNanos(periodMillis - System.currentTimeMillis() % periodMillis);
+		tickIndex = 0;
+		numTicks = 0;
+		missedTicks = 0;
+		maxDrift = 0;
+		future = SamplingScheduler.getInstance().schedule(new Tick(generation), firstTick - now);
+	}
+
+	/**
+	 * Executes a single sampling tick and schedules the next one.
+	 * 
+	 * @param tickGeneration
+	 *            generation of the tick, i.e. the start which scheduled it
+	 */
+	private void runTick(long tickGeneration) {
+		int numSamplers;
+		synchronized (this) {
+			// a tick dispatched before stop() is ignored, even if the
+			// executer has been started again in the meantime
+			if (stop || tickGeneration != generation) {
+				return;
 			}
-			for (AbstractSampler samp : sampler) {
-				samp.sample();
+			running = true;
+			numTicks++;
+			long drift = System.nanoTime() - (firstTick + tickIndex * period);
+			if (drift > maxDrift) {
+				maxDrift = drift;
 			}
-
+			numSamplers = sampler.size();
 		}
-		synchronized (this) {
-			finished = true;
-			this.notifyAll();
+		try {
+			for (int i = 0; i < numSamplers; i++) {
+				long start = System.nanoTime();
+				try {
+					sampler.get(i).sample();
+				} catch (RuntimeException e) {
+					LOGGER.warn("Sampling failed: {}", e);
+				}
+				samplerStatistics.get(i).add(System.nanoTime() - start);
+			}
+		} finally {
+			synchronized (this) {
+				running = false;
+				if (!stop && tickGeneration == generation) {
+					scheduleNextTick();
+				}
+				this.notifyAll();
+			}
 		}
 	}
 
+	private void scheduleNextTick() {
+		long now = System.nanoTime();
+		tickIndex++;
+		long nextTick = firstTick + tickIndex * period;
+		if (nextTick <= now) {
+			long missed = (now - nextTick) / period + 1;
+			missedTicks += missed;
+			tickIndex += missed;
+			nextTick = firstTick + tickIndex * period;
+		}
+		future = SamplingScheduler.getInstance().schedule(new Tick(generation), nextTick - now);
+	}
+
+	/**
+	 * @return the scheduled start of the current tick, or of the next tick if
+	 *         no tick is executed, in terms of {@link System#nanoTime()}
+	 */
+	synchronized long getTickDeadline() {
+		return firstTick + tickIndex * period;
+	}
+
 	/**
 	 * stops sampling.
 	 */
-	public void stop() {
+	public synchronized void stop() {
 		stop = true;
+		if (future != null) {
+			future.cancel(false);
+			future = null;
+		}
 	}
 
 	/**
-	 * Waits until sampling thread terminated.
+	 * Waits until the currently executed sampling tick terminated.
 	 */
 	public synchronized void waitForTermination() {
-		while (!finished) {
+		awaitRunningTick();
+		if (numTicks > 0) {
+			LOGGER.debug("Sampling executer with a delay of {} ms: {} ticks, {} missed ticks, max drift {} ns",
+					getDelay(), numTicks, missedTicks, maxDrift);
+		}
+	}
+
+	private void awaitRunningTick() {
+		while (running) {
 			try {
 				this.wait();
 			} catch (InterruptedException e) {
@@ -92,6 +232,42 @@ public class SamplingExecuter implements Runnable {
 		}
 	}
 
+	/**
+	 * @return number of executed sampling ticks
+	 */
+	public synchronized long getNumTicks() {
+		return numTicks;
+	}
+
+	/**
+	 * @return number of ticks which have been skipped, because they were
+	 *         overdue by more than the delay
+	 */
+	public synchronized long getMissedTicks() {
+		return missedTicks;
+	}
+
+	/**
+	 * @return maximum delay of the start of a tick behind its schedule in
+	 *         nanoseconds
+	 */
+	public synchronized long getMaxDrift() {
+		return maxDrift;
+	}
+
+	/**
+	 * Returns the execution time statistics of the sampler with the given
+	 * index.
+	 * 
+	 * @param index
+	 *            index of the sampler in the order the samplers have been
+	 *            added
+	 * @return execution time statistics
+	 */
+	public synchronized SamplerStatistics getSamplerStatistics(int index) {
+		return samplerStatistics.get(index);
+	}
+
 	/**
 	 * @return the delay
 	 */
@@ -107,4 +283,20 @@ public class SamplingExecuter implements Runnable {
 		this.delay = delay;
 	}
 
+	/**
+	 * Scheduled sampling tick of a generation.
+	 */
+	private final class Tick implements Runnable {
+		private final long tickGeneration;
+
+		private Tick(long tickGeneration) {
+			this.tickGeneration = tickGeneration;
+		}
+
+		@Override
+		public void run() {
+			runTick(tickGeneration);
+		}
+	}
+
 }
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.sampling;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scheduler shared by all {@link SamplingExecuter}s. Sampling jobs are
+ * scheduled tick by tick on a single daemon timer thread, instead of
+ * occupying a pooled thread per sampling delay. The timer thread only
+ * dispatches the due ticks to a pool of worker threads, which execute the
+ * samplers. Thus, a slow sampler does not delay the ticks of other executers.
+ * As an executer schedules its next tick after the current one finished, the
+ * pool holds at most one busy thread per executer. Idle worker threads
+ * terminate after {@value #WORKER_KEEP_ALIVE_SECONDS} seconds.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class SamplingScheduler {
+
+	/**
+	 * Lazily initialized singleton.
+	 */
+	private static final class InstanceHolder {
+		private static final SamplingScheduler INSTANCE = new SamplingScheduler();
+	}
+
+	/**
+	 * 
+	 * @return singleton instance of the scheduler
+	 */
+	public static SamplingScheduler getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	private static final long WORKER_KEEP_ALIVE_SECONDS = 60L;
+
+	private final ScheduledThreadPoolExecutor timer;
+	private final ExecutorService workers;
+
+	private SamplingScheduler() {
+		timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "AIM-Sampling-Scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		timer.setRemoveOnCancelPolicy(true);
+		workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger threadNumber = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "AIM-Sampler-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Schedules a single execution of the task on a worker thread.
+	 * 
+	 * @param task
+	 *            task to execute
+	 * @param delayNanos
+	 *            delay of the execution in nanoseconds
+	 * @return future for cancelling the execution, the execution cannot be
+	 *         cancelled anymore once the task has been dispatched to a
+	 *         worker thread
+	 */
+	public ScheduledFuture<?> schedule(final Runnable task, long delayNanos) {
+		return timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				workers.execute(task);
+			}
+		}, Math.max(delayNanos, 0L), TimeUnit.NANOSECONDS);
+	}
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Constants and encoding helpers of the binary record format written by
+ * {@link BinaryRecordWriter} and read by {@link BinaryRecordReader}.
+ *
+ * A binary record stream starts with {@link #MAGIC} and {@link #VERSION}
+ * followed by a sequence of entries. Each entry starts with a tag byte:
+ * <ul>
+ * <li>{@link #TAG_TYPE}: type dictionary entry, written once per record type
+ * before its first record. Contains the type id, the class name and the name
+ * and encoding of each record field.</li>
+ * <li>{@link #TAG_RECORD}: a record consisting of the type id followed by the
+ * encoded field values in dictionary order.</li>
+ * </ul>
+ * The sampling weight of a record is written as an additional field named
+ * {@link org.aim.api.measurement.AbstractRecord#PAR_SAMPLING_WEIGHT} after the
+ * record fields.
+ * Long values are written as zig-zag varints, timestamps and call ids as
+ * varint deltas to the previous record of the same type. Sampling weights are
+ * written as bit-reversed varint of the XOR with the weight of the previous
+ * record, thus, an unchanged weight takes a single byte. String values refer
+ * to a string table which is built up while writing: the first occurrence of
+ * a string defines its table id, subsequent occurrences only write the id.
+ *
+ * @author Alexander Wert
+ *
+ */
+public final class BinaryRecordFormat {
+	public static final String FILE_EXTENSION = ".bin";
+
+	public static final int MAGIC = 0x41494D42;
+	public static final int VERSION = 1;
+
+	public static final int TAG_TYPE = 1;
+	public static final int TAG_RECORD = 2;
+
+	public static final int ENCODING_LONG = 1;
+	public static final int ENCODING_LONG_DELTA = 2;
+	public static final int ENCODING_INT = 3;
+	public static final int ENCODING_DOUBLE = 4;
+	public static final int ENCODING_BOOLEAN = 5;
+	public static final int ENCODING_STRING = 6;
+	public static final int ENCODING_TEXT = 7;
+	public static final int ENCODING_DOUBLE_XOR = 8;
+
+	/**
+	 * String reference codes. Codes above {@link #STRING_INLINE} are table
+	 * references shifted by {@link #STRING_TABLE_OFFSET}.
+	 */
+	public static final int STRING_NULL = 0;
+	public static final int STRING_NEW = 1;
+	public static final int STRING_INLINE = 2;
+	public static final int STRING_TABLE_OFFSET = 3;
+
+	/**
+	 * Bounds of the string table. Longer strings and strings exceeding the
+	 * table size are written inline.
+	 */
+	public static final int MAX_STRING_TABLE_SIZE = 1 << 16;
+	public static final int MAX_INTERNED_STRING_LENGTH = 1024;
+
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final int VARINT_PAYLOAD_BITS = 7;
+	private static final int VARINT_PAYLOAD_MASK = 0x7F;
+	private static final int VARINT_CONTINUATION_BIT = 0x80;
+	private static final int MAX_VARINT_SHIFT = 63;
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private BinaryRecordFormat() {
+	}
+
+	/**
+	 * Writes an unsigned varint.
+	 *
+	 * @param out
+	 *            output to write to
+	 * @param value
+	 *            value to write, interpreted as unsigned
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public static void writeVarLong(DataOutput out, long value) throws IOException {
+		long remaining = value;
+		while ((remaining & ~VARINT_PAYLOAD_MASK) != 0L) {
+			out.writeByte((int) ((remaining & VARINT_PAYLOAD_MASK) | VARINT_CONTINUATION_BIT));
+			remaining >>>= VARINT_PAYLOAD_BITS;
+		}
+		out.writeByte((int) remaining);
+	}
+
+	/**
+	 * Reads an unsigned varint.
+	 *
+	 * @param in
+	 *            input to read from
+	 * @return read value
+	 * @throws IOException
+	 *             if reading fails or the varint is malformed
+	 */
+	public static long readVarLong(DataInput in) throws IOException {
+		long result = 0L;
+		int shift = 0;
+		while (shift <= MAX_VARINT_SHIFT) {
+			int b = in.readUnsignedByte();
+			result |= (long) (b & VARINT_PAYLOAD_MASK) << shift;
+			if ((b & VARINT_CONTINUATION_BIT) == 0) {
+				return result;
+			}
+			shift += VARINT_PAYLOAD_BITS;
+		}
+		throw new IOException("Malformed varint!");
+	}
+
+	/**
+	 * Writes a signed value as zig-zag encoded varint.
+	 *
+	 * @param out
+	 *            output to write to
+	 * @param value
+	 *            value to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+		writeVarLong(out, (value << 1) ^ (value >> MAX_VARINT_SHIFT));
+	}
+
+	/**
+	 * Reads a zig-zag encoded varint.
+	 *
+	 * @param in
+	 *            input to read from
+	 * @return read value
+	 * @throws IOException
+	 *             if reading fails
+	 */
+	public static long readSignedVarLong(DataInput in) throws IOException {
+		long raw = readVarLong(in);
+		return (raw >>> 1) ^ -(raw & 1L);
+	}
+
+	/**
+	 * Writes a length-prefixed UTF-8 string.
+	 *
+	 * @param out
+	 *            output to write to
+	 * @param value
+	 *            string to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public static void writeString(DataOutput out, String value) throws IOException {
+		byte[] bytes = value.getBytes(CHARSET);
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 string.
+	 *
+	 * @param in
+	 *            input to read from
+	 * @return read string
+	 * @throws IOException
+	 *             if reading fails
+	 */
+	public static String readString(DataInput in) throws IOException {
+		int length = (int) readVarLong(in);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, CHARSET);
+	}
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.utils;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.RecordSerializer;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * Reads records from an input stream in the binary record format (see
+ * {@link BinaryRecordFormat}). Fields are matched by name, thus, fields which
+ * do not exist (anymore) in the record class are skipped. Records of unknown
+ * types are skipped as well.
+ *
+ * @author Alexander Wert
+ *
+ */
+public class BinaryRecordReader implements Closeable {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(BinaryRecordReader.class);
+
+	/**
+	 * Target index of the sampling weight, which is not a record field.
+	 */
+	private static final int SAMPLING_WEIGHT_TARGET = -2;
+
+	private final DataInputStream in;
+	private final List<TypeEntry> types = new ArrayList<>();
+	private final List<String> stringTable = new ArrayList<>();
+	private final boolean failOnTruncation;
+	private long numRecords = 0;
+
+	/**
+	 * Constructor. Reads and validates the format header. A stream which ends
+	 * with an incomplete entry is treated as the end of the records.
+	 *
+	 * @param iStream
+	 *            stream to read from. Should be buffered.
+	 * @throws IOException
+	 *             if the stream does not start with a valid header
+	 */
+	public BinaryRecordReader(InputStream iStream) throws IOException {
+		this(iStream, false);
+	}
+
+	/**
+	 * Constructor. Reads and validates the format header.
+	 *
+	 * @param iStream
+	 *            stream to read from. Should be buffered.
+	 * @param failOnTruncation
+	 *            if true, reading a stream which ends with an incomplete
+	 *            entry fails with an {@link EOFException}, otherwise the
+	 *            incomplete entry is treated as the end of the records
+	 * @throws IOException
+	 *             if the stream does not start with a valid header
+	 */
+	public BinaryRecordReader(InputStream iStream, boolean failOnTruncation) throws IOException {
+		this.failOnTruncation = failOnTruncation;
+		in = new DataInputStream(iStream);
+		if (in.readInt() != BinaryRecordFormat.MAGIC) {
+			throw new IOException("Stream does not contain binary measurement records!");
+		}
+		int version = in.readUnsignedByte();
+		if (version != BinaryRecordFormat.VERSION) {
+			throw new IOException("Unsupported binary record format version " + version);
+		}
+	}
+
+	/**
+	 * Reads the next record from the stream.
+	 *
+	 * @return the next record or null if the end of the stream has been
+	 *         reached
+	 * @throws IOException
+	 *             if reading fails
+	 */
+	public AbstractRecord read() throws IOException {
+		while (true) {
+			int tag = in.read();
+			if (tag < 0) {
+				return null;
+			}
+			try {
+				switch (tag) {
+				case BinaryRecordFormat.TAG_TYPE:
+					readTypeEntry();
+					break;
+				case BinaryRecordFormat.TAG_RECORD:
+					AbstractRecord record = readRecord();
+					numRecords++;
+					if (record != null) {
+						return record;
+					}
+					break;
+				default:
+					throw new IOException("Invalid entry tag " + tag);
+				}
+			} catch (EOFException e) {
+				if (failOnTruncation) {
+					throw e;
+				}
+				LOGGER.warn("Binary record stream ends with an incomplete entry.");
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @return number of records read so far, including records of unknown
+	 *         types which have been skipped
+	 */
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Reads all remaining records from the stream.
+	 *
+	 * @return list of records
+	 * @throws IOException
+	 *             if reading fails
+	 */
+	public List<AbstractRecord> readAll() throws IOException {
+		List<AbstractRecord> result = new ArrayList<AbstractRecord>();
+		AbstractRecord record = read();
+		while (record != null) {
+			result.add(record);
+			record = read();
+		}
+		return result;
+	}
+
+	private void readTypeEntry() throws IOException {
+		int id = (int) BinaryRecordFormat.readVarLong(in);
+		String className = BinaryRecordFormat.readString(in);
+		int numFields = (int) BinaryRecordFormat.readVarLong(in);
+
+		RecordSerializer serializer = null;
+		try {
+			serializer = RecordSerializer.getSerializer(className);
+		} catch (ClassNotFoundException e) {
+			LOGGER.warn("Unknown record type {}. Skipping records of this type.", className);
+		}
+
+		TypeEntry type = new TypeEntry(serializer, numFields);
+		for (int i = 0; i < numFields; i++) {
+			String fieldName = BinaryRecordFormat.readString(in);
+			type.encodings[i] = in.readUnsignedByte();
+			type.targetIndices[i] = serializer == null ? -1 : serializer.indexOf(fieldName);
+			if (type.targetIndices[i] < 0 && serializer != null
+					&& fieldName.equals(AbstractRecord.PAR_SAMPLING_WEIGHT)) {
+				type.targetIndices[i] = SAMPLING_WEIGHT_TARGET;
+			}
+		}
+
+		while (types.size() <= id) {
+			types.add(null);
+		}
+		types.set(id, type);
+	}
+
+	private AbstractRecord readRecord() throws IOException {
+		int id = (int) BinaryRecordFormat.readVarLong(in);
+		if (id >= types.size() || types.get(id) == null) {
+			throw new IOException("Record refers to undefined type " + id);
+		}
+		TypeEntry type = types.get(id);
+		RecordSerializer serializer = type.serializer;
+		AbstractRecord record = serializer == null ? null : serializer.newRecord();
+
+		for (int i = 0; i < type.encodings.length; i++) {
+			int target = record == null ? -1 : type.targetIndices[i];
+			switch (type.encodings[i]) {
+			case BinaryRecordFormat.ENCODING_LONG:
+				long longValue = BinaryRecordFormat.readSignedVarLong(in);
+				if (target >= 0) {
+					serializer.setLong(record, target, longValue);
+				}
+				break;
+			case BinaryRecordFormat.ENCODING_LONG_DELTA:
+				type.lastValues[i] += BinaryRecordFormat.readSignedVarLong(in);
+				if (target >= 0) {
+					serializer.setLong(record, target, type.lastValues[i]);
+				}
+				break;
+			case BinaryRecordFormat.ENCODING_INT:
+				int intValue = (int) BinaryRecordFormat.readSignedVarLong(in);
+				if (target >= 0) {
+					serializer.setInt(record, target, intValue);
+				}
+				break;
+			case BinaryRecordFormat.ENCODING_DOUBLE:
+				double doubleValue = in.readDouble();
+				if (target >= 0) {
+					serializer.setDouble(record, target, doubleValue);
+				}
+				break;
+			case BinaryRecordFormat.ENCODING_DOUBLE_XOR:
+				type.lastValues[i] ^= Long.reverse(BinaryRecordFormat.readVarLong(in));
+				if (target >= 0) {
+					serializer.setDouble(record, target, Double.longBitsToDouble(type.lastValues[i]));
+				} else if (target == SAMPLING_WEIGHT_TARGET) {
+					record.setSamplingWeight(Double.longBitsToDouble(type.lastValues[i]));
+				}
+				break;
+			case BinaryRecordFormat.ENCODING_BOOLEAN:
+				boolean booleanValue = in.readBoolean();
+				if (target >= 0) {
+					serializer.setBoolean(record, target, booleanValue);
+				}
+				break;
+			case BinaryRecordFormat.ENCODING_STRING:
+				String stringValue = readStringValue();
+				if (target >= 0) {
+					serializer.setString(record, target, stringValue);
+				}
+				break;
+			case BinaryRecordFormat.ENCODING_TEXT:
+				String textValue = readStringValue();
+				if (target >= 0 && textValue != null) {
+					serializer.parseValue(record, target, textValue);
+				}
+				break;
+			default:
+				throw new IOException("Invalid field encoding " + type.encodings[i]);
+			}
+		}
+		return record;
+	}
+
+	private String readStringValue() throws IOException {
+		int code = (int) BinaryRecordFormat.readVarLong(in);
+		switch (code) {
+		case BinaryRecordFormat.STRING_NULL:
+			return null;
+		case BinaryRecordFormat.STRING_NEW:
+			String value = BinaryRecordFormat.readString(in);
+			stringTable.add(value);
+			return value;
+		case BinaryRecordFormat.STRING_INLINE:
+			return BinaryRecordFormat.readString(in);
+		default:
+			int id = code - BinaryRecordFormat.STRING_TABLE_OFFSET;
+			if (id >= stringTable.size()) {
+				throw new IOException("Record refers to undefined string " + id);
+			}
+			return stringTable.get(id);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Dictionary entry of a record type.
+	 */
+	private static final class TypeEntry {
+		private final RecordSerializer serializer;
+		private final int[] encodings;
+		private final int[] targetIndices;
+		private final long[] lastValues;
+
+		private TypeEntry(RecordSerializer serializer, int numFields) {
+			this.serializer = serializer;
+			this.encodings = new int[numFields];
+			this.targetIndices = new int[numFields];
+			this.lastValues = new long[numFields];
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.utils;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.RecordSerializer;
+import org.aim.api.measurement.RecordValue;
+
+/**
+ * Writes records to an output stream in the binary record format (see
+ * {@link BinaryRecordFormat}). A writer is stateful (type dictionary, string
+ * table and delta values) and must not be shared between threads.
+ *
+ * @author Alexander Wert
+ *
+ */
+public class BinaryRecordWriter implements Closeable, Flushable {
+
+	private final DataOutputStream out;
+	private final Map<Class<? extends AbstractRecord>, TypeEntry> types = new HashMap<>();
+	private final Map<String, Integer> stringTable = new HashMap<>();
+
+	/**
+	 * Constructor. Writes the format header to the stream.
+	 *
+	 * @param oStream
+	 *            stream to write to. Should be buffered.
+	 * @throws IOException
+	 *             if the header cannot be written
+	 */
+	public BinaryRecordWriter(OutputStream oStream) throws IOException {
+		out = new DataOutputStream(oStream);
+		out.writeInt(BinaryRecordFormat.MAGIC);
+		out.writeByte(BinaryRecordFormat.VERSION);
+	}
+
+	/**
+	 * Writes a record to the stream.
+	 *
+	 * @param record
+	 *            record to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void write(AbstractRecord record) throws IOException {
+		TypeEntry type = types.get(record.getClass());
+		if (type == null) {
+			type = writeTypeEntry(record.getClass());
+		}
+
+		RecordSerializer serializer = type.serializer;
+		out.writeByte(BinaryRecordFormat.TAG_RECORD);
+		BinaryRecordFormat.writeVarLong(out, type.id);
+		for (int i = 0; i < type.encodings.length; i++) {
+			switch (type.encodings[i]) {
+			case BinaryRecordFormat.ENCODING_LONG:
+				BinaryRecordFormat.writeSignedVarLong(out, serializer.getLong(record, i));
+				break;
+			case BinaryRecordFormat.ENCODING_LONG_DELTA:
+				long value = serializer.getLong(record, i);
+				BinaryRecordFormat.writeSignedVarLong(out, value - type.lastValues[i]);
+				type.lastValues[i] = value;
+				break;
+			case BinaryRecordFormat.ENCODING_INT:
+				BinaryRecordFormat.writeSignedVarLong(out, serializer.getInt(record, i));
+				break;
+			case BinaryRecordFormat.ENCODING_DOUBLE:
+				out.writeDouble(serializer.getDouble(record, i));
+				break;
+			case BinaryRecordFormat.ENCODING_DOUBLE_XOR:
+				long bits = Double.doubleToLongBits(serializer.getDouble(record, i));
+				BinaryRecordFormat.writeVarLong(out, Long.reverse(bits ^ type.lastValues[i]));
+				type.lastValues[i] = bits;
+				break;
+			case BinaryRecordFormat.ENCODING_BOOLEAN:
+				out.writeBoolean(serializer.getBoolean(record, i));
+				break;
+			case BinaryRecordFormat.ENCODING_STRING:
+				writeStringValue(serializer.getString(record, i));
+				break;
+			default:
+				Object textValue = serializer.getValue(record, i);
+				writeStringValue(textValue == null ? null : textValue.toString());
+				break;
+			}
+		}
+		long weightBits = Double.doubleToLongBits(record.getSamplingWeight());
+		BinaryRecordFormat.writeVarLong(out, Long.reverse(weightBits ^ type.lastWeightBits));
+		type.lastWeightBits = weightBits;
+	}
+
+	private TypeEntry writeTypeEntry(Class<? extends AbstractRecord> recordType) throws IOException {
+		RecordSerializer serializer = RecordSerializer.getSerializer(recordType);
+		Field[] fields = serializer.getFields();
+		TypeEntry type = new TypeEntry(types.size(), serializer);
+
+		out.writeByte(BinaryRecordFormat.TAG_TYPE);
+		BinaryRecordFormat.writeVarLong(out, type.id);
+		BinaryRecordFormat.writeString(out, recordType.getName());
+		BinaryRecordFormat.writeVarLong(out, fields.length + 1);
+		for (int i = 0; i < fields.length; i++) {
+			type.encodings[i] = encodingOf(fields[i]);
+			BinaryRecordFormat.writeString(out, fields[i].getName());
+			out.writeByte(type.encodings[i]);
+		}
+		BinaryRecordFormat.writeString(out, AbstractRecord.PAR_SAMPLING_WEIGHT);
+		out.writeByte(BinaryRecordFormat.ENCODING_DOUBLE_XOR);
+		types.put(recordType, type);
+		return type;
+	}
+
+	private static int encodingOf(Field field) {
+		Class<?> type = field.getType();
+		if (type.equals(long.class)) {
+			boolean sequential = field.getAnnotation(RecordValue.class).isTimestamp()
+					|| field.getName().equals(AbstractRecord.PAR_CALL_ID);
+			return sequential ? BinaryRecordFormat.ENCODING_LONG_DELTA : BinaryRecordFormat.ENCODING_LONG;
+		} else if (type.equals(int.class)) {
+			return BinaryRecordFormat.ENCODING_INT;
+		} else if (type.equals(double.class)) {
+			return BinaryRecordFormat.ENCODING_DOUBLE;
+		} else if (type.equals(boolean.class)) {
+			return BinaryRecordFormat.ENCODING_BOOLEAN;
+		} else if (type.equals(String.class)) {
+			return BinaryRecordFormat.ENCODING_STRING;
+		}
+		return BinaryRecordFormat.ENCODING_TEXT;
+	}
+
+	private void writeStringValue(String value) throws IOException {
+		if (value == null) {
+			BinaryRecordFormat.writeVarLong(out, BinaryRecordFormat.STRING_NULL);
+			return;
+		}
+		Integer id = stringTable.get(value);
+		if (id != null) {
+			BinaryRecordFormat.writeVarLong(out, id + BinaryRecordFormat.STRING_TABLE_OFFSET);
+		} else if (stringTable.size() < BinaryRecordFormat.MAX_STRING_TABLE_SIZE
+				&& value.length() <= BinaryRecordFormat.MAX_INTERNED_STRING_LENGTH) {
+			stringTable.put(value, stringTable.size());
+			BinaryRecordFormat.writeVarLong(out, BinaryRecordFormat.STRING_NEW);
+			BinaryRecordFormat.writeString(out, value);
+		} else {
+			BinaryRecordFormat.writeVarLong(out, BinaryRecordFormat.STRING_INLINE);
+			BinaryRecordFormat.writeString(out, value);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Dictionary entry of a record type.
+	 */
+	private static final class TypeEntry {
+		private final int id;
+		private final RecordSerializer serializer;
+		private final int[] encodings;
+		private final long[] lastValues;
+		private long lastWeightBits;
+
+		private TypeEntry(int id, RecordSerializer serializer) {
+			this.id = id;
+			this.serializer = serializer;
+			this.encodings = new int[serializer.getFields().length];
+			this.lastValues = new long[encodings.length];
+		}
+	}
+}
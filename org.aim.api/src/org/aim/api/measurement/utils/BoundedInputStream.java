@@ -0,0 +1,86 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream which reads at most a given number of bytes from the wrapped
+ * stream. Used to read a file only up to the part which has been completely
+ * written, while a writer is still appending to it.
+ *
+ * @author Alexander Wert
+ *
+ */
+public class BoundedInputStream extends FilterInputStream {
+	private long remaining;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param in
+	 *            stream to read from
+	 * @param maxBytes
+	 *            maximum number of bytes to read
+	 */
+	public BoundedInputStream(InputStream in, long maxBytes) {
+		super(in);
+		this.remaining = maxBytes;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (remaining <= 0) {
+			return -1;
+		}
+		int b = super.read();
+		if (b >= 0) {
+			remaining--;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (remaining <= 0) {
+			return -1;
+		}
+		int count = super.read(bytes, offset, (int) Math.min(length, remaining));
+		if (count > 0) {
+			remaining -= count;
+		}
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(Math.min(n, remaining));
+		remaining -= skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(super.available(), remaining);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
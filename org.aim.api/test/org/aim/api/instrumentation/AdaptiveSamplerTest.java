@@ -0,0 +1,137 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.instrumentation;
+
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class AdaptiveSamplerTest {
+
+	private static final String METHOD_A = "org.test.A.a()";
+	private static final String METHOD_B = "org.test.B.b()";
+	private static final long NO_AUTOMATIC_ADJUSTMENT = 3600000L;
+
+	@After
+	public void resetSampler() {
+		AdaptiveSampler.reset();
+		AdaptiveSampler.configure(0.0, 0.0, AdaptiveSampler.DEFAULT_ADJUSTMENT_INTERVAL);
+	}
+
+	private double callRepeatedly(int id, int numCalls) {
+		double weightSum = 0.0;
+		for (int i = 0; i < numCalls; i++) {
+			weightSum += AdaptiveSampler.sample(id);
+		}
+		return weightSum;
+	}
+
+	@Test
+	public void testConfiguration() {
+		Assert.assertFalse(AdaptiveSampler.isEnabled());
+		Properties properties = new Properties();
+		properties.setProperty(AdaptiveSampler.MAX_RECORDS_PER_SECOND_KEY, "invalid");
+		AdaptiveSampler.configure(properties);
+		Assert.assertFalse(AdaptiveSampler.isEnabled());
+
+		properties.setProperty(AdaptiveSampler.MAX_RECORDS_PER_SECOND_KEY, "100");
+		AdaptiveSampler.configure(properties);
+		Assert.assertTrue(AdaptiveSampler.isEnabled());
+	}
+
+	@Test
+	public void testRegistration() {
+		AdaptiveSampler.configure(100.0, 0.0, NO_AUTOMATIC_ADJUSTMENT);
+		int idA = AdaptiveSampler.register(METHOD_A, 1.0);
+		int idB = AdaptiveSampler.register(METHOD_B, 0.5);
+		Assert.assertTrue(idA != idB);
+		Assert.assertEquals(idA, AdaptiveSampler.register(METHOD_A, 1.0));
+		Assert.assertEquals(1.0, AdaptiveSampler.getProbability(METHOD_A), 0.0);
+		Assert.assertEquals(0.5, AdaptiveSampler.getProbability(METHOD_B), 0.0);
+		Assert.assertEquals(-1.0, AdaptiveSampler.getProbability("unknown()"), 0.0);
+		Assert.assertEquals(1.0, AdaptiveSampler.sample(idA), 0.0);
+	}
+
+	@Test
+	public void testProbabilityAdaptsToCallRate() {
+		AdaptiveSampler.configure(100.0, 0.0, NO_AUTOMATIC_ADJUSTMENT);
+		int id = AdaptiveSampler.register(METHOD_A, 1.0);
+
+		callRepeatedly(id, 10000);
+		AdaptiveSampler.adjust(1.0);
+		Assert.assertEquals(0.01, AdaptiveSampler.getProbability(METHOD_A), 0.0001);
+
+		// the sum of the weights estimates the number of calls
+		double weightSum = callRepeatedly(id, 100000);
+		Assert.assertEquals(100000.0, weightSum, 15000.0);
+
+		AdaptiveSampler.adjust(1.0);
+		double probability = AdaptiveSampler.getProbability(METHOD_A);
+		Assert.assertEquals(0.001, probability, 0.0003);
+
+		// without calls, the probability grows at most by factor two
+		AdaptiveSampler.adjust(1.0);
+		Assert.assertEquals(2.0 * probability, AdaptiveSampler.getProbability(METHOD_A), 0.0);
+	}
+
+	@Test
+	public void testProbabilityBoundedByGranularity() {
+		AdaptiveSampler.configure(1000.0, 0.0, NO_AUTOMATIC_ADJUSTMENT);
+		int id = AdaptiveSampler.register(METHOD_A, 0.25);
+		callRepeatedly(id, 100);
+		AdaptiveSampler.adjust(1.0);
+		Assert.assertEquals(0.25, AdaptiveSampler.getProbability(METHOD_A), 0.0);
+	}
+
+	@Test
+	public void testTotalBudgetSharedByCalledMethods() {
+		AdaptiveSampler.configure(0.0, 100.0, NO_AUTOMATIC_ADJUSTMENT);
+		int idA = AdaptiveSampler.register(METHOD_A, 1.0);
+		int idB = AdaptiveSampler.register(METHOD_B, 1.0);
+		callRepeatedly(idA, 1000);
+		callRepeatedly(idB, 5000);
+		AdaptiveSampler.adjust(1.0);
+		Assert.assertEquals(0.05, AdaptiveSampler.getProbability(METHOD_A), 0.0001);
+		Assert.assertEquals(0.01, AdaptiveSampler.getProbability(METHOD_B), 0.0001);
+	}
+
+	@Test
+	public void testStaleIdsAfterReset() {
+		AdaptiveSampler.configure(100.0, 0.0, NO_AUTOMATIC_ADJUSTMENT);
+		int id = AdaptiveSampler.register(METHOD_A, 1.0);
+		AdaptiveSampler.reset();
+		Assert.assertEquals(0.0, AdaptiveSampler.sample(id), 0.0);
+		Assert.assertEquals(0.0, AdaptiveSampler.sample(Integer.MAX_VALUE), 0.0);
+		Assert.assertEquals(0.0, AdaptiveSampler.sample(-1), 0.0);
+	}
+
+	@Test
+	public void testResetRestoresProbability() {
+		AdaptiveSampler.configure(100.0, 0.0, NO_AUTOMATIC_ADJUSTMENT);
+		int id = AdaptiveSampler.register(METHOD_A, 1.0);
+		callRepeatedly(id, 10000);
+		AdaptiveSampler.adjust(1.0);
+		Assert.assertTrue(AdaptiveSampler.getProbability(METHOD_A) < 1.0);
+
+		AdaptiveSampler.reset();
+		Assert.assertEquals(-1.0, AdaptiveSampler.getProbability(METHOD_A), 0.0);
+		AdaptiveSampler.register(METHOD_A, 1.0);
+		Assert.assertEquals(1.0, AdaptiveSampler.getProbability(METHOD_A), 0.0);
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.instrumentation;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aim.api.instrumentation.CallIdGenerator.Strategy;
+
+/**
+ * Microbenchmark for the call id generation. Measures the throughput of all
+ * {@link Strategy strategies} and of the former shared volatile counter for 1
+ * up to 64 threads. Run it with the main method, e.g.
+ * {@code java -cp <classpath> org.aim.api.instrumentation.CallIdGeneratorBenchmark [idsPerThread]}.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class CallIdGeneratorBenchmark {
+	private static final int MAX_THREADS = 64;
+	private static final long DEFAULT_IDS_PER_THREAD = 2000000L;
+	private static final int WARMUP_ROUNDS = 3;
+	private static final double MILLION_PER_SECOND_PER_NANO = 1000.0;
+
+	private static volatile long legacyCallId = 1L;
+	private static final AtomicLong SINK = new AtomicLong();
+
+	private CallIdGeneratorBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark and prints the throughput in million ids per second.
+	 * 
+	 * @param args
+	 *            optional number of ids per thread
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		long idsPerThread = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_IDS_PER_THREAD;
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			for (Strategy strategy : Strategy.values()) {
+				run(strategy, Runtime.getRuntime().availableProcessors(), idsPerThread);
+			}
+			run(null, Runtime.getRuntime().availableProcessors(), idsPerThread);
+		}
+
+		System.out.printf("%8s %16s %16s %16s %16s%n", "threads", "LEGACY_VOLATILE", Strategy.BLOCK,
+				Strategy.THREAD_PREFIXED, Strategy.SHARED);
+		for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+			System.out.printf("%8d %16.1f %16.1f %16.1f %16.1f%n", threads, run(null, threads, idsPerThread),
+					run(Strategy.BLOCK, threads, idsPerThread), run(Strategy.THREAD_PREFIXED, threads, idsPerThread),
+					run(Strategy.SHARED, threads, idsPerThread));
+		}
+		System.out.println("(million ids per second, LEGACY_VOLATILE produces duplicate ids under concurrency)");
+	}
+
+	/**
+	 * Runs one measurement.
+	 * 
+	 * @param strategy
+	 *            strategy to measure, null for the legacy volatile counter
+	 * @param numThreads
+	 *            number of concurrent threads
+	 * @param idsPerThread
+	 *            number of ids each thread generates
+	 * @return throughput in million ids per second
+	 */
+	private static double run(final Strategy strategy, int numThreads, final long idsPerThread)
+			throws InterruptedException {
+		if (strategy != null) {
+			CallIdGenerator.configure(strategy, CallIdGenerator.DEFAULT_BLOCK_SIZE);
+		}
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(numThreads);
+		for (int t = 0; t < numThreads; t++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long checksum = 0;
+					if (strategy == null) {
+						for (long i = 0; i < idsPerThread; i++) {
+							checksum += legacyCallId++;
+						}
+					} else {
+						for (long i = 0; i < idsPerThread; i++) {
+							checksum += GenericProbe.getNewCallID();
+						}
+					}
+					SINK.addAndGet(checksum);
+					done.countDown();
+				}
+			};
+			thread.start();
+		}
+		long startTime = System.nanoTime();
+		start.countDown();
+		done.await();
+		long duration = System.nanoTime() - startTime;
+		return numThreads * idsPerThread * MILLION_PER_SECOND_PER_NANO / duration;
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.instrumentation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.aim.api.instrumentation.CallIdGenerator.Strategy;
+import org.junit.After;
+import org.junit.Test;
+
+public class CallIdGeneratorTest {
+
+	private static final int NUM_THREADS = 16;
+	private static final int IDS_PER_THREAD = 10000;
+
+	@After
+	public void resetStrategy() {
+		CallIdGenerator.configure(Strategy.BLOCK, CallIdGenerator.DEFAULT_BLOCK_SIZE);
+	}
+
+	private void assertUniqueIds(Strategy strategy, long blockSize) throws InterruptedException {
+		CallIdGenerator.configure(strategy, blockSize);
+		final long[][] ids = new long[NUM_THREADS][IDS_PER_THREAD];
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < NUM_THREADS; t++) {
+			final long[] threadIds = ids[t];
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < IDS_PER_THREAD; i++) {
+						threadIds[i] = GenericProbe.getNewCallID();
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Set<Long> uniqueIds = new HashSet<Long>();
+		for (long[] threadIds : ids) {
+			for (long id : threadIds) {
+				Assert.assertTrue(id > 0);
+				Assert.assertTrue("Duplicate call id " + id, uniqueIds.add(id));
+			}
+		}
+		Assert.assertEquals(NUM_THREADS * IDS_PER_THREAD, uniqueIds.size());
+	}
+
+	@Test
+	public void testBlockIdsAreUnique() throws InterruptedException {
+		assertUniqueIds(Strategy.BLOCK, 7L);
+	}
+
+	@Test
+	public void testThreadPrefixedIdsAreUnique() throws InterruptedException {
+		assertUniqueIds(Strategy.THREAD_PREFIXED, 0L);
+	}
+
+	@Test
+	public void testSharedIdsAreUnique() throws InterruptedException {
+		assertUniqueIds(Strategy.SHARED, 0L);
+	}
+
+	@Test
+	public void testIdsOfAThreadIncrease() {
+		CallIdGenerator.configure(Strategy.BLOCK, 2L);
+		long previous = CallIdGenerator.nextId();
+		for (int i = 0; i < 10; i++) {
+			long id = CallIdGenerator.nextId();
+			Assert.assertTrue(id > previous);
+			previous = id;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.instrumentation;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class InvocationStatisticsTest {
+
+	private static final String METHOD_A = "org.test.A.a()";
+	private static final String METHOD_B = "org.test.B.b()";
+
+	@After
+	public void resetStatistics() {
+		InvocationStatistics.reset();
+	}
+
+	@Test
+	public void testCountsInvocations() {
+		int idA = InvocationStatistics.register(METHOD_A);
+		int idB = InvocationStatistics.register(METHOD_B);
+		Assert.assertEquals(idA, InvocationStatistics.register(METHOD_A));
+
+		int measured = 0;
+		for (int i = 0; i < 2 * InvocationStatistics.COST_SAMPLING_PERIOD; i++) {
+			long start = InvocationStatistics.enter(idA);
+			if (start != 0L) {
+				InvocationStatistics.exit(idA, 10L);
+				measured++;
+			}
+		}
+		InvocationStatistics.enter(idB);
+
+		Map<String, InvocationStatistics.Snapshot> snapshot = InvocationStatistics.snapshot();
+		Assert.assertEquals(2 * InvocationStatistics.COST_SAMPLING_PERIOD, snapshot.get(METHOD_A).getCalls());
+		Assert.assertEquals(2, measured);
+		Assert.assertEquals(2, snapshot.get(METHOD_A).getMeasuredCalls());
+		Assert.assertEquals(20L, snapshot.get(METHOD_A).getProbeNanos());
+		Assert.assertEquals(1, snapshot.get(METHOD_B).getCalls());
+	}
+
+	@Test
+	public void testCountsConcurrentInvocations() throws InterruptedException {
+		final int id = InvocationStatistics.register(METHOD_A);
+		final int callsPerThread = 10 * InvocationStatistics.COST_SAMPLING_PERIOD;
+		final AtomicLong measured = new AtomicLong();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < callsPerThread; j++) {
+						if (InvocationStatistics.enter(id) != 0L) {
+							InvocationStatistics.exit(id, 1L);
+							measured.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		InvocationStatistics.Snapshot snapshot = InvocationStatistics.snapshot().get(METHOD_A);
+		Assert.assertEquals(threads.length * callsPerThread, snapshot.getCalls());
+		Assert.assertEquals(measured.get(), snapshot.getMeasuredCalls());
+		Assert.assertEquals(measured.get(), snapshot.getProbeNanos());
+		Assert.assertTrue(measured.get() > 0);
+	}
+
+	@Test
+	public void testStaleIdsAfterReset() {
+		int id = InvocationStatistics.register(METHOD_A);
+		InvocationStatistics.reset();
+
+		// probes woven before the reset keep calling with their old ids
+		for (int i = 0; i < 2 * InvocationStatistics.COST_SAMPLING_PERIOD; i++) {
+			Assert.assertEquals(0L, InvocationStatistics.enter(id));
+			InvocationStatistics.exit(id, 10L);
+		}
+		Assert.assertEquals(0L, InvocationStatistics.enter(Integer.MAX_VALUE));
+		InvocationStatistics.exit(Integer.MAX_VALUE, 10L);
+		Assert.assertEquals(0L, InvocationStatistics.enter(-1));
+		InvocationStatistics.exit(-1, 10L);
+		Assert.assertTrue(InvocationStatistics.snapshot().isEmpty());
+	}
+}
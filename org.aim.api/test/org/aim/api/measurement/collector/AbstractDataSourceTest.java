@@ -0,0 +1,140 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.collector;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.aim.api.exceptions.MeasurementException;
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.MeasurementData;
+import org.aim.api.measurement.collector.RecordRingBufferTest.TestRecord;
+import org.junit.Test;
+
+public class AbstractDataSourceTest {
+
+	private static final int NUM_RECORDS = 1000;
+
+	/**
+	 * Data source recording the sizes of the processed batches.
+	 */
+	private static class BatchRecordingDataSource extends AbstractDataSource {
+		private final List<Integer> batchSizes = new ArrayList<>();
+		private final List<AbstractRecord> processed = new ArrayList<>();
+
+		@Override
+		protected void process(AbstractRecord record) {
+			processed.add(record);
+		}
+
+		@Override
+		protected void processBatch(List<AbstractRecord> batch) {
+			batchSizes.add(batch.size());
+			super.processBatch(batch);
+		}
+
+		@Override
+		protected void cleanUp() {
+		}
+
+		@Override
+		protected void init() throws MeasurementException {
+		}
+
+		@Override
+		public void initialize(Properties properties) {
+		}
+
+		@Override
+		public MeasurementData read() throws MeasurementException {
+			MeasurementData data = new MeasurementData();
+			data.setRecords(new ArrayList<>(processed));
+			return data;
+		}
+
+		@Override
+		public void pipeToOutputStream(OutputStream oStream) throws MeasurementException {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static BatchRecordingDataSource createDataSource(int minBatchSize, int maxBatchSize) {
+		BatchRecordingDataSource dataSource = new BatchRecordingDataSource();
+		Properties properties = new Properties();
+		properties.setProperty(AbstractDataSource.MIN_BATCH_SIZE_KEY, String.valueOf(minBatchSize));
+		properties.setProperty(AbstractDataSource.MAX_BATCH_SIZE_KEY, String.valueOf(maxBatchSize));
+		dataSource.configurePipe(properties);
+		return dataSource;
+	}
+
+	@Test
+	public void testBacklogIsDrainedInGrowingBatches() {
+		BatchRecordingDataSource dataSource = createDataSource(4, 64);
+		for (int i = 0; i < NUM_RECORDS; i++) {
+			dataSource.records.add(new TestRecord(i));
+		}
+		// the data source is not enabled, thus, the drain thread stops as
+		// soon as the pipe is empty
+		dataSource.run();
+
+		Assert.assertEquals(NUM_RECORDS, dataSource.processed.size());
+		for (int i = 0; i < NUM_RECORDS; i++) {
+			Assert.assertEquals(i, dataSource.processed.get(i).getTimeStamp());
+		}
+		int expectedSize = 4;
+		int total = 0;
+		for (int batchSize : dataSource.batchSizes) {
+			Assert.assertEquals(Math.min(expectedSize, NUM_RECORDS - total), batchSize);
+			total += batchSize;
+			expectedSize = Math.min(expectedSize * 2, 64);
+		}
+		Assert.assertTrue(dataSource.isFinished());
+	}
+
+	@Test
+	public void testBatchSizeAdaptation() {
+		BatchRecordingDataSource dataSource = createDataSource(16, 256);
+		// full batches let the batch size grow up to the maximum
+		Assert.assertEquals(32, dataSource.adaptBatchSize(16, 16));
+		Assert.assertEquals(256, dataSource.adaptBatchSize(256, 256));
+		// partially filled batches keep the batch size
+		Assert.assertEquals(64, dataSource.adaptBatchSize(64, 20));
+		// nearly idle pipes let the batch size shrink down to the minimum
+		Assert.assertEquals(32, dataSource.adaptBatchSize(64, 15));
+		Assert.assertEquals(16, dataSource.adaptBatchSize(16, 0));
+	}
+
+	@Test
+	public void testInvalidBatchSizes() {
+		BatchRecordingDataSource dataSource = createDataSource(32, 8);
+		// the maximum is raised to the minimum
+		Assert.assertEquals(32, dataSource.adaptBatchSize(32, 32));
+
+		Properties properties = new Properties();
+		properties.setProperty(AbstractDataSource.MIN_BATCH_SIZE_KEY, "many");
+		properties.setProperty(AbstractDataSource.MAX_BATCH_SIZE_KEY, "-1");
+		dataSource.configurePipe(properties);
+		Assert.assertEquals(AbstractDataSource.DEFAULT_MIN_BATCH_SIZE,
+				dataSource.adaptBatchSize(AbstractDataSource.DEFAULT_MIN_BATCH_SIZE, 0));
+		Assert.assertEquals(AbstractDataSource.DEFAULT_MAX_BATCH_SIZE,
+				dataSource.adaptBatchSize(AbstractDataSource.DEFAULT_MAX_BATCH_SIZE,
+						AbstractDataSource.DEFAULT_MAX_BATCH_SIZE));
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.collector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.aim.api.measurement.AbstractRecord;
+import org.junit.Test;
+
+public class RecordRingBufferTest {
+
+	public static class TestRecord extends AbstractRecord {
+		private static final long serialVersionUID = 1L;
+
+		public TestRecord(long timestamp) {
+			super(timestamp);
+		}
+	}
+
+	@Test
+	public void testCapacityIsPowerOfTwo() {
+		RecordRingBuffer buffer = new RecordRingBuffer(5, Thread.currentThread());
+		Assert.assertEquals(8, buffer.getCapacity());
+		Assert.assertTrue(buffer.isEmpty());
+	}
+
+	@Test
+	public void testDropNewest() {
+		RecordRingBuffer buffer = new RecordRingBuffer(4, Thread.currentThread());
+		for (int i = 0; i < 4; i++) {
+			Assert.assertTrue(buffer.offer(new TestRecord(i)));
+		}
+		Assert.assertFalse(buffer.offer(new TestRecord(4)));
+		Assert.assertEquals(4, buffer.size());
+
+		List<AbstractRecord> drained = new ArrayList<>();
+		Assert.assertEquals(4, buffer.drainTo(drained, 100));
+		for (int i = 0; i < 4; i++) {
+			Assert.assertEquals(i, drained.get(i).getTimeStamp());
+		}
+		Assert.assertTrue(buffer.isEmpty());
+		Assert.assertTrue(buffer.offer(new TestRecord(5)));
+	}
+
+	@Test
+	public void testDropOldest() {
+		RecordRingBuffer buffer = new RecordRingBuffer(4, Thread.currentThread());
+		for (int i = 0; i < 6; i++) {
+			buffer.offerDroppingOldest(new TestRecord(i));
+		}
+		Assert.assertEquals(2, buffer.getDroppedRecords());
+
+		List<AbstractRecord> drained = new ArrayList<>();
+		Assert.assertEquals(4, buffer.drainTo(drained, 100));
+		Assert.assertEquals(2, drained.get(0).getTimeStamp());
+		Assert.assertEquals(5, drained.get(3).getTimeStamp());
+	}
+
+	@Test
+	public void testConcurrentProducerAndConsumer() throws InterruptedException {
+		final int numRecords = 100000;
+		final RecordRingBuffer buffer = new RecordRingBuffer(64, Thread.currentThread());
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < numRecords; i++) {
+					buffer.offerDroppingOldest(new TestRecord(i));
+				}
+			}
+		});
+		producer.start();
+
+		List<AbstractRecord> drained = new ArrayList<>();
+		while (producer.isAlive() || !buffer.isEmpty()) {
+			buffer.drainTo(drained, 16);
+		}
+		producer.join();
+
+		Assert.assertEquals(numRecords, drained.size() + buffer.getDroppedRecords());
+		long last = -1;
+		for (AbstractRecord record : drained) {
+			Assert.assertTrue(record.getTimeStamp() > last);
+			last = record.getTimeStamp();
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.sampling;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class SamplingExecuterTest {
+	private static final long TIMEOUT = 10000L;
+
+	/**
+	 * Records the scheduled start, the actual start and the end of each
+	 * sample.
+	 */
+	private static class RecordingSampler extends AbstractSampler {
+		private final SamplingExecuter executer;
+		private final long sleepTime;
+		private final List<Long> deadlines = new CopyOnWriteArrayList<>();
+		private final List<Long> starts = new CopyOnWriteArrayList<>();
+		private final List<Long> ends = new CopyOnWriteArrayList<>();
+
+		public RecordingSampler(SamplingExecuter executer, long sleepTime) {
+			super(null);
+			this.executer = executer;
+			this.sleepTime = sleepTime;
+		}
+
+		@Override
+		public void sample() {
+			starts.add(System.nanoTime());
+			deadlines.add(executer.getTickDeadline());
+			try {
+				Thread.sleep(sleepTime);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			ends.add(System.nanoTime());
+		}
+	}
+
+	private static RecordingSampler createExecuter(long delay, long sleepTime) {
+		SamplingExecuter executer = new SamplingExecuter(delay);
+		RecordingSampler sampler = new RecordingSampler(executer, sleepTime);
+		executer.addSampler(sampler);
+		return sampler;
+	}
+
+	private static void awaitSamples(RecordingSampler sampler, int numSamples) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (sampler.ends.size() < numSamples && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5L);
+		}
+		sampler.executer.stop();
+		sampler.executer.waitForTermination();
+		Assert.assertTrue(sampler.ends.size() >= numSamples);
+	}
+
+	/**
+	 * Checks that the ticks are scheduled on the grid of the delay and are
+	 * not executed before their schedule.
+	 * 
+	 * @return number of ticks between the first and the last sample which
+	 *         have not been executed
+	 */
+	private static long assertTicksOnGrid(RecordingSampler sampler) {
+		long period = TimeUnit.MILLISECONDS.toNanos(sampler.executer.getDelay());
+		List<Long> deadlines = sampler.deadlines;
+		for (int i = 0; i < deadlines.size(); i++) {
+			Assert.assertTrue(sampler.starts.get(i) >= deadlines.get(i));
+			if (i > 0) {
+				long distance = deadlines.get(i) - deadlines.get(i - 1);
+				Assert.assertTrue(distance > 0L);
+				Assert.assertEquals(0L, distance % period);
+			}
+		}
+		return (deadlines.get(deadlines.size() - 1) - deadlines.get(0)) / period - (deadlines.size() - 1);
+	}
+
+	@Test
+	public void testSamplingTimeDoesNotShiftTicks() throws InterruptedException {
+		RecordingSampler sampler = createExecuter(20L, 15L);
+		sampler.executer.start();
+		awaitSamples(sampler, 10);
+
+		// sleeping between the samples would shift the ticks off the grid
+		long skipped = assertTicksOnGrid(sampler);
+		// ticks may also have been skipped after the last sample
+		Assert.assertTrue(skipped <= sampler.executer.getMissedTicks());
+		Assert.assertEquals(sampler.executer.getNumTicks(), sampler.ends.size());
+		Assert.assertEquals(sampler.executer.getNumTicks(), sampler.executer.getSamplerStatistics(0).getSamples());
+		Assert.assertTrue(sampler.executer.getSamplerStatistics(0).getMaxExecutionTime() >= 15000000L);
+	}
+
+	@Test
+	public void testOverdueTicksAreSkipped() throws InterruptedException {
+		RecordingSampler sampler = createExecuter(10L, 35L);
+		sampler.executer.start();
+		awaitSamples(sampler, 4);
+
+		assertTicksOnGrid(sampler);
+		for (int i = 1; i < sampler.deadlines.size(); i++) {
+			// overdue ticks are not executed in a burst
+			Assert.assertTrue(sampler.deadlines.get(i) > sampler.ends.get(i - 1));
+		}
+		// each sample takes more than three delays
+		Assert.assertTrue(sampler.executer.getMissedTicks() >= 3L * (sampler.executer.getNumTicks() - 1L));
+	}
+
+	@Test
+	public void testNoSamplesAfterStop() throws InterruptedException {
+		RecordingSampler sampler = createExecuter(5L, 0L);
+		sampler.executer.start();
+		awaitSamples(sampler, 3);
+		int samples = sampler.ends.size();
+
+		Thread.sleep(50L);
+		Assert.assertEquals(samples, sampler.ends.size());
+	}
+
+	@Test
+	public void testBlockedSamplerDoesNotDelayOtherExecuters() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		SamplingExecuter blockedExecuter = new SamplingExecuter(10L);
+		blockedExecuter.addSampler(new AbstractSampler(null) {
+			@Override
+			public void sample() {
+				try {
+					release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		RecordingSampler sampler = createExecuter(10L, 0L);
+		blockedExecuter.start();
+		sampler.executer.start();
+		try {
+			awaitSamples(sampler, 5);
+			// the first tick of the blocked executer is still running
+			Assert.assertEquals(1L, blockedExecuter.getNumTicks());
+		} finally {
+			release.countDown();
+			blockedExecuter.stop();
+			blockedExecuter.waitForTermination();
+		}
+	}
+
+	@Test
+	public void testStaleTickAfterRestart() throws InterruptedException {
+		RecordingSampler sampler = createExecuter(10L, 0L);
+		SamplingExecuter executer = sampler.executer;
+		synchronized (executer) {
+			executer.start();
+			// the first tick has been dispatched and waits for the executer
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			while (!isTickBlocked() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1L);
+			}
+			Assert.assertTrue(isTickBlocked());
+			executer.stop();
+			executer.start();
+		}
+		awaitSamples(sampler, 5);
+
+		// the tick of the first start would run before the schedule of the
+		// second start and would start a second chain of ticks
+		assertTicksOnGrid(sampler);
+		Assert.assertEquals(executer.getNumTicks(), sampler.ends.size());
+	}
+
+	private static boolean isTickBlocked() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("AIM-Sampler-") && thread.getState() == Thread.State.BLOCKED) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
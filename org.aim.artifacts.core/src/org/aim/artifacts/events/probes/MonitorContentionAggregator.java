@@ -0,0 +1,309 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.events.probes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.aim.api.instrumentation.IInstrumentationUtil;
+import org.aim.api.instrumentation.InstrumentationUtilsController;
+import org.aim.api.measurement.collector.AbstractDataSource;
+import org.aim.artifacts.records.MonitorContentionRecord;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * Aggregates monitor events within the agent. Each wait event of a thread is
+ * paired with the subsequent entered event of the same thread, the resulting
+ * waiting times are accumulated per monitor class (or per monitor instance)
+ * and flushed periodically as {@link MonitorContentionRecord}s. Thus, the
+ * number of records does not grow with the number of contended monitor
+ * enters.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class MonitorContentionAggregator implements IInstrumentationUtil {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(MonitorContentionAggregator.class);
+
+	/**
+	 * Property key for the interval in milliseconds in which the aggregated
+	 * contention statistics are flushed.
+	 */
+	public static final String FLUSH_INTERVAL_KEY = "org.aim.monitorContention.flushInterval";
+
+	/**
+	 * Property key for aggregating the statistics per monitor instance
+	 * instead of per monitor class.
+	 */
+	public static final String PER_MONITOR_KEY = "org.aim.monitorContention.perMonitor";
+
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+
+	private static final int NUM_HISTOGRAM_BUCKETS = 40;
+	private static final char HISTOGRAM_VALUE_SEPARATOR = ':';
+	private static final char HISTOGRAM_BUCKET_SEPARATOR = '|';
+
+	private static volatile long flushInterval = DEFAULT_FLUSH_INTERVAL;
+	private static volatile boolean perMonitor = false;
+
+	/**
+	 * Lazily initialized singleton.
+	 */
+	private static final class InstanceHolder {
+		private static final MonitorContentionAggregator INSTANCE = new MonitorContentionAggregator();
+	}
+
+	/**
+	 * 
+	 * @return singleton instance of the aggregator
+	 */
+	public static MonitorContentionAggregator getInstance() {
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Configures the aggregation from the agent properties.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		long interval = DEFAULT_FLUSH_INTERVAL;
+		String value = properties == null ? null : properties.getProperty(FLUSH_INTERVAL_KEY);
+		if (value != null) {
+			try {
+				interval = Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				LOGGER.warn("Invalid value for {}: {}", FLUSH_INTERVAL_KEY, value);
+			}
+		}
+		if (interval <= 0L) {
+			LOGGER.warn("Invalid value for {}: {}", FLUSH_INTERVAL_KEY, interval);
+			interval = DEFAULT_FLUSH_INTERVAL;
+		}
+		flushInterval = interval;
+
+		value = properties == null ? null : properties.getProperty(PER_MONITOR_KEY);
+		perMonitor = value != null && Boolean.parseBoolean(value.trim());
+	}
+
+	/**
+	 * Waiting time statistics of one monitor (class).
+	 */
+	private static final class ContentionStats {
+		private long count;
+		private long totalWaitTime;
+		private long maxWaitTime;
+		private final long[] histogram = new long[NUM_HISTOGRAM_BUCKETS];
+
+		private void add(long waitTime) {
+			count++;
+			totalWaitTime += waitTime;
+			if (waitTime > maxWaitTime) {
+				maxWaitTime = waitTime;
+			}
+			histogram[bucketOf(waitTime)]++;
+		}
+	}
+
+	/**
+	 * Wait event which has not been paired with an entered event, yet.
+	 */
+	private static final class PendingWait {
+		private final String location;
+		private final long timestamp;
+
+		private PendingWait(String location, long timestamp) {
+			this.location = location;
+			this.timestamp = timestamp;
+		}
+	}
+
+	private final Map<Long, PendingWait> pendingWaits = new HashMap<>();
+	private Map<String, ContentionStats> statistics = new HashMap<>();
+	private Thread flushThread;
+
+	private MonitorContentionAggregator() {
+		InstrumentationUtilsController.getInstance().register(this);
+	}
+
+	/**
+	 * Registers that a thread started waiting on a monitor.
+	 * 
+	 * @param threadId
+	 *            id of the waiting thread
+	 * @param location
+	 *            location of the monitor
+	 * @param timestamp
+	 *            event time stamp in nanoseconds
+	 */
+	public synchronized void onWait(long threadId, String location, long timestamp) {
+		pendingWaits.put(threadId, new PendingWait(location, timestamp));
+		startFlushThread();
+	}
+
+	/**
+	 * Registers that a thread entered a monitor. If the thread has waited on
+	 * the same monitor, the waiting time is added to the statistics of the
+	 * monitor, otherwise the event is ignored.
+	 * 
+	 * @param threadId
+	 *            id of the thread
+	 * @param location
+	 *            location of the monitor
+	 * @param timestamp
+	 *            event time stamp in nanoseconds
+	 */
+	public synchronized void onEntered(long threadId, String location, long timestamp) {
+		PendingWait wait = pendingWaits.remove(threadId);
+		if (wait == null || location == null || !location.equals(wait.location)) {
+			return;
+		}
+		String key = perMonitor ? location : getMonitorClass(location);
+		ContentionStats stats = statistics.get(key);
+		if (stats == null) {
+			stats = new ContentionStats();
+			statistics.put(key, stats);
+		}
+		stats.add(Math.max(timestamp - wait.timestamp, 0L));
+	}
+
+	/**
+	 * Sends the statistics aggregated since the last flush to the default
+	 * data source.
+	 */
+	public void flush() {
+		List<MonitorContentionRecord> records = collectRecords(System.currentTimeMillis());
+		if (records.isEmpty()) {
+			return;
+		}
+		AbstractDataSource dataSource = AbstractDataSource.getDefaultDataSource();
+		for (MonitorContentionRecord record : records) {
+			dataSource.newRecord(record);
+		}
+	}
+
+	/**
+	 * Creates the records for the statistics aggregated since the last call
+	 * and resets the statistics.
+	 * 
+	 * @param timestamp
+	 *            time stamp of the records
+	 * @return summary records
+	 */
+	List<MonitorContentionRecord> collectRecords(long timestamp) {
+		Map<String, ContentionStats> collected;
+		synchronized (this) {
+			if (statistics.isEmpty()) {
+				return new ArrayList<>();
+			}
+			collected = statistics;
+			statistics = new HashMap<>();
+		}
+
+		List<MonitorContentionRecord> records = new ArrayList<>(collected.size());
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, ContentionStats> entry : collected.entrySet()) {
+			ContentionStats stats = entry.getValue();
+			MonitorContentionRecord record = new MonitorContentionRecord();
+			record.setTimeStamp(timestamp);
+			record.setMonitor(entry.getKey());
+			record.setContentionCount(stats.count);
+			record.setTotalWaitTime(stats.totalWaitTime);
+			record.setMaxWaitTime(stats.maxWaitTime);
+
+			builder.setLength(0);
+			for (int i = 0; i < NUM_HISTOGRAM_BUCKETS; i++) {
+				if (stats.histogram[i] > 0) {
+					if (builder.length() > 0) {
+						builder.append(HISTOGRAM_BUCKET_SEPARATOR);
+					}
+					builder.append(i);
+					builder.append(HISTOGRAM_VALUE_SEPARATOR);
+					builder.append(stats.histogram[i]);
+				}
+			}
+			record.setWaitTimeHistogram(builder.toString());
+			records.add(record);
+		}
+		return records;
+	}
+
+	/**
+	 * Flushes the remaining statistics and stops the periodic flushing.
+	 */
+	@Override
+	public void clear() {
+		Thread thread;
+		synchronized (this) {
+			thread = flushThread;
+			flushThread = null;
+			pendingWaits.clear();
+		}
+		if (thread != null) {
+			thread.interrupt();
+		}
+		flush();
+	}
+
+	private void startFlushThread() {
+		if (flushThread != null) {
+			return;
+		}
+		flushThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!Thread.currentThread().isInterrupted()) {
+					try {
+						Thread.sleep(flushInterval);
+					} catch (InterruptedException e) {
+						return;
+					}
+					try {
+						flush();
+					} catch (RuntimeException e) {
+						LOGGER.warn("Failed flushing monitor contention statistics: {}", e.getMessage());
+					}
+				}
+			}
+		}, "AIM-Monitor-Contention-Flush");
+		flushThread.setDaemon(true);
+		flushThread.start();
+	}
+
+	/**
+	 * Strips the identity hash code from the monitor location.
+	 */
+	private static String getMonitorClass(String location) {
+		int index = location.lastIndexOf('@');
+		return index < 0 ? location : location.substring(0, index);
+	}
+
+	/**
+	 * Returns the histogram bucket of the waiting time, which is the position
+	 * of its highest one bit.
+	 */
+	static int bucketOf(long waitTime) {
+		if (waitTime <= 0L) {
+			return 0;
+		}
+		return Math.min(63 - Long.numberOfLeadingZeros(waitTime), NUM_HISTOGRAM_BUCKETS - 1);
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.events.probes;
+
+import org.aim.api.events.AbstractEventProbe;
+import org.aim.api.events.IMonitorEventProbe;
+import org.aim.description.probes.MeasurementProbe;
+import org.aim.description.scopes.SynchronizedScope;
+import org.lpe.common.extension.IExtension;
+
+/**
+ * Event probe for monitor contention statistics. In contrast to the
+ * {@link MonitorWaitingTimeProbe}, the probe does not create a record per
+ * event, but passes the events to the {@link MonitorContentionAggregator}
+ * which periodically creates summary records.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public class MonitorContentionProbe extends AbstractEventProbe implements IMonitorEventProbe {
+
+	/**
+	 * Default Constructor.
+	 */
+	public MonitorContentionProbe() {
+		super(null);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param provider
+	 *            extension provider.
+	 */
+	public MonitorContentionProbe(IExtension<?> provider) {
+		super(provider);
+	}
+
+	public static final MeasurementProbe<SynchronizedScope> MODEL_PROBE = new MeasurementProbe<>(MonitorContentionProbe.class.getName());
+
+	private String monitorLocation;
+	private long eventTimeStamp;
+	private String eventType;
+	private long threadId;
+
+	@Override
+	public void proceed() {
+		if (TYPE_WAIT_ON_MONITOR.equals(eventType)) {
+			MonitorContentionAggregator.getInstance().onWait(threadId, monitorLocation, eventTimeStamp);
+		} else if (TYPE_ENTERED_MONITOR.equals(eventType)) {
+			MonitorContentionAggregator.getInstance().onEntered(threadId, monitorLocation, eventTimeStamp);
+		}
+	}
+
+	@Override
+	public void setThread(Thread thread) {
+		if (thread == null) {
+			this.threadId = -1;
+		} else {
+			this.threadId = thread.getId();
+		}
+	}
+
+	@Override
+	public void setThreadId(long threadId) {
+		this.threadId = threadId;
+	}
+
+	@Override
+	public void setMonitor(Object monitor) {
+		StringBuilder locationBuilder = new StringBuilder();
+		locationBuilder.append(monitor == null ? "null" : monitor.getClass().getName());
+		if (monitor instanceof Class<?>) {
+			locationBuilder.append("<");
+			locationBuilder.append(((Class<?>) monitor).getName());
+			locationBuilder.append(">");
+		}
+		locationBuilder.append("@");
+		locationBuilder.append(monitor == null ? 0 : System.identityHashCode(monitor));
+		this.monitorLocation = locationBuilder.toString();
+	}
+
+	@Override
+	public void setMonitorLocation(String location) {
+		this.monitorLocation = location;
+	}
+
+	@Override
+	public void setEventType(String type) {
+		this.eventType = type;
+	}
+
+	@Override
+	public void setEventTimeStamp(long eventTimeStamp) {
+		this.eventTimeStamp = eventTimeStamp;
+	}
+
+}
@@ -52,7 +52,7 @@ public class MonitorWaitingTimeProbe extends AbstractEventProbe implements IMoni
 
 	public static final MeasurementProbe<SynchronizedScope> MODEL_PROBE = new MeasurementProbe<>(MonitorWaitingTimeProbe.class.getName());
 
-	private Object monitor;
+	private String monitorLocation;
 	private long eventTimeStamp;
 	private String eventType;
 	private long threadId;
@@ -60,16 +60,7 @@ public class MonitorWaitingTimeProbe extends AbstractEventProbe implements IMoni
 	@Override
 	public void proceed() {
 		EventTimeStampRecord record = new EventTimeStampRecord();
-		StringBuilder locationBuilder = new StringBuilder();
-		locationBuilder.append(monitor == null ? "null" : monitor.getClass().getName());
-		if (monitor instanceof Class<?>) {
-			locationBuilder.append("<");
-			locationBuilder.append(((Class<?>) monitor).getName());
-			locationBuilder.append(">");
-		}
-		locationBuilder.append("@");
-		locationBuilder.append(monitor == null ? 0 : monitor.hashCode());
-		record.setLocation(locationBuilder.toString());
+		record.setLocation(monitorLocation);
 		record.setThreadId(threadId);
 		record.setEventType("monitor-" + eventType);
 		record.setEventNanoTimestamp(eventTimeStamp);
@@ -89,9 +80,28 @@ public class MonitorWaitingTimeProbe extends AbstractEventProbe implements IMoni
 		}
 	}
 
+	@Override
+	public void setThreadId(long threadId) {
+		this.threadId = threadId;
+	}
+
 	@Override
 	public void setMonitor(Object monitor) {
-		this.monitor = monitor;
+		StringBuilder locationBuilder = new StringBuilder();
+		locationBuilder.append(monitor == null ? "null" : monitor.getClass().getName());
+		if (monitor instanceof Class<?>) {
+			locationBuilder.append("<");
+			locationBuilder.append(((Class<?>) monitor).getName());
+			locationBuilder.append(">");
+		}
+		locationBuilder.append("@");
+		locationBuilder.append(monitor == null ? 0 : System.identityHashCode(monitor));
+		this.monitorLocation = locationBuilder.toString();
+	}
+
+	@Override
+	public void setMonitorLocation(String location) {
+		this.monitorLocation = location;
 	}
 
 	@Override
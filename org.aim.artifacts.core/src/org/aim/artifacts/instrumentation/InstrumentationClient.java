@@ -15,9 +15,15 @@
  */
 package org.aim.artifacts.instrumentation;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import javax.ws.rs.core.MediaType;
 
@@ -27,7 +33,12 @@ import org.aim.api.instrumentation.AbstractEnclosingProbe;
 import org.aim.api.instrumentation.entities.FlatInstrumentationState;
 import org.aim.api.instrumentation.entities.OverheadData;
 import org.aim.api.instrumentation.entities.SupportedExtensions;
+import org.aim.api.measurement.AbstractRecord;
 import org.aim.api.measurement.MeasurementData;
+import org.aim.api.measurement.collector.IRecordHandler;
+import org.aim.api.measurement.collector.MeasurementDataTransfer;
+import org.aim.api.measurement.collector.RecordIterator;
+import org.aim.api.measurement.collector.StreamRecordIterator;
 import org.aim.artifacts.measurement.collector.StreamReader;
 import org.aim.description.InstrumentationDescription;
 import org.lpe.common.util.web.LpeWebUtils;
@@ -47,6 +58,7 @@ public class InstrumentationClient {
 
 	private static final String TEST_CONNECTION = PATH_PREFIX + "/"
 			+ "testConnection";
+	private static final String READY = PATH_PREFIX + "/" + "ready";
 	private static final String INSTRUMENT = PATH_PREFIX + "/"
 			+ URL_PATH_INSTRUMENTATION + "/" + "instrument";
 	private static final String UNINSTRUMENT = PATH_PREFIX + "/"
@@ -69,6 +81,9 @@ public class InstrumentationClient {
 	private static final String MONITORING_STATE = PATH_PREFIX + "/"
 			+ URL_PATH_MEASUREMENT + "/" + "monitoringState";
 
+	private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_TRANSFER_ATTEMPTS = 3;
+
 	private final String baseUrl;
 	private String host;
 	private String port;
@@ -181,20 +196,183 @@ public class InstrumentationClient {
 	 *             thrown if data cannot be retrieved
 	 */
 	public MeasurementData getMeasurementData() throws MeasurementException {
+		final List<AbstractRecord> records = new ArrayList<AbstractRecord>();
+		fetchMeasurementData(0L, 0, new IRecordHandler() {
+			@Override
+			public void handle(AbstractRecord record) {
+				records.add(record);
+			}
+		});
+		MeasurementData data = new MeasurementData();
+		data.setRecords(records);
+		return data;
+	}
+
+	/**
+	 * Opens a streaming iterator over the collected measurement data. The
+	 * records are transferred in the binary record format with gzip
+	 * compression and decoded lazily.
+	 * 
+	 * @param offset
+	 *            number of records to skip
+	 * @param limit
+	 *            maximum number of records to retrieve, a value less or equal
+	 *            to zero means no limit
+	 * @return iterator over the records, which must be closed after use
+	 * @throws MeasurementException
+	 *             thrown if data cannot be retrieved
+	 */
+	public RecordIterator getMeasurementDataIterator(long offset, long limit) throws MeasurementException {
+		return openDataPage(offset, limit, 0L).records;
+	}
 
+	private DataPage openDataPage(long offset, long limit, long acknowledged) throws MeasurementException {
 		HttpURLConnection connection = null;
 		try {
-			connection = LpeWebUtils.get(baseUrl + "/" + GET_DATA);
-			StreamReader reader = new StreamReader();
-			reader.setSource(connection.getInputStream());
-			return reader.read();
-		} catch (IOException e) {
-			throw new MeasurementException(e);
-		} finally {
+			String query = "?" + MeasurementDataTransfer.PARAM_FORMAT + "=" + MeasurementDataTransfer.FORMAT_BINARY
+					+ "&" + MeasurementDataTransfer.PARAM_OFFSET + "=" + offset + "&"
+					+ MeasurementDataTransfer.PARAM_LIMIT + "=" + limit;
+			if (acknowledged > 0) {
+				query += "&" + MeasurementDataTransfer.PARAM_ACKNOWLEDGE + "=" + acknowledged;
+			}
+			connection = (HttpURLConnection) new URL(baseUrl + "/" + GET_DATA + query).openConnection();
+			connection.setRequestProperty(MeasurementDataTransfer.HEADER_ACCEPT_ENCODING,
+					MeasurementDataTransfer.ENCODING_GZIP);
+			InputStream iStream = connection.getInputStream();
+			if (MeasurementDataTransfer.ENCODING_GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+				iStream = new GZIPInputStream(iStream, TRANSFER_BUFFER_SIZE);
+			}
+			String contentType = connection.getContentType();
+			boolean binary = contentType != null && contentType.startsWith(MeasurementDataTransfer.CONTENT_TYPE_BINARY);
+			String startHeader = connection.getHeaderField(MeasurementDataTransfer.HEADER_START_OFFSET);
+			long start = startHeader == null ? offset : Math.max(offset, Long.parseLong(startHeader.trim()));
+			return new DataPage(start, new StreamRecordIterator(new BufferedInputStream(iStream, TRANSFER_BUFFER_SIZE),
+					binary, true));
+		} catch (IOException | NumberFormatException e) {
 			if (connection != null) {
 				connection.disconnect();
 			}
+			throw new MeasurementException(e);
+		}
+	}
+
+	/**
+	 * Retrieves the collected measurement data page by page and passes each
+	 * record to the handler. If the transfer of a page fails or a page is
+	 * truncated, it is resumed after the last handled record. Exceptions
+	 * thrown by the handler are not retried but propagated to the caller.
+	 * 
+	 * @param offset
+	 *            number of records to skip
+	 * @param pageSize
+	 *            number of records to retrieve per request, a value less or
+	 *            equal to zero retrieves all records with a single request
+	 * @param handler
+	 *            handler consuming the records
+	 * @return offset after the last received record, which can be used to
+	 *         resume retrieving data later on
+	 * @throws MeasurementException
+	 *             thrown if data cannot be retrieved
+	 */
+	public long fetchMeasurementData(long offset, int pageSize, IRecordHandler handler) throws MeasurementException {
+		return transferMeasurementData(offset, pageSize, false, handler);
+	}
+
+	/**
+	 * Retrieves the records which have been collected since the given
+	 * watermark while the monitoring stays enabled. All records before the
+	 * watermark are acknowledged and may be released by the agent. Calling
+	 * this method repeatedly with the returned watermark tails the
+	 * measurement data.
+	 * 
+	 * @param watermark
+	 *            offset after the last record received so far, 0 for the
+	 *            first call
+	 * @param handler
+	 *            handler consuming the records
+	 * @return new watermark, i.e. the offset after the last received record
+	 * @throws MeasurementException
+	 *             thrown if data cannot be retrieved
+	 */
+	public long tailMeasurementData(long watermark, IRecordHandler handler) throws MeasurementException {
+		return transferMeasurementData(watermark, 0, true, handler);
+	}
+
+	private long transferMeasurementData(long offset, int pageSize, boolean acknowledge, IRecordHandler handler)
+			throws MeasurementException {
+		long nextOffset = offset;
+		int failedAttempts = 0;
+		while (true) {
+			long received = 0;
+			StreamRecordIterator iterator = null;
+			try {
+				DataPage page = openDataPage(nextOffset, pageSize, acknowledge ? nextOffset : 0L);
+				iterator = page.records;
+				// records before the start offset have been released by the
+				// agent
+				nextOffset = page.start;
+				AbstractRecord record = readNextRecord(iterator);
+				while (record != null) {
+					// exceptions of the handler are not retried, thus, the
+					// offset is advanced after the record has been handled
+					handler.handle(record);
+					nextOffset = page.start + iterator.getConsumedRecords();
+					record = readNextRecord(iterator);
+				}
+				received = iterator.getConsumedRecords();
+				nextOffset = page.start + received;
+			} catch (MeasurementException e) {
+				failedAttempts++;
+				if (failedAttempts > MAX_TRANSFER_ATTEMPTS) {
+					throw new MeasurementException("Failed retrieving measurement data at offset " + nextOffset, e);
+				}
+				continue;
+			} finally {
+				closeQuietly(iterator);
+			}
+			failedAttempts = 0;
+			if (pageSize <= 0 || received < pageSize) {
+				return nextOffset;
+			}
+		}
+	}
+
+	/**
+	 * Reads the next record of a transferred page.
+	 * 
+	 * @return the next record or null if the page has been read completely
+	 * @throws MeasurementException
+	 *             if the transfer has been aborted or the page is truncated
+	 */
+	private static AbstractRecord readNextRecord(RecordIterator iterator) throws MeasurementException {
+		try {
+			return iterator.hasNext() ? iterator.next() : null;
+		} catch (RuntimeException e) {
+			throw new MeasurementException(e);
+		}
+	}
 
+	private static void closeQuietly(RecordIterator iterator) {
+		if (iterator != null) {
+			try {
+				iterator.close();
+			} catch (IOException e) {
+				// the records have been consumed already
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Records of a single data transfer and the offset of the first record.
+	 */
+	private static final class DataPage {
+		private final long start;
+		private final StreamRecordIterator records;
+
+		private DataPage(long start, StreamRecordIterator records) {
+			this.start = start;
+			this.records = records;
 		}
 	}
 
@@ -256,6 +434,27 @@ public class InstrumentationClient {
 		return testConnection(host, port);
 	}
 
+	/**
+	 * Checks whether the agent has finished its initialization. The agent
+	 * accepts connections right after it has been attached, but instruments
+	 * and measures only when it is ready.
+	 * 
+	 * @return true, if the agent is ready
+	 */
+	public boolean isReady() {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(baseUrl + "/" + READY).openConnection();
+			return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
 	/**
 	 * tests connection to the agent.
 	 * 
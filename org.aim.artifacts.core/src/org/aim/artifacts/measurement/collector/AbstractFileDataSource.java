@@ -0,0 +1,197 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.measurement.collector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+
+import org.aim.api.exceptions.MeasurementException;
+import org.aim.api.measurement.collector.AbstractDataSource;
+import org.aim.api.measurement.utils.BoundedInputStream;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * Base class of the data sources writing the records to files in a sink
+ * directory. Provides the configuration of the sink directory, the naming of
+ * the sinks and, for data sources writing to a single file, the access to
+ * the committed part of the file.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public abstract class AbstractFileDataSource extends AbstractDataSource {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(AbstractFileDataSource.class);
+
+	/**
+	 * Property key for the sink directory (directory where to write the
+	 * files).
+	 */
+	public static final String SINK_DIRECTORY = "org.aim.fileDataSource.sinkDirectory";
+
+	public static final String FILE_PREFIX = "LPE-Collector";
+	public static final String ADDITIONAL_FILE_PREFIX_KEY = "org.lpe.measurement.fileWriter.prefix";
+
+	private String pathToFile = null;
+	private String prefix;
+	private String sink;
+
+	/**
+	 * Number of bytes which have been completely written to the sink and can
+	 * be read while the data source is still enabled.
+	 */
+	private volatile long committedBytes = 0L;
+
+	/**
+	 * Creates the name of a new sink in the sink directory.
+	 * 
+	 * @param extension
+	 *            file extension of the sink, may be empty
+	 * @return absolute name of the sink
+	 */
+	protected String createSinkName(String extension) {
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-mm");
+		Date resultdate = new Date(System.currentTimeMillis());
+
+		return pathToFile + FILE_PREFIX + "_" + prefix + "_" + this.getClass().getSimpleName() + "_"
+				+ sdf.format(resultdate) + extension;
+	}
+
+	/**
+	 * Removes the file of the previous monitoring phase and creates the name
+	 * of a new file sink. Nothing has been committed to the new sink.
+	 * 
+	 * @param extension
+	 *            file extension of the sink
+	 * @return absolute name of the new sink
+	 */
+	protected String createFileSink(String extension) {
+		removePreviousFile();
+		sink = createSinkName(extension);
+		committedBytes = 0L;
+		return sink;
+	}
+
+	/**
+	 * Removes collector files from previous monitoring phase.
+	 */
+	private void removePreviousFile() {
+		if (sink == null) {
+			return;
+		}
+		File file = new File(sink);
+		if (file.exists() && file.canWrite()) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * @return the file sink or null if no file sink has been created
+	 */
+	protected String getSink() {
+		return sink;
+	}
+
+	/**
+	 * Sets the number of bytes which have been completely written to the file
+	 * sink.
+	 * 
+	 * @param committedBytes
+	 *            number of committed bytes
+	 */
+	protected void setCommittedBytes(long committedBytes) {
+		this.committedBytes = committedBytes;
+	}
+
+	/**
+	 * @return the number of bytes which have been completely written to the
+	 *         file sink
+	 */
+	protected long getCommittedBytes() {
+		return committedBytes;
+	}
+
+	/**
+	 * Opens the committed part of the file sink. Bytes written by the drain
+	 * thread after this call are not read, thus, a reader never sees
+	 * incomplete records.
+	 * 
+	 * @return stream over the committed bytes
+	 * @throws MeasurementException
+	 *             if the sink has not been created or cannot be opened
+	 */
+	protected InputStream openCommittedStream() throws MeasurementException {
+		return openCommittedStream(0L);
+	}
+
+	/**
+	 * Opens the committed part of the file sink starting at the given byte
+	 * position.
+	 * 
+	 * @param position
+	 *            byte position where to start reading
+	 * @return stream over the committed bytes following the position
+	 * @throws MeasurementException
+	 *             if the sink has not been created or cannot be opened
+	 */
+	protected InputStream openCommittedStream(long position) throws MeasurementException {
+		if (sink == null) {
+			throw new MeasurementException("Sink is not specified!");
+		}
+		long limit = committedBytes;
+		FileInputStream iStream = null;
+		try {
+			iStream = new FileInputStream(sink);
+			iStream.getChannel().position(position);
+			return new BoundedInputStream(iStream, Math.max(limit - position, 0L));
+		} catch (IOException e) {
+			if (iStream != null) {
+				try {
+					iStream.close();
+				} catch (IOException closeException) {
+					LOGGER.warn("Failed closing sink {}", sink);
+				}
+			}
+			throw new MeasurementException("Failed reading measurement data!", e);
+		}
+	}
+
+	@Override
+	public void initialize(Properties properties) {
+		String tmpPrefix = null;
+		if (properties != null) {
+			this.pathToFile = properties.getProperty(SINK_DIRECTORY);
+			tmpPrefix = properties.getProperty(ADDITIONAL_FILE_PREFIX_KEY);
+		}
+
+		prefix = tmpPrefix == null ? "" : tmpPrefix;
+
+		if (pathToFile == null || pathToFile.isEmpty()) {
+			pathToFile = System.getProperty("java.io.tmpdir");
+		}
+
+		if (!pathToFile.endsWith(System.getProperty("file.separator"))) {
+			pathToFile = pathToFile + System.getProperty("file.separator");
+		}
+		LOGGER.debug("Created {}. Writing data to directory: {}", this.getClass().getSimpleName(), pathToFile);
+	}
+
+}
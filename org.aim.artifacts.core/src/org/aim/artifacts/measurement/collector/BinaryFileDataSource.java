@@ -0,0 +1,201 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.measurement.collector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.List;
+
+import org.aim.api.exceptions.MeasurementException;
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.MeasurementData;
+import org.aim.api.measurement.collector.RecordIterator;
+import org.aim.api.measurement.collector.StreamRecordIterator;
+import org.aim.api.measurement.utils.BinaryRecordFormat;
+import org.aim.api.measurement.utils.BinaryRecordReader;
+import org.aim.api.measurement.utils.BinaryRecordWriter;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * The {@link BinaryFileDataSource} writes collected monitoring records to a
+ * file on the hard disk using the compact binary record format (see
+ * {@link BinaryRecordFormat}). It is configured by the same properties as the
+ * {@link FileDataSource}.
+ *
+ * @author Alexander Wert
+ *
+ */
+public class BinaryFileDataSource extends AbstractFileDataSource {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(BinaryFileDataSource.class);
+
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private BinaryRecordWriter recordWriter = null;
+	private FileOutputStream fileStream = null;
+
+	@Override
+	protected void process(AbstractRecord record) {
+		try {
+			recordWriter.write(record);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected void processBatch(List<AbstractRecord> batch) {
+		try {
+			for (AbstractRecord record : batch) {
+				recordWriter.write(record);
+			}
+			recordWriter.flush();
+			setCommittedBytes(fileStream.getChannel().position());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected boolean releasesRecords() {
+		// records are serialized to the sink, thus, they can be reused
+		return true;
+	}
+
+	@Override
+	protected void cleanUp() {
+		try {
+			recordWriter.flush();
+			setCommittedBytes(fileStream.getChannel().position());
+			recordWriter.close();
+		} catch (IOException e) {
+			LOGGER.error("Monitoring error! Reason: {}", e);
+		}
+	}
+
+	@Override
+	protected void init() throws MeasurementException {
+		LOGGER.debug("Initializing binary file writer ...");
+
+		String sink = createFileSink(BinaryRecordFormat.FILE_EXTENSION);
+
+		try {
+			fileStream = new FileOutputStream(sink);
+			recordWriter = new BinaryRecordWriter(new BufferedOutputStream(fileStream, WRITE_BUFFER_SIZE));
+			recordWriter.flush();
+			setCommittedBytes(fileStream.getChannel().position());
+		} catch (IOException e) {
+			throw new MeasurementException("Measurement error! Failed creating BinaryFileDataSource.", e);
+		}
+		LOGGER.debug("data sink: {}", sink);
+		LOGGER.debug("Binary file writer initialized");
+	}
+
+	@Override
+	public StreamRecordIterator openRecordIterator() throws MeasurementException {
+		try {
+			return new StreamRecordIterator(new BufferedInputStream(openCommittedStream(), WRITE_BUFFER_SIZE), true);
+		} catch (IOException e) {
+			throw new MeasurementException("Failed reading measurement data!", e);
+		}
+	}
+
+	@Override
+	public RecordIterator openRecordIterator(long fromSequence) throws MeasurementException {
+		StreamRecordIterator iterator = openRecordIterator();
+		iterator.skip(fromSequence);
+		return iterator;
+	}
+
+	private BinaryRecordReader openReader() throws MeasurementException {
+		try {
+			return new BinaryRecordReader(new BufferedInputStream(openCommittedStream(), WRITE_BUFFER_SIZE));
+		} catch (IOException e) {
+			throw new MeasurementException("Failed reading measurement data!", e);
+		}
+	}
+
+	/**
+	 * Reads monitoring data from the binary file.
+	 *
+	 * @return A list of records wrapped in the {@link MeasurementData} object
+	 *
+	 * @throws MeasurementException
+	 *             thrown if data cannot be read from the data sink
+	 */
+	@Override
+	public MeasurementData read() throws MeasurementException {
+		BinaryRecordReader reader = openReader();
+		try {
+			MeasurementData data = new MeasurementData();
+			data.setRecords(reader.readAll());
+			return data;
+		} catch (IOException e) {
+			throw new MeasurementException("Failed reading measurement data!", e);
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				throw new MeasurementException(e);
+			}
+		}
+	}
+
+	/**
+	 * Pipes the records as text lines (see {@link AbstractRecord#toString()})
+	 * to the output stream, as expected by the clients of the agent.
+	 *
+	 * @param oStream
+	 *            stream where to write the records
+	 * @throws MeasurementException
+	 *             thrown if data cannot be read from the data sink
+	 */
+	@Override
+	public void pipeToOutputStream(OutputStream oStream) throws MeasurementException {
+		BinaryRecordReader reader = openReader();
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(oStream), BUFFER_SIZE);
+			StringBuilder builder = new StringBuilder();
+			AbstractRecord record = reader.read();
+			while (record != null) {
+				builder.setLength(0);
+				record.appendTo(builder);
+				writer.append(builder);
+				writer.newLine();
+				record = reader.read();
+			}
+			writer.flush();
+		} catch (IOException e) {
+			throw new MeasurementException(e);
+		} finally {
+			try {
+				reader.close();
+				if (writer != null) {
+					writer.close();
+				}
+			} catch (IOException e) {
+				throw new MeasurementException(e);
+			}
+		}
+	}
+
+}
@@ -15,25 +15,24 @@
  */
 package org.aim.artifacts.measurement.collector;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.Properties;
 
 import org.aim.api.exceptions.MeasurementException;
 import org.aim.api.measurement.AbstractRecord;
 import org.aim.api.measurement.MeasurementData;
-import org.aim.api.measurement.collector.AbstractDataSource;
+import org.aim.api.measurement.collector.RecordIterator;
+import org.aim.api.measurement.collector.StreamRecordIterator;
 import org.aim.logging.AIMLogger;
 import org.aim.logging.AIMLoggerFactory;
 
@@ -41,28 +40,41 @@ import org.aim.logging.AIMLoggerFactory;
  * The {@link FileDataSource} writes collected monitoring records to a CSV file
  * on the hard disk.
  * 
+ * The records are numbered by their line in the file. The byte position of
+ * the acknowledged records (see {@link #acknowledge(long)}) is kept, thus,
+ * clients tailing the data do not read the file from the beginning again.
+ * 
  * @author Alexander Wert
  * 
  */
-public class FileDataSource extends AbstractDataSource {
+public class FileDataSource extends AbstractFileDataSource {
 	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(FileDataSource.class);
 
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+	private static final int INITIAL_LINE_LENGTH = 128;
+
+	private Writer fileWriter = null;
+	private FileOutputStream fileStream = null;
+
 	/**
-	 * Property key for the sink directory (directory where to write the CSV
-	 * files).
+	 * Reused by the drain thread for assembling the lines of a batch.
 	 */
-	public static final String SINK_DIRECTORY = "org.aim.fileDataSource.sinkDirectory";
+	private final StringBuilder batchBuilder = new StringBuilder();
 
-	public static final String FILE_PREFIX = "LPE-Collector";
-	public static final String ADDITIONAL_FILE_PREFIX_KEY = "org.lpe.measurement.fileWriter.prefix";
-	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
-	private FileReader fileReader;
+	private final Object checkpointLock = new Object();
 
-	private Writer fileWriter = null;
-	private String pathToFile = null;
-	private String sink;
+	/**
+	 * Sequence number of the latest acknowledged record boundary. Guarded by
+	 * the checkpoint lock.
+	 */
+	private long checkpointSequence = 0L;
 
-	private String prefix;
+	/**
+	 * Byte position of the record with the checkpoint sequence number.
+	 * Guarded by the checkpoint lock.
+	 */
+	private long checkpointPosition = 0L;
 
 	@Override
 	protected void process(AbstractRecord record) {
@@ -74,10 +86,34 @@ public class FileDataSource extends AbstractDataSource {
 		}
 	}
 
+	@Override
+	protected void processBatch(List<AbstractRecord> batch) {
+		batchBuilder.setLength(0);
+		batchBuilder.ensureCapacity(batch.size() * INITIAL_LINE_LENGTH);
+		for (AbstractRecord record : batch) {
+			record.appendTo(batchBuilder);
+			batchBuilder.append(LINE_SEPARATOR);
+		}
+		try {
+			fileWriter.append(batchBuilder);
+			fileWriter.flush();
+			setCommittedBytes(fileStream.getChannel().position());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected boolean releasesRecords() {
+		// records are serialized to the sink, thus, they can be reused
+		return true;
+	}
+
 	@Override
 	protected void cleanUp() {
 		try {
 			fileWriter.flush();
+			setCommittedBytes(fileStream.getChannel().position());
 			fileWriter.close();
 		} catch (IOException e) {
 			LOGGER.error("Monitoring error! Reason: {}", e);
@@ -89,15 +125,15 @@ public class FileDataSource extends AbstractDataSource {
 	protected void init() throws MeasurementException {
 		LOGGER.debug("Initializing file writer ...");
 
-		removePreviousFile();
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-mm");
-		Date resultdate = new Date(System.currentTimeMillis());
-
-		sink = pathToFile + FILE_PREFIX + "_" + prefix + "_" + this.getClass().getSimpleName() + "_"
-				+ sdf.format(resultdate) + ".txt";
+		String sink = createFileSink(".txt");
+		synchronized (checkpointLock) {
+			checkpointSequence = 0L;
+			checkpointPosition = 0L;
+		}
 
 		try {
-			fileWriter = new FileWriter(sink);
+			fileStream = new FileOutputStream(sink);
+			fileWriter = new BufferedWriter(new OutputStreamWriter(fileStream), WRITE_BUFFER_SIZE);
 		} catch (IOException e) {
 			throw new MeasurementException("Measurement error! Failed creating FileDataWriter.", e);
 		}
@@ -106,17 +142,8 @@ public class FileDataSource extends AbstractDataSource {
 
 	}
 
-	/**
-	 * Removes collector files from previous monitoring phase.
-	 */
-	private void removePreviousFile() {
-		if (sink == null) {
-			return;
-		}
-		File file = new File(sink);
-		if (file.exists() && file.canWrite()) {
-			file.delete();
-		}
+	private BufferedReader openReader() throws MeasurementException {
+		return new BufferedReader(new InputStreamReader(openCommittedStream()), BUFFER_SIZE);
 	}
 
 	/**
@@ -129,14 +156,9 @@ public class FileDataSource extends AbstractDataSource {
 	 */
 	@Override
 	public MeasurementData read() throws MeasurementException {
+		BufferedReader bReader = openReader();
 		try {
-			if (sink == null) {
-				throw new MeasurementException("Sink is not specified!");
-			}
 			List<AbstractRecord> result = new ArrayList<AbstractRecord>();
-			fileReader = new FileReader(sink);
-
-			BufferedReader bReader = new BufferedReader(fileReader);
 
 			String line = bReader.readLine();
 
@@ -154,27 +176,93 @@ public class FileDataSource extends AbstractDataSource {
 		} catch (IOException e) {
 			throw new MeasurementException("Failed reading measurement data!", e);
 		} finally {
-			if (fileReader != null) {
-				try {
-					fileReader.close();
-				} catch (IOException e) {
-					throw new MeasurementException(e);
-				}
+			try {
+				bReader.close();
+			} catch (IOException e) {
+				throw new MeasurementException(e);
 			}
+		}
+	}
 
+	@Override
+	public StreamRecordIterator openRecordIterator() throws MeasurementException {
+		try {
+			return new StreamRecordIterator(openCommittedStream(), false);
+		} catch (IOException e) {
+			throw new MeasurementException("Failed reading measurement data!", e);
 		}
 	}
 
+	/**
+	 * Opens an iterator over the records starting with the given sequence
+	 * number. If the records up to the sequence number have been
+	 * acknowledged, reading starts at the byte position of the latest
+	 * acknowledgement.
+	 * 
+	 * @param fromSequence
+	 *            sequence number of the first record to return
+	 * @return iterator over the records
+	 * @throws MeasurementException
+	 *             if the sink cannot be read
+	 */
 	@Override
-	public void pipeToOutputStream(OutputStream oStream) throws MeasurementException {
-		if (sink == null) {
-			throw new MeasurementException("Sink is not specified!");
+	public RecordIterator openRecordIterator(long fromSequence) throws MeasurementException {
+		long sequence = 0L;
+		long position = 0L;
+		synchronized (checkpointLock) {
+			if (checkpointSequence <= fromSequence) {
+				sequence = checkpointSequence;
+				position = checkpointPosition;
+			}
 		}
-		BufferedReader br = null;
+		try {
+			StreamRecordIterator iterator = new StreamRecordIterator(openCommittedStream(position), false);
+			iterator.skip(fromSequence - sequence);
+			return iterator;
+		} catch (IOException e) {
+			throw new MeasurementException("Failed reading measurement data!", e);
+		}
+	}
+
+	/**
+	 * Advances the kept byte position to the watermark. Only the lines
+	 * between the previous and the new watermark are scanned. The records
+	 * are kept in the file.
+	 * 
+	 * @param watermark
+	 *            sequence number of the first record which has not been
+	 *            acknowledged
+	 */
+	@Override
+	public void acknowledge(long watermark) {
+		synchronized (checkpointLock) {
+			if (watermark <= checkpointSequence || getSink() == null) {
+				return;
+			}
+			try (InputStream iStream = new BufferedInputStream(openCommittedStream(checkpointPosition), BUFFER_SIZE)) {
+				long position = checkpointPosition;
+				int b = iStream.read();
+				while (b >= 0 && checkpointSequence < watermark) {
+					position++;
+					if (b == '\n') {
+						checkpointSequence++;
+						checkpointPosition = position;
+					}
+					if (checkpointSequence < watermark) {
+						b = iStream.read();
+					}
+				}
+			} catch (IOException | MeasurementException e) {
+				LOGGER.warn("Failed advancing the read position to record {}: {}", watermark, e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void pipeToOutputStream(OutputStream oStream) throws MeasurementException {
+		BufferedReader br = openReader();
 		BufferedWriter writer = null;
 		try {
-			FileReader fReader = new FileReader(sink);
-			br = new BufferedReader(fReader, BUFFER_SIZE);
 			writer = new BufferedWriter(new OutputStreamWriter(oStream), BUFFER_SIZE);
 			String line;
 			while ((line = br.readLine()) != null) {
@@ -186,9 +274,7 @@ public class FileDataSource extends AbstractDataSource {
 			throw new MeasurementException(e);
 		} finally {
 			try {
-				if (br != null) {
-					br.close();
-				}
+				br.close();
 
 				if (writer != null) {
 					writer.close();
@@ -199,24 +285,4 @@ public class FileDataSource extends AbstractDataSource {
 		}
 	}
 
-	@Override
-	public void initialize(Properties properties) {
-		String tmpPrefix = null;
-		if (properties != null) {
-			this.pathToFile = properties.getProperty(SINK_DIRECTORY);
-			tmpPrefix = properties.getProperty(ADDITIONAL_FILE_PREFIX_KEY);
-		}
-
-		prefix = tmpPrefix == null ? "" : tmpPrefix;
-
-		if (pathToFile == null || pathToFile.isEmpty()) {
-			pathToFile = System.getProperty("java.io.tmpdir");
-		}
-
-		if (!pathToFile.endsWith(System.getProperty("file.separator"))) {
-			pathToFile = pathToFile + System.getProperty("file.separator");
-		}
-		LOGGER.debug("Created data collector. Writing data to directory: {}", pathToFile);
-	}
-
 }
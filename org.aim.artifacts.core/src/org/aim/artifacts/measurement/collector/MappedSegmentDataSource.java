@@ -0,0 +1,552 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.measurement.collector;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+import org.aim.api.exceptions.MeasurementException;
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.MeasurementData;
+import org.aim.api.measurement.collector.RecordIterator;
+import org.aim.api.measurement.utils.BinaryRecordReader;
+import org.aim.api.measurement.utils.BinaryRecordWriter;
+import org.aim.api.measurement.utils.ByteBufferInputStream;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * The {@link MappedSegmentDataSource} appends monitoring records in the
+ * binary record format to fixed-size, memory mapped segment files. When a
+ * segment is full, the data source rolls over to a new segment. If a
+ * retention size is configured, the oldest segments are deleted as soon as
+ * the total size of all segments exceeds the retention size.
+ *
+ * Each segment is self-contained: it starts with the number of bytes written
+ * to the segment, followed by a binary record stream (see
+ * {@link BinaryRecordWriter}). Records are read back segment by segment from
+ * read-only mappings, thus, the data does not need to fit into the heap
+ * unless {@link #read()} is used.
+ *
+ * Records are numbered in the order they are appended. Segments whose
+ * records have all been acknowledged by a client (see
+ * {@link #acknowledge(long)}) are deleted while the data source is enabled.
+ * Mappings are released as soon as a segment has been written or read
+ * completely, thus, segment files can be deleted on all platforms.
+ *
+ * @author Alexander Wert
+ *
+ */
+public class MappedSegmentDataSource extends AbstractFileDataSource {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(MappedSegmentDataSource.class);
+
+	/**
+	 * Property key for the size of a single segment in bytes.
+	 */
+	public static final String SEGMENT_SIZE_KEY = "org.aim.mappedSegmentDataSource.segmentSize";
+
+	/**
+	 * Property key for the maximum total size of all segments in bytes. A
+	 * value less or equal to zero disables the retention.
+	 */
+	public static final String RETENTION_BYTES_KEY = "org.aim.mappedSegmentDataSource.retentionBytes";
+
+	public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024L * 1024L;
+	public static final long MIN_SEGMENT_SIZE = 64L * 1024L;
+	public static final String SEGMENT_FILE_EXTENSION = ".seg";
+
+	private static final int SEGMENT_HEADER_SIZE = Long.SIZE / Byte.SIZE;
+	private static final String SEGMENT_NAME_FORMAT = "segment-%06d" + SEGMENT_FILE_EXTENSION;
+
+	private long segmentSize = DEFAULT_SEGMENT_SIZE;
+	private long retentionBytes = 0L;
+
+	private File segmentDirectory;
+	private final Deque<Segment> segments = new ArrayDeque<Segment>();
+	private int segmentIndex;
+	private long nextSequence;
+
+	private MappedByteBuffer currentSegment;
+	private BinaryRecordWriter segmentWriter;
+	private final StagingBuffer staging = new StagingBuffer();
+
+	@Override
+	protected void process(AbstractRecord record) {
+		try {
+			append(record);
+			commit();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected void processBatch(List<AbstractRecord> batch) {
+		try {
+			for (AbstractRecord record : batch) {
+				append(record);
+			}
+			commit();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Encodes the record to the staging buffer and copies it to the current
+	 * segment. Rolls over to a new segment if the record does not fit. A
+	 * record which does not even fit into an empty segment is dropped.
+	 */
+	private void append(AbstractRecord record) throws IOException {
+		encode(record);
+		if (staging.size() > currentSegment.remaining()) {
+			commit();
+			rollSegment();
+			encode(record);
+			if (staging.size() > currentSegment.remaining()) {
+				LOGGER.warn("Record of type {} exceeds the segment size and has been dropped.", record.getClass()
+						.getName());
+				// the writer state already contains the dropped record, as
+				// the new segment is still empty, its stream is restarted
+				startStream();
+				return;
+			}
+		}
+		currentSegment.put(staging.buffer(), 0, staging.size());
+		nextSequence++;
+	}
+
+	private void encode(AbstractRecord record) throws IOException {
+		staging.reset();
+		segmentWriter.write(record);
+		segmentWriter.flush();
+	}
+
+	/**
+	 * Publishes the number of written bytes in the segment header.
+	 */
+	private void commit() {
+		currentSegment.putLong(0, currentSegment.position() - SEGMENT_HEADER_SIZE);
+	}
+
+	private void rollSegment() throws IOException {
+		releaseCurrentSegment();
+		segmentIndex++;
+		File segmentFile = new File(segmentDirectory, String.format(SEGMENT_NAME_FORMAT, segmentIndex));
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw"); FileChannel channel = file.getChannel()) {
+			currentSegment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+		startStream();
+
+		synchronized (segments) {
+			segments.addLast(new Segment(segmentFile, nextSequence));
+			enforceRetention();
+		}
+		LOGGER.debug("Rolled over to segment {}", segmentFile.getAbsolutePath());
+	}
+
+	/**
+	 * Starts a new record stream at the beginning of the current segment.
+	 */
+	private void startStream() throws IOException {
+		staging.reset();
+		segmentWriter = new BinaryRecordWriter(staging);
+		segmentWriter.flush();
+		currentSegment.putLong(0, 0L);
+		currentSegment.position(SEGMENT_HEADER_SIZE);
+		currentSegment.put(staging.buffer(), 0, staging.size());
+		commit();
+	}
+
+	/**
+	 * Commits and unmaps the current segment.
+	 */
+	private void releaseCurrentSegment() {
+		if (currentSegment != null) {
+			commit();
+			currentSegment.force();
+			unmap(currentSegment);
+			currentSegment = null;
+		}
+	}
+
+	/**
+	 * Releases the mapping without waiting for the garbage collector. The
+	 * buffer must not be accessed afterwards. If the mapping cannot be
+	 * released explicitly, it is released by the garbage collector.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = null;
+			try {
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			} catch (NoSuchMethodException e) {
+				// Java 8 and earlier, see below
+			}
+			if (invokeCleaner != null) {
+				Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+				unsafeField.setAccessible(true);
+				invokeCleaner.invoke(unsafeField.get(null), buffer);
+				return;
+			}
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.debug("Failed unmapping segment, leaving it to the garbage collector: {}", e.getMessage());
+		}
+	}
+
+	private void enforceRetention() {
+		if (retentionBytes <= 0L) {
+			return;
+		}
+		while (segments.size() > 1 && segments.size() * segmentSize > retentionBytes) {
+			deleteSegment(segments.removeFirst());
+		}
+	}
+
+	private static void deleteSegment(Segment segment) {
+		if (!segment.file.delete()) {
+			LOGGER.warn("Failed deleting segment {}", segment.file.getAbsolutePath());
+		}
+	}
+
+	@Override
+	protected boolean releasesRecords() {
+		// records are serialized to the sink, thus, they can be reused
+		return true;
+	}
+
+	@Override
+	protected void cleanUp() {
+		releaseCurrentSegment();
+		segmentWriter = null;
+	}
+
+	@Override
+	protected void init() throws MeasurementException {
+		LOGGER.debug("Initializing segment writer ...");
+
+		removePreviousSegments();
+		segmentDirectory = new File(createSinkName(""));
+		if (!segmentDirectory.isDirectory() && !segmentDirectory.mkdirs()) {
+			throw new MeasurementException("Measurement error! Failed creating segment directory "
+					+ segmentDirectory.getAbsolutePath());
+		}
+
+		segmentIndex = 0;
+		nextSequence = 0L;
+		currentSegment = null;
+		try {
+			rollSegment();
+		} catch (IOException e) {
+			throw new MeasurementException("Measurement error! Failed creating MappedSegmentDataSource.", e);
+		}
+		LOGGER.debug("data sink: {}", segmentDirectory.getAbsolutePath());
+		LOGGER.debug("Segment writer initialized");
+	}
+
+	/**
+	 * Removes segments from previous monitoring phase.
+	 */
+	private void removePreviousSegments() {
+		synchronized (segments) {
+			for (Segment segment : segments) {
+				segment.file.delete();
+			}
+			segments.clear();
+			if (segmentDirectory != null) {
+				segmentDirectory.delete();
+			}
+		}
+	}
+
+	/**
+	 * Opens an iterator over all records of all existing segments. Segments
+	 * are mapped read-only one after another, records are decoded directly
+	 * from the mapping.
+	 *
+	 * @return iterator over the records, which should be closed after use
+	 * @throws MeasurementException
+	 *             if the sink has not been initialized
+	 */
+	@Override
+	public SegmentRecordIterator openRecordIterator() throws MeasurementException {
+		return openRecordIterator(0L);
+	}
+
+	/**
+	 * Opens an iterator over the records starting with the given sequence
+	 * number. Segments containing only older records are not mapped at all.
+	 *
+	 * @param fromSequence
+	 *            sequence number of the first record to return
+	 * @return iterator over the records, which should be closed after use
+	 * @throws MeasurementException
+	 *             if the sink has not been initialized
+	 */
+	@Override
+	public SegmentRecordIterator openRecordIterator(long fromSequence) throws MeasurementException {
+		List<File> segmentFiles = new ArrayList<File>();
+		long skip = 0L;
+		synchronized (segments) {
+			if (segmentDirectory == null) {
+				throw new MeasurementException("Sink is not specified!");
+			}
+			for (Segment segment : segments) {
+				if (segment.firstSequence <= fromSequence) {
+					// all records before this segment are skipped
+					segmentFiles.clear();
+					skip = fromSequence - segment.firstSequence;
+				}
+				segmentFiles.add(segment.file);
+			}
+		}
+		SegmentRecordIterator iterator = new SegmentRecordIterator(segmentFiles);
+		while (skip > 0 && iterator.hasNext()) {
+			iterator.next();
+			skip--;
+		}
+		return iterator;
+	}
+
+	@Override
+	public long getFirstAvailableSequence() {
+		synchronized (segments) {
+			return segments.isEmpty() ? 0L : segments.getFirst().firstSequence;
+		}
+	}
+
+	/**
+	 * Deletes all segments which only contain records with a sequence number
+	 * lower than the watermark. The current segment is never deleted.
+	 *
+	 * @param watermark
+	 *            sequence number of the first record which has not been
+	 *            acknowledged
+	 */
+	@Override
+	public void acknowledge(long watermark) {
+		synchronized (segments) {
+			while (segments.size() > 1) {
+				Iterator<Segment> iterator = segments.iterator();
+				iterator.next();
+				if (iterator.next().firstSequence > watermark) {
+					break;
+				}
+				deleteSegment(segments.removeFirst());
+			}
+		}
+	}
+
+	/**
+	 * Reads monitoring data from all segments.
+	 *
+	 * @return A list of records wrapped in the {@link MeasurementData} object
+	 *
+	 * @throws MeasurementException
+	 *             thrown if data cannot be read from the data sink
+	 */
+	@Override
+	public MeasurementData read() throws MeasurementException {
+		List<AbstractRecord> result = new ArrayList<AbstractRecord>();
+		try (SegmentRecordIterator iterator = openRecordIterator()) {
+			while (iterator.hasNext()) {
+				result.add(iterator.next());
+			}
+		} catch (IOException e) {
+			throw new MeasurementException("Failed reading measurement data!", e);
+		}
+		MeasurementData data = new MeasurementData();
+		data.setRecords(result);
+		return data;
+	}
+
+	@Override
+	public void pipeToOutputStream(OutputStream oStream) throws MeasurementException {
+		BufferedWriter writer = null;
+		try (SegmentRecordIterator iterator = openRecordIterator()) {
+			writer = new BufferedWriter(new OutputStreamWriter(oStream), BUFFER_SIZE);
+			StringBuilder builder = new StringBuilder();
+			while (iterator.hasNext()) {
+				builder.setLength(0);
+				iterator.next().appendTo(builder);
+				writer.append(builder);
+				writer.newLine();
+			}
+			writer.flush();
+		} catch (IOException e) {
+			throw new MeasurementException(e);
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					throw new MeasurementException(e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void initialize(Properties properties) {
+		super.initialize(properties);
+		if (properties != null) {
+			segmentSize = parseLong(properties.getProperty(SEGMENT_SIZE_KEY), DEFAULT_SEGMENT_SIZE);
+			retentionBytes = parseLong(properties.getProperty(RETENTION_BYTES_KEY), 0L);
+		}
+		segmentSize = Math.min(Math.max(segmentSize, MIN_SEGMENT_SIZE), Integer.MAX_VALUE);
+	}
+
+	private static long parseLong(String value, long defaultValue) {
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid size {}. Using default value {}.", value, defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Iterator over the records of a list of segments.
+	 */
+	public static final class SegmentRecordIterator implements RecordIterator {
+		private final Iterator<File> segmentFiles;
+		private MappedByteBuffer mapping;
+		private BinaryRecordReader reader;
+		private AbstractRecord nextRecord;
+
+		private SegmentRecordIterator(List<File> segmentFiles) {
+			this.segmentFiles = segmentFiles.iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				while (nextRecord == null) {
+					if (reader == null) {
+						if (!segmentFiles.hasNext()) {
+							return false;
+						}
+						reader = openSegment(segmentFiles.next());
+						continue;
+					}
+					nextRecord = reader.read();
+					if (nextRecord == null) {
+						closeSegment();
+					}
+				}
+				return true;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public AbstractRecord next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			AbstractRecord record = nextRecord;
+			nextRecord = null;
+			return record;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() throws IOException {
+			closeSegment();
+		}
+
+		private void closeSegment() throws IOException {
+			if (reader != null) {
+				reader.close();
+				reader = null;
+			}
+			if (mapping != null) {
+				// the decoded records do not refer to the mapping
+				unmap(mapping);
+				mapping = null;
+			}
+		}
+
+		private BinaryRecordReader openSegment(File segmentFile) throws IOException {
+			if (!segmentFile.exists()) {
+				// deleted by the retention in the meantime
+				return null;
+			}
+			try (RandomAccessFile file = new RandomAccessFile(segmentFile, "r"); FileChannel channel = file.getChannel()) {
+				mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			long length = mapping.getLong(0);
+			ByteBuffer data = mapping.duplicate();
+			data.position(SEGMENT_HEADER_SIZE);
+			data.limit((int) Math.min(SEGMENT_HEADER_SIZE + length, mapping.capacity()));
+			return new BinaryRecordReader(new ByteBufferInputStream(data.slice()));
+		}
+	}
+
+	/**
+	 * Segment file and the sequence number of its first record.
+	 */
+	private static final class Segment {
+		private final File file;
+		private final long firstSequence;
+
+		private Segment(File file, long firstSequence) {
+			this.file = file;
+			this.firstSequence = firstSequence;
+		}
+	}
+
+	/**
+	 * Reusable staging buffer exposing its internal byte array.
+	 */
+	private static final class StagingBuffer extends ByteArrayOutputStream {
+		private byte[] buffer() {
+			return buf;
+		}
+	}
+}
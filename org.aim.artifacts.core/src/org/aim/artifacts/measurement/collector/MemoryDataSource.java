@@ -21,27 +21,55 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 
 import org.aim.api.exceptions.MeasurementException;
 import org.aim.api.measurement.AbstractRecord;
 import org.aim.api.measurement.MeasurementData;
 import org.aim.api.measurement.collector.AbstractDataSource;
+import org.aim.api.measurement.collector.RecordIterator;
 
 /**
- * Collector which writes measurement data to memory.
+ * Collector which writes measurement data to memory. Records can be read
+ * while the collector is enabled. Records which have been acknowledged by a
+ * client (see {@link #acknowledge(long)}) are released.
  * 
  * @author Alexander Wert
  * 
  */
 public class MemoryDataSource extends AbstractDataSource {
 
+	/**
+	 * Guarded by itself. Released records at the beginning of the list are
+	 * set to null and removed in bulk (see {@link #acknowledge(long)}).
+	 */
 	private final List<AbstractRecord> recordList = new ArrayList<AbstractRecord>();
 
+	/**
+	 * Index of the first record in the record list which has not been
+	 * released. Guarded by the record list.
+	 */
+	private int head = 0;
+
+	/**
+	 * Sequence number of the first record which has not been released.
+	 * Guarded by the record list.
+	 */
+	private long firstSequence = 0L;
+
 	@Override
 	protected void process(AbstractRecord record) {
-		recordList.add(record);
+		synchronized (recordList) {
+			recordList.add(record);
+		}
+	}
 
+	@Override
+	protected void processBatch(List<AbstractRecord> batch) {
+		synchronized (recordList) {
+			recordList.addAll(batch);
+		}
 	}
 
 	@Override
@@ -52,16 +80,70 @@ public class MemoryDataSource extends AbstractDataSource {
 
 	@Override
 	protected void init() throws MeasurementException {
-		recordList.clear();
+		synchronized (recordList) {
+			recordList.clear();
+			head = 0;
+			firstSequence = 0L;
+		}
 	}
 
 	@Override
 	public MeasurementData read() throws MeasurementException {
 		MeasurementData md = new MeasurementData();
-		md.setRecords(recordList);
+		synchronized (recordList) {
+			md.setRecords(new ArrayList<AbstractRecord>(recordList.subList(head, recordList.size())));
+		}
 		return md;
 	}
 
+	@Override
+	public RecordIterator openRecordIterator() throws MeasurementException {
+		return openRecordIterator(0L);
+	}
+
+	@Override
+	public RecordIterator openRecordIterator(long fromSequence) throws MeasurementException {
+		return new MemoryRecordIterator(fromSequence);
+	}
+
+	@Override
+	public long getFirstAvailableSequence() {
+		synchronized (recordList) {
+			return firstSequence;
+		}
+	}
+
+	/**
+	 * Releases the records before the watermark. Released records are
+	 * removed from the record list once they make up half of the list, thus,
+	 * the costs of removing them are amortized over the released records.
+	 * 
+	 * @param watermark
+	 *            sequence number of the first record which has not been
+	 *            acknowledged
+	 */
+	@Override
+	public void acknowledge(long watermark) {
+		synchronized (recordList) {
+			int releasable = (int) Math.min(Math.max(watermark - firstSequence, 0L), recordList.size() - head);
+			if (releasable <= 0) {
+				return;
+			}
+			for (int i = head; i < head + releasable; i++) {
+				recordList.set(i, null);
+			}
+			head += releasable;
+			firstSequence += releasable;
+			if (head == recordList.size()) {
+				recordList.clear();
+				head = 0;
+			} else if (head > recordList.size() / 2) {
+				recordList.subList(0, head).clear();
+				head = 0;
+			}
+		}
+	}
+
 	@Override
 	public void pipeToOutputStream(OutputStream oStream) throws MeasurementException {
 		BufferedWriter writer = null;
@@ -69,7 +151,7 @@ public class MemoryDataSource extends AbstractDataSource {
 
 			writer = new BufferedWriter(new OutputStreamWriter(oStream), BUFFER_SIZE);
 
-			for (AbstractRecord rec : recordList) {
+			for (AbstractRecord rec : read().getRecords()) {
 				writer.write(rec.toString());
 				writer.newLine();
 			}
@@ -92,4 +174,53 @@ public class MemoryDataSource extends AbstractDataSource {
 
 	}
 
+	/**
+	 * Iterates over the records by their sequence number. Records which are
+	 * released concurrently are skipped, records which are added
+	 * concurrently are returned.
+	 */
+	private final class MemoryRecordIterator implements RecordIterator {
+		private long nextSequence;
+		private AbstractRecord nextRecord;
+
+		private MemoryRecordIterator(long fromSequence) {
+			this.nextSequence = fromSequence;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (nextRecord == null) {
+				synchronized (recordList) {
+					nextSequence = Math.max(nextSequence, firstSequence);
+					long index = head + nextSequence - firstSequence;
+					if (index < recordList.size()) {
+						nextRecord = recordList.get((int) index);
+						nextSequence++;
+					}
+				}
+			}
+			return nextRecord != null;
+		}
+
+		@Override
+		public AbstractRecord next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			AbstractRecord record = nextRecord;
+			nextRecord = null;
+			return record;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}
+	}
+
 }
@@ -81,6 +81,7 @@ public class JmsCommunicationProbe extends AbstractEnclosingProbe {
 			_JmsCommunicationProbe_record.setMessageCorrelationHash("-");
 		}
 
+		_JmsCommunicationProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 		_GenericProbe_collector.newRecord(_JmsCommunicationProbe_record);
 	}
 
@@ -110,6 +111,7 @@ public class JmsCommunicationProbe extends AbstractEnclosingProbe {
 			_JmsCommunicationProbe_record.setMessageCorrelationHash("-");
 		}
 
+		_JmsCommunicationProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 		_GenericProbe_collector.newRecord(_JmsCommunicationProbe_record);
 	}
 
@@ -139,6 +141,7 @@ public class JmsCommunicationProbe extends AbstractEnclosingProbe {
 			_JmsCommunicationProbe_record.setMessageCorrelationHash("-");
 		}
 
+		_JmsCommunicationProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 		_GenericProbe_collector.newRecord(_JmsCommunicationProbe_record);
 	}
 
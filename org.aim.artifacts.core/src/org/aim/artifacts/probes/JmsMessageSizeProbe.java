@@ -83,6 +83,7 @@ public class JmsMessageSizeProbe extends AbstractEnclosingProbe {
 						.getStringProperty(JmsCommunicationProbe.MSG_CORRELATION_VARIABLE);
 				_JmsMessageSizeProbe_record.setMessageCorrelationHash(_JmsMessageSizeProbe_correlationValue);
 
+				_JmsMessageSizeProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 				_GenericProbe_collector.newRecord(_JmsMessageSizeProbe_record);
 			}
 
@@ -110,6 +111,7 @@ public class JmsMessageSizeProbe extends AbstractEnclosingProbe {
 						.getStringProperty(JmsCommunicationProbe.MSG_CORRELATION_VARIABLE);
 				_JmsMessageSizeProbe_record.setMessageCorrelationHash(_JmsMessageSizeProbe_correlationValue);
 
+				_JmsMessageSizeProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 				_GenericProbe_collector.newRecord(_JmsMessageSizeProbe_record);
 			}
 
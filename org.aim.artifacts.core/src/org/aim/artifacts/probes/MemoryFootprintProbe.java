@@ -19,6 +19,7 @@ import org.aim.api.instrumentation.AbstractEnclosingProbe;
 import org.aim.api.instrumentation.ProbeAfterPart;
 import org.aim.api.instrumentation.ProbeBeforePart;
 import org.aim.api.instrumentation.ProbeVariable;
+import org.aim.api.measurement.RecordPool;
 import org.aim.artifacts.probes.utils.MemoryMXBeanCache;
 import org.aim.artifacts.records.MemoryFootprintRecord;
 import org.aim.description.probes.MeasurementProbe;
@@ -26,7 +27,8 @@ import org.aim.description.scopes.MethodsEnclosingScope;
 import org.lpe.common.extension.IExtension;
 
 /**
- * This probe collects information on memory footprints.
+ * This probe collects information on memory footprints. The readings of the
+ * memory pools can be sampled (see {@link MemoryMXBeanCache}).
  * 
  * @author Alexander Wert
  * 
@@ -47,7 +49,7 @@ public class MemoryFootprintProbe extends AbstractEnclosingProbe {
 	}
 
 	@ProbeVariable
-	public Long _MemoryFootprintProbe_stopTime;
+	public long _MemoryFootprintProbe_stopTime;
 
 	@ProbeVariable
 	public MemoryFootprintRecord _MemoryFootprintProbe_record;
@@ -56,28 +58,31 @@ public class MemoryFootprintProbe extends AbstractEnclosingProbe {
 	public Runtime _MemoryFootprintProbe_runtime;
 
 	@ProbeVariable
-	public Long _MemoryFootprintProbe_beforeMemory;
+	public MemoryMXBeanCache _MemoryFootprintProbe_beanCache;
 
 	@ProbeVariable
-	public Long _MemoryFootprintProbe_beforeEden;
+	public long _MemoryFootprintProbe_beforeMemory;
 
 	@ProbeVariable
-	public Long _MemoryFootprintProbe_beforeSurvivor;
+	public long _MemoryFootprintProbe_beforeEden;
 
 	@ProbeVariable
-	public Long _MemoryFootprintProbe_beforeTenured;
+	public long _MemoryFootprintProbe_beforeSurvivor;
 
 	@ProbeVariable
-	public Long _MemoryFootprintProbe_afterMemory;
+	public long _MemoryFootprintProbe_beforeTenured;
 
 	@ProbeVariable
-	public Long _MemoryFootprintProbe_afterEden;
+	public long _MemoryFootprintProbe_afterMemory;
 
 	@ProbeVariable
-	public Long _MemoryFootprintProbe_afterSurvivor;
+	public long _MemoryFootprintProbe_afterEden;
 
 	@ProbeVariable
-	public Long _MemoryFootprintProbe_afterTenured;
+	public long _MemoryFootprintProbe_afterSurvivor;
+
+	@ProbeVariable
+	public long _MemoryFootprintProbe_afterTenured;
 
 	/**
 	 * Before part.
@@ -89,10 +94,12 @@ public class MemoryFootprintProbe extends AbstractEnclosingProbe {
 		_MemoryFootprintProbe_beforeMemory = _MemoryFootprintProbe_runtime.totalMemory()
 				- _MemoryFootprintProbe_runtime.freeMemory();
 
-		_MemoryFootprintProbe_beforeEden = MemoryMXBeanCache.getInstance().getEdenBean().getUsage().getUsed();
-		_MemoryFootprintProbe_beforeSurvivor = MemoryMXBeanCache.getInstance().getSurvivorBean().getUsage().getUsed();
-		_MemoryFootprintProbe_beforeTenured = MemoryMXBeanCache.getInstance().getOldBean().getUsage().getUsed();
+		_MemoryFootprintProbe_beanCache = MemoryMXBeanCache.getInstance();
+		_MemoryFootprintProbe_beforeEden = _MemoryFootprintProbe_beanCache.getEdenUsed();
+		_MemoryFootprintProbe_beforeSurvivor = _MemoryFootprintProbe_beanCache.getSurvivorUsed();
+		_MemoryFootprintProbe_beforeTenured = _MemoryFootprintProbe_beanCache.getOldUsed();
 	}
+
 	/**
 	 * After part.
 	 */
@@ -103,11 +110,12 @@ public class MemoryFootprintProbe extends AbstractEnclosingProbe {
 		_MemoryFootprintProbe_afterMemory = _MemoryFootprintProbe_runtime.totalMemory()
 				- _MemoryFootprintProbe_runtime.freeMemory();
 
-		_MemoryFootprintProbe_afterEden = MemoryMXBeanCache.getInstance().getEdenBean().getUsage().getUsed();
-		_MemoryFootprintProbe_afterSurvivor = MemoryMXBeanCache.getInstance().getSurvivorBean().getUsage().getUsed();
-		_MemoryFootprintProbe_afterTenured = MemoryMXBeanCache.getInstance().getOldBean().getUsage().getUsed();
+		_MemoryFootprintProbe_afterEden = _MemoryFootprintProbe_beanCache.getEdenUsed();
+		_MemoryFootprintProbe_afterSurvivor = _MemoryFootprintProbe_beanCache.getSurvivorUsed();
+		_MemoryFootprintProbe_afterTenured = _MemoryFootprintProbe_beanCache.getOldUsed();
 
-		_MemoryFootprintProbe_record = new MemoryFootprintRecord();
+		_MemoryFootprintProbe_record = (MemoryFootprintRecord) RecordPool
+				.acquire(MemoryFootprintRecord.class);
 		_MemoryFootprintProbe_record.setCallId(_GenericProbe_callId);
 		_MemoryFootprintProbe_record.setOperation(__methodSignature);
 		_MemoryFootprintProbe_record.setEndTimestamp(_MemoryFootprintProbe_stopTime);
@@ -120,6 +128,7 @@ public class MemoryFootprintProbe extends AbstractEnclosingProbe {
 		_MemoryFootprintProbe_record.setEdenSpaceUsedAfter(_MemoryFootprintProbe_afterEden);
 		_MemoryFootprintProbe_record.setSurvivorSpaceUsedAfter(_MemoryFootprintProbe_afterSurvivor);
 		_MemoryFootprintProbe_record.setTenuredSpaceUsedAfter(_MemoryFootprintProbe_afterTenured);
+		_MemoryFootprintProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 		_GenericProbe_collector.newRecord(_MemoryFootprintProbe_record);
 	}
 
@@ -19,6 +19,7 @@ import org.aim.api.instrumentation.AbstractEnclosingProbe;
 import org.aim.api.instrumentation.ProbeAfterPart;
 import org.aim.api.instrumentation.ProbeBeforePart;
 import org.aim.api.instrumentation.ProbeVariable;
+import org.aim.api.measurement.RecordPool;
 import org.aim.artifacts.records.NanoResponseTimeRecord;
 import org.aim.description.probes.MeasurementProbe;
 import org.aim.description.scopes.MethodsEnclosingScope;
@@ -65,7 +66,8 @@ public class NanoResponsetimeProbe extends AbstractEnclosingProbe {
 	@ProbeAfterPart
 	public void afterPart() {
 		_NanoResponsetimeProbe_stopTime = System.nanoTime();
-		_NanoResponsetimeProbe_record = new NanoResponseTimeRecord();
+		_NanoResponsetimeProbe_record = (NanoResponseTimeRecord) RecordPool
+				.acquire(NanoResponseTimeRecord.class);
 		_NanoResponsetimeProbe_record.setCallId(_GenericProbe_callId);
 		_NanoResponsetimeProbe_record.setOperation(__methodSignature);
 		_NanoResponsetimeProbe_record.setNanoTimestamp(_NanoResponsetimeProbe_startTime);
@@ -73,6 +75,7 @@ public class NanoResponsetimeProbe extends AbstractEnclosingProbe {
 				- _NanoResponsetimeProbe_startTime);
 		_NanoResponsetimeProbe_record.setTimeStamp(_GenericProbe_startTime);
 
+		_NanoResponsetimeProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 		_GenericProbe_collector.newRecord(_NanoResponsetimeProbe_record);
 	}
 }
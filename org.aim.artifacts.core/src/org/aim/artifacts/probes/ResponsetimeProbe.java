@@ -18,6 +18,7 @@ package org.aim.artifacts.probes;
 import org.aim.api.instrumentation.AbstractEnclosingProbe;
 import org.aim.api.instrumentation.ProbeAfterPart;
 import org.aim.api.instrumentation.ProbeVariable;
+import org.aim.api.measurement.RecordPool;
 import org.aim.artifacts.records.ResponseTimeRecord;
 import org.aim.description.probes.MeasurementProbe;
 import org.aim.description.scopes.MethodsEnclosingScope;
@@ -54,11 +55,12 @@ public class ResponsetimeProbe extends AbstractEnclosingProbe {
 	@ProbeAfterPart()
 	public void afterPart() {
 		_ResponsetimeProbe_stopTime = System.currentTimeMillis();
-		_ResponsetimeProbe_record = new ResponseTimeRecord();
+		_ResponsetimeProbe_record = (ResponseTimeRecord) RecordPool.acquire(ResponseTimeRecord.class);
 		_ResponsetimeProbe_record.setCallId(_GenericProbe_callId);
 		_ResponsetimeProbe_record.setOperation(__methodSignature);
 		_ResponsetimeProbe_record.setResponseTime(_ResponsetimeProbe_stopTime - _GenericProbe_startTime);
 		_ResponsetimeProbe_record.setTimeStamp(_GenericProbe_startTime);
+		_ResponsetimeProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 		_GenericProbe_collector.newRecord(_ResponsetimeProbe_record);
 	}
 
@@ -21,6 +21,7 @@ import org.aim.api.instrumentation.AbstractEnclosingProbe;
 import org.aim.api.instrumentation.ProbeAfterPart;
 import org.aim.api.instrumentation.ProbeBeforePart;
 import org.aim.api.instrumentation.ProbeVariable;
+import org.aim.api.measurement.RecordPool;
 import org.aim.artifacts.probes.utils.SQLPreparedStatementCache;
 import org.aim.artifacts.records.SQLQueryRecord;
 import org.aim.description.probes.MeasurementProbe;
@@ -59,11 +60,12 @@ public class SQLQueryProbe extends AbstractEnclosingProbe {
 	@ProbeBeforePart(requiredMethodName = { "execute(java.lang.String", "executeQuery(java.lang.String",
 			"executeUpdate(java.lang.String" })
 	public void beforePart() {
-		_SQLQueryProbe_record = new SQLQueryRecord();
+		_SQLQueryProbe_record = (SQLQueryRecord) RecordPool.acquire(SQLQueryRecord.class);
 		_SQLQueryProbe_record.setTimeStamp(_GenericProbe_startTime);
 		_SQLQueryProbe_record.setCallId(_GenericProbe_callId);
 		_SQLQueryProbe_record.setQueryString((String) __parameter[1]);
 		_SQLQueryProbe_record.setOperation(__methodSignature);
+		_SQLQueryProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 		_GenericProbe_collector.newRecord(_SQLQueryProbe_record);
 	}
 
@@ -72,12 +74,13 @@ public class SQLQueryProbe extends AbstractEnclosingProbe {
 	 */
 	@ProbeBeforePart(requiredMethodName = { "execute()", "executeQuery()", "executeUpdate()" })
 	public void beforePartForPreparedStatement() {
-		_SQLQueryProbe_record = new SQLQueryRecord();
+		_SQLQueryProbe_record = (SQLQueryRecord) RecordPool.acquire(SQLQueryRecord.class);
 		_SQLQueryProbe_record.setTimeStamp(_GenericProbe_startTime);
 		_SQLQueryProbe_record.setCallId(_GenericProbe_callId);
 		_SQLQueryProbe_record.setQueryString(SQLPreparedStatementCache.getInstance().getQuery(
 				(PreparedStatement) __parameter[0]));
 		_SQLQueryProbe_record.setOperation(__methodSignature);
+		_SQLQueryProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 		_GenericProbe_collector.newRecord(_SQLQueryProbe_record);
 	}
 
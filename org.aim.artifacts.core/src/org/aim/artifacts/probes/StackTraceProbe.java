@@ -86,6 +86,7 @@ public class StackTraceProbe extends AbstractEnclosingProbe {
 		_StackTraceProbe_record.setOperation(__methodSignature);
 		_StackTraceProbe_record.setStackTrace(_StackTraceProbe_builder.toString());
 		_StackTraceProbe_record.setTimeStamp(_GenericProbe_startTime);
+		_StackTraceProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 		_GenericProbe_collector.newRecord(_StackTraceProbe_record);
 	}
 
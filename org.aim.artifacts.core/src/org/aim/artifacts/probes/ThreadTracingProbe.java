@@ -19,6 +19,7 @@ import org.aim.api.instrumentation.AbstractEnclosingProbe;
 import org.aim.api.instrumentation.ProbeAfterPart;
 import org.aim.api.instrumentation.ProbeBeforePart;
 import org.aim.api.instrumentation.ProbeVariable;
+import org.aim.api.measurement.RecordPool;
 import org.aim.artifacts.records.ThreadTracingRecord;
 import org.aim.description.probes.MeasurementProbe;
 import org.aim.description.scopes.MethodsEnclosingScope;
@@ -46,11 +47,11 @@ public class ThreadTracingProbe extends AbstractEnclosingProbe {
 	}
 
 	@ProbeVariable
-	public Long _ThreadTracingProbe_startNanoTime;
+	public long _ThreadTracingProbe_startNanoTime;
 	@ProbeVariable
-	public Long _ThreadTracingProbe_stopNanoTime;
+	public long _ThreadTracingProbe_stopNanoTime;
 	@ProbeVariable
-	public Long _ThreadTracingProbe_threadId;
+	public long _ThreadTracingProbe_threadId;
 	@ProbeVariable
 	public ThreadTracingRecord _ThreadTracingProbe_record;
 
@@ -69,11 +70,14 @@ public class ThreadTracingProbe extends AbstractEnclosingProbe {
 	public void afterPart() {
 		_ThreadTracingProbe_stopNanoTime = System.nanoTime();
 		_ThreadTracingProbe_threadId = java.lang.Thread.currentThread().getId();
-		_ThreadTracingProbe_record = new ThreadTracingRecord(_GenericProbe_startTime, __methodSignature,
-				_ThreadTracingProbe_threadId);
+		_ThreadTracingProbe_record = (ThreadTracingRecord) RecordPool.acquire(ThreadTracingRecord.class);
+		_ThreadTracingProbe_record.setTimeStamp(_GenericProbe_startTime);
+		_ThreadTracingProbe_record.setOperation(__methodSignature);
+		_ThreadTracingProbe_record.setThreadId(_ThreadTracingProbe_threadId);
 		_ThreadTracingProbe_record.setCallId(_GenericProbe_callId);
 		_ThreadTracingProbe_record.setEnterNanoTime(_ThreadTracingProbe_startNanoTime);
 		_ThreadTracingProbe_record.setExitNanoTime(_ThreadTracingProbe_stopNanoTime);
+		_ThreadTracingProbe_record.setSamplingWeight(_GenericProbe_samplingWeight);
 		_GenericProbe_collector.newRecord(_ThreadTracingProbe_record);
 
 	}
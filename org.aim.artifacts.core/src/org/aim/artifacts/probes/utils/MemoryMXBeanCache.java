@@ -17,28 +17,94 @@ package org.aim.artifacts.probes.utils;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryPoolMXBean;
+import java.util.Properties;
 
 import org.aim.api.instrumentation.IInstrumentationUtil;
 import org.aim.api.instrumentation.InstrumentationUtilsController;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
 
 /**
- * Cache for memory management beans.
+ * Cache for memory management beans. Provides the used memory of the eden,
+ * survivor and tenured spaces. Reading the usage of a memory pool allocates
+ * a usage object, thus, the readings can be sampled: if a sampling interval
+ * is configured, the readings are refreshed at most once per interval and
+ * otherwise reused. The readings of the three spaces are published together,
+ * thus, they always stem from the same sample.
  * 
  * @author Alexander Wert
  * 
  */
 public final class MemoryMXBeanCache implements IInstrumentationUtil {
-	private static MemoryMXBeanCache instance;
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(MemoryMXBeanCache.class);
+
+	/**
+	 * Property key for the sampling interval of memory readings in
+	 * milliseconds. A value less or equal to zero reads the memory pools on
+	 * each call (default).
+	 */
+	public static final String SAMPLING_INTERVAL_KEY = "org.aim.memoryFootprint.samplingInterval";
+
+	private static volatile long samplingInterval = 0L;
+
+	/**
+	 * Lazily initialized singleton.
+	 */
+	private static final class InstanceHolder {
+		private static final MemoryMXBeanCache INSTANCE = new MemoryMXBeanCache();
+	}
 
 	/**
 	 * 
 	 * @return singleton instance of the cache
 	 */
 	public static MemoryMXBeanCache getInstance() {
-		if (instance == null) {
-			instance = new MemoryMXBeanCache();
+		return InstanceHolder.INSTANCE;
+	}
+
+	/**
+	 * Configures the sampling of memory readings from the agent properties.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		long interval = 0L;
+		String value = properties == null ? null : properties.getProperty(SAMPLING_INTERVAL_KEY);
+		if (value != null) {
+			try {
+				interval = Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				LOGGER.warn("Invalid memory sampling interval {}. Reading the memory pools on each call.", value);
+			}
 		}
-		return instance;
+		setSamplingInterval(interval);
+	}
+
+	/**
+	 * Sets the sampling interval of memory readings.
+	 * 
+	 * @param intervalMillis
+	 *            sampling interval in milliseconds, zero reads the memory
+	 *            pools on each call. A negative interval is invalid and
+	 *            treated like zero.
+	 */
+	public static void setSamplingInterval(long intervalMillis) {
+		if (intervalMillis < 0L) {
+			LOGGER.warn("Invalid memory sampling interval {}. Reading the memory pools on each call.",
+					intervalMillis);
+			samplingInterval = 0L;
+		} else {
+			samplingInterval = intervalMillis;
+		}
+	}
+
+	/**
+	 * @return the sampling interval of memory readings in milliseconds, zero
+	 *         if the memory pools are read on each call
+	 */
+	public static long getSamplingInterval() {
+		return samplingInterval;
 	}
 
 	private static final String[] EDEN_SPACE_NAMES = { "Eden Space", "PS Eden Space", "Par Eden Space", "G1 Eden" };
@@ -50,6 +116,11 @@ public final class MemoryMXBeanCache implements IInstrumentationUtil {
 	private MemoryPoolMXBean survivorBean;
 	private MemoryPoolMXBean oldBean;
 
+	/**
+	 * Latest sample, null if the memory pools have not been sampled yet.
+	 */
+	private volatile Sample sample;
+
 	private MemoryMXBeanCache() {
 		beanLoop: for (MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans()) {
 			for (String name : EDEN_SPACE_NAMES) {
@@ -98,8 +169,73 @@ public final class MemoryMXBeanCache implements IInstrumentationUtil {
 		return oldBean;
 	}
 
+	/**
+	 * 
+	 * @return used memory of the eden space in bytes, 0 if unknown
+	 */
+	public long getEdenUsed() {
+		if (samplingInterval <= 0L) {
+			return getUsed(edenBean);
+		}
+		return refreshSample().edenUsed;
+	}
+
+	/**
+	 * 
+	 * @return used memory of the survivor space in bytes, 0 if unknown
+	 */
+	public long getSurvivorUsed() {
+		if (samplingInterval <= 0L) {
+			return getUsed(survivorBean);
+		}
+		return refreshSample().survivorUsed;
+	}
+
+	/**
+	 * 
+	 * @return used memory of the tenured space in bytes, 0 if unknown
+	 */
+	public long getOldUsed() {
+		if (samplingInterval <= 0L) {
+			return getUsed(oldBean);
+		}
+		return refreshSample().oldUsed;
+	}
+
+	private Sample refreshSample() {
+		Sample currentSample = sample;
+		long now = System.currentTimeMillis();
+		if (currentSample == null || now - currentSample.time >= samplingInterval) {
+			// concurrent refreshes are harmless, the last sample wins
+			currentSample = new Sample(now, getUsed(edenBean), getUsed(survivorBean), getUsed(oldBean));
+			sample = currentSample;
+		}
+		return currentSample;
+	}
+
+	private static long getUsed(MemoryPoolMXBean bean) {
+		return bean == null ? 0L : bean.getUsage().getUsed();
+	}
+
 	@Override
 	public void clear() {
-		// nothing to do
+		sample = null;
+	}
+
+	/**
+	 * Immutable reading of the memory pools.
+	 */
+	private static final class Sample {
+		private final long time;
+		private final long edenUsed;
+		private final long survivorUsed;
+		private final long oldUsed;
+
+		private Sample(long time, long edenUsed, long survivorUsed, long oldUsed) {
+			this.time = time;
+			this.edenUsed = edenUsed;
+			this.survivorUsed = survivorUsed;
+			this.oldUsed = oldUsed;
+		}
 	}
 }
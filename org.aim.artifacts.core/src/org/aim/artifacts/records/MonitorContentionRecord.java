@@ -0,0 +1,143 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.records;
+
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.RecordValue;
+
+/**
+ * Summary record for the contention on a monitor (class) within one flush
+ * interval.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public class MonitorContentionRecord extends AbstractRecord {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -3176318263549046471L;
+
+	public static final String PAR_MONITOR = "monitor";
+	public static final String PAR_CONTENTION_COUNT = "contentionCount";
+	public static final String PAR_TOTAL_WAIT_TIME = "totalWaitTime";
+	public static final String PAR_MAX_WAIT_TIME = "maxWaitTime";
+	public static final String PAR_WAIT_TIME_HISTOGRAM = "waitTimeHistogram";
+
+	@RecordValue(name = PAR_MONITOR)
+	String monitor;
+
+	@RecordValue(metric = true, name = PAR_CONTENTION_COUNT)
+	long contentionCount;
+
+	@RecordValue(metric = true, name = PAR_TOTAL_WAIT_TIME)
+	long totalWaitTime;
+
+	@RecordValue(metric = true, name = PAR_MAX_WAIT_TIME)
+	long maxWaitTime;
+
+	@RecordValue(name = PAR_WAIT_TIME_HISTOGRAM)
+	String waitTimeHistogram;
+
+	/**
+	 * Public constructor required for JSON serialization.
+	 */
+	public MonitorContentionRecord() {
+	}
+
+	/**
+	 * @return the monitor class or, if aggregated per monitor, the monitor
+	 *         location
+	 */
+	public String getMonitor() {
+		return monitor;
+	}
+
+	/**
+	 * @param monitor
+	 *            the monitor to set
+	 */
+	public void setMonitor(String monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * @return the number of contended monitor enters
+	 */
+	public long getContentionCount() {
+		return contentionCount;
+	}
+
+	/**
+	 * @param contentionCount
+	 *            the contentionCount to set
+	 */
+	public void setContentionCount(long contentionCount) {
+		this.contentionCount = contentionCount;
+	}
+
+	/**
+	 * @return the total waiting time in nanoseconds
+	 */
+	public long getTotalWaitTime() {
+		return totalWaitTime;
+	}
+
+	/**
+	 * @param totalWaitTime
+	 *            the totalWaitTime to set
+	 */
+	public void setTotalWaitTime(long totalWaitTime) {
+		this.totalWaitTime = totalWaitTime;
+	}
+
+	/**
+	 * @return the maximum waiting time in nanoseconds
+	 */
+	public long getMaxWaitTime() {
+		return maxWaitTime;
+	}
+
+	/**
+	 * @param maxWaitTime
+	 *            the maxWaitTime to set
+	 */
+	public void setMaxWaitTime(long maxWaitTime) {
+		this.maxWaitTime = maxWaitTime;
+	}
+
+	/**
+	 * Histogram of the waiting times with power of two buckets, encoded as
+	 * {@code <exponent>:<count>} pairs separated by {@code |}. Bucket
+	 * {@code e} counts the waiting times in {@code [2^e, 2^(e+1))}
+	 * nanoseconds, empty buckets are omitted.
+	 * 
+	 * @return the waitTimeHistogram
+	 */
+	public String getWaitTimeHistogram() {
+		return waitTimeHistogram;
+	}
+
+	/**
+	 * @param waitTimeHistogram
+	 *            the waitTimeHistogram to set
+	 */
+	public void setWaitTimeHistogram(String waitTimeHistogram) {
+		this.waitTimeHistogram = waitTimeHistogram;
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.aim.artifacts.records.ResponseTimeRecord;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecordPoolTest {
+
+	@After
+	public void disablePooling() {
+		RecordPool.configure(false, RecordPool.DEFAULT_CAPACITY);
+	}
+
+	@Test
+	public void testDisabledPoolCreatesRecords() {
+		RecordPool.configure(false, RecordPool.DEFAULT_CAPACITY);
+		AbstractRecord record = RecordPool.acquire(ResponseTimeRecord.class);
+		Assert.assertTrue(record instanceof ResponseTimeRecord);
+		Assert.assertNotNull(record.getProcessId());
+		RecordPool.release(record);
+		Assert.assertNotSame(record, RecordPool.acquire(ResponseTimeRecord.class));
+	}
+
+	@Test
+	public void testReleasedRecordsAreReused() throws InterruptedException {
+		RecordPool.configure(true, RecordPool.DEFAULT_CAPACITY);
+		final List<AbstractRecord> borrowed = new ArrayList<AbstractRecord>();
+		for (int i = 0; i < 10; i++) {
+			borrowed.add(RecordPool.acquire(ResponseTimeRecord.class));
+		}
+
+		// records are returned by the writer thread
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				RecordPool.releaseAll(borrowed);
+			}
+		};
+		writer.start();
+		writer.join();
+
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(borrowed.contains(RecordPool.acquire(ResponseTimeRecord.class)));
+		}
+		Assert.assertFalse(borrowed.contains(RecordPool.acquire(ResponseTimeRecord.class)));
+	}
+
+	@Test
+	public void testCapacity() {
+		RecordPool.configure(true, 2);
+		List<AbstractRecord> borrowed = new ArrayList<AbstractRecord>();
+		for (int i = 0; i < 5; i++) {
+			borrowed.add(RecordPool.acquire(ResponseTimeRecord.class));
+		}
+		RecordPool.releaseAll(borrowed);
+
+		int reused = 0;
+		for (int i = 0; i < 5; i++) {
+			if (borrowed.contains(RecordPool.acquire(ResponseTimeRecord.class))) {
+				reused++;
+			}
+		}
+		Assert.assertEquals(2, reused);
+	}
+
+	@Test
+	public void testRecordIsReleasedOnlyOnce() {
+		RecordPool.configure(true, RecordPool.DEFAULT_CAPACITY);
+		AbstractRecord record = RecordPool.acquire(ResponseTimeRecord.class);
+		RecordPool.release(record);
+		RecordPool.release(record);
+		Assert.assertSame(record, RecordPool.acquire(ResponseTimeRecord.class));
+		Assert.assertNotSame(record, RecordPool.acquire(ResponseTimeRecord.class));
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement;
+
+import org.aim.artifacts.records.CPUUtilizationRecord;
+import org.aim.artifacts.records.ResponseTimeRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecordSerializerTest {
+
+	@Test
+	public void testStringRoundTrip() {
+		ResponseTimeRecord record = new ResponseTimeRecord(1L, "a.b.C;foo()", 42L);
+		record.setCallId(7L);
+		record.setProcessId("pid");
+
+		String stringRep = record.toString();
+		Assert.assertEquals("7;a.b.C#sc#foo();pid;42;1;" + ResponseTimeRecord.class.getCanonicalName(), stringRep);
+
+		ResponseTimeRecord parsed = (ResponseTimeRecord) AbstractRecord.fromString(stringRep);
+		Assert.assertEquals(7L, parsed.getCallId());
+		Assert.assertEquals("a.b.C;foo()", parsed.getOperation());
+		Assert.assertEquals("pid", parsed.getProcessId());
+		Assert.assertEquals(42L, parsed.getResponseTime());
+		Assert.assertEquals(1L, parsed.getTimeStamp());
+		Assert.assertEquals(1.0, parsed.getSamplingWeight(), 0.0);
+	}
+
+	@Test
+	public void testDoubleValues() {
+		CPUUtilizationRecord record = new CPUUtilizationRecord(5L, "cpu0", 0.25);
+		CPUUtilizationRecord parsed = (CPUUtilizationRecord) AbstractRecord.fromString(record.toString());
+		Assert.assertEquals(0.25, parsed.getUtilization(), 0.0);
+		Assert.assertEquals("cpu0", parsed.getCpuId());
+	}
+
+	@Test
+	public void testGenericAccess() {
+		ResponseTimeRecord record = new ResponseTimeRecord(100L, "op", 3L);
+		Assert.assertEquals(3L, record.getValue(ResponseTimeRecord.PAR_RESPONSE_TIME));
+		Assert.assertNull(record.getValue("unknown"));
+		Assert.assertEquals(long.class, record.getType(ResponseTimeRecord.PAR_RESPONSE_TIME));
+
+		record.fromStringArray(new String[] { "1", "op2", "pid", "4", "5" });
+		Assert.assertEquals("op2", record.getOperation());
+		Assert.assertEquals(4L, record.getResponseTime());
+
+		record.relativiseTimestamps(2L);
+		Assert.assertEquals(3L, record.getTimeStamp());
+		Assert.assertEquals(5, record.toList().size());
+	}
+
+	@Test
+	public void testSamplingWeightIsOptionalValue() {
+		ResponseTimeRecord record = new ResponseTimeRecord(1L, "op", 42L);
+		record.setCallId(7L);
+		record.setProcessId("pid");
+		record.setSamplingWeight(2.5);
+
+		String stringRep = record.toString();
+		Assert.assertEquals("7;op;pid;42;1;2.5;" + ResponseTimeRecord.class.getCanonicalName(), stringRep);
+		ResponseTimeRecord parsed = (ResponseTimeRecord) AbstractRecord.fromString(stringRep);
+		Assert.assertEquals(2.5, parsed.getSamplingWeight(), 0.0);
+		Assert.assertEquals(1L, parsed.getTimeStamp());
+
+		parsed = (ResponseTimeRecord) AbstractRecord.fromString("7;op;pid;42;1;"
+				+ ResponseTimeRecord.class.getCanonicalName());
+		Assert.assertEquals(1.0, parsed.getSamplingWeight(), 0.0);
+		Assert.assertEquals(42L, parsed.getResponseTime());
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.collector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.aim.api.exceptions.MeasurementException;
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.artifacts.measurement.collector.MemoryDataSource;
+import org.aim.artifacts.records.ResponseTimeRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MeasurementDataTransferTest {
+
+	private static final int NUM_RECORDS = 100;
+
+	private byte[] encode(long offset, long limit, boolean binary, boolean gzip) throws IOException,
+			MeasurementException {
+		AbstractDataSource source = new MemoryDataSource();
+		List<AbstractRecord> records = new ArrayList<AbstractRecord>();
+		for (int i = 0; i < NUM_RECORDS; i++) {
+			records.add(new ResponseTimeRecord(i, "op", i));
+		}
+		source.processBatch(records);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		RecordIterator iterator = source.openRecordIterator();
+		MeasurementDataTransfer.writeRecords(iterator, bytes, offset, limit, binary, gzip);
+		iterator.close();
+		return bytes.toByteArray();
+	}
+
+	private List<AbstractRecord> transfer(long offset, long limit, boolean binary, boolean gzip) throws IOException,
+			MeasurementException {
+		InputStream iStream = new ByteArrayInputStream(encode(offset, limit, binary, gzip));
+		if (gzip) {
+			iStream = new GZIPInputStream(iStream);
+		}
+		List<AbstractRecord> result = new ArrayList<AbstractRecord>();
+		StreamRecordIterator received = new StreamRecordIterator(iStream, binary);
+		while (received.hasNext()) {
+			result.add(received.next());
+		}
+		Assert.assertEquals(result.size(), received.getConsumedRecords());
+		received.close();
+		return result;
+	}
+
+	@Test
+	public void testTextTransfer() throws IOException, MeasurementException {
+		List<AbstractRecord> result = transfer(0L, 0L, false, false);
+		Assert.assertEquals(NUM_RECORDS, result.size());
+		Assert.assertEquals(NUM_RECORDS - 1, result.get(NUM_RECORDS - 1).getTimeStamp());
+	}
+
+	@Test
+	public void testCompressedBinaryPage() throws IOException, MeasurementException {
+		List<AbstractRecord> result = transfer(90L, 20L, true, true);
+		Assert.assertEquals(10, result.size());
+		Assert.assertEquals(90L, result.get(0).getTimeStamp());
+	}
+
+	@Test
+	public void testTruncatedBinaryPageFails() throws IOException, MeasurementException {
+		byte[] bytes = encode(0L, 0L, true, true);
+		InputStream iStream = new GZIPInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 20));
+		StreamRecordIterator received = new StreamRecordIterator(iStream, true, true);
+		long count = 0;
+		try {
+			while (received.hasNext()) {
+				received.next();
+				count++;
+			}
+			Assert.fail("Truncated page has not been detected.");
+		} catch (RuntimeException e) {
+			Assert.assertTrue(count < NUM_RECORDS);
+			Assert.assertEquals(count, received.getConsumedRecords());
+		}
+		received.close();
+	}
+
+	@Test
+	public void testTruncatedTextLineFails() throws IOException, MeasurementException {
+		byte[] bytes = encode(0L, 0L, false, false);
+		StreamRecordIterator received = new StreamRecordIterator(new ByteArrayInputStream(bytes, 0,
+				bytes.length - 1), false, true);
+		long count = 0;
+		try {
+			while (received.hasNext()) {
+				received.next();
+				count++;
+			}
+			Assert.fail("Truncated line has not been detected.");
+		} catch (RuntimeException e) {
+			Assert.assertEquals(NUM_RECORDS - 1, count);
+			Assert.assertEquals(NUM_RECORDS - 1, received.getConsumedRecords());
+		}
+		received.close();
+	}
+
+	@Test
+	public void testUndecodableLinesAreConsumed() throws IOException, MeasurementException {
+		byte[] records = encode(0L, 0L, false, false);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write("unknown;record\n".getBytes());
+		bytes.write(records);
+		StreamRecordIterator received = new StreamRecordIterator(new ByteArrayInputStream(bytes.toByteArray()),
+				false, true);
+		Assert.assertTrue(received.hasNext());
+		Assert.assertEquals(1L, received.getConsumedRecords());
+		Assert.assertEquals(0L, received.next().getTimeStamp());
+		Assert.assertEquals(2L, received.getConsumedRecords());
+		long count = 1;
+		while (received.hasNext()) {
+			received.next();
+			count++;
+		}
+		Assert.assertEquals(NUM_RECORDS, count);
+		Assert.assertEquals(NUM_RECORDS + 1, received.getConsumedRecords());
+		received.close();
+	}
+
+	@Test
+	public void testAcceptsGzip() {
+		Assert.assertTrue(MeasurementDataTransfer.acceptsGzip("deflate, gzip"));
+		Assert.assertFalse(MeasurementDataTransfer.acceptsGzip("gzip;q=0"));
+		Assert.assertFalse(MeasurementDataTransfer.acceptsGzip(null));
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.api.measurement.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.artifacts.records.CPUUtilizationRecord;
+import org.aim.artifacts.records.ResponseTimeRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BinaryRecordTest {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryRecordWriter writer = new BinaryRecordWriter(bytes);
+		long textSize = 0;
+		for (int i = 0; i < 1000; i++) {
+			ResponseTimeRecord record = new ResponseTimeRecord(1000000L + i, "op" + (i % 3), i * 7L);
+			record.setCallId(i);
+			record.setSamplingWeight(1.0 + i % 2);
+			writer.write(record);
+			textSize += record.toString().length() + 1;
+			if (i % 100 == 0) {
+				writer.write(new CPUUtilizationRecord(i, null, 0.5));
+			}
+		}
+		writer.close();
+		Assert.assertTrue(bytes.size() * 5 < textSize);
+
+		BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(bytes.toByteArray()));
+		List<AbstractRecord> records = reader.readAll();
+		reader.close();
+		Assert.assertEquals(1010, records.size());
+
+		ResponseTimeRecord first = (ResponseTimeRecord) records.get(0);
+		Assert.assertEquals(1000000L, first.getTimeStamp());
+		Assert.assertEquals("op0", first.getOperation());
+		Assert.assertEquals(1.0, first.getSamplingWeight(), 0.0);
+
+		CPUUtilizationRecord cpuRecord = (CPUUtilizationRecord) records.get(1);
+		Assert.assertNull(cpuRecord.getCpuId());
+		Assert.assertEquals(0.5, cpuRecord.getUtilization(), 0.0);
+
+		ResponseTimeRecord last = (ResponseTimeRecord) records.get(records.size() - 1);
+		Assert.assertEquals(1000999L, last.getTimeStamp());
+		Assert.assertEquals(999L, last.getCallId());
+		Assert.assertEquals("op0", last.getOperation());
+		Assert.assertEquals(999 * 7L, last.getResponseTime());
+		Assert.assertEquals(2.0, last.getSamplingWeight(), 0.0);
+		Assert.assertEquals(first.getProcessId(), last.getProcessId());
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidHeader() throws IOException {
+		new BinaryRecordReader(new ByteArrayInputStream("1;2;3".getBytes()));
+	}
+}
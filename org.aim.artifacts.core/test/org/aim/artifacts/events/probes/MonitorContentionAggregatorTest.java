@@ -0,0 +1,103 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.events.probes;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.aim.artifacts.records.MonitorContentionRecord;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MonitorContentionAggregatorTest {
+
+	private static final String MONITOR_A = "java.lang.Object@11";
+	private static final String MONITOR_B = "java.lang.Object@12";
+
+	@Before
+	public void resetAggregator() {
+		MonitorContentionAggregator.configure(new Properties());
+		MonitorContentionAggregator.getInstance().collectRecords(0L);
+	}
+
+	@After
+	public void resetConfiguration() {
+		MonitorContentionAggregator.configure(new Properties());
+	}
+
+	@Test
+	public void testAggregationPerMonitorClass() {
+		MonitorContentionAggregator aggregator = MonitorContentionAggregator.getInstance();
+		aggregator.onWait(1L, MONITOR_A, 100L);
+		aggregator.onWait(2L, MONITOR_B, 100L);
+		aggregator.onEntered(1L, MONITOR_A, 1100L);
+		aggregator.onEntered(2L, MONITOR_B, 5100L);
+
+		List<MonitorContentionRecord> records = aggregator.collectRecords(42L);
+		Assert.assertEquals(1, records.size());
+		MonitorContentionRecord record = records.get(0);
+		Assert.assertEquals(42L, record.getTimeStamp());
+		Assert.assertEquals("java.lang.Object", record.getMonitor());
+		Assert.assertEquals(2L, record.getContentionCount());
+		Assert.assertEquals(6000L, record.getTotalWaitTime());
+		Assert.assertEquals(5000L, record.getMaxWaitTime());
+		Assert.assertEquals("9:1|12:1", record.getWaitTimeHistogram());
+
+		Assert.assertTrue(aggregator.collectRecords(43L).isEmpty());
+	}
+
+	@Test
+	public void testAggregationPerMonitor() {
+		Properties properties = new Properties();
+		properties.setProperty(MonitorContentionAggregator.PER_MONITOR_KEY, "true");
+		MonitorContentionAggregator.configure(properties);
+
+		MonitorContentionAggregator aggregator = MonitorContentionAggregator.getInstance();
+		aggregator.onWait(1L, MONITOR_A, 0L);
+		aggregator.onWait(2L, MONITOR_B, 0L);
+		aggregator.onEntered(1L, MONITOR_A, 10L);
+		aggregator.onEntered(2L, MONITOR_B, 10L);
+
+		List<MonitorContentionRecord> records = aggregator.collectRecords(0L);
+		Assert.assertEquals(2, records.size());
+		for (MonitorContentionRecord record : records) {
+			Assert.assertTrue(record.getMonitor().equals(MONITOR_A) || record.getMonitor().equals(MONITOR_B));
+			Assert.assertEquals(1L, record.getContentionCount());
+		}
+	}
+
+	@Test
+	public void testUnpairedEventsAreIgnored() {
+		MonitorContentionAggregator aggregator = MonitorContentionAggregator.getInstance();
+		aggregator.onEntered(1L, MONITOR_A, 10L);
+		aggregator.onWait(2L, MONITOR_A, 0L);
+		aggregator.onEntered(2L, MONITOR_B, 10L);
+		aggregator.onEntered(2L, MONITOR_A, 20L);
+
+		Assert.assertTrue(aggregator.collectRecords(0L).isEmpty());
+	}
+
+	@Test
+	public void testHistogramBuckets() {
+		Assert.assertEquals(0, MonitorContentionAggregator.bucketOf(0L));
+		Assert.assertEquals(0, MonitorContentionAggregator.bucketOf(1L));
+		Assert.assertEquals(1, MonitorContentionAggregator.bucketOf(3L));
+		Assert.assertEquals(10, MonitorContentionAggregator.bucketOf(1024L));
+		Assert.assertEquals(39, MonitorContentionAggregator.bucketOf(Long.MAX_VALUE));
+	}
+}
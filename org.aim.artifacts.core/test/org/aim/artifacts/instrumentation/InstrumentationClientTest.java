@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.instrumentation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class InstrumentationClientTest {
+
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+	private HttpServer server;
+	private volatile boolean agentReady;
+
+	/**
+	 * Starts a server emulating the readiness endpoint of the agent.
+	 */
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/" + InstrumentationClient.PATH_PREFIX + "/ready", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = String.valueOf(agentReady).getBytes();
+				exchange.sendResponseHeaders(agentReady ? HTTP_OK : HTTP_SERVICE_UNAVAILABLE, body.length);
+				try (OutputStream oStream = exchange.getResponseBody()) {
+					oStream.write(body);
+				}
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	private InstrumentationClient createClient() {
+		return new InstrumentationClient("localhost", String.valueOf(server.getAddress().getPort()));
+	}
+
+	@Test
+	public void testIsReady() {
+		InstrumentationClient client = createClient();
+		agentReady = false;
+		Assert.assertFalse(client.isReady());
+		agentReady = true;
+		Assert.assertTrue(client.isReady());
+	}
+
+	@Test
+	public void testIsNotReadyIfUnreachable() {
+		InstrumentationClient client = createClient();
+		server.stop(0);
+		Assert.assertFalse(client.isReady());
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.measurement.collector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.aim.api.exceptions.MeasurementException;
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.collector.RecordIterator;
+import org.aim.artifacts.records.ResponseTimeRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FileDataSourceTest {
+
+	private static final int NUM_RECORDS = 1000;
+
+	private List<List<AbstractRecord>> createBatches() {
+		List<List<AbstractRecord>> batches = new ArrayList<List<AbstractRecord>>();
+		List<AbstractRecord> batch = new ArrayList<AbstractRecord>();
+		for (int i = 0; i < NUM_RECORDS; i++) {
+			batch.add(new ResponseTimeRecord(i, "operation" + (i % 10), i));
+			if (batch.size() == 100) {
+				batches.add(batch);
+				batch = new ArrayList<AbstractRecord>();
+			}
+		}
+		return batches;
+	}
+
+	private FileDataSource writeText() throws MeasurementException {
+		FileDataSource dataSource = new FileDataSource();
+		dataSource.initialize(new Properties());
+		dataSource.init();
+		for (List<AbstractRecord> batch : createBatches()) {
+			dataSource.processBatch(batch);
+		}
+		return dataSource;
+	}
+
+	/**
+	 * Appends bytes to the sink without committing them, as the drain thread
+	 * does while writing a batch.
+	 */
+	private void appendUncommitted(AbstractFileDataSource dataSource, String data) throws IOException {
+		try (FileOutputStream oStream = new FileOutputStream(dataSource.getSink(), true)) {
+			oStream.write(data.getBytes());
+		}
+	}
+
+	private void assertCommittedRecords(AbstractFileDataSource dataSource) throws MeasurementException {
+		List<AbstractRecord> records = dataSource.read().getRecords();
+		Assert.assertEquals(NUM_RECORDS, records.size());
+		for (int i = 0; i < NUM_RECORDS; i++) {
+			Assert.assertEquals(i, records.get(i).getTimeStamp());
+		}
+
+		ByteArrayOutputStream oStream = new ByteArrayOutputStream();
+		dataSource.pipeToOutputStream(oStream);
+		String[] lines = oStream.toString().split("\\r?\\n");
+		Assert.assertEquals(NUM_RECORDS, lines.length);
+		// batches are serialized with the same format as single records
+		for (int i = 0; i < NUM_RECORDS; i++) {
+			Assert.assertEquals(records.get(i).toString(), lines[i]);
+		}
+	}
+
+	@Test
+	public void testReadCommittedText() throws Exception {
+		FileDataSource dataSource = writeText();
+		appendUncommitted(dataSource, new ResponseTimeRecord(NUM_RECORDS, "uncommitted", 0L).toString()
+				+ System.getProperty("line.separator"));
+		assertCommittedRecords(dataSource);
+	}
+
+	@Test
+	public void testReadCommittedBinary() throws Exception {
+		BinaryFileDataSource dataSource = new BinaryFileDataSource();
+		dataSource.initialize(new Properties());
+		dataSource.init();
+		for (List<AbstractRecord> batch : createBatches()) {
+			dataSource.processBatch(batch);
+		}
+		appendUncommitted(dataSource, "incomplete");
+		assertCommittedRecords(dataSource);
+	}
+
+	@Test
+	public void testNewSinkPerMonitoringPhase() throws Exception {
+		FileDataSource dataSource = writeText();
+		dataSource.cleanUp();
+
+		// the sink of the previous phase is replaced
+		dataSource.init();
+		for (List<AbstractRecord> batch : createBatches()) {
+			dataSource.processBatch(batch);
+		}
+		assertCommittedRecords(dataSource);
+	}
+
+	private void assertTail(FileDataSource dataSource, long fromSequence) throws Exception {
+		try (RecordIterator iterator = dataSource.openRecordIterator(fromSequence)) {
+			for (long i = fromSequence; i < NUM_RECORDS; i++) {
+				Assert.assertEquals(i, iterator.next().getTimeStamp());
+			}
+			Assert.assertFalse(iterator.hasNext());
+		}
+	}
+
+	@Test
+	public void testTailWithAcknowledge() throws Exception {
+		FileDataSource dataSource = writeText();
+		dataSource.acknowledge(300L);
+		assertTail(dataSource, 300L);
+		assertTail(dataSource, 450L);
+		dataSource.acknowledge(700L);
+		assertTail(dataSource, 700L);
+		// records before the watermark are still available
+		assertTail(dataSource, 100L);
+		// the watermark is limited to the committed records
+		appendUncommitted(dataSource, new ResponseTimeRecord(NUM_RECORDS, "uncommitted", 0L).toString()
+				+ System.getProperty("line.separator"));
+		dataSource.acknowledge(NUM_RECORDS + 10L);
+		assertTail(dataSource, NUM_RECORDS);
+		assertTail(dataSource, 900L);
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.measurement.collector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.aim.api.exceptions.MeasurementException;
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.MeasurementData;
+import org.aim.api.measurement.collector.RecordIterator;
+import org.aim.artifacts.records.ResponseTimeRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedSegmentDataSourceTest {
+
+	private static final int NUM_RECORDS = 50000;
+
+	private MappedSegmentDataSource createDataSource(long retentionBytes) throws MeasurementException {
+		Properties properties = new Properties();
+		properties.setProperty(MappedSegmentDataSource.SEGMENT_SIZE_KEY,
+				String.valueOf(MappedSegmentDataSource.MIN_SEGMENT_SIZE));
+		properties.setProperty(MappedSegmentDataSource.RETENTION_BYTES_KEY, String.valueOf(retentionBytes));
+		MappedSegmentDataSource dataSource = new MappedSegmentDataSource();
+		dataSource.initialize(properties);
+		dataSource.init();
+
+		List<AbstractRecord> batch = new ArrayList<AbstractRecord>();
+		for (int i = 0; i < NUM_RECORDS; i++) {
+			batch.add(new ResponseTimeRecord(i, "operation" + (i % 10), i));
+			if (batch.size() == 100) {
+				dataSource.processBatch(batch);
+				batch.clear();
+			}
+		}
+		dataSource.cleanUp();
+		return dataSource;
+	}
+
+	@Test
+	public void testRollOver() throws MeasurementException {
+		MappedSegmentDataSource dataSource = createDataSource(0L);
+		MeasurementData data = dataSource.read();
+		Assert.assertEquals(NUM_RECORDS, data.getRecords().size());
+		for (int i = 0; i < NUM_RECORDS; i++) {
+			ResponseTimeRecord record = (ResponseTimeRecord) data.getRecords().get(i);
+			Assert.assertEquals(i, record.getTimeStamp());
+			Assert.assertEquals("operation" + (i % 10), record.getOperation());
+		}
+	}
+
+	@Test
+	public void testRetention() throws MeasurementException {
+		MappedSegmentDataSource dataSource = createDataSource(2 * MappedSegmentDataSource.MIN_SEGMENT_SIZE);
+		List<AbstractRecord> records = dataSource.read().getRecords();
+		Assert.assertTrue(records.size() > 0);
+		Assert.assertTrue(records.size() < NUM_RECORDS);
+		Assert.assertEquals(NUM_RECORDS - 1, records.get(records.size() - 1).getTimeStamp());
+	}
+
+	@Test
+	public void testAcknowledge() throws Exception {
+		MappedSegmentDataSource dataSource = createDataSource(0L);
+		long watermark = NUM_RECORDS / 2;
+		dataSource.acknowledge(watermark);
+		long first = dataSource.getFirstAvailableSequence();
+		Assert.assertTrue(first > 0);
+		Assert.assertTrue(first <= watermark);
+		Assert.assertEquals(NUM_RECORDS - first, dataSource.read().getRecords().size());
+
+		try (RecordIterator iterator = dataSource.openRecordIterator(watermark)) {
+			for (long i = watermark; i < NUM_RECORDS; i++) {
+				Assert.assertEquals(i, iterator.next().getTimeStamp());
+			}
+			Assert.assertFalse(iterator.hasNext());
+		}
+	}
+
+	@Test
+	public void testOversizedRecordIsDropped() throws Exception {
+		File sinkDirectory = Files.createTempDirectory("segments").toFile();
+		Properties properties = new Properties();
+		properties.setProperty(MappedSegmentDataSource.SINK_DIRECTORY, sinkDirectory.getAbsolutePath());
+		properties.setProperty(MappedSegmentDataSource.SEGMENT_SIZE_KEY,
+				String.valueOf(MappedSegmentDataSource.MIN_SEGMENT_SIZE));
+		MappedSegmentDataSource dataSource = new MappedSegmentDataSource();
+		dataSource.initialize(properties);
+		dataSource.init();
+
+		StringBuilder operation = new StringBuilder();
+		while (operation.length() <= MappedSegmentDataSource.MIN_SEGMENT_SIZE) {
+			operation.append("operation");
+		}
+		List<AbstractRecord> batch = new ArrayList<AbstractRecord>();
+		batch.add(new ResponseTimeRecord(0L, "before", 0L));
+		batch.add(new ResponseTimeRecord(1L, operation.toString(), 1L));
+		batch.add(new ResponseTimeRecord(2L, "after", 2L));
+		dataSource.processBatch(batch);
+		dataSource.cleanUp();
+
+		List<AbstractRecord> records = dataSource.read().getRecords();
+		Assert.assertEquals(2, records.size());
+		Assert.assertEquals("before", ((ResponseTimeRecord) records.get(0)).getOperation());
+		Assert.assertEquals("after", ((ResponseTimeRecord) records.get(1)).getOperation());
+		// the data source rolls over only once for the dropped record
+		Assert.assertEquals(2, countSegments(sinkDirectory));
+		deleteRecursively(sinkDirectory);
+	}
+
+	private static int countSegments(File directory) {
+		int count = 0;
+		for (File file : directory.listFiles()) {
+			if (file.isDirectory()) {
+				count += countSegments(file);
+			} else if (file.getName().endsWith(MappedSegmentDataSource.SEGMENT_FILE_EXTENSION)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static void deleteRecursively(File file) throws IOException {
+		if (file.isDirectory()) {
+			for (File child : file.listFiles()) {
+				deleteRecursively(child);
+			}
+		}
+		Files.delete(file.toPath());
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.measurement.collector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.aim.api.exceptions.MeasurementException;
+import org.aim.api.measurement.AbstractRecord;
+import org.aim.api.measurement.collector.RecordIterator;
+import org.aim.artifacts.records.ResponseTimeRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MemoryDataSourceTest {
+
+	private static void append(MemoryDataSource dataSource, int from, int to) {
+		List<AbstractRecord> batch = new ArrayList<AbstractRecord>();
+		for (int i = from; i < to; i++) {
+			batch.add(new ResponseTimeRecord(i, "op", i));
+		}
+		dataSource.processBatch(batch);
+	}
+
+	@Test
+	public void testTailWithAcknowledge() throws Exception {
+		MemoryDataSource dataSource = new MemoryDataSource();
+		dataSource.init();
+		append(dataSource, 0, 10);
+
+		long watermark = 0L;
+		try (RecordIterator iterator = dataSource.openRecordIterator(watermark)) {
+			while (iterator.hasNext()) {
+				Assert.assertEquals(watermark, iterator.next().getTimeStamp());
+				watermark++;
+			}
+		}
+		Assert.assertEquals(10L, watermark);
+
+		append(dataSource, 10, 15);
+		dataSource.acknowledge(watermark);
+		Assert.assertEquals(10L, dataSource.getFirstAvailableSequence());
+		Assert.assertEquals(5, dataSource.read().getRecords().size());
+
+		try (RecordIterator iterator = dataSource.openRecordIterator(watermark)) {
+			Assert.assertEquals(10L, iterator.next().getTimeStamp());
+			append(dataSource, 15, 16);
+			int remaining = 0;
+			while (iterator.hasNext()) {
+				iterator.next();
+				remaining++;
+			}
+			Assert.assertEquals(5, remaining);
+		}
+	}
+
+	@Test
+	public void testReleasedRecordsAreSkipped() throws MeasurementException {
+		MemoryDataSource dataSource = new MemoryDataSource();
+		dataSource.init();
+		append(dataSource, 0, 10);
+		dataSource.acknowledge(4L);
+		RecordIterator iterator = dataSource.openRecordIterator(2L);
+		Assert.assertEquals(4L, iterator.next().getTimeStamp());
+	}
+
+	@Test
+	public void testStepwiseAcknowledge() throws Exception {
+		MemoryDataSource dataSource = new MemoryDataSource();
+		dataSource.init();
+		long watermark = 0L;
+		long end = 0L;
+		for (int step = 0; step < 100; step++) {
+			append(dataSource, (int) end, (int) end + 10);
+			end += 10;
+			// the released records make up a varying part of the record list
+			watermark = Math.min(watermark + (step % 2 == 0 ? 13 : 1), end);
+			dataSource.acknowledge(watermark);
+			Assert.assertEquals(watermark, dataSource.getFirstAvailableSequence());
+			try (RecordIterator iterator = dataSource.openRecordIterator(watermark)) {
+				for (long i = watermark; i < end; i++) {
+					Assert.assertEquals(i, iterator.next().getTimeStamp());
+				}
+				Assert.assertFalse(iterator.hasNext());
+			}
+		}
+		Assert.assertEquals(end - watermark, dataSource.read().getRecords().size());
+	}
+}
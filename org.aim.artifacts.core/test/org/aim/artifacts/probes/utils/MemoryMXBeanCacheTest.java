@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.artifacts.probes.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MemoryMXBeanCacheTest {
+
+	private static final int NUM_ALLOCATIONS = 1000;
+
+	@After
+	public void resetSampling() {
+		MemoryMXBeanCache.setSamplingInterval(0L);
+		MemoryMXBeanCache.getInstance().clear();
+	}
+
+	@Test
+	public void testSampledReadingsAreReused() {
+		MemoryMXBeanCache cache = MemoryMXBeanCache.getInstance();
+		cache.clear();
+		MemoryMXBeanCache.setSamplingInterval(Long.MAX_VALUE);
+		long eden = cache.getEdenUsed();
+		long survivor = cache.getSurvivorUsed();
+		long old = cache.getOldUsed();
+		Assert.assertTrue(eden + survivor + old > 0L);
+
+		List<byte[]> garbage = new ArrayList<byte[]>();
+		for (int i = 0; i < NUM_ALLOCATIONS; i++) {
+			garbage.add(new byte[NUM_ALLOCATIONS]);
+		}
+		Assert.assertEquals(NUM_ALLOCATIONS, garbage.size());
+
+		Assert.assertEquals(eden, cache.getEdenUsed());
+		Assert.assertEquals(survivor, cache.getSurvivorUsed());
+		Assert.assertEquals(old, cache.getOldUsed());
+	}
+
+	@Test
+	public void testReadingsWithoutSampling() {
+		MemoryMXBeanCache cache = MemoryMXBeanCache.getInstance();
+		Assert.assertTrue(cache.getEdenUsed() >= 0L);
+		Assert.assertTrue(cache.getSurvivorUsed() >= 0L);
+		Assert.assertTrue(cache.getOldUsed() >= 0L);
+	}
+
+	@Test
+	public void testConfiguration() {
+		Properties properties = new Properties();
+		properties.setProperty(MemoryMXBeanCache.SAMPLING_INTERVAL_KEY, "100");
+		MemoryMXBeanCache.configure(properties);
+		Assert.assertEquals(100L, MemoryMXBeanCache.getSamplingInterval());
+
+		properties.setProperty(MemoryMXBeanCache.SAMPLING_INTERVAL_KEY, "-5");
+		MemoryMXBeanCache.configure(properties);
+		Assert.assertEquals(0L, MemoryMXBeanCache.getSamplingInterval());
+
+		MemoryMXBeanCache.setSamplingInterval(100L);
+		properties.setProperty(MemoryMXBeanCache.SAMPLING_INTERVAL_KEY, "often");
+		MemoryMXBeanCache.configure(properties);
+		Assert.assertEquals(0L, MemoryMXBeanCache.getSamplingInterval());
+	}
+}
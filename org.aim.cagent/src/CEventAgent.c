@@ -25,34 +25,214 @@
 
 #include <stdio.h>
 #include <stdlib.h>
+#include <string.h>
 
 #include <jvmti.h>
 #include <jni.h>
 #include "CEventAgent.h"
 
+#ifdef _MSC_VER
+#include <windows.h>
+#define ATOMIC_CAS(ptr, oldValue, newValue) (InterlockedCompareExchange64((ptr), (newValue), (oldValue)) == (oldValue))
+#define ATOMIC_INCREMENT(ptr) InterlockedIncrement64(ptr)
+#define MEMORY_BARRIER() MemoryBarrier()
+#else
+#define ATOMIC_CAS(ptr, oldValue, newValue) __sync_bool_compare_and_swap((ptr), (oldValue), (newValue))
+#define ATOMIC_INCREMENT(ptr) __sync_add_and_fetch((ptr), 1)
+#define MEMORY_BARRIER() __sync_synchronize()
+#endif
+
+/* event types and flags, see CEventAgentAdapter */
+#define EVENT_WAIT 0
+#define EVENT_ENTERED 1
+#define FLAG_CLASS_MONITOR 2
+#define FLAG_NULL_MONITOR 4
+#define FLAG_UNDECIDED_CLASS 8
+
+/*
+ * The JVMTI tag of a monitor class consists of its index in the class table
+ * and the filter decision for the class, which is made once per class by
+ * the Java side (see setMonitorClassFilter0).
+ */
+#define CLASS_FILTER_BITS 2
+#define CLASS_FILTER_MASK 3
+#define CLASS_FILTER_UNDECIDED 0
+#define CLASS_FILTER_INCLUDED 1
+#define CLASS_FILTER_EXCLUDED 2
+
+/* number of jlong values per event passed to Java */
+#define EVENT_FIELDS 4
+
+#define INITIAL_CLASS_TABLE_SIZE 256
+
+/*
+ * Monitor event in the ring buffer. The sequence implements a bounded
+ * lock-free queue: a slot can be written, if its sequence equals the enqueue
+ * position, and read, if its sequence equals the dequeue position plus one.
+ */
+typedef struct {
+	volatile jlong sequence;
+	jlong threadId;
+	jlong nanoTime;
+	jint identityHash;
+	jint classIndex;
+	jint flags;
+} MonitorEvent;
+
 static jvmtiEnv * jvmti;
 static jvmtiError error;
 static jclass agentClass;
-static jmethodID onMonitorWait;
-static jmethodID onMonitorEntered;
+static jclass classClass;
+static jfieldID threadIdField;
+static jmethodID threadGetId;
+
+/* sampling of the threads, the denominator is a power of two */
+static volatile jint granNum = 1;
+static volatile jint granDenom = 1;
+
+static MonitorEvent * eventBuffer = NULL;
+static jlong bufferMask = 0;
+static volatile jlong enqueuePosition = 0;
+/* the buffer is drained by a single Java thread */
+static jlong dequeuePosition = 0;
+static volatile jlong droppedEvents = 0;
+
+/* weak references to the monitor classes by their index, indices start at 1 */
+static jrawMonitorID classTableLock;
+static jweak * classTable = NULL;
+static jint classTableCapacity = 0;
+static jint classTableSize = 0;
+
+static jlong getThreadId(JNIEnv* jni_env, jthread thread) {
+	if (thread == NULL) {
+		return -1;
+	}
+	if (threadIdField != NULL) {
+		return (*jni_env)->GetLongField(jni_env, thread, threadIdField);
+	}
+	return (*jni_env)->CallLongMethod(jni_env, thread, threadGetId);
+}
+
+static jlong getClassTag(JNIEnv* jni_env, jobject clazz) {
+	jlong tag = 0;
+	jweak * newTable;
+	jint newCapacity;
+
+	(*jvmti)->GetTag(jvmti, clazz, &tag);
+	if (tag != 0) {
+		return tag;
+	}
+
+	(*jvmti)->RawMonitorEnter(jvmti, classTableLock);
+	(*jvmti)->GetTag(jvmti, clazz, &tag);
+	if (tag == 0) {
+		if (classTableSize + 1 >= classTableCapacity) {
+			newCapacity = classTableCapacity == 0 ? INITIAL_CLASS_TABLE_SIZE : classTableCapacity * 2;
+			newTable = (jweak *) realloc(classTable, newCapacity * sizeof(jweak));
+			if (newTable != NULL) {
+				classTable = newTable;
+				classTableCapacity = newCapacity;
+			}
+		}
+		if (classTableSize + 1 < classTableCapacity) {
+			classTableSize++;
+			classTable[classTableSize] = (*jni_env)->NewWeakGlobalRef(jni_env, clazz);
+			tag = ((jlong) classTableSize << CLASS_FILTER_BITS) | CLASS_FILTER_UNDECIDED;
+			(*jvmti)->SetTag(jvmti, clazz, tag);
+		}
+	}
+	(*jvmti)->RawMonitorExit(jvmti, classTableLock);
+	return tag;
+}
+
+static void setClassFilter(JNIEnv* jni_env, jint classIndex, jint filter) {
+	jobject clazz = (*jni_env)->NewLocalRef(jni_env, classTable[classIndex]);
+	if (clazz != NULL) {
+		(*jvmti)->SetTag(jvmti, clazz, ((jlong) classIndex << CLASS_FILTER_BITS) | filter);
+		(*jni_env)->DeleteLocalRef(jni_env, clazz);
+	}
+}
+
+static void enqueueEvent(jlong threadId, jlong nanoTime, jint identityHash, jint classIndex, jint flags) {
+	MonitorEvent * event;
+	jlong position = enqueuePosition;
+	jlong sequence;
+
+	for (;;) {
+		event = &eventBuffer[position & bufferMask];
+		sequence = event->sequence;
+		MEMORY_BARRIER();
+		if (sequence == position) {
+			if (ATOMIC_CAS(&enqueuePosition, position, position + 1)) {
+				break;
+			}
+		} else if (sequence < position) {
+			/* buffer is full */
+			ATOMIC_INCREMENT(&droppedEvents);
+			return;
+		}
+		position = enqueuePosition;
+	}
+
+	event->threadId = threadId;
+	event->nanoTime = nanoTime;
+	event->identityHash = identityHash;
+	event->classIndex = classIndex;
+	event->flags = flags;
+	MEMORY_BARRIER();
+	event->sequence = position + 1;
+}
+
+static void recordMonitorEvent(JNIEnv* jni_env, jthread thread, jobject object, jint eventType) {
+	jlong threadId;
+	jlong nanos;
+	jlong tag = 0;
+	jint identityHash = 0;
+	jint flags = eventType;
+	jclass clazz;
+
+	if (eventBuffer == NULL) {
+		return;
+	}
+	threadId = getThreadId(jni_env, thread);
+	if ((threadId & (granDenom - 1)) >= granNum) {
+		return;
+	}
+
+	if (object == NULL) {
+		flags |= FLAG_NULL_MONITOR;
+	} else {
+		clazz = (*jni_env)->GetObjectClass(jni_env, object);
+		if ((*jni_env)->IsSameObject(jni_env, clazz, classClass)) {
+			/* synchronized static methods and blocks on class literals */
+			flags |= FLAG_CLASS_MONITOR;
+			tag = getClassTag(jni_env, object);
+		} else {
+			tag = getClassTag(jni_env, clazz);
+			if ((tag & CLASS_FILTER_MASK) == CLASS_FILTER_EXCLUDED) {
+				(*jni_env)->DeleteLocalRef(jni_env, clazz);
+				return;
+			}
+			if ((tag & CLASS_FILTER_MASK) == CLASS_FILTER_UNDECIDED) {
+				flags |= FLAG_UNDECIDED_CLASS;
+			}
+		}
+		(*jni_env)->DeleteLocalRef(jni_env, clazz);
+		(*jvmti)->GetObjectHashCode(jvmti, object, &identityHash);
+	}
+	(*jvmti)->GetTime(jvmti, &nanos);
 
-static jint granNum = 1;
-static jint granDenom = 1;
+	enqueueEvent(threadId, nanos, identityHash, (jint) (tag >> CLASS_FILTER_BITS), flags);
+}
 
 void JNICALL jvmti_wait_for_monitor_enter(jvmtiEnv *jvmti_env, JNIEnv* jni_env,
 		jthread thread, jobject object) {
-	jlong nanos_ptr;
-	(*jvmti)->GetTime(jvmti, &nanos_ptr);
-	(*jni_env)->CallStaticVoidMethod(jni_env, agentClass, onMonitorWait, thread,
-			object, nanos_ptr);
+	recordMonitorEvent(jni_env, thread, object, EVENT_WAIT);
 }
 
 void JNICALL jvmti_monitor_entered(jvmtiEnv *jvmti_env, JNIEnv* jni_env,
 		jthread thread, jobject object) {
-	jlong nanos_ptr;
-	(*jvmti)->GetTime(jvmti, &nanos_ptr);
-	(*jni_env)->CallStaticVoidMethod(jni_env, agentClass, onMonitorEntered, thread,
-			object, nanos_ptr);
+	recordMonitorEvent(jni_env, thread, object, EVENT_ENTERED);
 }
 
 JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_printlnNonBlocking(JNIEnv *jni_env,
@@ -66,19 +246,83 @@ JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_printlnNonBlock
 	(*jni_env)->ReleaseStringUTFChars(jni_env, javaMessage, cMessage);
 }
 
-JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_init(JNIEnv* jni_env, jclass aClass) {
-	agentClass = aClass;
-	onMonitorWait = (*jni_env)->GetStaticMethodID(jni_env, agentClass,
-			"onMonitorWait", "(Ljava/lang/Thread;Ljava/lang/Object;J)V");
-	if (onMonitorWait == NULL) {
-		printf("WARN CEventAgent: onMonitorWait jmethodID is NULL");
+JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_init(JNIEnv* jni_env, jclass aClass,
+		jint bufferCapacity) {
+	jclass threadClass;
+	jlong capacity = 1;
+	jlong i;
+
+	agentClass = (*jni_env)->NewGlobalRef(jni_env, aClass);
+	classClass = (*jni_env)->NewGlobalRef(jni_env, (*jni_env)->FindClass(jni_env, "java/lang/Class"));
+
+	threadClass = (*jni_env)->FindClass(jni_env, "java/lang/Thread");
+	threadIdField = (*jni_env)->GetFieldID(jni_env, threadClass, "tid", "J");
+	if (threadIdField == NULL) {
+		(*jni_env)->ExceptionClear(jni_env);
+		threadGetId = (*jni_env)->GetMethodID(jni_env, threadClass, "getId", "()J");
+	}
+
+	while (capacity < bufferCapacity) {
+		capacity <<= 1;
+	}
+	eventBuffer = (MonitorEvent *) malloc(capacity * sizeof(MonitorEvent));
+	if (eventBuffer == NULL) {
+		printf("WARN CEventAgent: could not allocate the monitor event buffer\n");
+		return;
+	}
+	for (i = 0; i < capacity; i++) {
+		eventBuffer[i].sequence = i;
+	}
+	bufferMask = capacity - 1;
+}
+
+JNIEXPORT jint JNICALL Java_org_aim_mainagent_CEventAgentAdapter_drainMonitorEvents0(JNIEnv* jni_env,
+		jclass aClass, jlongArray target) {
+	jint maxEvents = (*jni_env)->GetArrayLength(jni_env, target) / EVENT_FIELDS;
+	jint count = 0;
+	jlong * values;
+	MonitorEvent * event;
+
+	if (eventBuffer == NULL) {
+		return 0;
+	}
+	values = (jlong *) (*jni_env)->GetPrimitiveArrayCritical(jni_env, target, NULL);
+	if (values == NULL) {
+		return 0;
 	}
+	while (count < maxEvents) {
+		event = &eventBuffer[dequeuePosition & bufferMask];
+		if (event->sequence != dequeuePosition + 1) {
+			break;
+		}
+		MEMORY_BARRIER();
+		values[count * EVENT_FIELDS] = event->threadId;
+		values[count * EVENT_FIELDS + 1] = event->nanoTime;
+		values[count * EVENT_FIELDS + 2] = event->identityHash;
+		values[count * EVENT_FIELDS + 3] = ((jlong) event->classIndex << 32) | event->flags;
+		MEMORY_BARRIER();
+		event->sequence = dequeuePosition + bufferMask + 1;
+		dequeuePosition++;
+		count++;
+	}
+	(*jni_env)->ReleasePrimitiveArrayCritical(jni_env, target, values, 0);
+	return count;
+}
 
-	onMonitorEntered = (*jni_env)->GetStaticMethodID(jni_env, agentClass,
-			"onMonitorEntered", "(Ljava/lang/Thread;Ljava/lang/Object;J)V");
-	if (onMonitorWait == NULL) {
-		printf("WARN CEventAgent: onMonitorEntered jmethodID is NULL");
+JNIEXPORT jclass JNICALL Java_org_aim_mainagent_CEventAgentAdapter_getMonitorClass0(JNIEnv* jni_env,
+		jclass aClass, jint classIndex) {
+	jclass result = NULL;
+	(*jvmti)->RawMonitorEnter(jvmti, classTableLock);
+	if (classIndex > 0 && classIndex <= classTableSize) {
+		result = (jclass) (*jni_env)->NewLocalRef(jni_env, classTable[classIndex]);
 	}
+	(*jvmti)->RawMonitorExit(jvmti, classTableLock);
+	return result;
+}
+
+JNIEXPORT jlong JNICALL Java_org_aim_mainagent_CEventAgentAdapter_getDroppedMonitorEvents0(JNIEnv* jni_env,
+		jclass aClass) {
+	return droppedEvents;
 }
 
 JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_setMonitorGranularity0(JNIEnv* jni_env,
@@ -87,12 +331,32 @@ JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_setMonitorGranu
 	granDenom = denom;
 }
 
+JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_setMonitorClassFilter0(JNIEnv* jni_env,
+		jclass aClass, jint classIndex, jboolean included) {
+	(*jvmti)->RawMonitorEnter(jvmti, classTableLock);
+	if (classIndex > 0 && classIndex <= classTableSize) {
+		setClassFilter(jni_env, classIndex, included ? CLASS_FILTER_INCLUDED : CLASS_FILTER_EXCLUDED);
+	}
+	(*jvmti)->RawMonitorExit(jvmti, classTableLock);
+}
+
+JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_resetMonitorClassFilter0(JNIEnv* jni_env,
+		jclass aClass) {
+	jint classIndex;
+	(*jvmti)->RawMonitorEnter(jvmti, classTableLock);
+	for (classIndex = 1; classIndex <= classTableSize; classIndex++) {
+		setClassFilter(jni_env, classIndex, CLASS_FILTER_UNDECIDED);
+	}
+	(*jvmti)->RawMonitorExit(jvmti, classTableLock);
+}
+
 JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_activateMonitorEvents(JNIEnv* jni_env,
 		jclass class) {
 	jvmtiCapabilities caps;
 	memset(&caps, 0, sizeof(jvmtiCapabilities));
 	error = (*jvmti)->GetCapabilities(jvmti, &caps);
 	caps.can_generate_monitor_events = 1;
+	caps.can_tag_objects = 1;
 	error = (*jvmti)->AddCapabilities(jvmti, &caps);
 
 	error = (*jvmti)->SetEventNotificationMode(jvmti, JVMTI_ENABLE,
@@ -126,6 +390,9 @@ JNIEXPORT jint JNICALL Agent_OnLoad(JavaVM *jvm, char *options, void *reserved)
 	caps.can_generate_monitor_events = 0;
 	error = (*jvmti)->AddCapabilities(jvmti, &caps);
 
+	error = (*jvmti)->CreateRawMonitor(jvmti, "CEventAgent class table", &classTableLock);
+
+	memset(&callbacks, 0, sizeof(callbacks));
 	callbacks.MonitorContendedEnter = &jvmti_wait_for_monitor_enter;
 	callbacks.MonitorContendedEntered = &jvmti_monitor_entered;
 	error = (*jvmti)->SetEventCallbacks(jvmti, &callbacks,
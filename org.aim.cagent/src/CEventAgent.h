@@ -25,9 +25,57 @@ extern "C" {
 /*
  * Class:     org_aim_mainagent_CEventAgentAdapter
  * Method:    init
- * Signature: ()V
+ * Signature: (I)V
  */
 JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_init
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     org_aim_mainagent_CEventAgentAdapter
+ * Method:    drainMonitorEvents0
+ * Signature: ([J)I
+ */
+JNIEXPORT jint JNICALL Java_org_aim_mainagent_CEventAgentAdapter_drainMonitorEvents0
+  (JNIEnv *, jclass, jlongArray);
+
+/*
+ * Class:     org_aim_mainagent_CEventAgentAdapter
+ * Method:    getMonitorClass0
+ * Signature: (I)Ljava/lang/Class;
+ */
+JNIEXPORT jclass JNICALL Java_org_aim_mainagent_CEventAgentAdapter_getMonitorClass0
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     org_aim_mainagent_CEventAgentAdapter
+ * Method:    setMonitorGranularity0
+ * Signature: (II)V
+ */
+JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_setMonitorGranularity0
+  (JNIEnv *, jclass, jint, jint);
+
+/*
+ * Class:     org_aim_mainagent_CEventAgentAdapter
+ * Method:    setMonitorClassFilter0
+ * Signature: (IZ)V
+ */
+JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_setMonitorClassFilter0
+  (JNIEnv *, jclass, jint, jboolean);
+
+/*
+ * Class:     org_aim_mainagent_CEventAgentAdapter
+ * Method:    resetMonitorClassFilter0
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_org_aim_mainagent_CEventAgentAdapter_resetMonitorClassFilter0
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     org_aim_mainagent_CEventAgentAdapter
+ * Method:    getDroppedMonitorEvents0
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_org_aim_mainagent_CEventAgentAdapter_getDroppedMonitorEvents0
   (JNIEnv *, jclass);
 
 /*
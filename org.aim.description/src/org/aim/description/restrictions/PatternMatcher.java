@@ -0,0 +1,154 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.description.restrictions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lpe.common.util.LpeStringUtils;
+
+/**
+ * Compiled form of a set of name patterns. Patterns consisting of a literal
+ * name, optionally followed by a single trailing wildcard (e.g.
+ * {@code org.aim.*}), are stored in a prefix trie, thus, a name is matched
+ * against all of them in a single pass over its characters. All other
+ * patterns are matched with {@link LpeStringUtils#patternMatches(String, String)}.
+ * 
+ * @author Henning Schulz
+ * 
+ */
+final class PatternMatcher {
+
+	private static final char WILDCARD = '*';
+
+	private final Node root = new Node();
+	private final List<String> complexPatterns = new ArrayList<>();
+	private final boolean empty;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param patterns
+	 *            patterns to compile
+	 */
+	PatternMatcher(Collection<String> patterns) {
+		for (String pattern : patterns) {
+			if (isTriePattern(pattern)) {
+				addToTrie(pattern);
+			} else {
+				complexPatterns.add(pattern);
+			}
+		}
+		empty = patterns.isEmpty();
+	}
+
+	/**
+	 * @return true, if no patterns have been compiled
+	 */
+	boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * Checks whether the given name matches any of the compiled patterns.
+	 * 
+	 * @param name
+	 *            name to match
+	 * @return true, if at least one pattern matches
+	 */
+	boolean matches(String name) {
+		Node node = root;
+		for (int i = 0; i < name.length(); i++) {
+			if (node.prefix) {
+				return true;
+			}
+			node = node.children == null ? null : node.children.get(name.charAt(i));
+			if (node == null) {
+				break;
+			}
+		}
+		if (node != null && (node.prefix || node.terminal)) {
+			return true;
+		}
+		for (String pattern : complexPatterns) {
+			if (LpeStringUtils.patternMatches(name, pattern)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void addToTrie(String pattern) {
+		int length = pattern.length();
+		boolean prefix = length > 0 && pattern.charAt(length - 1) == WILDCARD;
+		if (prefix) {
+			length--;
+		}
+		Node node = root;
+		for (int i = 0; i < length; i++) {
+			node = node.getOrCreateChild(pattern.charAt(i));
+		}
+		if (prefix) {
+			node.prefix = true;
+		} else {
+			node.terminal = true;
+		}
+	}
+
+	/**
+	 * Checks whether the pattern is a plain name with an optional trailing
+	 * wildcard.
+	 */
+	private static boolean isTriePattern(String pattern) {
+		int length = pattern.length();
+		if (length > 0 && pattern.charAt(length - 1) == WILDCARD) {
+			length--;
+		}
+		for (int i = 0; i < length; i++) {
+			char c = pattern.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '_' && c != '.') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Node of the prefix trie.
+	 */
+	private static final class Node {
+		private Map<Character, Node> children;
+		/** a pattern ends at this node. */
+		private boolean terminal;
+		/** a pattern with a trailing wildcard ends at this node. */
+		private boolean prefix;
+
+		private Node getOrCreateChild(char c) {
+			if (children == null) {
+				children = new HashMap<>();
+			}
+			Node child = children.get(c);
+			if (child == null) {
+				child = new Node();
+				children.put(c, child);
+			}
+			return child;
+		}
+	}
+}
@@ -16,12 +16,15 @@
 package org.aim.description.restrictions;
 
 import java.lang.reflect.Modifier;
+import java.util.AbstractSet;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonIgnore;
-import org.lpe.common.util.LpeStringUtils;
 
 /**
  * This class represents a restriction to a given scope.
@@ -32,6 +35,7 @@ import org.lpe.common.util.LpeStringUtils;
 public class Restriction {
 
 	private static final int HASH_PRIME = 31;
+	private static final int MAX_CACHED_VERDICTS = 64 * 1024;
 
 	private final Set<String> packageIncludes;
 	private final Set<String> packageExcludes;
@@ -41,13 +45,20 @@ public class Restriction {
 
 	private double granularity = 1.0;
 
+	/**
+	 * Package patterns compiled on first use. They are compiled again if the
+	 * package includes or excludes have changed meanwhile.
+	 */
+	private volatile CompiledPatterns compiledPatterns;
+	private volatile int patternVersion;
+
 	/**
 	 * Constructor. Sets all sets to empty ones.
 	 */
 	@JsonCreator
 	public Restriction() {
-		this.packageIncludes = new HashSet<>();
-		this.packageExcludes = new HashSet<>();
+		this.packageIncludes = new PatternSet();
+		this.packageExcludes = new PatternSet();
 		this.modifierExcludes = new HashSet<>();
 		this.modifierIncludes = new HashSet<>();
 	}
@@ -142,7 +153,9 @@ public class Restriction {
 	}
 
 	/**
-	 * Checks whether given entity is excluded from instrumentation.
+	 * Checks whether given entity is excluded from instrumentation. The
+	 * package patterns are compiled once and the verdicts are cached per
+	 * entity name until the package includes or excludes change.
 	 * 
 	 * @param entityName
 	 *            full qualified name of the entity (class, package, interface,
@@ -151,35 +164,13 @@ public class Restriction {
 	 */
 	@JsonIgnore
 	public boolean isExcluded(String entityName) {
-
-		if (getPackageIncludes().isEmpty()) {
-			for (String excl : getPackageExcludes()) {
-				if (LpeStringUtils.patternMatches(entityName, excl)) {
-					return true;
-				}
-			}
-			return false;
-		} else {
-			boolean found = false;
-			for (String incl : getPackageIncludes()) {
-				if (LpeStringUtils.patternMatches(entityName, incl)) {
-					found = true;
-					break;
-				}
-			}
-
-			if (!found) {
-				return true;
-			}
-
-			for (String excl : getPackageExcludes()) {
-				if (LpeStringUtils.patternMatches(entityName, excl)) {
-					return true;
-				}
-			}
-			return false;
-
+		CompiledPatterns patterns = compiledPatterns;
+		int version = patternVersion;
+		if (patterns == null || patterns.version != version) {
+			patterns = new CompiledPatterns(version, packageIncludes, packageExcludes);
+			compiledPatterns = patterns;
 		}
+		return patterns.isExcluded(entityName);
 	}
 
 	/**
@@ -331,4 +322,96 @@ public class Restriction {
 		return hash;
 	}
 
+	/**
+	 * Package includes and excludes compiled into {@link PatternMatcher}s
+	 * with a cache of the verdicts.
+	 */
+	private static final class CompiledPatterns {
+		private final int version;
+		private final PatternMatcher includes;
+		private final PatternMatcher excludes;
+		private final ConcurrentMap<String, Boolean> verdicts = new ConcurrentHashMap<>();
+
+		private CompiledPatterns(int version, Set<String> packageIncludes, Set<String> packageExcludes) {
+			this.version = version;
+			includes = new PatternMatcher(packageIncludes);
+			excludes = new PatternMatcher(packageExcludes);
+		}
+
+		private boolean isExcluded(String entityName) {
+			Boolean verdict = verdicts.get(entityName);
+			if (verdict == null) {
+				verdict = (!includes.isEmpty() && !includes.matches(entityName)) || excludes.matches(entityName);
+				if (verdicts.size() < MAX_CACHED_VERDICTS) {
+					verdicts.put(entityName, verdict);
+				}
+			}
+			return verdict;
+		}
+	}
+
+	/**
+	 * Set of package patterns which invalidates the compiled patterns of the
+	 * enclosing restriction on modification.
+	 */
+	private final class PatternSet extends AbstractSet<String> {
+		private final Set<String> patterns = new HashSet<>();
+
+		@Override
+		public boolean add(String pattern) {
+			boolean changed = patterns.add(pattern);
+			if (changed) {
+				patternVersion++;
+			}
+			return changed;
+		}
+
+		@Override
+		public boolean remove(Object pattern) {
+			boolean changed = patterns.remove(pattern);
+			if (changed) {
+				patternVersion++;
+			}
+			return changed;
+		}
+
+		@Override
+		public void clear() {
+			patterns.clear();
+			patternVersion++;
+		}
+
+		@Override
+		public boolean contains(Object pattern) {
+			return patterns.contains(pattern);
+		}
+
+		@Override
+		public int size() {
+			return patterns.size();
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			final Iterator<String> iterator = patterns.iterator();
+			return new Iterator<String>() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public String next() {
+					return iterator.next();
+				}
+
+				@Override
+				public void remove() {
+					iterator.remove();
+					patternVersion++;
+				}
+			};
+		}
+	}
+
 }
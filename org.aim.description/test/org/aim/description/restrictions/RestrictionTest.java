@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.description.restrictions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+public class RestrictionTest {
+
+	@Test
+	public void testEmptyRestriction() {
+		Restriction restriction = new Restriction();
+		assertFalse(restriction.isExcluded("org.aim.Foo"));
+		assertFalse(restriction.isExcluded(""));
+	}
+
+	@Test
+	public void testExcludes() {
+		Restriction restriction = new Restriction();
+		restriction.addPackageExclude("java.*");
+		restriction.addPackageExclude("org.aim.Foo");
+
+		assertTrue(restriction.isExcluded("java.lang.String"));
+		assertTrue(restriction.isExcluded("org.aim.Foo"));
+		assertFalse(restriction.isExcluded("org.aim.FooBar"));
+		assertFalse(restriction.isExcluded("javax.swing.JFrame"));
+		assertFalse(restriction.isExcluded("org.aim.Bar"));
+	}
+
+	@Test
+	public void testIncludesAndExcludes() {
+		Restriction restriction = new Restriction();
+		restriction.addPackageInclude("org.aim.*");
+		restriction.addPackageExclude("org.aim.mainagent.*");
+
+		assertFalse(restriction.isExcluded("org.aim.api.Foo"));
+		assertTrue(restriction.isExcluded("org.aim.mainagent.Foo"));
+		assertTrue(restriction.isExcluded("org.lpe.Foo"));
+		assertTrue(restriction.isExcluded("org.ai"));
+	}
+
+	@Test
+	public void testComplexPatterns() {
+		Restriction restriction = new Restriction();
+		restriction.addPackageExclude("org.*.internal.*");
+		restriction.addPackageExclude("*$Proxy*");
+
+		assertTrue(restriction.isExcluded("org.aim.internal.Foo"));
+		assertTrue(restriction.isExcluded("com.sun.$Proxy12"));
+		assertFalse(restriction.isExcluded("org.aim.api.Foo"));
+	}
+
+	@Test
+	public void testInvalidation() {
+		Restriction restriction = new Restriction();
+		restriction.addPackageExclude("org.aim.*");
+		assertTrue(restriction.isExcluded("org.aim.Foo"));
+
+		restriction.getPackageExcludes().clear();
+		assertFalse(restriction.isExcluded("org.aim.Foo"));
+
+		restriction.getPackageIncludes().add("org.lpe.*");
+		assertTrue(restriction.isExcluded("org.aim.Foo"));
+
+		Iterator<String> iterator = restriction.getPackageIncludes().iterator();
+		iterator.next();
+		iterator.remove();
+		assertFalse(restriction.isExcluded("org.aim.Foo"));
+	}
+
+	@Test
+	public void testMergeAndEquality() {
+		Restriction first = new Restriction();
+		first.addPackageInclude("org.aim.*");
+		Restriction second = new Restriction();
+		second.addPackageExclude("org.aim.api.*");
+
+		Restriction merged = first.mergeWith(second);
+		assertTrue(merged.isExcluded("org.aim.api.Foo"));
+		assertFalse(merged.isExcluded("org.aim.mainagent.Foo"));
+
+		Restriction copy = new Restriction();
+		copy.addPackageInclude("org.aim.*");
+		copy.addPackageExclude("org.aim.api.*");
+		assertEquals(merged, copy);
+		assertEquals(merged.hashCode(), copy.hashCode());
+	}
+}
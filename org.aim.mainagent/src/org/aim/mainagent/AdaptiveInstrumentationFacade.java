@@ -15,6 +15,7 @@
  */
 package org.aim.mainagent;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -26,6 +27,7 @@ import org.aim.api.exceptions.MeasurementException;
 import org.aim.api.instrumentation.AbstractCustomScopeExtension;
 import org.aim.api.instrumentation.AbstractEnclosingProbeExtension;
 import org.aim.api.instrumentation.AbstractInstApiScopeExtension;
+import org.aim.api.instrumentation.AdaptiveSampler;
 import org.aim.api.instrumentation.InstrumentationUtilsController;
 import org.aim.api.instrumentation.description.internal.FlatInstrumentationEntity;
 import org.aim.api.instrumentation.description.internal.InstrumentationConstants;
@@ -39,6 +41,9 @@ import org.aim.description.scopes.MemoryScope;
 import org.aim.description.scopes.MethodScope;
 import org.aim.description.scopes.SynchronizedScope;
 import org.aim.description.scopes.TraceScope;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+import org.aim.mainagent.instrumentor.LoadTimeWeaver;
 import org.aim.mainagent.probes.IncrementalProbeExtension;
 import org.aim.mainagent.sampling.Sampling;
 import org.lpe.common.extension.ExtensionRegistry;
@@ -51,6 +56,7 @@ import org.lpe.common.extension.IExtension;
  * 
  */
 public final class AdaptiveInstrumentationFacade {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(AdaptiveInstrumentationFacade.class);
 	private static AdaptiveInstrumentationFacade instance;
 
 	/**
@@ -76,6 +82,13 @@ public final class AdaptiveInstrumentationFacade {
 
 		traceInstrumentor = TraceInstrumentor.getInstance();
 		eventInstrumentor = EventInstrumentor.getInstance();
+
+		LoadTimeWeaver.getInstance().setRegistrationTask(new Runnable() {
+			@Override
+			public void run() {
+				registerLoadTimeWovenClasses();
+			}
+		});
 	}
 
 	/**
@@ -126,6 +139,23 @@ public final class AdaptiveInstrumentationFacade {
 
 		Sampling.getInstance().clearMonitoringJobs();
 		InstrumentationUtilsController.getInstance().clear();
+		OverheadGuard.getInstance().reset();
+		// the reverted classes do not refer to the sampler ids anymore
+		AdaptiveSampler.reset();
+	}
+
+	/**
+	 * Reverts the instrumentation of the given methods, while the other
+	 * methods stay instrumented.
+	 * 
+	 * @param methodSignatures
+	 *            signatures of the methods to revert
+	 * @throws InstrumentationException
+	 *             if instrumentation fails
+	 */
+	public synchronized void revertMethodInstrumentation(Collection<String> methodSignatures)
+			throws InstrumentationException {
+		methodInstrumentor.revertMethods(methodSignatures);
 	}
 
 	/**
@@ -134,13 +164,23 @@ public final class AdaptiveInstrumentationFacade {
 	 * @return flat instrumentation state
 	 */
 	public synchronized FlatInstrumentationState getInstrumentationState() {
+		registerLoadTimeWovenClasses();
 		FlatInstrumentationState fmInstrumentation = new FlatInstrumentationState();
 		for (FlatInstrumentationEntity fie : methodInstrumentor.getCurrentInstrumentationState()) {
 			fmInstrumentation.addEntity(fie.getMethodSignature(), fie.getProbeType().getName());
 		}
+		fmInstrumentation.setDeinstrumentedMethods(OverheadGuard.getInstance().getDeinstrumentedMethods());
 		return fmInstrumentation;
 	}
 
+	private synchronized void registerLoadTimeWovenClasses() {
+		try {
+			methodInstrumentor.registerLoadTimeWovenClasses();
+		} catch (InstrumentationException e) {
+			LOGGER.warn("Failed registering classes instrumented on load: {}", e);
+		}
+	}
+
 	/**
 	 * retrieve supported extensions.
 	 * 
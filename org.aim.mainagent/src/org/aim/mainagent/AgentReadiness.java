@@ -0,0 +1,136 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the deferred initialization of the agent. The control endpoint of
+ * the agent is available right after the agent has been attached, whereas
+ * the expensive subsystems (plugin scan, native libraries, data collector,
+ * bytecode weaving) are initialized afterwards.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class AgentReadiness {
+
+	/**
+	 * Initialization state of the agent.
+	 */
+	public enum State {
+		STARTING, READY, FAILED
+	}
+
+	private static volatile CountDownLatch initialized = new CountDownLatch(1);
+	private static volatile State state = State.STARTING;
+	private static volatile Throwable failure;
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private AgentReadiness() {
+	}
+
+	/**
+	 * Marks the initialization as finished successfully.
+	 */
+	static void ready() {
+		state = State.READY;
+		initialized.countDown();
+	}
+
+	/**
+	 * Marks the initialization as failed.
+	 * 
+	 * @param cause
+	 *            cause of the failure
+	 */
+	static void failed(Throwable cause) {
+		failure = cause;
+		state = State.FAILED;
+		initialized.countDown();
+	}
+
+	/**
+	 * Resets the state to {@link State#STARTING}. Threads waiting for the
+	 * previous initialization are not woken up.
+	 */
+	static void reset() {
+		failure = null;
+		state = State.STARTING;
+		initialized = new CountDownLatch(1);
+	}
+
+	/**
+	 * @return the current initialization state
+	 */
+	public static State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the cause of a failed initialization, or null
+	 */
+	public static Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return true, if the agent has been initialized successfully
+	 */
+	public static boolean isReady() {
+		return state == State.READY;
+	}
+
+	/**
+	 * Waits until the initialization has finished.
+	 * 
+	 * @param timeout
+	 *            maximum time to wait
+	 * @param unit
+	 *            unit of the timeout
+	 * @return true, if the agent has been initialized successfully
+	 * @throws InterruptedException
+	 *             if the waiting thread has been interrupted
+	 */
+	public static boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+		initialized.await(timeout, unit);
+		return isReady();
+	}
+
+	/**
+	 * Checks whether a request to a service of the agent can be served.
+	 * Services which depend on the deferred initialization wait until the
+	 * initialization has finished, other services are always available.
+	 * 
+	 * @param requiresInitialization
+	 *            true, if the service depends on the initialization
+	 * @param timeout
+	 *            maximum time to wait for the initialization
+	 * @param unit
+	 *            unit of the timeout
+	 * @return true, if the request can be served, false if it has to be
+	 *         rejected as the agent is not ready
+	 * @throws InterruptedException
+	 *             if the waiting thread has been interrupted
+	 */
+	public static boolean isServiceAvailable(boolean requiresInitialization, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return !requiresInitialization || awaitReady(timeout, unit);
+	}
+}
@@ -15,6 +15,11 @@
  */
 package org.aim.mainagent;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.aim.api.events.IMonitorEventProbe;
 import org.aim.description.restrictions.Restriction;
 import org.aim.logging.AIMLogger;
 import org.aim.logging.AIMLoggerFactory;
@@ -26,7 +31,19 @@ import org.lpe.common.util.LpeNumericUtils;
  * be started with the target application.<br>
  * 
  * Before the agent can be used, the {@link CEventAgentAdapter#initialize()
- * initialize()} method has to be called.
+ * initialize()} method has to be called.<br>
+ * 
+ * The C agent writes compact monitor events (thread id, identity hash code
+ * and class tag of the monitor, timestamp) into a native ring buffer instead
+ * of calling into Java for each event. A drain thread consumes the buffer in
+ * batches with a single JNI call per batch. If the buffer is full, the C
+ * agent drops events (see {@link #getDroppedMonitorEvents()}).<br>
+ * 
+ * The granularity and the restriction are applied by the C agent, thus,
+ * filtered events are not buffered at all. The restriction is evaluated
+ * once per monitor class: events of a class without a decision are passed
+ * to the drain thread, which decides on the class and passes the decision
+ * to the C agent.
  * 
  * @author Henning Schulz
  * 
@@ -42,20 +59,98 @@ public final class CEventAgentAdapter {
 
 	private static final int GRANULARITY_PRECISION = 10;
 
+	/**
+	 * Property key for the capacity of the native monitor event buffer.
+	 */
+	public static final String BUFFER_CAPACITY_KEY = "org.aim.events.monitor.bufferCapacity";
+
+	/**
+	 * Property key for the interval in milliseconds between two drains of an
+	 * empty monitor event buffer.
+	 */
+	public static final String DRAIN_INTERVAL_KEY = "org.aim.events.monitor.drainInterval";
+
+	public static final int DEFAULT_BUFFER_CAPACITY = 16384;
+	public static final long DEFAULT_DRAIN_INTERVAL = 10L;
+
+	// layout of the drained events, see CEventAgent.c
+	private static final int EVENT_FIELDS = 4;
+	private static final int DRAIN_BATCH_SIZE = 1024;
+	private static final int EVENT_ENTERED = 1;
+	private static final int FLAG_CLASS_MONITOR = 2;
+	private static final int FLAG_NULL_MONITOR = 4;
+	private static final int FLAG_UNDECIDED_CLASS = 8;
+
 	private static MonitorEventListener monitorListener;
 	private static Restriction restriction;
 
 	private static boolean initialized = false;
+	/**
+	 * Whether the native methods of the C agent are available.
+	 */
+	private static boolean agentLinked = false;
 	private static boolean activated = false;
 
 	private static int[] granularity = { 1, 1 };
 
+	private static int bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+	private static long drainInterval = DEFAULT_DRAIN_INTERVAL;
+	private static MonitorEventDrain monitorEventDrain;
+	private static Thread drainThread;
+
+	/**
+	 * Names of the monitor classes by their native class index. Only accessed by
+	 * the drain thread.
+	 */
+	private static final Map<Integer, String> monitorClassNames = new HashMap<>();
+
 	private CEventAgentAdapter() {
 	}
 
 	/**
-	 * This method is called if a thread has to wait on a monitor and monitor
-	 * events are enabled.<br>
+	 * Configures the native monitor event buffer from the agent properties.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+		drainInterval = DEFAULT_DRAIN_INTERVAL;
+		if (properties == null) {
+			return;
+		}
+		String capacityValue = properties.getProperty(BUFFER_CAPACITY_KEY);
+		if (capacityValue != null) {
+			try {
+				bufferCapacity = Integer.parseInt(capacityValue.trim());
+				if (bufferCapacity <= 0) {
+					throw new NumberFormatException();
+				}
+			} catch (NumberFormatException e) {
+				LOGGER.warn("Invalid monitor event buffer capacity {}. Using default value {}.", capacityValue,
+						DEFAULT_BUFFER_CAPACITY);
+				bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+			}
+		}
+		String intervalValue = properties.getProperty(DRAIN_INTERVAL_KEY);
+		if (intervalValue != null) {
+			try {
+				drainInterval = Long.parseLong(intervalValue.trim());
+				if (drainInterval <= 0) {
+					throw new NumberFormatException();
+				}
+			} catch (NumberFormatException e) {
+				LOGGER.warn("Invalid monitor event drain interval {}. Using default value {}.", intervalValue,
+						DEFAULT_DRAIN_INTERVAL);
+				drainInterval = DEFAULT_DRAIN_INTERVAL;
+			}
+		}
+	}
+
+	/**
+	 * This method is called for a single event if a thread has to wait on a
+	 * monitor and monitor events are enabled. Events of the C agent are
+	 * buffered and passed to the listener by the drain thread instead.<br>
 	 * 
 	 * <b>This methods implementation should avoid to provoke monitor waits as
 	 * they may lead to endless recursions!</b>
@@ -86,8 +181,9 @@ public final class CEventAgentAdapter {
 	}
 
 	/**
-	 * This method is called if a thread had to wait on a monitor and entered
-	 * it.
+	 * This method is called for a single event if a thread had to wait on a
+	 * monitor and entered it. Events of the C agent are buffered and passed to
+	 * the listener by the drain thread instead.
 	 * 
 	 * <b>This methods implementation should avoid to provoke monitor waits as
 	 * they may lead to endless recursions!</b>
@@ -128,13 +224,15 @@ public final class CEventAgentAdapter {
 			LOGGER.warn("The C agent has already been initialized!");
 		} else {
 			try {
-				init();
+				init(bufferCapacity);
 			} catch (UnsatisfiedLinkError e) {
 				LOGGER.warn("The C agent could not be found!");
 				return false;
 			}
 
 			initialized = true;
+			agentLinked = true;
+			setMonitorGranularity0(granularity[0], granularity[1]);
 		}
 
 		return true;
@@ -158,9 +256,137 @@ public final class CEventAgentAdapter {
 	 */
 	public static void setRestriction(Restriction res) {
 		restriction = res;
+		if (agentLinked) {
+			// the classes have to be decided again
+			resetMonitorClassFilter0();
+		}
+	}
+
+	private static native void init(int bufferCapacity);
+
+	/**
+	 * Moves events from the native buffer to the given array.
+	 * 
+	 * @param events
+	 *            target array, each event occupies {@value #EVENT_FIELDS}
+	 *            values
+	 * @return number of drained events
+	 */
+	private static native int drainMonitorEvents0(long[] events);
+
+	private static native Class<?> getMonitorClass0(int classIndex);
+
+	private static native void setMonitorGranularity0(int numerator, int denominator);
+
+	private static native void setMonitorClassFilter0(int classIndex, boolean included);
+
+	private static native void resetMonitorClassFilter0();
+
+	private static native long getDroppedMonitorEvents0();
+
+	/**
+	 * Returns the number of monitor events the C agent dropped, as the event
+	 * buffer was full.
+	 * 
+	 * @return number of dropped events
+	 */
+	public static long getDroppedMonitorEvents() {
+		if (!initialized) {
+			return 0L;
+		}
+		return getDroppedMonitorEvents0();
+	}
+
+	/**
+	 * Passes drained monitor events to the listener. The granularity and the
+	 * restriction have been applied by the C agent, except for classes which
+	 * have not been decided yet.
+	 * 
+	 * @param events
+	 *            drained events
+	 * @param count
+	 *            number of events in the array
+	 */
+	static void processMonitorEvents(long[] events, int count) {
+		MonitorEventListener listener = monitorListener;
+		if (listener == null) {
+			return;
+		}
+		StringBuilder locationBuilder = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			int offset = i * EVENT_FIELDS;
+			long threadId = events[offset];
+			int flags = (int) events[offset + 3];
+			int classIndex = (int) (events[offset + 3] >>> 32);
+
+			locationBuilder.setLength(0);
+			if ((flags & FLAG_NULL_MONITOR) != 0) {
+				if (!isMonitorClassIncluded("null")) {
+					continue;
+				}
+				locationBuilder.append("null");
+			} else if ((flags & FLAG_CLASS_MONITOR) != 0) {
+				locationBuilder.append(CLASS_NAME).append('<').append(getMonitorClassName(classIndex)).append('>');
+			} else {
+				String className = getMonitorClassName(classIndex);
+				if ((flags & FLAG_UNDECIDED_CLASS) != 0) {
+					boolean included = isMonitorClassIncluded(className);
+					if (agentLinked && classIndex > 0) {
+						setMonitorClassFilter0(classIndex, included);
+					}
+					if (!included) {
+						continue;
+					}
+				}
+				locationBuilder.append(className);
+			}
+			locationBuilder.append('@').append((int) events[offset + 2]);
+
+			String type = (flags & EVENT_ENTERED) != 0 ? IMonitorEventProbe.TYPE_ENTERED_MONITOR
+					: IMonitorEventProbe.TYPE_WAIT_ON_MONITOR;
+			listener.onMonitorEvent(type, threadId, locationBuilder.toString(), events[offset + 1]);
+		}
 	}
 
-	private static native void init();
+	private static boolean isMonitorClassIncluded(String className) {
+		return !restriction.isExcluded(className) || className.startsWith(CLASS_NAME);
+	}
+
+	private static String getMonitorClassName(int classIndex) {
+		String className = monitorClassNames.get(classIndex);
+		if (className == null) {
+			Class<?> monitorClass = classIndex > 0 ? getMonitorClass0(classIndex) : null;
+			if (monitorClass == null) {
+				// class has been unloaded or could not be tagged
+				return "unknown";
+			}
+			className = monitorClass.getName();
+			monitorClassNames.put(classIndex, className);
+		}
+		return className;
+	}
+
+	private static void startMonitorEventDrain() {
+		monitorEventDrain = new MonitorEventDrain();
+		drainThread = new Thread(monitorEventDrain, "AIM-Monitor-Event-Drain");
+		drainThread.setDaemon(true);
+		drainThread.start();
+	}
+
+	private static void stopMonitorEventDrain() {
+		if (drainThread == null) {
+			return;
+		}
+		monitorEventDrain.stop();
+		drainThread.interrupt();
+		try {
+			drainThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		drainThread = null;
+		monitorEventDrain = null;
+	}
 
 	/**
 	 * Enables listening to monitor events.
@@ -178,6 +404,7 @@ public final class CEventAgentAdapter {
 		if (activated) {
 			LOGGER.warn("Synchronized listening has alredy been activated!");
 		} else {
+			startMonitorEventDrain();
 			activateMonitorEvents();
 			activated = true;
 		}
@@ -191,6 +418,9 @@ public final class CEventAgentAdapter {
 	 */
 	public static void setMonitorGranularity(double dGran) {
 		granularity = LpeNumericUtils.getFractionFromDouble(dGran, 2, GRANULARITY_PRECISION);
+		if (agentLinked) {
+			setMonitorGranularity0(granularity[0], granularity[1]);
+		}
 	}
 
 	private static native void activateMonitorEvents();
@@ -212,6 +442,8 @@ public final class CEventAgentAdapter {
 			LOGGER.warn("Synchronized listening has alredy been deactivated!");
 		} else {
 			deactivateMonitorEvents();
+			// pass the buffered events to the listener before removing it
+			stopMonitorEventDrain();
 			monitorListener = null;
 			activated = false;
 		}
@@ -239,4 +471,50 @@ public final class CEventAgentAdapter {
 	public static boolean isInitialized() {
 		return initialized;
 	}
+
+	/**
+	 * Drains the native event buffer in batches. Sleeps, if the buffer has
+	 * been emptied. Drains the remaining events when stopped.
+	 */
+	private static final class MonitorEventDrain implements Runnable {
+		private volatile boolean running = true;
+
+		private void stop() {
+			running = false;
+		}
+
+		@Override
+		public void run() {
+			long[] events = new long[DRAIN_BATCH_SIZE * EVENT_FIELDS];
+			long reportedDrops = 0L;
+			while (running) {
+				int count = drain(events);
+				long drops = getDroppedMonitorEvents0();
+				if (drops > reportedDrops) {
+					LOGGER.warn("Monitor event buffer full, {} events dropped so far.", drops);
+					reportedDrops = drops;
+				}
+				if (count < DRAIN_BATCH_SIZE) {
+					try {
+						Thread.sleep(drainInterval);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+			while (drain(events) > 0) {
+				// drain remaining events
+			}
+		}
+
+		private int drain(long[] events) {
+			int count = drainMonitorEvents0(events);
+			try {
+				processMonitorEvents(events, count);
+			} catch (RuntimeException e) {
+				LOGGER.warn("Failed processing monitor events: {}", e);
+			}
+			return count;
+		}
+	}
 }
@@ -20,16 +20,28 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.lang.instrument.Instrumentation;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
+import org.aim.api.instrumentation.AdaptiveSampler;
+import org.aim.api.instrumentation.CallIdGenerator;
+import org.aim.api.measurement.RecordPool;
 import org.aim.api.measurement.collector.AbstractDataSource;
 import org.aim.api.measurement.collector.CollectorFactory;
+import org.aim.artifacts.events.probes.MonitorContentionAggregator;
 import org.aim.artifacts.instrumentation.InstrumentationClient;
 import org.aim.artifacts.measurement.collector.MemoryDataSource;
+import org.aim.artifacts.probes.utils.MemoryMXBeanCache;
 import org.aim.logging.AIMLogger;
 import org.aim.logging.AIMLoggerFactory;
 import org.aim.logging.AIMLoggingConfig;
 import org.aim.logging.LoggingLevel;
+import org.aim.mainagent.builder.SnippetProvider;
+import org.aim.mainagent.instrumentor.BCInjector;
+import org.aim.mainagent.instrumentor.BytecodeCache;
+import org.aim.mainagent.instrumentor.JAgentSwapper;
 import org.aim.mainagent.instrumentor.JInstrumentation;
+import org.aim.mainagent.instrumentor.LoadTimeWeaver;
+import org.aim.mainagent.scope.LoadedClassIndex;
 import org.aim.mainagent.service.CurrentTimeServlet;
 import org.aim.mainagent.service.DisableMeasurementServlet;
 import org.aim.mainagent.service.EnableMeasurementServlet;
@@ -39,13 +51,16 @@ import org.aim.mainagent.service.GetSupportedExtensionsServlet;
 import org.aim.mainagent.service.InstrumentServlet;
 import org.aim.mainagent.service.MeasureOverheadServlet;
 import org.aim.mainagent.service.MeasurementStateServlet;
+import org.aim.mainagent.service.ReadinessServlet;
 import org.aim.mainagent.service.Service;
 import org.aim.mainagent.service.TestConnectionServlet;
 import org.aim.mainagent.service.UninstrumentServlet;
+import org.aim.mainagent.utils.JavassistWrapper;
 import org.glassfish.grizzly.http.server.HttpHandler;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.grizzly.http.server.Request;
 import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.http.util.HttpStatus;
 import org.lpe.common.config.GlobalConfiguration;
 import org.lpe.common.extension.ExtensionRegistry;
 import org.lpe.common.util.system.LpeSystemUtils;
@@ -76,6 +91,8 @@ public final class InstrumentationAgent {
 	private static final String LOGGING_FILE_KEY = "logFile";
 	private static final String LOGGING_LEVEL_KEY = "logLevel";
 	private static final String DEFAULT_PLUGINS_FOLDER = "plugins";
+	private static final String SYNCHRONOUS_STARTUP_KEY = "org.aim.startup.synchronous";
+	private static final long INITIALIZATION_TIMEOUT_SECONDS = 120L;
 
 	public static final String URL_PATH_INSTRUMENTATION = InstrumentationClient.URL_PATH_INSTRUMENTATION;
 	public static final String URL_PATH_MEASUREMENT = InstrumentationClient.URL_PATH_MEASUREMENT;
@@ -130,28 +147,74 @@ public final class InstrumentationAgent {
 			parseArgs(agentArgs);
 			AIMLoggerFactory.initialize(aimLoggingConfig);
 
-			boolean cAgentInitializedSuccessfully = CEventAgentAdapter.initialize();
-			if (!cAgentInitializedSuccessfully) {
-				getLogger().warn("The C event agent could not be initialized and will not be used therefore.");
-				// TODO: handle this case
-			}
-
 			if (!inst.isRedefineClassesSupported()) {
 				throw new IllegalStateException(
 						"Redefining classes not supported, InstrumentationAgent cannot work properly!");
 			}
 
-			initializeGlobalConfig();
-			LpeSystemUtils.loadNativeLibraries();
 			JInstrumentation.getInstance().setjInstrumentation(inst);
-			initDataCollector();
+			LoadedClassIndex.getInstance().install(inst);
+			CallIdGenerator.configure(properties);
+			RecordPool.configure(properties);
+			MemoryMXBeanCache.configure(properties);
+			JAgentSwapper.configure(properties);
+			BytecodeCache.configure(properties);
+			BCInjector.configure(properties);
+			AdaptiveSampler.configure(properties);
+			OverheadGuard.configure(properties);
+			TraceInstrumentor.configure(properties);
+			LoadTimeWeaver.configure(properties);
+			CEventAgentAdapter.configure(properties);
+			MonitorContentionAggregator.configure(properties);
+			LoadTimeWeaver.getInstance().install(inst);
 			startServer();
+
+			if (Boolean.parseBoolean(properties.getProperty(SYNCHRONOUS_STARTUP_KEY))) {
+				initializeSubsystems();
+			} else {
+				Thread initializer = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						initializeSubsystems();
+					}
+				}, "AIM-Agent-Initializer");
+				initializer.setDaemon(true);
+				initializer.start();
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 			getLogger().error("Agent ERROR: {}", e);
 		}
 	}
 
+	/**
+	 * Initializes the expensive subsystems of the agent. Requests to the
+	 * services depending on these subsystems wait until the initialization
+	 * has finished (see {@link AgentReadiness}).
+	 */
+	private static void initializeSubsystems() {
+		long start = System.currentTimeMillis();
+		try {
+			boolean cAgentInitializedSuccessfully = CEventAgentAdapter.initialize();
+			if (!cAgentInitializedSuccessfully) {
+				getLogger().warn("The C event agent could not be initialized and will not be used therefore.");
+				// TODO: handle this case
+			}
+
+			initializeGlobalConfig();
+			ExtensionRegistry.getSingleton();
+			LpeSystemUtils.loadNativeLibraries();
+			initDataCollector();
+			JavassistWrapper.getInstance().warmUp();
+			SnippetProvider.getInstance().getGenericSnippet();
+			AgentReadiness.ready();
+			getLogger().info("Instrumentation Agent initialized within {} ms.", System.currentTimeMillis() - start);
+		} catch (Throwable e) {
+			AgentReadiness.failed(e);
+			getLogger().error("Agent initialization failed: {}", e);
+		}
+	}
+
 	private static void initializeGlobalConfig() {
 		if (pluginsRoot == null) {
 			pluginsRoot = System.getProperty("user.dir");
@@ -167,20 +230,21 @@ public final class InstrumentationAgent {
 		HttpServer server = HttpServer.createSimpleServer("", Integer.parseInt(port));
 		try {
 
-			addServlet(server, new TestConnectionServlet(), "testConnection");
+			addServlet(server, new TestConnectionServlet(), "testConnection", false);
+			addServlet(server, new ReadinessServlet(), "ready", false);
 
-			addServlet(server, new InstrumentServlet(), URL_PATH_INSTRUMENTATION + "/instrument");
-			addServlet(server, new UninstrumentServlet(), URL_PATH_INSTRUMENTATION + "/uninstrument");
-			addServlet(server, new GetStateServlet(), URL_PATH_INSTRUMENTATION + "/getState");
+			addServlet(server, new InstrumentServlet(), URL_PATH_INSTRUMENTATION + "/instrument", true);
+			addServlet(server, new UninstrumentServlet(), URL_PATH_INSTRUMENTATION + "/uninstrument", true);
+			addServlet(server, new GetStateServlet(), URL_PATH_INSTRUMENTATION + "/getState", true);
 			addServlet(server, new GetSupportedExtensionsServlet(), URL_PATH_INSTRUMENTATION
-					+ "/getSupportedExtensions");
-
-			addServlet(server, new EnableMeasurementServlet(), URL_PATH_MEASUREMENT + "/enable");
-			addServlet(server, new DisableMeasurementServlet(), URL_PATH_MEASUREMENT + "/disable");
-			addServlet(server, new GetDataServlet(), URL_PATH_MEASUREMENT + "/getdata");
-			addServlet(server, new CurrentTimeServlet(), URL_PATH_MEASUREMENT + "/currentTime");
-			addServlet(server, new MeasureOverheadServlet(), URL_PATH_MEASUREMENT + "/measureOverhead");
-			addServlet(server, new MeasurementStateServlet(), URL_PATH_MEASUREMENT + "/monitoringState");
+					+ "/getSupportedExtensions", true);
+
+			addServlet(server, new EnableMeasurementServlet(), URL_PATH_MEASUREMENT + "/enable", true);
+			addServlet(server, new DisableMeasurementServlet(), URL_PATH_MEASUREMENT + "/disable", true);
+			addServlet(server, new GetDataServlet(), URL_PATH_MEASUREMENT + "/getdata", true);
+			addServlet(server, new CurrentTimeServlet(), URL_PATH_MEASUREMENT + "/currentTime", false);
+			addServlet(server, new MeasureOverheadServlet(), URL_PATH_MEASUREMENT + "/measureOverhead", true);
+			addServlet(server, new MeasurementStateServlet(), URL_PATH_MEASUREMENT + "/monitoringState", true);
 			server.start();
 			getLogger().info("Started Instrumentation Agent Server: {}.", getAddress());
 
@@ -193,11 +257,18 @@ public final class InstrumentationAgent {
 
 	}
 
-	private static void addServlet(final HttpServer server, final Service service, final String path) {
+	private static void addServlet(final HttpServer server, final Service service, final String path,
+			final boolean requiresInitialization) {
 		server.getServerConfiguration().addHttpHandler(new HttpHandler() {
 
 			@Override
 			public void service(Request req, Response resp) throws Exception {
+				if (!AgentReadiness.isServiceAvailable(requiresInitialization, INITIALIZATION_TIMEOUT_SECONDS,
+						TimeUnit.SECONDS)) {
+					resp.sendError(HttpStatus.SERVICE_UNAVAILABLE_503.getStatusCode(), "Agent is not ready: "
+							+ AgentReadiness.getState());
+					return;
+				}
 				service.doService(req, resp);
 
 			}
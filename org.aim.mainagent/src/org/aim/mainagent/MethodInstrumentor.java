@@ -16,13 +16,18 @@
 package org.aim.mainagent;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.aim.api.exceptions.InstrumentationException;
+import org.aim.api.instrumentation.AbstractEnclosingProbe;
 import org.aim.api.instrumentation.description.internal.FlatInstrumentationEntity;
 import org.aim.api.instrumentation.description.internal.InstrumentationSet;
 import org.aim.description.InstrumentationDescription;
@@ -31,8 +36,11 @@ import org.aim.description.scopes.MethodsEnclosingScope;
 import org.aim.logging.AIMLogger;
 import org.aim.logging.AIMLoggerFactory;
 import org.aim.mainagent.instrumentor.BCInjector;
+import org.aim.mainagent.instrumentor.BytecodeCache;
 import org.aim.mainagent.instrumentor.JAgentSwapper;
 import org.aim.mainagent.instrumentor.JInstrumentation;
+import org.aim.mainagent.instrumentor.LoadTimeWeaver;
+import org.aim.mainagent.scope.LoadedClassIndex;
 import org.aim.mainagent.scope.ScopeAnalysisController;
 
 /**
@@ -43,7 +51,10 @@ import org.aim.mainagent.scope.ScopeAnalysisController;
  */
 public class MethodInstrumentor implements IInstrumentor {
 	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(MethodInstrumentor.class);
+	private static final long PENDING_CLASSES_POLL_MILLIS = 10L;
+	private static final long PENDING_CLASSES_TIMEOUT_MILLIS = 5000L;
 	private final Set<FlatInstrumentationEntity> currentInstrumentationState = new HashSet<>();
+	private final Map<FlatInstrumentationEntity, Restriction> entityRestrictions = new HashMap<>();
 
 	@SuppressWarnings("rawtypes")
 	@Override
@@ -51,18 +62,17 @@ public class MethodInstrumentor implements IInstrumentor {
 		if (!containsValidInstrumentationInstructions(descr)) {
 			return;
 		}
+		registerLoadTimeWovenClasses();
+		// classes loaded from now on are woven on load
+		LoadTimeWeaver.getInstance().activate(descr);
 		ScopeAnalysisController scopeAnalyzer = new ScopeAnalysisController(descr); // TODO:
 																					// usage
 																					// with
 																					// IDM
-		Class[] classes = JInstrumentation.getInstance().getjInstrumentation().getAllLoadedClasses();
-
-		// copy all classes to a new list as the array is not allowed to be
-		// modified!
-		List<Class> allLoadedClasses = new ArrayList<>();
-		allLoadedClasses.addAll(Arrays.asList(classes));
+		List<Class> allLoadedClasses = new ArrayList<Class>(LoadedClassIndex.getInstance().getAllClasses());
 
 		Set<FlatInstrumentationEntity> newInstrumentationStatements = scopeAnalyzer.resolveScopes(allLoadedClasses);
+		removeGuardedMethods(newInstrumentationStatements);
 		Set<Class<?>> overLappingClasses = revertOverlappingInstrumentation(newInstrumentationStatements);
 
 		for (FlatInstrumentationEntity oldEntity : getCurrentInstrumentationState()) {
@@ -71,29 +81,186 @@ public class MethodInstrumentor implements IInstrumentor {
 			}
 		}
 
-		InstrumentationSet newInstrumentationSet = new InstrumentationSet(newInstrumentationStatements);
-
 		LOGGER.info("Going to instrument the following methods:");
 		for (FlatInstrumentationEntity fie : newInstrumentationStatements) {
 			LOGGER.info("{}", fie.getMethodSignature());
 		}
 
-		injectNewInstrumentation(newInstrumentationSet, descr.getGlobalRestriction());
+		injectNewInstrumentation(newInstrumentationStatements, descr.getGlobalRestriction());
 
 		getCurrentInstrumentationState().addAll(newInstrumentationStatements);
 
 	}
 
+	/**
+	 * Reverts the instrumentation of the given methods. The other
+	 * instrumented methods of the affected classes are instrumented again
+	 * with the restrictions they have been instrumented with.
+	 * 
+	 * @param methodSignatures
+	 *            signatures of the methods to revert
+	 * @throws InstrumentationException
+	 *             if instrumentation fails
+	 */
+	public void revertMethods(Collection<String> methodSignatures) throws InstrumentationException {
+		registerLoadTimeWovenClasses();
+		Set<FlatInstrumentationEntity> revertedEntities = new HashSet<>();
+		for (FlatInstrumentationEntity entity : getCurrentInstrumentationState()) {
+			if (methodSignatures.contains(entity.getMethodSignature())) {
+				revertedEntities.add(entity);
+			}
+		}
+		if (revertedEntities.isEmpty()) {
+			return;
+		}
+		getCurrentInstrumentationState().removeAll(revertedEntities);
+
+		Set<Class<?>> affectedClasses = new InstrumentationSet(revertedEntities).classesToInstrument();
+		Map<Class<?>, byte[]> classesToRevert = BCInjector.getInstance().partlyRevertInstrumentation(affectedClasses);
+		JAgentSwapper.getInstance().redefineClasses(classesToRevert);
+
+		for (FlatInstrumentationEntity entity : revertedEntities) {
+			entityRestrictions.remove(entity);
+		}
+
+		// a class is always woven from its original bytecode, thus, all
+		// remaining entities of a class have to be woven in a single pass
+		Map<Class<?>, Set<FlatInstrumentationEntity>> remainingEntities = new HashMap<>();
+		for (FlatInstrumentationEntity entity : getCurrentInstrumentationState()) {
+			if (affectedClasses.contains(entity.getClazz())) {
+				if (!remainingEntities.containsKey(entity.getClazz())) {
+					remainingEntities.put(entity.getClazz(), new HashSet<FlatInstrumentationEntity>());
+				}
+				remainingEntities.get(entity.getClazz()).add(entity);
+			}
+		}
+		// restrictions are grouped by identity, as equal restrictions may
+		// differ in their granularity
+		Map<Restriction, Set<FlatInstrumentationEntity>> entitiesByRestriction = new IdentityHashMap<>();
+		for (Set<FlatInstrumentationEntity> classEntities : remainingEntities.values()) {
+			Restriction restriction = getRestriction(classEntities);
+			if (!entitiesByRestriction.containsKey(restriction)) {
+				entitiesByRestriction.put(restriction, new HashSet<FlatInstrumentationEntity>());
+			}
+			entitiesByRestriction.get(restriction).addAll(classEntities);
+		}
+		for (Entry<Restriction, Set<FlatInstrumentationEntity>> entry : entitiesByRestriction.entrySet()) {
+			injectNewInstrumentation(entry.getValue(), entry.getKey());
+		}
+	}
+
+	/**
+	 * Returns the restriction to weave the given entities of a class with.
+	 * Usually, all entities of a class have been woven with the same
+	 * restriction. Otherwise, the recorded restrictions are merged. Entities
+	 * without a recorded restriction are woven without restriction instead of
+	 * being dropped.
+	 */
+	private Restriction getRestriction(Set<FlatInstrumentationEntity> classEntities) {
+		Restriction result = null;
+		for (FlatInstrumentationEntity entity : classEntities) {
+			Restriction restriction = entityRestrictions.get(entity);
+			if (restriction == null || restriction == result) {
+				continue;
+			}
+			result = result == null ? restriction : result.mergeWith(restriction);
+		}
+		return result == null ? new Restriction() : result;
+	}
+
+	/**
+	 * Adds the classes which have been instrumented on load (see
+	 * {@link LoadTimeWeaver}) to the instrumentation state. Classes woven for
+	 * an instrumentation which has been undone in the meantime are reverted.
+	 * 
+	 * @throws InstrumentationException
+	 *             if reverting an outdated class fails
+	 */
+	public void registerLoadTimeWovenClasses() throws InstrumentationException {
+		LoadTimeWeaver weaver = LoadTimeWeaver.getInstance();
+		Set<Class<?>> outdatedClasses = new HashSet<>();
+		for (LoadTimeWeaver.WovenClass wovenClass : weaver.drainWovenClasses()) {
+			ClassLoader classLoader = wovenClass.getClassLoader();
+			if (classLoader == null) {
+				// the class has been unloaded already
+				continue;
+			}
+			Class<?> clazz = findDefinedClass(wovenClass.getClassName(), classLoader);
+			if (clazz == null) {
+				// definition of the class has not been finished yet
+				weaver.requeue(wovenClass);
+				continue;
+			}
+
+			BCInjector.getInstance().registerOriginalByteCode(clazz, wovenClass.getOriginalByteCode());
+			if (wovenClass.getGeneration() != weaver.getGeneration()) {
+				outdatedClasses.add(clazz);
+				continue;
+			}
+			for (Entry<String, Set<Long>> methodEntry : wovenClass.getMethodsToInstrument().entrySet()) {
+				for (Class<? extends AbstractEnclosingProbe> probeType : wovenClass.getProbesToInject().get(
+						methodEntry.getKey())) {
+					for (Long scopeId : methodEntry.getValue()) {
+						FlatInstrumentationEntity entity = new FlatInstrumentationEntity(clazz, methodEntry.getKey(),
+								probeType);
+						entity.setScopeId(scopeId);
+						getCurrentInstrumentationState().add(entity);
+						entityRestrictions.put(entity, wovenClass.getInstrumentationRestriction());
+					}
+				}
+			}
+		}
+		if (!outdatedClasses.isEmpty()) {
+			Map<Class<?>, byte[]> classesToRevert = BCInjector.getInstance()
+					.partlyRevertInstrumentation(outdatedClasses);
+			JAgentSwapper.getInstance().redefineClasses(classesToRevert);
+		}
+	}
+
+	private Class<?> findDefinedClass(String className, ClassLoader classLoader) throws InstrumentationException {
+		for (Class<?> candidate : LoadedClassIndex.getInstance().getClassesByName(className)) {
+			if (candidate.getClassLoader() == classLoader) {
+				return candidate;
+			}
+		}
+		// the index may have been refreshed before the class was defined
+		for (Class<?> candidate : JInstrumentation.getInstance().getjInstrumentation()
+				.getInitiatedClasses(classLoader)) {
+			if (candidate.getName().equals(className) && candidate.getClassLoader() == classLoader) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	private void removeGuardedMethods(Set<FlatInstrumentationEntity> instrumentationStatements) {
+		OverheadGuard guard = OverheadGuard.getInstance();
+		if (!guard.isEnabled()) {
+			return;
+		}
+		Iterator<FlatInstrumentationEntity> iterator = instrumentationStatements.iterator();
+		while (iterator.hasNext()) {
+			FlatInstrumentationEntity entity = iterator.next();
+			if (guard.isDeinstrumented(entity.getMethodSignature())) {
+				LOGGER.info("Skipping method {} as it exceeded the overhead budget", entity.getMethodSignature());
+				iterator.remove();
+			}
+		}
+	}
+
 	private boolean containsValidInstrumentationInstructions(InstrumentationDescription descr) {
 		return descr.containsScopeType(MethodsEnclosingScope.class);
 
 	}
 
-	private void injectNewInstrumentation(InstrumentationSet newInstrumentationSet,
+	private void injectNewInstrumentation(Set<FlatInstrumentationEntity> entities,
 			Restriction instrumentationRestriction) throws InstrumentationException {
 		Map<Class<?>, byte[]> classesToRevert = BCInjector.getInstance().injectInstrumentationProbes(
-				newInstrumentationSet, instrumentationRestriction);
+				new InstrumentationSet(entities), instrumentationRestriction);
 		JAgentSwapper.getInstance().redefineClasses(classesToRevert);
+		for (FlatInstrumentationEntity entity : entities) {
+			entityRestrictions.put(entity, instrumentationRestriction);
+		}
 	}
 
 	private Set<Class<?>> revertOverlappingInstrumentation(Set<FlatInstrumentationEntity> newInstrumentationStatements)
@@ -108,9 +275,27 @@ public class MethodInstrumentor implements IInstrumentor {
 
 	@Override
 	public void undoInstrumentation() throws InstrumentationException {
+		LoadTimeWeaver weaver = LoadTimeWeaver.getInstance();
+		weaver.deactivate();
+		registerLoadTimeWovenClasses();
+		// classes woven concurrently to the deactivation are reverted as soon
+		// as their definition has been finished, classes still pending after
+		// the timeout are reverted by the registration task of the weaver
+		long deadline = System.currentTimeMillis() + PENDING_CLASSES_TIMEOUT_MILLIS;
+		while (weaver.hasPendingClasses() && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(PENDING_CLASSES_POLL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InstrumentationException("Interrupted while waiting for classes instrumented on load", e);
+			}
+			registerLoadTimeWovenClasses();
+		}
 		Map<Class<?>, byte[]> classesToRevert = BCInjector.getInstance().revertInstrumentation();
 		JAgentSwapper.getInstance().redefineClasses(classesToRevert);
+		BytecodeCache.getInstance().undoInstrumentation();
 		getCurrentInstrumentationState().clear();
+		entityRestrictions.clear();
 	}
 
 	/**
@@ -0,0 +1,312 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.aim.api.exceptions.InstrumentationException;
+import org.aim.api.instrumentation.InvocationStatistics;
+import org.aim.api.instrumentation.InvocationStatistics.Snapshot;
+import org.aim.api.instrumentation.entities.DeinstrumentedMethod;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * Protects the target application from instrumented methods whose probes
+ * cause too much overhead. The guard periodically evaluates the invocation
+ * rates and the measured probe times of the instrumented methods (see
+ * {@link InvocationStatistics}) and reverts the instrumentation of methods
+ * exceeding the configured budget. Reverted methods are not instrumented
+ * again until the instrumentation is undone.
+ * 
+ * The guard is enabled by the agent properties
+ * {@link #MAX_CALLS_PER_SECOND_KEY} and {@link #MAX_OVERHEAD_KEY}.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class OverheadGuard {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(OverheadGuard.class);
+
+	/**
+	 * Property key for the maximum number of invocations per second of an
+	 * instrumented method.
+	 */
+	public static final String MAX_CALLS_PER_SECOND_KEY = "org.aim.overheadGuard.maxCallsPerSecond";
+
+	/**
+	 * Property key for the maximum fraction of one CPU which may be spent in
+	 * the probes of an instrumented method.
+	 */
+	public static final String MAX_OVERHEAD_KEY = "org.aim.overheadGuard.maxOverhead";
+
+	/**
+	 * Property key for the interval in milliseconds in which the budget is
+	 * checked.
+	 */
+	public static final String CHECK_INTERVAL_KEY = "org.aim.overheadGuard.checkInterval";
+
+	public static final long DEFAULT_CHECK_INTERVAL = 1000L;
+
+	/**
+	 * Minimum number of measured invocations before the probe time of a
+	 * method is considered.
+	 */
+	private static final long MIN_MEASURED_CALLS = 8L;
+
+	private static final double NANOS_PER_SECOND = 1000000000.0;
+
+	private static OverheadGuard instance;
+
+	/**
+	 * 
+	 * @return singleton instance
+	 */
+	public static synchronized OverheadGuard getInstance() {
+		if (instance == null) {
+			instance = new OverheadGuard();
+		}
+		return instance;
+	}
+
+	/**
+	 * Configures the guard from the agent properties. Should be called before
+	 * any probe has been injected.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		double newMaxCalls = 0.0;
+		double newMaxOverhead = 0.0;
+		long newInterval = DEFAULT_CHECK_INTERVAL;
+		if (properties != null) {
+			newMaxCalls = parseLimit(properties, MAX_CALLS_PER_SECOND_KEY);
+			newMaxOverhead = parseLimit(properties, MAX_OVERHEAD_KEY);
+			String intervalValue = properties.getProperty(CHECK_INTERVAL_KEY);
+			if (intervalValue != null) {
+				try {
+					newInterval = Long.parseLong(intervalValue.trim());
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Invalid overhead guard check interval {}. Using default value {}.", intervalValue,
+							DEFAULT_CHECK_INTERVAL);
+				}
+				if (newInterval <= 0) {
+					LOGGER.warn("Invalid overhead guard check interval {}. Using default value {}.", intervalValue,
+							DEFAULT_CHECK_INTERVAL);
+					newInterval = DEFAULT_CHECK_INTERVAL;
+				}
+			}
+		}
+		getInstance().configure(newMaxCalls, newMaxOverhead, newInterval);
+	}
+
+	private static double parseLimit(Properties properties, String key) {
+		String value = properties.getProperty(key);
+		if (value == null) {
+			return 0.0;
+		}
+		try {
+			double limit = Double.parseDouble(value.trim());
+			if (limit >= 0.0) {
+				return limit;
+			}
+		} catch (NumberFormatException e) {
+			// warned below
+		}
+		LOGGER.warn("Invalid value {} for {}. The overhead guard is not limited by this property.", value, key);
+		return 0.0;
+	}
+
+	private volatile double maxCallsPerSecond = 0.0;
+	private volatile double maxOverhead = 0.0;
+	private long checkInterval = DEFAULT_CHECK_INTERVAL;
+
+	private final Map<String, Snapshot> lastSnapshots = new HashMap<>();
+	private final Map<String, DeinstrumentedMethod> deinstrumentedMethods = new LinkedHashMap<>();
+
+	private ScheduledExecutorService scheduler;
+	private long lastCheck;
+
+	private OverheadGuard() {
+	}
+
+	/**
+	 * Configures the guard.
+	 * 
+	 * @param newMaxCallsPerSecond
+	 *            maximum number of invocations per second of a method, a
+	 *            value less or equal to zero means no limit
+	 * @param newMaxOverhead
+	 *            maximum fraction of one CPU spent in the probes of a method,
+	 *            a value less or equal to zero means no limit
+	 * @param newCheckInterval
+	 *            interval in milliseconds in which the budget is checked
+	 */
+	public synchronized void configure(double newMaxCallsPerSecond, double newMaxOverhead, long newCheckInterval) {
+		maxCallsPerSecond = Math.max(newMaxCallsPerSecond, 0.0);
+		maxOverhead = Math.max(newMaxOverhead, 0.0);
+		checkInterval = Math.max(newCheckInterval, 1L);
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		if (isEnabled()) {
+			LOGGER.info("Overhead guard enabled: {} calls per second, {} CPU per method", maxCallsPerSecond,
+					maxOverhead);
+			startScheduler();
+		}
+	}
+
+	/**
+	 * 
+	 * @return true, if a budget has been configured
+	 */
+	public boolean isEnabled() {
+		return maxCallsPerSecond > 0.0 || maxOverhead > 0.0;
+	}
+
+	/**
+	 * Checks whether the instrumentation of the given method has been
+	 * reverted by the guard.
+	 * 
+	 * @param methodSignature
+	 *            signature of the method
+	 * @return true, if the method must not be instrumented
+	 */
+	public synchronized boolean isDeinstrumented(String methodSignature) {
+		return deinstrumentedMethods.containsKey(methodSignature);
+	}
+
+	/**
+	 * 
+	 * @return the methods whose instrumentation has been reverted by the guard
+	 */
+	public synchronized List<DeinstrumentedMethod> getDeinstrumentedMethods() {
+		return new ArrayList<>(deinstrumentedMethods.values());
+	}
+
+	/**
+	 * Forgets the reverted methods, such that they can be instrumented again,
+	 * and discards the statistics of all instrumented methods. Called when the
+	 * instrumentation is undone.
+	 */
+	public synchronized void reset() {
+		deinstrumentedMethods.clear();
+		lastSnapshots.clear();
+		InvocationStatistics.reset();
+	}
+
+	/**
+	 * Evaluates the statistics collected since the last check and determines
+	 * the methods exceeding the budget. The returned methods are considered
+	 * as reverted.
+	 * 
+	 * @param elapsedSeconds
+	 *            time since the last check
+	 * @return methods whose instrumentation has to be reverted
+	 */
+	synchronized List<DeinstrumentedMethod> check(double elapsedSeconds) {
+		List<DeinstrumentedMethod> exceedingMethods = new ArrayList<>();
+		Map<String, Snapshot> snapshots = InvocationStatistics.snapshot();
+		for (Entry<String, Snapshot> entry : snapshots.entrySet()) {
+			String methodSignature = entry.getKey();
+			Snapshot current = entry.getValue();
+			Snapshot last = lastSnapshots.get(methodSignature);
+			long calls = last == null ? current.getCalls() : current.getCalls() - last.getCalls();
+			if (elapsedSeconds <= 0.0 || calls <= 0 || deinstrumentedMethods.containsKey(methodSignature)) {
+				continue;
+			}
+
+			double callsPerSecond = calls / elapsedSeconds;
+			double overhead = 0.0;
+			if (current.getMeasuredCalls() >= MIN_MEASURED_CALLS) {
+				double probeNanosPerCall = (double) current.getProbeNanos() / current.getMeasuredCalls();
+				overhead = callsPerSecond * probeNanosPerCall / NANOS_PER_SECOND;
+			}
+
+			if ((maxCallsPerSecond > 0.0 && callsPerSecond > maxCallsPerSecond)
+					|| (maxOverhead > 0.0 && overhead > maxOverhead)) {
+				DeinstrumentedMethod method = new DeinstrumentedMethod();
+				method.setMethod(methodSignature);
+				method.setCallsPerSecond(callsPerSecond);
+				method.setOverhead(overhead);
+				method.setTimestamp(System.currentTimeMillis());
+				deinstrumentedMethods.put(methodSignature, method);
+				exceedingMethods.add(method);
+				LOGGER.warn("Reverting instrumentation of {}: {} calls per second, {} CPU spent in probes",
+						methodSignature, callsPerSecond, overhead);
+			}
+		}
+		lastSnapshots.clear();
+		lastSnapshots.putAll(snapshots);
+		return exceedingMethods;
+	}
+
+	private void checkAndRevert() {
+		long now = System.nanoTime();
+		double elapsedSeconds;
+		synchronized (this) {
+			elapsedSeconds = (now - lastCheck) / NANOS_PER_SECOND;
+			lastCheck = now;
+		}
+		List<DeinstrumentedMethod> exceedingMethods = check(elapsedSeconds);
+		if (exceedingMethods.isEmpty()) {
+			return;
+		}
+		List<String> methodSignatures = new ArrayList<>();
+		for (DeinstrumentedMethod method : exceedingMethods) {
+			methodSignatures.add(method.getMethod());
+		}
+		try {
+			AdaptiveInstrumentationFacade.getInstance().revertMethodInstrumentation(methodSignatures);
+		} catch (InstrumentationException e) {
+			LOGGER.error("Failed reverting instrumentation of methods exceeding the overhead budget: {}", e);
+		}
+	}
+
+	private void startScheduler() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "AIM-Overhead-Guard");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		lastCheck = System.nanoTime();
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					checkAndRevert();
+				} catch (RuntimeException e) {
+					LOGGER.error("Overhead guard failed: {}", e);
+				}
+			}
+		}, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+	}
+}
@@ -15,10 +15,19 @@
  */
 package org.aim.mainagent;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.aim.api.exceptions.InstrumentationException;
 import org.aim.description.InstrumentationDescription;
@@ -45,32 +54,92 @@ import org.aim.mainagent.probes.IncrementalInstrumentationProbe;
  */
 public final class TraceInstrumentor implements IInstrumentor {
 	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(TraceInstrumentor.class);
-	private static TraceInstrumentor instance;
+
+	/**
+	 * Property key for the time in milliseconds the instrumentation worker
+	 * waits for further methods to instrument them in one batch.
+	 */
+	public static final String BATCH_DELAY_KEY = "org.aim.trace.batchDelay";
+
+	public static final long DEFAULT_BATCH_DELAY = 100L;
+
+	/**
+	 * Number of failed attempts after which a method is not instrumented
+	 * incrementally anymore.
+	 */
+	static final int MAX_FAILED_ATTEMPTS = 3;
+
+	private static volatile long batchDelay = DEFAULT_BATCH_DELAY;
+
+	// created eagerly, as the instance is requested on each call of a traced
+	// method
+	private static final TraceInstrumentor INSTANCE = new TraceInstrumentor();
 
 	/**
 	 * 
 	 * @return singleton instance
 	 */
-	public static synchronized TraceInstrumentor getInstance() {
-		if (instance == null) {
-			instance = new TraceInstrumentor();
-		}
-		return instance;
+	public static TraceInstrumentor getInstance() {
+		return INSTANCE;
 	}
 
 	private final Map<Long, Set<String>> incrementalInstrumentationProbes;
 	private final Map<Long, Restriction> incrementalInstrumentationRestrictions;
 	private final Set<String> instrumentationFlags;
-	private volatile long idCounter = 0;
+	private final Map<String, Integer> failedAttempts;
+	private final BlockingQueue<PendingMethod> pendingMethods;
+	private final AtomicInteger outstandingMethods = new AtomicInteger();
+	private final Object idleMonitor = new Object();
+	private final AtomicLong idCounter = new AtomicLong();
+	private Thread worker;
 
 	private TraceInstrumentor() {
-		incrementalInstrumentationProbes = new HashMap<>();
-		incrementalInstrumentationRestrictions = new HashMap<>();
-		instrumentationFlags = new HashSet<>();
+		incrementalInstrumentationProbes = new ConcurrentHashMap<>();
+		incrementalInstrumentationRestrictions = new ConcurrentHashMap<>();
+		instrumentationFlags = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		failedAttempts = new ConcurrentHashMap<>();
+		pendingMethods = new LinkedBlockingQueue<>();
+	}
+
+	/**
+	 * Configures the incremental instrumentation from the agent properties.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		long newDelay = DEFAULT_BATCH_DELAY;
+		if (properties != null) {
+			String delayValue = properties.getProperty(BATCH_DELAY_KEY);
+			if (delayValue != null) {
+				try {
+					newDelay = Long.parseLong(delayValue.trim());
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Invalid incremental instrumentation batch delay {}. Using default value {}.",
+							delayValue, DEFAULT_BATCH_DELAY);
+				}
+			}
+		}
+		setBatchDelay(newDelay);
+	}
+
+	/**
+	 * Sets the time the worker waits for further methods before it
+	 * instruments a batch.
+	 * 
+	 * @param delay
+	 *            delay in milliseconds, zero instruments the methods as soon
+	 *            as possible
+	 */
+	public static void setBatchDelay(long delay) {
+		batchDelay = Math.max(delay, 0L);
 	}
 
 	/**
-	 * Does an incremental step in instrumentation.
+	 * Does an incremental step in instrumentation. The method is only queued
+	 * for instrumentation, the instrumentation itself is done by a background
+	 * worker, which instruments all methods queued in the meantime at once.
+	 * Thus, the calling application thread is not blocked.
 	 * 
 	 * @param methodName
 	 *            method to instrument
@@ -79,47 +148,250 @@ public final class TraceInstrumentor implements IInstrumentor {
 	 *            instrumentation details
 	 */
 	public void instrumentIncrementally(String methodName, long jobID) {
-		
 		try {
-			String keyString = methodName + "__" + jobID;
-			if (!instrumentationFlags.contains(keyString)) {
-				LOGGER.info("Incrementally going to instrument method: {}", methodName);
-				InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
-				RestrictionBuilder<?> restrictionBuilder = idBuilder.newGlobalRestriction();
-				for (String inc : incrementalInstrumentationRestrictions.get(jobID).getPackageIncludes()) {
-					restrictionBuilder.includePackage(inc);
+			if (instrumentationFlags.add(getFlag(methodName, jobID))) {
+				outstandingMethods.incrementAndGet();
+				pendingMethods.offer(new PendingMethod(methodName, jobID));
+			}
+		} catch (Throwable e) {
+			// Catch all exceptions and errors since this code is executed
+			// directly from the target application
+			LOGGER.error("Error during incremental instrumentation: {}", e);
+		}
+	}
+
+	/**
+	 * Waits until the methods queued for incremental instrumentation have
+	 * been instrumented.
+	 * 
+	 * @param timeout
+	 *            maximum time to wait in milliseconds
+	 * @return true, if no methods are pending anymore
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean awaitPendingInstrumentation(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (idleMonitor) {
+			while (outstandingMethods.get() > 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
 				}
+				idleMonitor.wait(remaining);
+			}
+		}
+		return true;
+	}
+
+	private void releaseOutstandingMethods(int numMethods) {
+		if (numMethods > 0 && outstandingMethods.addAndGet(-numMethods) <= 0) {
+			synchronized (idleMonitor) {
+				idleMonitor.notifyAll();
+			}
+		}
+	}
+
+	private static String getFlag(String methodName, long jobID) {
+		return methodName + "__" + jobID;
+	}
+
+	/**
+	 * Instruments a batch of queued methods. Methods of the same job are
+	 * instrumented with a single instrumentation description. If the
+	 * description fails, the methods of the job are instrumented one by one.
+	 * 
+	 * @param batch
+	 *            methods to instrument
+	 */
+	private void instrumentBatch(List<PendingMethod> batch) {
+		final AdaptiveInstrumentationFacade facade = AdaptiveInstrumentationFacade.getInstance();
+		Map<Long, List<String>> methodsPerJob = new HashMap<>();
+		for (PendingMethod pendingMethod : batch) {
+			List<String> methods = methodsPerJob.get(pendingMethod.jobID);
+			if (methods == null) {
+				methods = new ArrayList<>();
+				methodsPerJob.put(pendingMethod.jobID, methods);
+			}
+			methods.add(pendingMethod.methodName);
+		}
 
-				for (String exc : incrementalInstrumentationRestrictions.get(jobID).getPackageExcludes()) {
-					restrictionBuilder.excludePackage(exc);
+		for (Entry<Long, List<String>> jobEntry : methodsPerJob.entrySet()) {
+			final long jobID = jobEntry.getKey();
+			final Restriction jobRestriction = incrementalInstrumentationRestrictions.get(jobID);
+			final Set<String> jobProbes = incrementalInstrumentationProbes.get(jobID);
+			if (jobRestriction == null || jobProbes == null) {
+				// instrumentation has been undone in the meantime
+				continue;
+			}
+			LOGGER.info("Incrementally going to instrument methods: {}", jobEntry.getValue());
+			BatchInstrumentation jobInstrumentation = new BatchInstrumentation() {
+				@Override
+				public void instrument(List<String> methods) throws InstrumentationException {
+					facade.instrument(createDescription(jobID, jobRestriction, jobProbes, methods));
 				}
-				for (int modifier : incrementalInstrumentationRestrictions.get(jobID).getModifierIncludes()) {
-					restrictionBuilder.includeModifier(modifier);
+			};
+			Map<String, Throwable> failedMethods = instrumentWithFallback(jobEntry.getValue(),
+					whileJobActive(facade, incrementalInstrumentationRestrictions, jobID, jobInstrumentation));
+			synchronized (facade) {
+				if (!incrementalInstrumentationRestrictions.containsKey(jobID)) {
+					continue;
 				}
-
-				for (int modifier : incrementalInstrumentationRestrictions.get(jobID).getModifierExcludes()) {
-					restrictionBuilder.excludeModifier(modifier);
+				for (Entry<String, Throwable> failedMethod : failedMethods.entrySet()) {
+					handleFailedMethod(failedMethod.getKey(), jobID, failedMethod.getValue());
 				}
-				restrictionBuilder.restrictionDone();
-
-				InstrumentationEntityBuilder<MethodScope> ieBuilder = idBuilder.newMethodScopeEntityWithId(jobID,
-						methodName);
+			}
+		}
+	}
 
-				for (String probe : incrementalInstrumentationProbes.get(jobID)) {
-					ieBuilder.addProbe(probe);
-					ieBuilder.addProbe(IncrementalInstrumentationProbe.MODEL_PROBE);
+	/**
+	 * Wraps the instrumentation of a job, such that the methods are only
+	 * instrumented as long as the job is active. The job is checked and the
+	 * methods are instrumented while holding the given lock, which is also
+	 * held while jobs are removed. Thus, a batch cannot instrument methods
+	 * after the instrumentation has been undone.
+	 * 
+	 * @param lock
+	 *            lock held while removing jobs
+	 * @param activeJobs
+	 *            active jobs by their id
+	 * @param jobID
+	 *            id of the job
+	 * @param instrumentation
+	 *            conducts the instrumentation
+	 * @return instrumentation which skips inactive jobs
+	 */
+	static BatchInstrumentation whileJobActive(final Object lock, final Map<Long, ?> activeJobs, final long jobID,
+			final BatchInstrumentation instrumentation) {
+		return new BatchInstrumentation() {
+			@Override
+			public void instrument(List<String> methods) throws InstrumentationException {
+				synchronized (lock) {
+					if (activeJobs.containsKey(jobID)) {
+						instrumentation.instrument(methods);
+					}
 				}
-				ieBuilder.entityDone();
-				InstrumentationDescription instDescr = idBuilder.build();
-				AdaptiveInstrumentationFacade.getInstance().instrument(instDescr);
-				instrumentationFlags.add(keyString);
 			}
+		};
+	}
+
+	/**
+	 * Instruments the methods at once. If that fails, the methods are
+	 * instrumented one by one, thus, a single method which cannot be
+	 * instrumented does not prevent the instrumentation of the others.
+	 * 
+	 * @param methods
+	 *            methods to instrument
+	 * @param instrumentation
+	 *            conducts the instrumentation
+	 * @return the methods which could not be instrumented mapped to the cause
+	 */
+	static Map<String, Throwable> instrumentWithFallback(List<String> methods, BatchInstrumentation instrumentation) {
+		Map<String, Throwable> failedMethods = new HashMap<>();
+		try {
+			instrumentation.instrument(methods);
+			return failedMethods;
 		} catch (Throwable e) {
-			// Catch all exceptions and errors since this code is executed
-			// directly from the target application
-			LOGGER.error("Error during incremental instrumentation: {}", e);
+			if (methods.size() == 1) {
+				failedMethods.put(methods.get(0), e);
+				return failedMethods;
+			}
+			LOGGER.warn("Failed instrumenting {} methods at once. Instrumenting them one by one. {}", methods.size(),
+					e);
+		}
+		for (String method : methods) {
+			try {
+				instrumentation.instrument(Collections.singletonList(method));
+			} catch (Throwable e) {
+				failedMethods.put(method, e);
+			}
+		}
+		return failedMethods;
+	}
+
+	/**
+	 * Resets the flag of a method which could not be instrumented, thus, it
+	 * is queued again on its next call. After
+	 * {@link #MAX_FAILED_ATTEMPTS} attempts the method is not instrumented
+	 * anymore.
+	 */
+	private void handleFailedMethod(String methodName, long jobID, Throwable cause) {
+		String flag = getFlag(methodName, jobID);
+		Integer previousAttempts = failedAttempts.get(flag);
+		int attempts = previousAttempts == null ? 1 : previousAttempts + 1;
+		if (attempts < MAX_FAILED_ATTEMPTS) {
+			failedAttempts.put(flag, attempts);
+			instrumentationFlags.remove(flag);
+			LOGGER.warn("Failed instrumenting method {} incrementally. Retrying on its next call. {}", methodName,
+					cause);
+		} else {
+			failedAttempts.remove(flag);
+			LOGGER.error("Failed instrumenting method {} incrementally. Giving up. {}", methodName, cause);
+		}
+	}
+
+	private static InstrumentationDescription createDescription(long jobID, Restriction jobRestriction,
+			Set<String> jobProbes, List<String> methods) {
+		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
+		RestrictionBuilder<?> restrictionBuilder = idBuilder.newGlobalRestriction();
+		for (String inc : jobRestriction.getPackageIncludes()) {
+			restrictionBuilder.includePackage(inc);
+		}
 
+		for (String exc : jobRestriction.getPackageExcludes()) {
+			restrictionBuilder.excludePackage(exc);
+		}
+		for (int modifier : jobRestriction.getModifierIncludes()) {
+			restrictionBuilder.includeModifier(modifier);
+		}
+
+		for (int modifier : jobRestriction.getModifierExcludes()) {
+			restrictionBuilder.excludeModifier(modifier);
+		}
+		restrictionBuilder.restrictionDone();
+
+		InstrumentationEntityBuilder<MethodScope> ieBuilder = idBuilder.newMethodScopeEntityWithId(jobID,
+				methods.toArray(new String[methods.size()]));
+
+		for (String probe : jobProbes) {
+			ieBuilder.addProbe(probe);
+		}
+		ieBuilder.addProbe(IncrementalInstrumentationProbe.MODEL_PROBE);
+		ieBuilder.entityDone();
+		return idBuilder.build();
+	}
+
+	private synchronized void startWorker() {
+		if (worker != null) {
+			return;
 		}
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				List<PendingMethod> batch = new ArrayList<>();
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						batch.add(pendingMethods.take());
+						long delay = batchDelay;
+						if (delay > 0) {
+							// coalesce the methods discovered in the meantime
+							Thread.sleep(delay);
+						}
+						pendingMethods.drainTo(batch);
+						try {
+							instrumentBatch(batch);
+						} finally {
+							releaseOutstandingMethods(batch.size());
+							batch.clear();
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "AIM-Trace-Instrumentor");
+		worker.setDaemon(true);
+		worker.start();
 	}
 
 	@Override
@@ -131,7 +403,7 @@ public final class TraceInstrumentor implements IInstrumentor {
 		for (InstrumentationEntity<TraceScope> instrumentationEntity : descr
 				.getInstrumentationEntities(TraceScope.class)) {
 			TraceScope tScope = instrumentationEntity.getScope();
-			long scopeId = idCounter++;
+			long scopeId = idCounter.getAndIncrement();
 			incrementalInstrumentationProbes.put(scopeId, instrumentationEntity.getProbesAsStrings());
 
 			Restriction restriction = new Restriction();
@@ -145,15 +417,22 @@ public final class TraceInstrumentor implements IInstrumentor {
 					instrumentationEntity, scopeId);
 			AdaptiveInstrumentationFacade.getInstance().instrument(extendedDescr);
 		}
+		startWorker();
 
 	}
 
 	@Override
 	public void undoInstrumentation() throws InstrumentationException {
-		incrementalInstrumentationProbes.clear();
-		incrementalInstrumentationRestrictions.clear();
-		instrumentationFlags.clear();
-
+		List<PendingMethod> droppedMethods = new ArrayList<>();
+		pendingMethods.drainTo(droppedMethods);
+		releaseOutstandingMethods(droppedMethods.size());
+		// a running batch checks its job while holding the facade lock
+		synchronized (AdaptiveInstrumentationFacade.getInstance()) {
+			incrementalInstrumentationProbes.clear();
+			incrementalInstrumentationRestrictions.clear();
+			instrumentationFlags.clear();
+			failedAttempts.clear();
+		}
 	}
 
 	private InstrumentationDescription getExtendedInstrumentationDescription(InstrumentationDescription descr,
@@ -309,4 +588,30 @@ public final class TraceInstrumentor implements IInstrumentor {
 		msBuilder.entityDone();
 	}
 
+	/**
+	 * Method queued for incremental instrumentation.
+	 */
+	private static final class PendingMethod {
+		private final String methodName;
+		private final long jobID;
+
+		private PendingMethod(String methodName, long jobID) {
+			this.methodName = methodName;
+			this.jobID = jobID;
+		}
+	}
+
+	/**
+	 * Instruments a list of methods of an incremental instrumentation job.
+	 */
+	interface BatchInstrumentation {
+		/**
+		 * 
+		 * @param methods
+		 *            methods to instrument
+		 * @throws InstrumentationException
+		 *             if instrumentation fails
+		 */
+		void instrument(List<String> methods) throws InstrumentationException;
+	}
 }
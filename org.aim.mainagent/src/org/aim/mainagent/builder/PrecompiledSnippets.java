@@ -0,0 +1,238 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.builder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * Probe snippets which have been generated at build time (see
+ * {@link SnippetGenerator}). The snippets are stored in the resource
+ * {@link #RESOURCE} as XML properties. Each snippet is stored together with
+ * the checksum of the class file of its probe, thus, snippets of modified
+ * probes are not used.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+final class PrecompiledSnippets {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(PrecompiledSnippets.class);
+
+	/**
+	 * Name of the resource containing precompiled snippets.
+	 */
+	static final String RESOURCE = "META-INF/aim/probeSnippets.xml";
+
+	private static final String CHECKSUM = ".checksum";
+	private static final String BEFORE = ".before.";
+	private static final String AFTER = ".after.";
+	private static final String INCREMENTAL = ".incremental";
+	private static final String METHOD_NAMES = ".methodNames";
+	private static final String CODE = ".code";
+	private static final String METHOD_NAME_SEPARATOR = ",";
+
+	private final Properties properties = new Properties();
+
+	/**
+	 * Loads all precompiled snippet resources visible to the given class
+	 * loader.
+	 * 
+	 * @param classLoader
+	 *            class loader to load the resources from
+	 * @return precompiled snippets
+	 */
+	static PrecompiledSnippets load(ClassLoader classLoader) {
+		PrecompiledSnippets snippets = new PrecompiledSnippets();
+		try {
+			Enumeration<URL> resources = classLoader == null ? ClassLoader.getSystemResources(RESOURCE)
+					: classLoader.getResources(RESOURCE);
+			while (resources.hasMoreElements()) {
+				URL resource = resources.nextElement();
+				try (InputStream iStream = resource.openStream()) {
+					snippets.read(iStream);
+				} catch (IOException e) {
+					LOGGER.warn("Failed loading precompiled probe snippets from {}. Error: {}", resource, e);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Failed looking up precompiled probe snippets. Error: {}", e);
+		}
+		return snippets;
+	}
+
+	/**
+	 * Reads snippets stored by {@link #store(OutputStream)}.
+	 * 
+	 * @param iStream
+	 *            stream to read from
+	 * @throws IOException
+	 *             if reading fails
+	 */
+	void read(InputStream iStream) throws IOException {
+		Properties resourceProperties = new Properties();
+		resourceProperties.loadFromXML(iStream);
+		properties.putAll(resourceProperties);
+	}
+
+	/**
+	 * Adds the snippet of a probe. The variables of the snippet are not
+	 * stored, as they are retrieved by reflection.
+	 * 
+	 * @param probeClass
+	 *            class of the probe
+	 * @param snippet
+	 *            snippet of the probe
+	 * @throws IOException
+	 *             if the class file of the probe cannot be read
+	 */
+	void add(Class<?> probeClass, MultiSnippet snippet) throws IOException {
+		String prefix = probeClass.getName();
+		properties.setProperty(prefix + CHECKSUM, String.valueOf(checksum(probeClass)));
+		addParts(prefix + BEFORE, snippet.getBeforePart());
+		addParts(prefix + AFTER, snippet.getAfterPart());
+		if (!snippet.getIncrementalPart().isEmpty()) {
+			properties.setProperty(prefix + INCREMENTAL, snippet.getIncrementalPart());
+		}
+	}
+
+	/**
+	 * Returns the precompiled snippet of the given probe.
+	 * 
+	 * @param probeClass
+	 *            class of the probe
+	 * @return snippet without variables, or null if no up-to-date snippet
+	 *         has been precompiled for this probe
+	 */
+	MultiSnippet get(Class<?> probeClass) {
+		String prefix = probeClass.getName();
+		String storedChecksum = properties.getProperty(prefix + CHECKSUM);
+		if (storedChecksum == null) {
+			return null;
+		}
+		try {
+			if (Long.parseLong(storedChecksum) != checksum(probeClass)) {
+				LOGGER.debug("Precompiled snippet of probe {} is outdated.", prefix);
+				return null;
+			}
+		} catch (IOException | NumberFormatException e) {
+			LOGGER.debug("Cannot validate precompiled snippet of probe {}. Error: {}", prefix, e);
+			return null;
+		}
+
+		MultiSnippet snippet = new MultiSnippet();
+		readParts(prefix + BEFORE, snippet.getBeforePart());
+		readParts(prefix + AFTER, snippet.getAfterPart());
+		String incrementalPart = properties.getProperty(prefix + INCREMENTAL);
+		if (incrementalPart != null) {
+			snippet.setIncrementalPart(incrementalPart);
+		}
+		return snippet;
+	}
+
+	/**
+	 * Stores the snippets as XML properties.
+	 * 
+	 * @param oStream
+	 *            stream to write to
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void store(OutputStream oStream) throws IOException {
+		properties.storeToXML(oStream, "Precompiled AIM probe snippets");
+	}
+
+	private void addParts(String prefix, Map<Set<String>, String> parts) {
+		int index = 0;
+		for (Entry<Set<String>, String> part : parts.entrySet()) {
+			StringBuilder methodNames = new StringBuilder();
+			for (String methodName : part.getKey()) {
+				if (methodNames.length() > 0) {
+					methodNames.append(METHOD_NAME_SEPARATOR);
+				}
+				methodNames.append(methodName);
+			}
+			properties.setProperty(prefix + index + METHOD_NAMES, methodNames.toString());
+			properties.setProperty(prefix + index + CODE, part.getValue());
+			index++;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readParts(String prefix, Map<Set<String>, String> parts) {
+		for (int index = 0;; index++) {
+			String code = properties.getProperty(prefix + index + CODE);
+			if (code == null) {
+				return;
+			}
+			String methodNames = properties.getProperty(prefix + index + METHOD_NAMES, "");
+			Set<String> nameRequirements = Collections.EMPTY_SET;
+			if (!methodNames.isEmpty()) {
+				nameRequirements = new HashSet<>();
+				for (String methodName : methodNames.split(METHOD_NAME_SEPARATOR)) {
+					nameRequirements.add(methodName);
+				}
+			}
+			parts.put(nameRequirements, code);
+		}
+	}
+
+	/**
+	 * Calculates the checksum of the class file of the given class.
+	 * 
+	 * @param clazz
+	 *            class of interest
+	 * @return CRC32 checksum of the class file
+	 * @throws IOException
+	 *             if the class file cannot be read
+	 */
+	static long checksum(Class<?> clazz) throws IOException {
+		String classFile = clazz.getName().replace('.', '/') + ".class";
+		ClassLoader classLoader = clazz.getClassLoader();
+		InputStream iStream = classLoader == null ? ClassLoader.getSystemResourceAsStream(classFile) : classLoader
+				.getResourceAsStream(classFile);
+		if (iStream == null) {
+			throw new IOException("Class file of " + clazz.getName() + " not found.");
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count = iStream.read(buffer);
+			while (count >= 0) {
+				bytes.write(buffer, 0, count);
+				count = iStream.read(buffer);
+			}
+			CRC32 crc = new CRC32();
+			crc.update(bytes.toByteArray());
+			return crc.getValue();
+		} finally {
+			iStream.close();
+		}
+	}
+}
@@ -20,6 +20,9 @@ import java.util.Set;
 
 import org.aim.api.exceptions.InstrumentationException;
 import org.aim.api.instrumentation.AbstractEnclosingProbe;
+import org.aim.api.instrumentation.AdaptiveSampler;
+import org.aim.api.instrumentation.InvocationStatistics;
+import org.aim.mainagent.OverheadGuard;
 import org.lpe.common.util.LpeNumericUtils;
 import org.lpe.common.util.LpeSupportedTypes;
 
@@ -36,6 +39,8 @@ public class ProbeBuilder {
 	private static final String GRANULARITY_AFTER_PART = "}\n";
 
 	private final boolean useGranularity;
+	private final String samplingInitPart;
+	private final int statisticsId;
 
 	private String methodSignature;
 
@@ -43,22 +48,43 @@ public class ProbeBuilder {
 	private final Set<Class<? extends AbstractEnclosingProbe>> injectedProbeTypes;
 
 	/**
-	 * Constructor.
+	 * Constructor. If adaptive sampling is enabled (see
+	 * {@link AdaptiveSampler}), calls are sampled with an adaptive
+	 * probability bounded by the granularity. Otherwise, the granularity
+	 * determines the fraction of threads whose calls are measured. If the
+	 * {@link OverheadGuard} is enabled, the invocations of the method and the
+	 * time spent in its probes are recorded (see {@link InvocationStatistics}).
 	 * 
 	 * @param methodSignature
 	 *            target method to instrument
+	 * @param granularity
+	 *            fraction of calls to measure
 	 */
 	public ProbeBuilder(String methodSignature, double granularity) {
 		this.methodSignature = methodSignature;
 		injectedProbeTypes = new HashSet<>();
+		statisticsId = OverheadGuard.getInstance().isEnabled() ? InvocationStatistics.register(methodSignature) : -1;
 
-		int[] granNumDenom = LpeNumericUtils.getFractionFromDouble(granularity);
-		GRANULARITY_BEFORE_PART = "\nif(_GenericProbe_threadId % " + granNumDenom[1] + " < " + granNumDenom[0] + ") {";
-
-		if (granNumDenom[0] < granNumDenom[1]) {
+		if (AdaptiveSampler.isEnabled()) {
+			int samplerId = AdaptiveSampler.register(methodSignature, granularity);
+			samplingInitPart = "\n_GenericProbe_samplingWeight=org.aim.api.instrumentation.AdaptiveSampler.sample("
+					+ samplerId + ");";
+			GRANULARITY_BEFORE_PART = "\nif(_GenericProbe_samplingWeight > 0.0) {";
 			useGranularity = true;
 		} else {
-			useGranularity = false;
+			int[] granNumDenom = LpeNumericUtils.getFractionFromDouble(granularity);
+			GRANULARITY_BEFORE_PART = "\nif(_GenericProbe_threadId % " + granNumDenom[1] + " < " + granNumDenom[0]
+					+ ") {";
+
+			if (granNumDenom[0] < granNumDenom[1]) {
+				useGranularity = true;
+				// weight of the calls of a measured thread
+				double weight = granNumDenom[0] > 0 ? (double) granNumDenom[1] / granNumDenom[0] : 1.0;
+				samplingInitPart = GRANULARITY_INIT_PART + "\n_GenericProbe_samplingWeight=" + weight + ";";
+			} else {
+				useGranularity = false;
+				samplingInitPart = "\n_GenericProbe_samplingWeight=1.0;";
+			}
 		}
 	}
 
@@ -102,6 +128,7 @@ public class ProbeBuilder {
 		String beforePart = mSnippet.getBeforePart(methodSignature) + currentSnippet.getBeforePart();
 		String afterPart = currentSnippet.getAfterPart() + mSnippet.getAfterPart(methodSignature);
 
+		String initPart = "";
 		if (useGranularity) {
 			StringBuilder initPartBuilder = new StringBuilder();
 			for (String var : mSnippet.getVariables().keySet()) {
@@ -129,10 +156,24 @@ public class ProbeBuilder {
 				initPartBuilder.append(";");
 			}
 
-			beforePart = initPartBuilder.toString() + GRANULARITY_INIT_PART + GRANULARITY_BEFORE_PART + beforePart
-					+ GRANULARITY_AFTER_PART;
+			initPart = initPartBuilder.toString();
+			beforePart = GRANULARITY_BEFORE_PART + beforePart + GRANULARITY_AFTER_PART;
 			afterPart = GRANULARITY_BEFORE_PART + afterPart + GRANULARITY_AFTER_PART;
 		}
+		beforePart = samplingInitPart + beforePart;
+
+		if (statisticsId >= 0) {
+			// measures the time spent in the probe code for the overhead guard
+			beforePart = "\n_GenericProbe_probeTimeStart=org.aim.api.instrumentation.InvocationStatistics.enter("
+					+ statisticsId + ");" + beforePart + "\n_GenericProbe_probeTime=0L;"
+					+ "\nif(_GenericProbe_probeTimeStart != 0L) {"
+					+ "_GenericProbe_probeTime=System.nanoTime()-_GenericProbe_probeTimeStart;}";
+			afterPart = "\nif(_GenericProbe_probeTimeStart != 0L) {_GenericProbe_probeTimeStart=System.nanoTime();}"
+					+ afterPart + "\nif(_GenericProbe_probeTimeStart != 0L) {"
+					+ "org.aim.api.instrumentation.InvocationStatistics.exit(" + statisticsId
+					+ ", _GenericProbe_probeTime+System.nanoTime()-_GenericProbe_probeTimeStart);}\n";
+		}
+		beforePart = initPart + beforePart;
 
 		beforePart = beforePart.replace(AbstractEnclosingProbe.METHOD_SIGNATURE_PLACE_HOLDER, "\"" + methodSignature
 				+ "\"");
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.builder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.aim.api.exceptions.InstrumentationException;
+import org.aim.api.instrumentation.AbstractEnclosingProbeExtension;
+import org.aim.api.instrumentation.GenericProbe;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * Generates the snippets of all probes on the classpath at build time (see
+ * {@link PrecompiledSnippets}). Probes are looked up from the probe
+ * extensions listed in the {@value #EXTENSIONS_RESOURCE} resources. Hence,
+ * the agent does not need to decompile these probes at runtime.
+ * 
+ * Usage: {@code SnippetGenerator <output file>}
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class SnippetGenerator {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(SnippetGenerator.class);
+
+	private static final String EXTENSIONS_RESOURCE = "plugins/extensions.info";
+
+	/**
+	 * Private constructor for utility class.
+	 */
+	private SnippetGenerator() {
+	}
+
+	/**
+	 * Generates the snippets.
+	 * 
+	 * @param args
+	 *            path of the file to write the snippets to
+	 * @throws IOException
+	 *             if the snippets cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: SnippetGenerator <output file>");
+			System.exit(1);
+		}
+
+		ClassLoader classLoader = SnippetGenerator.class.getClassLoader();
+		Set<Class<?>> probeClasses = findProbeClasses(classLoader);
+
+		PrecompiledSnippets snippets = new PrecompiledSnippets();
+		int generated = 0;
+		for (Class<?> probeClass : probeClasses) {
+			try {
+				snippets.add(probeClass, SnippetProvider.getInstance().decompileSnippet(probeClass));
+				generated++;
+			} catch (InstrumentationException | IOException e) {
+				LOGGER.warn("Failed generating snippet for probe {}, it will be decompiled at runtime. Error: {}",
+						probeClass.getName(), e);
+			}
+		}
+
+		File outputFile = new File(args[0]);
+		if (outputFile.getParentFile() != null) {
+			outputFile.getParentFile().mkdirs();
+		}
+		try (OutputStream oStream = new FileOutputStream(outputFile)) {
+			snippets.store(oStream);
+		}
+		LOGGER.info("Generated snippets for {} of {} probes.", generated, probeClasses.size());
+	}
+
+	private static Set<Class<?>> findProbeClasses(ClassLoader classLoader) throws IOException {
+		Set<Class<?>> probeClasses = new LinkedHashSet<>();
+		probeClasses.add(GenericProbe.class);
+
+		Enumeration<URL> resources = classLoader.getResources(EXTENSIONS_RESOURCE);
+		while (resources.hasMoreElements()) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(resources.nextElement()
+					.openStream()))) {
+				String line = reader.readLine();
+				while (line != null) {
+					String extensionName = line.trim();
+					if (!extensionName.isEmpty()) {
+						addProbeClass(classLoader, extensionName, probeClasses);
+					}
+					line = reader.readLine();
+				}
+			}
+		}
+		return probeClasses;
+	}
+
+	private static void addProbeClass(ClassLoader classLoader, String extensionName, Set<Class<?>> probeClasses) {
+		try {
+			Class<?> extensionClass = Class.forName(extensionName, false, classLoader);
+			if (AbstractEnclosingProbeExtension.class.isAssignableFrom(extensionClass)) {
+				AbstractEnclosingProbeExtension extension = (AbstractEnclosingProbeExtension) extensionClass
+						.newInstance();
+				probeClasses.add(extension.getProbeClass());
+			}
+		} catch (ReflectiveOperationException | LinkageError e) {
+			LOGGER.warn("Cannot load extension {}. Error: {}", extensionName, e);
+		}
+	}
+}
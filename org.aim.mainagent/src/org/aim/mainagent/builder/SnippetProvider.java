@@ -41,6 +41,8 @@ import org.aim.api.instrumentation.ProbeAfterPart;
 import org.aim.api.instrumentation.ProbeBeforePart;
 import org.aim.api.instrumentation.ProbeIncrementalInstrumentation;
 import org.aim.api.instrumentation.ProbeVariable;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
 import org.apache.tools.ant.filters.StringInputStream;
 
 import com.strobel.decompiler.Decompiler;
@@ -48,12 +50,28 @@ import com.strobel.decompiler.DecompilerSettings;
 import com.strobel.decompiler.PlainTextOutput;
 
 /**
- * Provides single snippets for different probes.
+ * Provides single snippets for different probes. Snippets are taken from the
+ * precompiled snippets generated at build time (see {@link SnippetGenerator}).
+ * Probes without an up-to-date precompiled snippet, e.g. probes of third-party
+ * plugins, are decompiled at runtime.
  * 
  * @author Alexander Wert
  * 
  */
 public final class SnippetProvider {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(SnippetProvider.class);
+	private static final Map<Class<?>, Class<?>> WRAPPER_TYPES = new HashMap<Class<?>, Class<?>>();
+	static {
+		WRAPPER_TYPES.put(Boolean.class, boolean.class);
+		WRAPPER_TYPES.put(Byte.class, byte.class);
+		WRAPPER_TYPES.put(Character.class, char.class);
+		WRAPPER_TYPES.put(Short.class, short.class);
+		WRAPPER_TYPES.put(Integer.class, int.class);
+		WRAPPER_TYPES.put(Long.class, long.class);
+		WRAPPER_TYPES.put(Float.class, float.class);
+		WRAPPER_TYPES.put(Double.class, double.class);
+	}
+
 	private static SnippetProvider instance;
 
 	public static final String METHOD_NAME_REQUIREMENT_KEY = "requiredMethodName";
@@ -63,7 +81,7 @@ public final class SnippetProvider {
 	 * 
 	 * @return singleton
 	 */
-	public static SnippetProvider getInstance() {
+	public static synchronized SnippetProvider getInstance() {
 		if (instance == null) {
 			instance = new SnippetProvider();
 		}
@@ -71,6 +89,7 @@ public final class SnippetProvider {
 	}
 
 	private MultiSnippet genericSnippet = null;
+	private PrecompiledSnippets precompiledSnippets = null;
 	private final Map<Class<? extends AbstractEnclosingProbe>, MultiSnippet> snippets;
 
 	private SnippetProvider() {
@@ -87,7 +106,8 @@ public final class SnippetProvider {
 	 * @throws InstrumentationException
 	 *             if snippet cannot be retrieved
 	 */
-	public MultiSnippet getSnippet(Class<? extends AbstractEnclosingProbe> probeType) throws InstrumentationException {
+	public synchronized MultiSnippet getSnippet(Class<? extends AbstractEnclosingProbe> probeType)
+			throws InstrumentationException {
 		if (snippets.containsKey(probeType)) {
 
 			return snippets.get(probeType);
@@ -105,7 +125,7 @@ public final class SnippetProvider {
 	 * @throws InstrumentationException
 	 *             if snippet cannot be retrieved
 	 */
-	public MultiSnippet getGenericSnippet() throws InstrumentationException {
+	public synchronized MultiSnippet getGenericSnippet() throws InstrumentationException {
 		if (genericSnippet == null) {
 			genericSnippet = createSnippet(GenericProbe.class);
 		}
@@ -113,12 +133,19 @@ public final class SnippetProvider {
 	}
 
 	private MultiSnippet createSnippet(Class<?> probeClass) throws InstrumentationException {
+		if (precompiledSnippets == null) {
+			precompiledSnippets = PrecompiledSnippets.load(SnippetProvider.class.getClassLoader());
+		}
 
-		MultiSnippet snippet = new MultiSnippet();
+		MultiSnippet snippet = precompiledSnippets.get(probeClass);
+		if (snippet == null) {
+			LOGGER.debug("No precompiled snippet found for probe {}. Decompiling probe.", probeClass.getName());
+			snippet = decompileSnippet(probeClass);
+		}
 
-		setInjectionCode(probeClass, snippet);
 		for (Field field : probeClass.getFields()) {
 			if (field.isAnnotationPresent(ProbeVariable.class)) {
+				validateProbeVariable(probeClass, field);
 				snippet.getVariables().put(field.getName(), field.getType());
 			}
 		}
@@ -126,6 +153,36 @@ public final class SnippetProvider {
 		return snippet;
 	}
 
+	/**
+	 * Creates the snippet of the given probe by decompiling the probe class.
+	 * The variables of the snippet are not set.
+	 * 
+	 * @param probeClass
+	 *            probe to decompile
+	 * @return snippet without variables
+	 * @throws InstrumentationException
+	 *             if the probe cannot be decompiled
+	 */
+	MultiSnippet decompileSnippet(Class<?> probeClass) throws InstrumentationException {
+		MultiSnippet snippet = new MultiSnippet();
+		setInjectionCode(probeClass, snippet);
+		return snippet;
+	}
+
+	/**
+	 * Probe variables become local variables of each instrumented method.
+	 * Boxed types cause an allocation on each assignment, thus, a warning is
+	 * logged for probe variables which should be primitive.
+	 */
+	private void validateProbeVariable(Class<?> probeClass, Field field) {
+		Class<?> primitiveType = WRAPPER_TYPES.get(field.getType());
+		if (primitiveType != null) {
+			LOGGER.warn("Probe variable {} of probe {} is of boxed type {}, which causes allocations on each "
+					+ "invocation of an instrumented method. Use {} instead.", field.getName(), probeClass.getName(),
+					field.getType().getSimpleName(), primitiveType.getName());
+		}
+	}
+
 	private void setInjectionCode(Class<?> probeClass, MultiSnippet snippet) throws InstrumentationException {
 		try {
 			DecompilerSettings dcSettings = new DecompilerSettings();
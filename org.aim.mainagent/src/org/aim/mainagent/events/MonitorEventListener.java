@@ -15,6 +15,9 @@
  */
 package org.aim.mainagent.events;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.aim.api.events.IMonitorEventProbe;
 
 
@@ -40,9 +43,49 @@ public final class MonitorEventListener implements IEventListener<IMonitorEventP
 		return instance;
 	}
 
+	/**
+	 * Probe instances reused for buffered events. Only accessed by the thread
+	 * draining the event buffer.
+	 */
+	private final Map<Class<? extends IMonitorEventProbe>, IMonitorEventProbe> probes = new HashMap<>();
+
 	private MonitorEventListener() {
 	}
 
+	/**
+	 * Event callback for an event drained from the event buffer of the C
+	 * agent. In contrast to the other callbacks, the probe instances are
+	 * reused, thus, this method must only be called by a single thread.
+	 * 
+	 * @param eventType
+	 *            type of the event (see {@link IMonitorEventProbe})
+	 * @param threadId
+	 *            id of the thread
+	 * @param monitorLocation
+	 *            class name and identity hash code of the monitor
+	 * @param timestamp
+	 *            timestamp in nanoseconds
+	 */
+	public void onMonitorEvent(String eventType, long threadId, String monitorLocation, long timestamp) {
+		for (Class<? extends IMonitorEventProbe> probeClass : EventProbeRegistry.getInstance()
+				.getProbeClasses(getClass())) {
+			try {
+				IMonitorEventProbe probe = probes.get(probeClass);
+				if (probe == null) {
+					probe = probeClass.newInstance();
+					probes.put(probeClass, probe);
+				}
+				probe.setThreadId(threadId);
+				probe.setMonitorLocation(monitorLocation);
+				probe.setEventTimeStamp(timestamp);
+				probe.setEventType(eventType);
+				probe.proceed();
+			} catch (InstantiationException | IllegalAccessException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
 	/**
 	 * Event callback when a thread starts waiting for a monitor.
 	 * 
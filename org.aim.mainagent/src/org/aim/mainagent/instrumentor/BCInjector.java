@@ -15,13 +15,22 @@
  */
 package org.aim.mainagent.instrumentor;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javassist.CannotCompileException;
 import javassist.CtBehavior;
@@ -48,6 +57,13 @@ import org.aim.mainagent.utils.Utils;
 public final class BCInjector {
 	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(BCInjector.class);
 
+	/**
+	 * Property key for the number of threads weaving classes in parallel.
+	 */
+	public static final String WEAVING_THREADS_KEY = "org.aim.weaving.threads";
+
+	public static final int DEFAULT_WEAVING_THREADS = Runtime.getRuntime().availableProcessors();
+
 	private static BCInjector instance;
 
 	/**
@@ -62,15 +78,75 @@ public final class BCInjector {
 		return instance;
 	}
 
+	/**
+	 * Configures the number of weaving threads from the agent properties.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		int threads = DEFAULT_WEAVING_THREADS;
+		if (properties != null) {
+			String threadsValue = properties.getProperty(WEAVING_THREADS_KEY);
+			if (threadsValue != null) {
+				try {
+					threads = Integer.parseInt(threadsValue.trim());
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Invalid number of weaving threads {}. Using default value {}.", threadsValue,
+							DEFAULT_WEAVING_THREADS);
+				}
+			}
+		}
+		getInstance().setWeavingThreads(threads);
+	}
+
 	private final Map<Class<?>, byte[]> originalByteCodes;
+	private int weavingThreads = DEFAULT_WEAVING_THREADS;
+	private ExecutorService weavingExecutor;
 
 	private BCInjector() {
 
 		originalByteCodes = new HashMap<>();
 	}
 
+	/**
+	 * Sets the number of threads weaving classes in parallel.
+	 * 
+	 * @param threads
+	 *            number of threads, a value of 1 or less weaves the classes
+	 *            in the calling thread
+	 */
+	public synchronized void setWeavingThreads(int threads) {
+		weavingThreads = Math.max(threads, 1);
+		if (weavingExecutor != null) {
+			weavingExecutor.shutdown();
+			weavingExecutor = null;
+		}
+	}
+
+	private ExecutorService getWeavingExecutor() {
+		if (weavingThreads <= 1) {
+			return null;
+		}
+		if (weavingExecutor == null) {
+			weavingExecutor = Executors.newFixedThreadPool(weavingThreads, new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "AIM-Weaver-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return weavingExecutor;
+	}
+
 	/**
 	 * Injects bytecode according to the passed instrumentation description.
+	 * The classes are woven in parallel by the weaving threads (see
+	 * {@link #WEAVING_THREADS_KEY}).
 	 * 
 	 * @param instrumentationSet
 	 *            aggregated instrumentation description
@@ -81,35 +157,48 @@ public final class BCInjector {
 	public synchronized Map<Class<?>, byte[]> injectInstrumentationProbes(InstrumentationSet instrumentationSet,
 			Restriction instrumentationRestriction) {
 		Map<Class<?>, byte[]> classesToRedefine = new HashMap<Class<?>, byte[]>();
-		for (Class<?> clazz : instrumentationSet.classesToInstrument()) {
-			try {
-				CtClass ctClass = JavassistWrapper.getInstance().getCtClass(clazz);
-				if (ctClass == null) {
-					LOGGER.warn("No CtClass found for class {}. Skipping this class for instrumentation.",
-							clazz.getCanonicalName());
-					continue;
+		Map<Class<?>, WeavingResult> results = new HashMap<>();
+		ExecutorService executor = getWeavingExecutor();
+		if (executor == null) {
+			for (Class<?> clazz : instrumentationSet.classesToInstrument()) {
+				try {
+					results.put(clazz, new WeavingTask(clazz, instrumentationSet, instrumentationRestriction).call());
+				} catch (Throwable e) {
+					LOGGER.warn("Error ocured during instrumentation. Ignoring this error... {}", e);
 				}
-				byte[] originalByteCode = ctClass.toBytecode();
-
-				if (ctClass.isFrozen()) {
-					ctClass.defrost();
-				}
-				for (Entry<String, Set<Long>> methodEntry : instrumentationSet.methodsToInstrument(clazz).entrySet()) {
-					instrumentBehaviour(instrumentationSet.probesToInject(methodEntry.getKey()), ctClass,
-							methodEntry.getKey(), methodEntry.getValue(), instrumentationRestriction);
+			}
+		} else {
+			Map<Class<?>, Future<WeavingResult>> futures = new HashMap<>();
+			for (Class<?> clazz : instrumentationSet.classesToInstrument()) {
+				futures.put(clazz,
+						executor.submit(new WeavingTask(clazz, instrumentationSet, instrumentationRestriction)));
+			}
+			for (Entry<Class<?>, Future<WeavingResult>> futureEntry : futures.entrySet()) {
+				try {
+					results.put(futureEntry.getKey(), futureEntry.getValue().get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					LOGGER.warn("Interrupted while waiting for the instrumentation of class {}", futureEntry.getKey()
+							.getName());
+				} catch (ExecutionException e) {
+					LOGGER.warn("Error ocured during instrumentation. Ignoring this error... {}", e.getCause());
 				}
-				ctClass.freeze();
+			}
+		}
 
-				if (!originalByteCodes.containsKey(clazz)) {
-					originalByteCodes.put(clazz, originalByteCode);
-				}
-				classesToRedefine.put(clazz, ctClass.toBytecode());
-			} catch (Throwable e) {
-				LOGGER.warn("Error ocured during instrumentation. Ignoring this error... {}", e);
-				// throw new RuntimeException(e);
-				// TODO: continue; ????
+		for (Entry<Class<?>, WeavingResult> resultEntry : results.entrySet()) {
+			WeavingResult result = resultEntry.getValue();
+			if (result == null) {
+				continue;
 			}
+			if (!originalByteCodes.containsKey(resultEntry.getKey())) {
+				originalByteCodes.put(resultEntry.getKey(), result.originalByteCode);
+			}
+			classesToRedefine.put(resultEntry.getKey(), result.instrumentedByteCode);
 		}
+		// the class pools of a pass are not reused, as they cache all
+		// classes referenced by the woven classes
+		JavassistWrapper.getInstance().clear();
 		return classesToRedefine;
 	}
 
@@ -125,10 +214,6 @@ public final class BCInjector {
 		for (Class<?> clazz : classes) {
 			try {
 				if (originalByteCodes.containsKey(clazz)) {
-					CtClass ctClass = JavassistWrapper.getInstance().getCtClass(clazz);
-					if (ctClass != null) {
-						ctClass.detach();
-					}
 					classesToRedefine.put(clazz, originalByteCodes.get(clazz));
 					originalByteCodes.remove(clazz);
 				}
@@ -151,6 +236,58 @@ public final class BCInjector {
 		return partlyRevertInstrumentation(classes);
 	}
 
+	/**
+	 * Registers the original bytecode of a class which has been instrumented
+	 * while it was loaded (see {@link LoadTimeWeaver}), thus, the
+	 * instrumentation of the class can be reverted.
+	 * 
+	 * @param clazz
+	 *            instrumented class
+	 * @param originalByteCode
+	 *            bytecode of the class before the instrumentation
+	 */
+	public synchronized void registerOriginalByteCode(Class<?> clazz, byte[] originalByteCode) {
+		if (!originalByteCodes.containsKey(clazz)) {
+			originalByteCodes.put(clazz, originalByteCode);
+		}
+	}
+
+	/**
+	 * Weaves the probes into the given class. This method does not lock the
+	 * injector, as it is also called while classes are loaded.
+	 * 
+	 * @param ctClass
+	 *            class to instrument
+	 * @param methodsToInstrument
+	 *            signatures of the behaviours to instrument mapped to the ids
+	 *            of the corresponding scopes
+	 * @param probesToInject
+	 *            signatures of the behaviours to instrument mapped to the
+	 *            probe types to inject
+	 * @param instrumentationRestriction
+	 *            restriction
+	 * @return instrumented bytecode
+	 * @throws InstrumentationException
+	 *             thrown if instrumentation fails
+	 */
+	public byte[] weaveClass(CtClass ctClass, Map<String, Set<Long>> methodsToInstrument,
+			Map<String, Set<Class<? extends AbstractEnclosingProbe>>> probesToInject,
+			Restriction instrumentationRestriction) throws InstrumentationException {
+		if (ctClass.isFrozen()) {
+			ctClass.defrost();
+		}
+		for (Entry<String, Set<Long>> methodEntry : methodsToInstrument.entrySet()) {
+			instrumentBehaviour(probesToInject.get(methodEntry.getKey()), ctClass, methodEntry.getKey(),
+					methodEntry.getValue(), instrumentationRestriction);
+		}
+		ctClass.freeze();
+		try {
+			return ctClass.toBytecode();
+		} catch (IOException | CannotCompileException e) {
+			throw new InstrumentationException("Failed weaving class " + ctClass.getName(), e);
+		}
+	}
+
 	/**
 	 * Instruments the behaviour.
 	 * 
@@ -205,4 +342,67 @@ public final class BCInjector {
 		}
 
 	}
+
+	/**
+	 * Original and instrumented bytecode of a class.
+	 */
+	private static final class WeavingResult {
+		private final byte[] originalByteCode;
+		private final byte[] instrumentedByteCode;
+
+		private WeavingResult(byte[] originalByteCode, byte[] instrumentedByteCode) {
+			this.originalByteCode = originalByteCode;
+			this.instrumentedByteCode = instrumentedByteCode;
+		}
+	}
+
+	/**
+	 * Weaves the probes into a single class. A task leases a class pool from
+	 * the {@link JavassistWrapper} and releases the woven class afterwards,
+	 * thus, the pool always provides the original class.
+	 */
+	private final class WeavingTask implements Callable<WeavingResult> {
+		private final Class<?> clazz;
+		private final InstrumentationSet instrumentationSet;
+		private final Restriction instrumentationRestriction;
+
+		private WeavingTask(Class<?> clazz, InstrumentationSet instrumentationSet, Restriction instrumentationRestriction) {
+			this.clazz = clazz;
+			this.instrumentationSet = instrumentationSet;
+			this.instrumentationRestriction = instrumentationRestriction;
+		}
+
+		@Override
+		public WeavingResult call() throws Exception {
+			CtClass ctClass = JavassistWrapper.getInstance().getCtClass(clazz);
+			if (ctClass == null) {
+				LOGGER.warn("No CtClass found for class {}. Skipping this class for instrumentation.",
+						clazz.getCanonicalName());
+				return null;
+			}
+			try {
+				byte[] originalByteCode = ctClass.toBytecode();
+
+				Map<String, Set<Long>> methodsToInstrument = instrumentationSet.methodsToInstrument(clazz);
+				Map<String, Set<Class<? extends AbstractEnclosingProbe>>> probesToInject = new HashMap<>();
+				for (String methodSignature : methodsToInstrument.keySet()) {
+					probesToInject.put(methodSignature, instrumentationSet.probesToInject(methodSignature));
+				}
+				BytecodeCache.Key cacheKey = new BytecodeCache.Key(clazz, originalByteCode, methodsToInstrument,
+						probesToInject, instrumentationRestriction);
+				byte[] instrumentedByteCode = BytecodeCache.getInstance().get(cacheKey, originalByteCode);
+
+				if (instrumentedByteCode == null) {
+					instrumentedByteCode = weaveClass(ctClass, methodsToInstrument, probesToInject,
+							instrumentationRestriction);
+					BytecodeCache.getInstance().put(cacheKey, originalByteCode, instrumentedByteCode);
+				} else {
+					LOGGER.debug("Using cached bytecode for class {}", clazz.getName());
+				}
+				return new WeavingResult(originalByteCode, instrumentedByteCode);
+			} finally {
+				JavassistWrapper.getInstance().release(ctClass);
+			}
+		}
+	}
 }
@@ -0,0 +1,401 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.instrumentor;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+
+import org.aim.api.instrumentation.AbstractEnclosingProbe;
+import org.aim.api.instrumentation.AdaptiveSampler;
+import org.aim.api.instrumentation.InvocationStatistics;
+import org.aim.description.restrictions.Restriction;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+
+/**
+ * Cache of instrumented bytecode. An entry is identified by the class name
+ * and class loader, the original bytecode, the instrumented methods with
+ * their probes and the instrumentation restriction. Hence, applying the same
+ * instrumentation again does not require to weave the probes again. As woven
+ * probes contain the ids of the methods in the {@link InvocationStatistics}
+ * and the {@link AdaptiveSampler}, an entry is also bound to the epochs of
+ * these registries and is not reused once the ids have been reset.
+ * 
+ * The cache is bounded by the number of bytes of the cached bytecode
+ * ({@link #MAX_BYTES_KEY}). The least recently used entries are evicted
+ * first. Class loaders are referenced weakly, the entries of collected class
+ * loaders are removed. The cache is cleared when the instrumentation is
+ * undone, unless it is configured to retain the entries for repeated
+ * instrumentations ({@link #RETAIN_ON_UNDO_KEY}).
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class BytecodeCache {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(BytecodeCache.class);
+
+	/**
+	 * Property key for the maximum number of bytes of cached bytecode. A
+	 * value of 0 disables the cache.
+	 */
+	public static final String MAX_BYTES_KEY = "org.aim.bytecodeCache.maxBytes";
+
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024L * 1024L;
+
+	/**
+	 * Property key for keeping the cached bytecode when the instrumentation
+	 * is undone.
+	 */
+	public static final String RETAIN_ON_UNDO_KEY = "org.aim.bytecodeCache.retainOnUndo";
+
+	private static BytecodeCache instance;
+
+	/**
+	 * Returns singleton instance.
+	 * 
+	 * @return singleton
+	 */
+	public static synchronized BytecodeCache getInstance() {
+		if (instance == null) {
+			instance = new BytecodeCache();
+		}
+		return instance;
+	}
+
+	private final LinkedHashMap<Key, CachedBytecode> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final ReferenceQueue<ClassLoader> collectedLoaders = new ReferenceQueue<>();
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private boolean retainOnUndo = false;
+	private long cachedBytes = 0L;
+	private long hits = 0L;
+	private long misses = 0L;
+
+	private BytecodeCache() {
+	}
+
+	/**
+	 * Configures the memory bound from the agent properties.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		long newMaxBytes = DEFAULT_MAX_BYTES;
+		boolean newRetainOnUndo = false;
+		if (properties != null) {
+			newRetainOnUndo = Boolean.parseBoolean(properties.getProperty(RETAIN_ON_UNDO_KEY, "false").trim());
+			String maxBytesValue = properties.getProperty(MAX_BYTES_KEY);
+			if (maxBytesValue != null) {
+				try {
+					newMaxBytes = Long.parseLong(maxBytesValue.trim());
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Invalid bytecode cache size {}. Using default value {}.", maxBytesValue,
+							DEFAULT_MAX_BYTES);
+				}
+			}
+		}
+		getInstance().setMaxBytes(newMaxBytes);
+		getInstance().setRetainOnUndo(newRetainOnUndo);
+	}
+
+	/**
+	 * 
+	 * @param retainOnUndo
+	 *            true, if the cached bytecode shall be kept when the
+	 *            instrumentation is undone
+	 */
+	public synchronized void setRetainOnUndo(boolean retainOnUndo) {
+		this.retainOnUndo = retainOnUndo;
+	}
+
+	/**
+	 * Sets the maximum number of bytes of cached bytecode and evicts entries
+	 * if required.
+	 * 
+	 * @param newMaxBytes
+	 *            memory bound, a value less or equal to zero disables the
+	 *            cache
+	 */
+	public synchronized void setMaxBytes(long newMaxBytes) {
+		maxBytes = Math.max(newMaxBytes, 0L);
+		evict();
+	}
+
+	/**
+	 * Returns the cached instrumented bytecode.
+	 * 
+	 * @param key
+	 *            key of the instrumentation
+	 * @param originalByteCode
+	 *            bytecode of the class before instrumentation
+	 * @return instrumented bytecode, or null if not cached
+	 */
+	public synchronized byte[] get(Key key, byte[] originalByteCode) {
+		removeCollectedEntries();
+		CachedBytecode cached = entries.get(key);
+		if (cached == null || !Arrays.equals(cached.originalByteCode, originalByteCode)) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return cached.instrumentedByteCode;
+	}
+
+	/**
+	 * Caches instrumented bytecode.
+	 * 
+	 * @param key
+	 *            key of the instrumentation
+	 * @param originalByteCode
+	 *            bytecode of the class before instrumentation
+	 * @param instrumentedByteCode
+	 *            bytecode of the instrumented class
+	 */
+	public synchronized void put(Key key, byte[] originalByteCode, byte[] instrumentedByteCode) {
+		removeCollectedEntries();
+		long size = (long) originalByteCode.length + instrumentedByteCode.length;
+		if (size > maxBytes) {
+			return;
+		}
+		key.track(collectedLoaders);
+		CachedBytecode previous = entries.put(key, new CachedBytecode(originalByteCode, instrumentedByteCode));
+		if (previous != null) {
+			cachedBytes -= previous.size();
+		}
+		cachedBytes += size;
+		evict();
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		cachedBytes = 0L;
+		while (collectedLoaders.poll() != null) {
+			// references of removed entries
+		}
+	}
+
+	/**
+	 * Removes all entries, unless the cache is configured to retain them
+	 * (see {@link #RETAIN_ON_UNDO_KEY}). Called when the instrumentation is
+	 * undone.
+	 */
+	public synchronized void undoInstrumentation() {
+		if (retainOnUndo) {
+			removeCollectedEntries();
+		} else {
+			clear();
+		}
+	}
+
+	/**
+	 * @return number of cached classes
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return number of bytes of the cached bytecode
+	 */
+	public synchronized long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	/**
+	 * @return number of lookups which returned cached bytecode
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups which did not find cached bytecode
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private void removeCollectedEntries() {
+		LoaderReference reference = (LoaderReference) collectedLoaders.poll();
+		while (reference != null) {
+			CachedBytecode removed = entries.remove(reference.key);
+			if (removed != null) {
+				cachedBytes -= removed.size();
+			}
+			reference = (LoaderReference) collectedLoaders.poll();
+		}
+	}
+
+	private void evict() {
+		Iterator<CachedBytecode> iterator = entries.values().iterator();
+		while (cachedBytes > maxBytes && iterator.hasNext()) {
+			cachedBytes -= iterator.next().size();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Identifies the instrumentation of a class. The class is identified by
+	 * its name and its class loader, which is referenced weakly.
+	 */
+	public static final class Key {
+		private final String className;
+		private final boolean bootstrap;
+		private LoaderReference classLoader;
+		private final int loaderHash;
+		private final int originalHash;
+		private final Map<String, Set<Long>> methods;
+		private final Map<String, Set<Class<? extends AbstractEnclosingProbe>>> probes;
+		private final Restriction restriction;
+		private final double granularity;
+		private final long statisticsEpoch;
+		private final long samplerEpoch;
+		private final int hash;
+
+		/**
+		 * Constructor. The passed collections are copied. The key is bound to
+		 * the current epochs of the id registries.
+		 * 
+		 * @param clazz
+		 *            class to instrument
+		 * @param originalByteCode
+		 *            bytecode of the class before instrumentation
+		 * @param methods
+		 *            signatures of the methods to instrument with their scope
+		 *            ids
+		 * @param probes
+		 *            probes to inject per method signature
+		 * @param restriction
+		 *            instrumentation restriction
+		 */
+		public Key(Class<?> clazz, byte[] originalByteCode, Map<String, Set<Long>> methods,
+				Map<String, Set<Class<? extends AbstractEnclosingProbe>>> probes, Restriction restriction) {
+			this.className = clazz.getName();
+			ClassLoader loader = clazz.getClassLoader();
+			this.bootstrap = loader == null;
+			this.classLoader = new LoaderReference(loader, this, null);
+			this.loaderHash = System.identityHashCode(loader);
+			this.originalHash = Arrays.hashCode(originalByteCode);
+			this.methods = new HashMap<>();
+			for (Entry<String, Set<Long>> entry : methods.entrySet()) {
+				this.methods.put(entry.getKey(), new HashSet<>(entry.getValue()));
+			}
+			this.probes = new HashMap<>();
+			for (Entry<String, Set<Class<? extends AbstractEnclosingProbe>>> entry : probes.entrySet()) {
+				this.probes.put(entry.getKey(), new HashSet<>(entry.getValue()));
+			}
+			this.restriction = restriction.mergeWith(new Restriction());
+			this.granularity = restriction.getGranularity();
+			this.statisticsEpoch = InvocationStatistics.getEpoch();
+			this.samplerEpoch = AdaptiveSampler.getEpoch();
+			this.hash = computeHash();
+		}
+
+		/**
+		 * Registers the reference to the class loader, thus, the entry is
+		 * removed when the class loader has been collected.
+		 */
+		private void track(ReferenceQueue<ClassLoader> queue) {
+			ClassLoader loader = classLoader.get();
+			if (!bootstrap && loader != null) {
+				classLoader = new LoaderReference(loader, this, queue);
+			}
+		}
+
+		private boolean hasSameClass(Key other) {
+			if (bootstrap || other.bootstrap) {
+				return bootstrap == other.bootstrap && className.equals(other.className);
+			}
+			ClassLoader loader = classLoader.get();
+			return loader != null && loader == other.classLoader.get() && className.equals(other.className);
+		}
+
+		private int computeHash() {
+			final int prime = 31;
+			int result = className.hashCode();
+			result = prime * result + loaderHash;
+			result = prime * result + originalHash;
+			result = prime * result + methods.hashCode();
+			result = prime * result + probes.hashCode();
+			result = prime * result + restriction.hashCode();
+			result = prime * result + (int) (statisticsEpoch ^ (statisticsEpoch >>> 32));
+			result = prime * result + (int) (samplerEpoch ^ (samplerEpoch >>> 32));
+			long granularityBits = Double.doubleToLongBits(granularity);
+			return prime * result + (int) (granularityBits ^ (granularityBits >>> 32));
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && hasSameClass(other) && originalHash == other.originalHash
+					&& statisticsEpoch == other.statisticsEpoch && samplerEpoch == other.samplerEpoch
+					&& Double.compare(granularity, other.granularity) == 0 && methods.equals(other.methods)
+					&& probes.equals(other.probes) && restriction.equals(other.restriction);
+		}
+	}
+
+	/**
+	 * Weak reference to the class loader of a cache key.
+	 */
+	private static final class LoaderReference extends WeakReference<ClassLoader> {
+		private final Key key;
+
+		private LoaderReference(ClassLoader loader, Key key, ReferenceQueue<ClassLoader> queue) {
+			super(loader, queue);
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Original and instrumented bytecode of a class.
+	 */
+	private static final class CachedBytecode {
+		private final byte[] originalByteCode;
+		private final byte[] instrumentedByteCode;
+
+		private CachedBytecode(byte[] originalByteCode, byte[] instrumentedByteCode) {
+			this.originalByteCode = originalByteCode;
+			this.instrumentedByteCode = instrumentedByteCode;
+		}
+
+		private long size() {
+			return (long) originalByteCode.length + instrumentedByteCode.length;
+		}
+	}
+}
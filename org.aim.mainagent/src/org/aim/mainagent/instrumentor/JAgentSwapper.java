@@ -16,14 +16,23 @@
 package org.aim.mainagent.instrumentor;
 
 import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import org.aim.api.exceptions.InstrumentationException;
 import org.aim.logging.AIMLogger;
 import org.aim.logging.AIMLoggerFactory;
 
 /**
- * Responsible for swapping bytecode.
+ * Responsible for swapping bytecode. Classes are redefined in batches of
+ * {@link #BATCH_SIZE_KEY} classes, as each call to
+ * {@link Instrumentation#redefineClasses(ClassDefinition...)} requires a
+ * safepoint of the JVM. If a batch cannot be redefined, the classes of this
+ * batch are redefined one by one.
  * 
  * @author Alexander Wert
  * 
@@ -31,8 +40,18 @@ import org.aim.logging.AIMLoggerFactory;
 public final class JAgentSwapper implements BCSwapper {
 	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(JAgentSwapper.class);
 
+	/**
+	 * Property key for the maximum number of classes redefined at once. A
+	 * value of 1 redefines each class separately.
+	 */
+	public static final String BATCH_SIZE_KEY = "org.aim.redefinition.batchSize";
+
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
 	private static JAgentSwapper instance;
 
+	private static volatile int batchSize = DEFAULT_BATCH_SIZE;
+
 	/**
 	 * Returns singleton instance.
 	 * 
@@ -53,6 +72,38 @@ public final class JAgentSwapper implements BCSwapper {
 		}
 	}
 
+	/**
+	 * Configures the batch size from the agent properties.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		int newBatchSize = DEFAULT_BATCH_SIZE;
+		if (properties != null) {
+			String batchSizeValue = properties.getProperty(BATCH_SIZE_KEY);
+			if (batchSizeValue != null) {
+				try {
+					newBatchSize = Integer.parseInt(batchSizeValue.trim());
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Invalid redefinition batch size {}. Using default value {}.", batchSizeValue,
+							DEFAULT_BATCH_SIZE);
+				}
+			}
+		}
+		setBatchSize(newBatchSize);
+	}
+
+	/**
+	 * Sets the maximum number of classes redefined at once.
+	 * 
+	 * @param newBatchSize
+	 *            batch size, values less than 1 are treated as 1
+	 */
+	public static void setBatchSize(int newBatchSize) {
+		batchSize = Math.max(newBatchSize, 1);
+	}
+
 	/**
 	 * Swaps the bytecode of the given classes.
 	 * 
@@ -60,24 +111,84 @@ public final class JAgentSwapper implements BCSwapper {
 	 *            mapping from classes to new bytecodes to swap
 	 */
 	public void redefineClasses(Map<Class<?>, byte[]> newByteCodes) {
+		Instrumentation jInstrumentation;
+		try {
+			jInstrumentation = JInstrumentation.getInstance().getjInstrumentation();
+		} catch (InstrumentationException e) {
+			LOGGER.error("Failed redefining {} classes. Error: {}", newByteCodes.size(), e);
+			return;
+		}
+		redefineClasses(jInstrumentation, newByteCodes, batchSize);
+	}
 
-		int i = 0;
-		for (Class<?> clazz : newByteCodes.keySet()) {
-			try {
-				ClassDefinition cd = new ClassDefinition(clazz, newByteCodes.get(clazz));
-				LOGGER.debug("Going to redefined class: {}", clazz.getName());
-				ClassDefinition[] cdArray = new ClassDefinition[1];
-				cdArray[0] = cd;
-				JInstrumentation.getInstance().getjInstrumentation().redefineClasses(cdArray);
-				i++;
-			} catch (Throwable e) {
-				LOGGER.error("Error: {}", e);
+	/**
+	 * Swaps the bytecode of the given classes in batches.
+	 * 
+	 * @param jInstrumentation
+	 *            instrumentation used for redefining the classes
+	 * @param newByteCodes
+	 *            mapping from classes to new bytecodes to swap
+	 * @param maxBatchSize
+	 *            maximum number of classes redefined at once
+	 * @return number of redefined classes
+	 */
+	static int redefineClasses(Instrumentation jInstrumentation, Map<Class<?>, byte[]> newByteCodes,
+			int maxBatchSize) {
+		List<ClassDefinition> batch = new ArrayList<>(Math.min(maxBatchSize, newByteCodes.size()));
+		int redefined = 0;
+		int batches = 0;
+		long start = System.nanoTime();
+		for (Map.Entry<Class<?>, byte[]> entry : newByteCodes.entrySet()) {
+			batch.add(new ClassDefinition(entry.getKey(), entry.getValue()));
+			if (batch.size() >= maxBatchSize) {
+				redefined += redefineBatch(jInstrumentation, batch, ++batches);
+				batch.clear();
 			}
-
 		}
-		if (i > 0) {
-			LOGGER.info("Redefined {} classes!", i);
+		if (!batch.isEmpty()) {
+			redefined += redefineBatch(jInstrumentation, batch, ++batches);
+		}
+		if (redefined > 0) {
+			LOGGER.info("Redefined {} classes in {} batches within {} ms!", redefined, batches,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
 		}
+		return redefined;
+	}
 
+	/**
+	 * Redefines the classes of a batch at once. Falls back to redefining the
+	 * classes one by one if the batch fails.
+	 * 
+	 * @return number of redefined classes
+	 */
+	private static int redefineBatch(Instrumentation jInstrumentation, List<ClassDefinition> batch, int batchNumber) {
+		long start = System.nanoTime();
+		try {
+			jInstrumentation.redefineClasses(batch.toArray(new ClassDefinition[batch.size()]));
+			LOGGER.debug("Redefined batch {} with {} classes within {} ms", batchNumber, batch.size(),
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			return batch.size();
+		} catch (Throwable e) {
+			if (batch.size() == 1) {
+				LOGGER.error("Failed redefining class {}. Error: {}", batch.get(0).getDefinitionClass().getName(), e);
+				return 0;
+			}
+			LOGGER.warn("Failed redefining batch {} with {} classes, redefining classes separately. Error: {}",
+					batchNumber, batch.size(), e);
+		}
+
+		int redefined = 0;
+		for (ClassDefinition cd : batch) {
+			try {
+				LOGGER.debug("Going to redefined class: {}", cd.getDefinitionClass().getName());
+				jInstrumentation.redefineClasses(cd);
+				redefined++;
+			} catch (Throwable e) {
+				LOGGER.error("Failed redefining class {}. Error: {}", cd.getDefinitionClass().getName(), e);
+			}
+		}
+		LOGGER.debug("Redefined {} of {} classes of batch {} separately within {} ms", redefined, batch.size(),
+				batchNumber, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return redefined;
 	}
 }
@@ -16,10 +16,10 @@
 package org.aim.mainagent.instrumentor;
 
 import java.lang.instrument.Instrumentation;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.aim.api.exceptions.InstrumentationException;
+import org.aim.mainagent.scope.LoadedClassIndex;
 
 /**
  * Singleton wrapper around Java instrumentation instance.
@@ -84,15 +84,7 @@ public final class JInstrumentation {
 			throw new InstrumentationException("Java instrumentation instance has not been set, yet!");
 		}
 
-		// TODO: maybe a cache is useful / reasonable to reduce instrumentation
-		// time???
-		List<Class<?>> classes = new ArrayList<>();
-		for (Class<?> clazz : jInstrumentation.getAllLoadedClasses()) {
-			if (clazz.getName().equals(className)) {
-				classes.add(clazz);
-			}
-		}
-		return classes;
+		return LoadedClassIndex.getInstance().getClassesByName(className);
 
 	}
 }
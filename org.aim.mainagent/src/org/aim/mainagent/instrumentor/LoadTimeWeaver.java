@@ -0,0 +1,591 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.instrumentor;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.Modifier;
+import javassist.bytecode.AccessFlag;
+
+import org.aim.api.exceptions.InstrumentationException;
+import org.aim.api.instrumentation.AbstractEnclosingProbe;
+import org.aim.api.instrumentation.AbstractEnclosingProbeExtension;
+import org.aim.description.InstrumentationDescription;
+import org.aim.description.InstrumentationEntity;
+import org.aim.description.restrictions.Restriction;
+import org.aim.description.scopes.ConstructorScope;
+import org.aim.description.scopes.MethodScope;
+import org.aim.description.scopes.MethodsEnclosingScope;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+import org.aim.mainagent.OverheadGuard;
+import org.aim.mainagent.scope.ScopeAnalysisController;
+import org.aim.mainagent.utils.JavassistWrapper;
+import org.aim.mainagent.utils.Utils;
+import org.lpe.common.extension.ExtensionRegistry;
+import org.lpe.common.extension.IExtension;
+import org.lpe.common.util.LpeStringUtils;
+
+/**
+ * Instruments classes which are loaded after an instrumentation request. The
+ * method and constructor scopes of the active instrumentation descriptions
+ * are kept and matching classes are woven while they are defined, thus,
+ * neither a rescan of all loaded classes nor a redefinition is required for
+ * them.
+ * 
+ * The woven classes are queued (see {@link #drainWovenClasses()}) until the
+ * method instrumentor registers them in its instrumentation state, which
+ * allows to revert their instrumentation like for redefined classes. The
+ * registration task (see {@link #setRegistrationTask(Runnable)}) is triggered
+ * shortly after a class has been woven. API and
+ * custom scopes are resolved by reflection on loaded classes and, thus, are
+ * not supported at load time.
+ * 
+ * All methods of a class are woven with a single restriction. Hence, a class
+ * whose methods match the scopes of descriptions with different global
+ * restrictions (e.g. different granularities) is not woven on load, but left
+ * to the instrumentation by redefinition.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class LoadTimeWeaver implements ClassFileTransformer {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(LoadTimeWeaver.class);
+
+	/**
+	 * Property key for enabling load-time weaving.
+	 */
+	public static final String LOAD_TIME_WEAVING_KEY = "org.aim.weaving.loadTime";
+
+	private static final long REGISTRATION_DELAY_MILLIS = 20L;
+	private static final long REGISTRATION_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2L);
+
+	private static LoadTimeWeaver instance;
+
+	/**
+	 * Returns singleton instance.
+	 * 
+	 * @return singleton
+	 */
+	public static synchronized LoadTimeWeaver getInstance() {
+		if (instance == null) {
+			instance = new LoadTimeWeaver();
+		}
+		return instance;
+	}
+
+	/**
+	 * Enables load-time weaving according to the agent properties. Load-time
+	 * weaving is disabled by default.
+	 * 
+	 * @param properties
+	 *            agent properties
+	 */
+	public static void configure(Properties properties) {
+		boolean enabled = false;
+		if (properties != null) {
+			enabled = Boolean.parseBoolean(properties.getProperty(LOAD_TIME_WEAVING_KEY, "false").trim());
+		}
+		getInstance().setEnabled(enabled);
+	}
+
+	private volatile boolean enabled = false;
+	private volatile boolean installed = false;
+	private volatile List<LoadTimeScope> activeScopes = Collections.emptyList();
+	private volatile long generation = 0L;
+	private final ConcurrentLinkedQueue<WovenClass> wovenClasses = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger transformationsInProgress = new AtomicInteger();
+	private final AtomicBoolean registrationScheduled = new AtomicBoolean(false);
+	private final ScheduledThreadPoolExecutor registrationExecutor;
+	private volatile Runnable registrationTask;
+	private final Map<ClassLoader, Boolean> agentVisibility = new WeakHashMap<>();
+	private final ThreadLocal<Boolean> weaving = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return false;
+		}
+	};
+
+	private LoadTimeWeaver() {
+		registrationExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "AIM-Load-Time-Registration");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Registers the weaver as class file transformer, if load-time weaving
+	 * is enabled.
+	 * 
+	 * @param inst
+	 *            Java instrumentation instance
+	 */
+	public void install(Instrumentation inst) {
+		if (enabled && !installed) {
+			inst.addTransformer(this, false);
+			installed = true;
+			LOGGER.debug("Installed load-time weaver");
+		}
+	}
+
+	/**
+	 * 
+	 * @param enabled
+	 *            true, if classes shall be instrumented while they are
+	 *            loaded
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return true, if load-time weaving is enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * 
+	 * @param registrationTask
+	 *            task registering the woven classes in the instrumentation
+	 *            state, executed shortly after classes have been woven
+	 */
+	public void setRegistrationTask(Runnable registrationTask) {
+		this.registrationTask = registrationTask;
+	}
+
+	/**
+	 * @return task registering the woven classes, null if none has been set
+	 */
+	public Runnable getRegistrationTask() {
+		return registrationTask;
+	}
+
+	/**
+	 * Keeps the method and constructor scopes of the given description for
+	 * weaving classes which are loaded later on.
+	 * 
+	 * @param descr
+	 *            instrumentation description
+	 * @throws InstrumentationException
+	 *             if a probe class cannot be loaded
+	 */
+	public synchronized void activate(InstrumentationDescription descr) throws InstrumentationException {
+		if (!enabled) {
+			return;
+		}
+		List<LoadTimeScope> scopes = new ArrayList<>(activeScopes);
+		Restriction globalRestriction = descr.getGlobalRestriction();
+		for (InstrumentationEntity<MethodsEnclosingScope> entity : descr
+				.getInstrumentationEntities(MethodsEnclosingScope.class)) {
+			MethodsEnclosingScope scope = entity.getScope();
+			String[] patterns;
+			if (scope instanceof MethodScope) {
+				patterns = ((MethodScope) scope).getMethods();
+			} else if (scope instanceof ConstructorScope) {
+				patterns = ((ConstructorScope) scope).getTargetClasses();
+			} else {
+				LOGGER.debug("Scope {} is not supported at load time.", scope.getClass().getSimpleName());
+				continue;
+			}
+
+			Set<Class<? extends AbstractEnclosingProbe>> probeTypes = new HashSet<>();
+			for (String probe : entity.getProbesAsStrings()) {
+				IExtension<?> ext = ExtensionRegistry.getSingleton().getExtension(probe);
+				if (ext == null) {
+					throw new InstrumentationException("Failed loading Probe class " + probe);
+				}
+				probeTypes.add(((AbstractEnclosingProbeExtension) ext).getProbeClass());
+			}
+
+			scopes.add(new LoadTimeScope(patterns, scope instanceof ConstructorScope, ScopeAnalysisController
+					.combineRestrictions(globalRestriction, entity.getLocalRestriction()), globalRestriction, scope
+					.getId(), probeTypes));
+		}
+		activeScopes = Collections.unmodifiableList(scopes);
+	}
+
+	/**
+	 * Stops weaving classes on load. Classes which are woven concurrently are
+	 * marked as outdated (see {@link WovenClass#getGeneration()}).
+	 */
+	public synchronized void deactivate() {
+		activeScopes = Collections.emptyList();
+		generation++;
+	}
+
+	/**
+	 * @return the current generation of the active scopes, incremented on
+	 *         each deactivation
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Removes and returns the classes woven since the last call.
+	 * 
+	 * @return woven classes
+	 */
+	public List<WovenClass> drainWovenClasses() {
+		List<WovenClass> result = new ArrayList<>();
+		WovenClass wovenClass = wovenClasses.poll();
+		while (wovenClass != null) {
+			result.add(wovenClass);
+			wovenClass = wovenClasses.poll();
+		}
+		return result;
+	}
+
+	/**
+	 * Queues a woven class again, which could not be registered yet, as its
+	 * definition has not been finished. A class which has not been defined
+	 * within a few seconds after weaving is dropped, as its definition has
+	 * failed. A class whose class loader has been collected is dropped as
+	 * well.
+	 * 
+	 * @param wovenClass
+	 *            woven class
+	 */
+	public void requeue(WovenClass wovenClass) {
+		if (wovenClass.getClassLoader() == null) {
+			return;
+		}
+		if (System.nanoTime() - wovenClass.wovenAt < REGISTRATION_TIMEOUT_NANOS) {
+			wovenClasses.add(wovenClass);
+			scheduleRegistration();
+		} else {
+			LOGGER.debug("Class {} instrumented on load has not been defined. Dropping it.",
+					wovenClass.getClassName());
+		}
+	}
+
+	/**
+	 * @return true, if woven classes are queued or classes are being woven
+	 *         at the moment
+	 */
+	public boolean hasPendingClasses() {
+		return !wovenClasses.isEmpty() || transformationsInProgress.get() > 0;
+	}
+
+	private void scheduleRegistration() {
+		if (registrationTask == null || !registrationScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		registrationExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				registrationScheduled.set(false);
+				Runnable task = registrationTask;
+				if (task != null) {
+					task.run();
+				}
+			}
+		}, REGISTRATION_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+			ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+		// counted before the scopes are read, so that a deactivation can wait
+		// for concurrent transformations
+		transformationsInProgress.incrementAndGet();
+		try {
+			return transformIfMatching(loader, className, classBeingRedefined, classfileBuffer);
+		} finally {
+			transformationsInProgress.decrementAndGet();
+		}
+	}
+
+	private byte[] transformIfMatching(ClassLoader loader, String className, Class<?> classBeingRedefined,
+			byte[] classfileBuffer) {
+		// the generation is read before the scopes, thus, a class woven with
+		// concurrently deactivated scopes is marked as outdated
+		long currentGeneration = generation;
+		List<LoadTimeScope> scopes = activeScopes;
+		if (scopes.isEmpty() || classBeingRedefined != null || loader == null || className == null
+				|| weaving.get()) {
+			return null;
+		}
+		String name = className.replace('/', '.');
+		List<LoadTimeScope> candidateScopes = new ArrayList<>();
+		for (LoadTimeScope scope : scopes) {
+			if (scope.isCandidate(name)) {
+				candidateScopes.add(scope);
+			}
+		}
+		if (candidateScopes.isEmpty() || !isAgentVisible(loader)) {
+			return null;
+		}
+
+		weaving.set(true);
+		try {
+			return weave(loader, name, classfileBuffer, candidateScopes, currentGeneration);
+		} catch (Throwable t) {
+			LOGGER.warn("Failed instrumenting class {} on load. Ignoring this class. {}", name, t);
+			return null;
+		} finally {
+			weaving.set(false);
+		}
+	}
+
+	private byte[] weave(ClassLoader loader, String className, byte[] classfileBuffer,
+			List<LoadTimeScope> candidateScopes, long currentGeneration) throws Exception {
+		CtClass ctClass = JavassistWrapper.getInstance().makeCtClass(loader, classfileBuffer);
+		try {
+			if (ctClass.isInterface() || ctClass.isAnnotation() || ctClass.isEnum()
+					|| (ctClass.getClassFile2().getAccessFlags() & AccessFlag.SYNTHETIC) != 0
+					|| isAnonymousOrLocal(className)) {
+				return null;
+			}
+
+			Map<String, Set<Long>> methodsToInstrument = new HashMap<>();
+			Map<String, Set<Class<? extends AbstractEnclosingProbe>>> probesToInject = new HashMap<>();
+			Restriction instrumentationRestriction = null;
+			OverheadGuard guard = OverheadGuard.getInstance();
+			for (LoadTimeScope scope : candidateScopes) {
+				CtBehavior[] behaviours = scope.constructors ? ctClass.getDeclaredConstructors() : ctClass
+						.getDeclaredMethods();
+				for (CtBehavior behaviour : behaviours) {
+					String signature = Utils.getMethodSignature(behaviour, true);
+					if (!scope.matches(className, signature, behaviour.getModifiers())
+							|| (guard.isEnabled() && guard.isDeinstrumented(signature))) {
+						continue;
+					}
+					if (!methodsToInstrument.containsKey(signature)) {
+						methodsToInstrument.put(signature, new HashSet<Long>());
+						probesToInject.put(signature, new HashSet<Class<? extends AbstractEnclosingProbe>>());
+					}
+					if (instrumentationRestriction == null) {
+						instrumentationRestriction = scope.globalRestriction;
+					} else if (!isSameRestriction(instrumentationRestriction, scope.globalRestriction)) {
+						LOGGER.info("Class {} matches instrumentation descriptions with different restrictions. "
+								+ "It is not instrumented on load.", className);
+						return null;
+					}
+					methodsToInstrument.get(signature).add(scope.scopeId);
+					probesToInject.get(signature).addAll(scope.probeTypes);
+				}
+			}
+			if (methodsToInstrument.isEmpty()) {
+				return null;
+			}
+
+			byte[] instrumentedByteCode = BCInjector.getInstance().weaveClass(ctClass, methodsToInstrument,
+					probesToInject, instrumentationRestriction);
+			wovenClasses.add(new WovenClass(loader, className, classfileBuffer, methodsToInstrument, probesToInject,
+					instrumentationRestriction, currentGeneration));
+			scheduleRegistration();
+			LOGGER.debug("Instrumented class {} on load", className);
+			return instrumentedByteCode;
+		} finally {
+			JavassistWrapper.getInstance().release(ctClass);
+		}
+	}
+
+	/**
+	 * Restrictions are equal regardless of their granularity, which also
+	 * affects the woven probes.
+	 */
+	private static boolean isSameRestriction(Restriction restriction, Restriction otherRestriction) {
+		return restriction == otherRestriction
+				|| (restriction.equals(otherRestriction) && Double.compare(restriction.getGranularity(),
+						otherRestriction.getGranularity()) == 0);
+	}
+
+	private static boolean isAnonymousOrLocal(String className) {
+		int index = className.lastIndexOf('$');
+		return index >= 0 && index + 1 < className.length() && Character.isDigit(className.charAt(index + 1));
+	}
+
+	private boolean isAgentVisible(ClassLoader classLoader) {
+		synchronized (agentVisibility) {
+			Boolean visible = agentVisibility.get(classLoader);
+			if (visible == null) {
+				try {
+					visible = classLoader.loadClass(LoadTimeWeaver.class.getName()) == LoadTimeWeaver.class;
+				} catch (ClassNotFoundException cnfe) {
+					visible = false;
+				}
+				agentVisibility.put(classLoader, visible);
+			}
+			return visible;
+		}
+	}
+
+	/**
+	 * Method or constructor scope of an active instrumentation description.
+	 */
+	private static final class LoadTimeScope {
+		private final String[] patterns;
+		private final String[] literalPrefixes;
+		private final boolean constructors;
+		private final Restriction restriction;
+		private final Restriction globalRestriction;
+		private final long scopeId;
+		private final Set<Class<? extends AbstractEnclosingProbe>> probeTypes;
+
+		private LoadTimeScope(String[] patterns, boolean constructors, Restriction restriction,
+				Restriction globalRestriction, long scopeId, Set<Class<? extends AbstractEnclosingProbe>> probeTypes) {
+			this.patterns = patterns;
+			this.constructors = constructors;
+			this.restriction = restriction;
+			this.globalRestriction = globalRestriction;
+			this.scopeId = scopeId;
+			this.probeTypes = probeTypes;
+			literalPrefixes = new String[patterns.length];
+			for (int i = 0; i < patterns.length; i++) {
+				literalPrefixes[i] = Utils.getLiteralPrefix(patterns[i]);
+			}
+		}
+
+		/**
+		 * Cheap check on the class name before the class file is parsed.
+		 */
+		private boolean isCandidate(String className) {
+			if (restriction.isExcluded(className)) {
+				return false;
+			}
+			for (String prefix : literalPrefixes) {
+				if (className.startsWith(prefix) || prefix.startsWith(className + ".")) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean matches(String className, String signature, int modifiers) {
+			if (Modifier.isAbstract(modifiers) || Modifier.isNative(modifiers)
+					|| restriction.modifierSetExcluded(modifiers)) {
+				return false;
+			}
+			for (String pattern : patterns) {
+				if (constructors ? LpeStringUtils.patternMatches(className, pattern) : LpeStringUtils.patternMatches(
+						signature, pattern)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Class which has been instrumented while it was loaded. The class loader
+	 * is referenced weakly, thus, a queued class does not prevent unloading.
+	 */
+	public static final class WovenClass {
+		private final WeakReference<ClassLoader> classLoader;
+		private final String className;
+		private final byte[] originalByteCode;
+		private final Map<String, Set<Long>> methodsToInstrument;
+		private final Map<String, Set<Class<? extends AbstractEnclosingProbe>>> probesToInject;
+		private final Restriction instrumentationRestriction;
+		private final long generation;
+		private final long wovenAt;
+
+		private WovenClass(ClassLoader classLoader, String className, byte[] originalByteCode,
+				Map<String, Set<Long>> methodsToInstrument,
+				Map<String, Set<Class<? extends AbstractEnclosingProbe>>> probesToInject,
+				Restriction instrumentationRestriction, long generation) {
+			this.classLoader = new WeakReference<>(classLoader);
+			this.className = className;
+			this.originalByteCode = originalByteCode;
+			this.methodsToInstrument = methodsToInstrument;
+			this.probesToInject = probesToInject;
+			this.instrumentationRestriction = instrumentationRestriction;
+			this.generation = generation;
+			wovenAt = System.nanoTime();
+		}
+
+		/**
+		 * @return the class loader defining the class, null if the class
+		 *         loader has been garbage collected
+		 */
+		public ClassLoader getClassLoader() {
+			return classLoader.get();
+		}
+
+		/**
+		 * @return the full qualified class name
+		 */
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * @return the bytecode of the class before the instrumentation
+		 */
+		public byte[] getOriginalByteCode() {
+			return originalByteCode;
+		}
+
+		/**
+		 * @return signatures of the instrumented behaviours mapped to the ids
+		 *         of the corresponding scopes
+		 */
+		public Map<String, Set<Long>> getMethodsToInstrument() {
+			return methodsToInstrument;
+		}
+
+		/**
+		 * @return signatures of the instrumented behaviours mapped to the
+		 *         injected probe types
+		 */
+		public Map<String, Set<Class<? extends AbstractEnclosingProbe>>> getProbesToInject() {
+			return probesToInject;
+		}
+
+		/**
+		 * @return the restriction used for the instrumentation
+		 */
+		public Restriction getInstrumentationRestriction() {
+			return instrumentationRestriction;
+		}
+
+		/**
+		 * @return generation of the scopes the class has been woven with (see
+		 *         {@link LoadTimeWeaver#getGeneration()})
+		 */
+		public long getGeneration() {
+			return generation;
+		}
+	}
+}
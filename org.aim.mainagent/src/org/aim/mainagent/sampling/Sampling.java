@@ -31,7 +31,6 @@ import org.aim.description.sampling.SamplingDescription;
 import org.aim.logging.AIMLogger;
 import org.aim.logging.AIMLoggerFactory;
 import org.lpe.common.extension.ExtensionRegistry;
-import org.lpe.common.util.system.LpeSystemUtils;
 
 /**
  * Samples resources of the application under test.
@@ -123,7 +122,7 @@ public final class Sampling {
 		LOGGER.info("Started Application Resource Sampling");
 		for (SamplingExecuter samplingExecuter : monitoringJobs.values()) {
 			LOGGER.info("Starting sampling executer with a delay of " + samplingExecuter.getDelay() + " ms");
-			LpeSystemUtils.submitTask(samplingExecuter);
+			samplingExecuter.start();
 		}
 	}
 
@@ -20,6 +20,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -40,7 +41,7 @@ import org.aim.mainagent.utils.Utils;
  * @author Alexander Wert
  * 
  */
-public class APIScopeAnalyzer extends AbstractScopeAnalyzer {
+public class APIScopeAnalyzer extends AbstractScopeAnalyzer implements IIndexedScopeAnalyzer {
 
 	private Map<Class<?>, List<MethodSignature>> methodsToMatch;
 	private Set<Class<Annotation>> methodAnnotationsToMatch;
@@ -106,6 +107,28 @@ public class APIScopeAnalyzer extends AbstractScopeAnalyzer {
 		return null;
 	}
 
+	/**
+	 * Selects the sub types of the API types. If methods are matched by their
+	 * annotations, all classes have to be visited.
+	 * 
+	 * @param index
+	 *            index of the loaded classes
+	 * @return candidate classes, or null if all classes have to be visited
+	 * @throws InstrumentationException
+	 *             if the index is not available
+	 */
+	@Override
+	public Collection<Class<?>> getCandidateClasses(LoadedClassIndex index) throws InstrumentationException {
+		if (!methodAnnotationsToMatch.isEmpty()) {
+			return null;
+		}
+		Set<Class<?>> candidates = new HashSet<>();
+		for (Class<?> apiClass : methodsToMatch.keySet()) {
+			candidates.addAll(index.getSubTypes(apiClass.getName()));
+		}
+		return candidates;
+	}
+
 	@Override
 	public void visitClass(Class<?> clazz, Set<FlatScopeEntity> scopeEntities) {
 		if (clazz == null || !Utils.isNormalClass(clazz)) {
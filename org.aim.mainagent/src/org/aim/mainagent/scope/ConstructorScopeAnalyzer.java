@@ -16,8 +16,11 @@
 package org.aim.mainagent.scope;
 
 import java.lang.reflect.Constructor;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Set;
 
+import org.aim.api.exceptions.InstrumentationException;
 import org.aim.api.instrumentation.AbstractScopeAnalyzer;
 import org.aim.api.instrumentation.description.internal.FlatScopeEntity;
 import org.aim.description.restrictions.Restriction;
@@ -30,7 +33,7 @@ import org.lpe.common.util.LpeStringUtils;
  * @author Alexander Wert
  * 
  */
-public class ConstructorScopeAnalyzer extends AbstractScopeAnalyzer {
+public class ConstructorScopeAnalyzer extends AbstractScopeAnalyzer implements IIndexedScopeAnalyzer {
 
 	private Restriction restriction;
 	private final String[] classNames;
@@ -45,6 +48,19 @@ public class ConstructorScopeAnalyzer extends AbstractScopeAnalyzer {
 		this.classNames = classNames;
 	}
 
+	@Override
+	public Collection<Class<?>> getCandidateClasses(LoadedClassIndex index) throws InstrumentationException {
+		Set<Class<?>> candidates = new HashSet<>();
+		for (String cName : classNames) {
+			String literalPrefix = Utils.getLiteralPrefix(cName);
+			if (literalPrefix.isEmpty()) {
+				return null;
+			}
+			candidates.addAll(index.getClassesByNamePrefix(literalPrefix));
+		}
+		return candidates;
+	}
+
 	@Override
 	public void visitClass(Class<?> clazz, Set<FlatScopeEntity> scopeEntities) {
 		if (restriction.isExcluded(clazz.getName())) {
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.scope;
+
+import java.util.Collection;
+
+import org.aim.api.exceptions.InstrumentationException;
+import org.aim.api.instrumentation.IScopeAnalyzer;
+
+/**
+ * Scope analyzer which can narrow down the classes to visit by means of the
+ * {@link LoadedClassIndex}. Implementations must allow concurrent calls of
+ * {@link #visitClass(Class, java.util.Set)}, as the classes are visited in
+ * parallel.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public interface IIndexedScopeAnalyzer extends IScopeAnalyzer {
+
+	/**
+	 * Selects the classes which may contain methods of the scope.
+	 * 
+	 * @param index
+	 *            index of the loaded classes
+	 * @return candidate classes, or null if all classes have to be visited
+	 * @throws InstrumentationException
+	 *             if the index is not available
+	 */
+	Collection<Class<?>> getCandidateClasses(LoadedClassIndex index) throws InstrumentationException;
+}
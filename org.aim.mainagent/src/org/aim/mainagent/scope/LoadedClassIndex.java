@@ -0,0 +1,425 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.scope;
+
+import java.lang.annotation.Annotation;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.aim.api.exceptions.InstrumentationException;
+import org.aim.logging.AIMLogger;
+import org.aim.logging.AIMLoggerFactory;
+import org.aim.mainagent.instrumentor.JInstrumentation;
+
+/**
+ * Index of the classes loaded by the JVM. Classes can be looked up by name,
+ * name prefix (e.g. package), super type and class annotation without
+ * scanning all loaded classes.
+ * 
+ * The loaded classes are scanned once on the first lookup. Afterwards, the
+ * index is maintained incrementally: a {@link ClassFileTransformer} hook
+ * records the names and class loaders of newly loaded classes, which are
+ * resolved and added to the index on the next lookup. A recorded class whose
+ * definition has not been finished yet is resolved again on later lookups.
+ * If it still cannot be resolved after {@link #DEFAULT_RESOLVE_TIMEOUT}
+ * milliseconds, the loaded classes are scanned again, thus, classes are not
+ * missed if their definition takes long. The index references the classes
+ * and their class loaders weakly, thus, it does not prevent classes from
+ * being unloaded.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public final class LoadedClassIndex implements ClassFileTransformer {
+	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(LoadedClassIndex.class);
+
+	/**
+	 * Time in milliseconds after which a recorded class which cannot be
+	 * resolved triggers a scan of the loaded classes.
+	 */
+	public static final long DEFAULT_RESOLVE_TIMEOUT = 10000L;
+
+	private static final Method FIND_LOADED_CLASS = getFindLoadedClassMethod();
+
+	private static LoadedClassIndex instance;
+
+	/**
+	 * Returns singleton instance.
+	 * 
+	 * @return singleton
+	 */
+	public static synchronized LoadedClassIndex getInstance() {
+		if (instance == null) {
+			instance = new LoadedClassIndex();
+		}
+		return instance;
+	}
+
+	private static Method getFindLoadedClassMethod() {
+		try {
+			Method method = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+			method.setAccessible(true);
+			return method;
+		} catch (Exception e) {
+			LOGGER.debug("ClassLoader.findLoadedClass is not accessible, resolving classes by name.");
+			return null;
+		}
+	}
+
+	private final ConcurrentLinkedQueue<LoadedClass> loadedSinceScan = new ConcurrentLinkedQueue<>();
+	private volatile Instrumentation instrumentation;
+	private volatile boolean recording = false;
+	private boolean scanned = false;
+	private long resolveTimeout = DEFAULT_RESOLVE_TIMEOUT;
+
+	private final Map<Class<?>, Boolean> knownClasses = new WeakHashMap<>();
+	private final List<WeakReference<Class<?>>> allClasses = new ArrayList<>();
+	private final NavigableMap<String, List<WeakReference<Class<?>>>> classesByName = new TreeMap<>();
+	private final Map<String, List<WeakReference<Class<?>>>> subTypesByName = new HashMap<>();
+	private final Map<String, List<WeakReference<Class<?>>>> classesByAnnotation = new HashMap<>();
+
+	/**
+	 * Creates an empty index. The agent uses the shared index (see
+	 * {@link #getInstance()}).
+	 */
+	LoadedClassIndex() {
+	}
+
+	/**
+	 * Sets the time after which a recorded class which cannot be resolved
+	 * triggers a scan of the loaded classes.
+	 * 
+	 * @param timeout
+	 *            timeout in milliseconds
+	 */
+	synchronized void setResolveTimeout(long timeout) {
+		resolveTimeout = Math.max(timeout, 0L);
+	}
+
+	/**
+	 * Registers the class load hook which keeps the index up to date.
+	 * 
+	 * @param inst
+	 *            Java instrumentation instance
+	 */
+	public void install(Instrumentation inst) {
+		if (instrumentation == null) {
+			inst.addTransformer(this, false);
+			instrumentation = inst;
+			LOGGER.debug("Installed loaded class index");
+		}
+	}
+
+	@Override
+	public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+			ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+		if (recording && classBeingRedefined == null && className != null) {
+			loadedSinceScan.add(new LoadedClass(loader, className.replace('/', '.')));
+		}
+		// the byte code is never changed
+		return null;
+	}
+
+	/**
+	 * 
+	 * @return all classes loaded by the JVM
+	 * @throws InstrumentationException
+	 *             if the Java instrumentation instance is not available
+	 */
+	public synchronized List<Class<?>> getAllClasses() throws InstrumentationException {
+		refresh();
+		return getLiveClasses(allClasses);
+	}
+
+	/**
+	 * 
+	 * @param className
+	 *            full qualified class name
+	 * @return all loaded classes with the given name (one per defining class
+	 *         loader)
+	 * @throws InstrumentationException
+	 *             if the Java instrumentation instance is not available
+	 */
+	public synchronized List<Class<?>> getClassesByName(String className) throws InstrumentationException {
+		refresh();
+		return getLiveClasses(classesByName.get(className));
+	}
+
+	/**
+	 * 
+	 * @param namePrefix
+	 *            prefix of full qualified class names, e.g. a package name
+	 *            followed by a dot
+	 * @return all loaded classes whose name starts with the given prefix
+	 * @throws InstrumentationException
+	 *             if the Java instrumentation instance is not available
+	 */
+	public synchronized List<Class<?>> getClassesByNamePrefix(String namePrefix) throws InstrumentationException {
+		refresh();
+		List<Class<?>> result = new ArrayList<>();
+		for (Map.Entry<String, List<WeakReference<Class<?>>>> entry : classesByName.tailMap(namePrefix, true)
+				.entrySet()) {
+			if (!entry.getKey().startsWith(namePrefix)) {
+				break;
+			}
+			result.addAll(getLiveClasses(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @param typeName
+	 *            full qualified name of a class or interface
+	 * @return all loaded classes which extend or implement the given type,
+	 *         including the type itself
+	 * @throws InstrumentationException
+	 *             if the Java instrumentation instance is not available
+	 */
+	public synchronized List<Class<?>> getSubTypes(String typeName) throws InstrumentationException {
+		refresh();
+		return getLiveClasses(subTypesByName.get(typeName));
+	}
+
+	/**
+	 * 
+	 * @param annotationName
+	 *            full qualified name of an annotation type
+	 * @return all loaded classes annotated with the given annotation
+	 * @throws InstrumentationException
+	 *             if the Java instrumentation instance is not available
+	 */
+	public synchronized List<Class<?>> getClassesAnnotatedWith(String annotationName)
+			throws InstrumentationException {
+		refresh();
+		return getLiveClasses(classesByAnnotation.get(annotationName));
+	}
+
+	/**
+	 * Removes all classes from the index. The index is rebuilt on the next
+	 * lookup.
+	 */
+	public synchronized void clear() {
+		recording = false;
+		loadedSinceScan.clear();
+		knownClasses.clear();
+		allClasses.clear();
+		classesByName.clear();
+		subTypesByName.clear();
+		classesByAnnotation.clear();
+		scanned = false;
+	}
+
+	private void refresh() throws InstrumentationException {
+		Instrumentation inst = instrumentation;
+		if (!scanned || inst == null) {
+			scan(inst != null ? inst : JInstrumentation.getInstance().getjInstrumentation());
+			return;
+		}
+		List<LoadedClass> loadedClasses = new ArrayList<>();
+		LoadedClass loadedClass = loadedSinceScan.poll();
+		while (loadedClass != null) {
+			loadedClasses.add(loadedClass);
+			loadedClass = loadedSinceScan.poll();
+		}
+		int newClasses = 0;
+		boolean rescan = false;
+		long now = System.nanoTime();
+		Map<ClassLoader, Map<String, Class<?>>> initiatedClasses = new IdentityHashMap<>();
+		for (LoadedClass candidate : loadedClasses) {
+			Class<?> clazz = candidate.resolve(inst, initiatedClasses);
+			if (clazz == null) {
+				if (candidate.isUnloaded()) {
+					continue;
+				}
+				if (now - candidate.recordedAt < TimeUnit.MILLISECONDS.toNanos(resolveTimeout)) {
+					// the definition of the class may not have been finished
+					// yet
+					loadedSinceScan.add(candidate);
+				} else {
+					rescan = true;
+				}
+			} else if (add(clazz)) {
+				newClasses++;
+			}
+		}
+		if (newClasses > 0) {
+			LOGGER.debug("Indexed {} new classes", newClasses);
+		}
+		if (rescan) {
+			LOGGER.debug("Classes loaded since the last scan could not be resolved. Scanning loaded classes.");
+			scan(inst);
+		}
+	}
+
+	private void scan(Instrumentation inst) {
+		// classes loaded during the scan are recorded and added on the next
+		// lookup, if the scan misses them
+		recording = true;
+		int newClasses = 0;
+		for (Class<?> clazz : inst.getAllLoadedClasses()) {
+			if (add(clazz)) {
+				newClasses++;
+			}
+		}
+		scanned = true;
+		LOGGER.debug("Indexed {} new classes", newClasses);
+	}
+
+	private boolean add(Class<?> clazz) {
+		if (knownClasses.containsKey(clazz)) {
+			return false;
+		}
+		knownClasses.put(clazz, Boolean.TRUE);
+		WeakReference<Class<?>> reference = new WeakReference<Class<?>>(clazz);
+		allClasses.add(reference);
+		try {
+			put(classesByName, clazz.getName(), reference);
+			indexSuperTypes(reference, clazz, Collections.newSetFromMap(new IdentityHashMap<Class<?>, Boolean>()));
+			for (Annotation annotation : clazz.getDeclaredAnnotations()) {
+				put(classesByAnnotation, annotation.annotationType().getName(), reference);
+			}
+		} catch (Throwable t) {
+			// classes which cannot be linked are only listed
+			LOGGER.debug("Failed indexing class {}", clazz.getName());
+		}
+		return true;
+	}
+
+	private void indexSuperTypes(WeakReference<Class<?>> reference, Class<?> superType, Set<Class<?>> visited) {
+		if (superType == null || !visited.add(superType)) {
+			return;
+		}
+		put(subTypesByName, superType.getName(), reference);
+		indexSuperTypes(reference, superType.getSuperclass(), visited);
+		for (Class<?> iface : superType.getInterfaces()) {
+			indexSuperTypes(reference, iface, visited);
+		}
+	}
+
+	private static void put(Map<String, List<WeakReference<Class<?>>>> map, String key,
+			WeakReference<Class<?>> reference) {
+		List<WeakReference<Class<?>>> references = map.get(key);
+		if (references == null) {
+			references = new ArrayList<>(1);
+			map.put(key, references);
+		}
+		references.add(reference);
+	}
+
+	/**
+	 * Returns the classes for which the given class loader has been recorded
+	 * as initiating loader by the JVM. The classes are looked up once per
+	 * class loader and refresh.
+	 */
+	private static Map<String, Class<?>> getInitiatedClasses(Instrumentation inst, ClassLoader loader,
+			Map<ClassLoader, Map<String, Class<?>>> initiatedClasses) {
+		Map<String, Class<?>> classes = initiatedClasses.get(loader);
+		if (classes == null) {
+			classes = new HashMap<>();
+			Class<?>[] loaderClasses = inst.getInitiatedClasses(loader);
+			if (loaderClasses != null) {
+				for (Class<?> clazz : loaderClasses) {
+					classes.put(clazz.getName(), clazz);
+				}
+			}
+			initiatedClasses.put(loader, classes);
+		}
+		return classes;
+	}
+
+	/**
+	 * Returns the classes which have not been unloaded and removes the
+	 * references to unloaded classes.
+	 */
+	private static List<Class<?>> getLiveClasses(List<WeakReference<Class<?>>> references) {
+		List<Class<?>> result = new ArrayList<>();
+		if (references == null) {
+			return result;
+		}
+		Iterator<WeakReference<Class<?>>> iterator = references.iterator();
+		while (iterator.hasNext()) {
+			Class<?> clazz = iterator.next().get();
+			if (clazz == null) {
+				iterator.remove();
+			} else {
+				result.add(clazz);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Class recorded by the class load hook.
+	 */
+	private static final class LoadedClass {
+		private final WeakReference<ClassLoader> classLoader;
+		private final boolean bootstrap;
+		private final String className;
+		private final long recordedAt;
+
+		private LoadedClass(ClassLoader classLoader, String className) {
+			this.classLoader = new WeakReference<>(classLoader);
+			this.bootstrap = classLoader == null;
+			this.className = className;
+			this.recordedAt = System.nanoTime();
+		}
+
+		private boolean isUnloaded() {
+			return !bootstrap && classLoader.get() == null;
+		}
+
+		/**
+		 * Looks up the class defined by the recorded class loader without
+		 * loading any class. If ClassLoader.findLoadedClass is not accessible,
+		 * e.g. on Java 9 and later, and for the bootstrap class loader, the
+		 * class is looked up in the classes initiated by the class loader.
+		 */
+		private Class<?> resolve(Instrumentation inst, Map<ClassLoader, Map<String, Class<?>>> initiatedClasses) {
+			try {
+				ClassLoader loader = classLoader.get();
+				if (loader == null && !bootstrap) {
+					return null;
+				}
+				Class<?> clazz;
+				if (FIND_LOADED_CLASS != null && !bootstrap) {
+					clazz = (Class<?>) FIND_LOADED_CLASS.invoke(loader, className);
+				} else {
+					clazz = getInitiatedClasses(inst, loader, initiatedClasses).get(className);
+				}
+				return clazz != null && clazz.getClassLoader() == loader ? clazz : null;
+			} catch (Throwable t) {
+				return null;
+			}
+		}
+	}
+}
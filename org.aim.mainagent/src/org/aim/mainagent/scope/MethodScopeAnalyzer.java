@@ -17,9 +17,11 @@ package org.aim.mainagent.scope;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.aim.api.exceptions.InstrumentationException;
 import org.aim.api.instrumentation.AbstractScopeAnalyzer;
 import org.aim.api.instrumentation.description.internal.FlatScopeEntity;
 import org.aim.description.restrictions.Restriction;
@@ -32,7 +34,7 @@ import org.lpe.common.util.LpeStringUtils;
  * @author Alexander Wert
  * 
  */
-public class MethodScopeAnalyzer extends AbstractScopeAnalyzer {
+public class MethodScopeAnalyzer extends AbstractScopeAnalyzer implements IIndexedScopeAnalyzer {
 	private Restriction restriction;
 	private final String [] methodPatterns;
 
@@ -46,6 +48,34 @@ public class MethodScopeAnalyzer extends AbstractScopeAnalyzer {
 		this.methodPatterns = methodNames;
 	}
 
+	/**
+	 * Selects the classes whose name is a prefix of the literal part of a
+	 * method pattern or starts with it.
+	 * 
+	 * @param index
+	 *            index of the loaded classes
+	 * @return candidate classes, or null if a pattern starts with a wildcard
+	 * @throws InstrumentationException
+	 *             if the index is not available
+	 */
+	@Override
+	public Collection<Class<?>> getCandidateClasses(LoadedClassIndex index) throws InstrumentationException {
+		Set<Class<?>> candidates = new HashSet<>();
+		for (String pattern : methodPatterns) {
+			String literalPrefix = Utils.getLiteralPrefix(pattern);
+			if (literalPrefix.isEmpty()) {
+				return null;
+			}
+			candidates.addAll(index.getClassesByNamePrefix(literalPrefix));
+			for (int i = 1; i < literalPrefix.length(); i++) {
+				if (literalPrefix.charAt(i) == '.') {
+					candidates.addAll(index.getClassesByName(literalPrefix.substring(0, i)));
+				}
+			}
+		}
+		return candidates;
+	}
+
 	@Override
 	public void visitClass(Class<?> clazz, Set<FlatScopeEntity> scopeEntities) {
 		String className = clazz.getName();
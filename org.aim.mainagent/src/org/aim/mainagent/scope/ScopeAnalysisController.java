@@ -16,12 +16,16 @@
 package org.aim.mainagent.scope;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.aim.api.exceptions.InstrumentationException;
 import org.aim.api.instrumentation.AbstractCustomScopeExtension;
@@ -46,13 +50,22 @@ import org.lpe.common.extension.ExtensionRegistry;
 import org.lpe.common.extension.IExtension;
 
 /**
- * Analyzes the whole scope.
+ * Analyzes the whole scope. Scope analyzers which support the
+ * {@link LoadedClassIndex} (see {@link IIndexedScopeAnalyzer}) only visit
+ * their candidate classes, which are partitioned and visited in parallel.
  * 
  * @author Alexander Wert
  * 
  */
 public class ScopeAnalysisController {
 	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(ScopeAnalysisController.class);
+
+	/**
+	 * Number of classes visited sequentially by a single task.
+	 */
+	private static final int PARTITION_SIZE = 256;
+	private static final ForkJoinPool ANALYSIS_POOL = new ForkJoinPool();
+
 	private InstrumentationDescription instrumentationDescription;
 
 	/**
@@ -76,7 +89,7 @@ public class ScopeAnalysisController {
 	 */
 	@SuppressWarnings({ "rawtypes" })
 	public Set<FlatInstrumentationEntity> resolveScopes(List<Class> allLoadedClasses) throws InstrumentationException {
-		List<Class> filteredClasses = removeGlobalyExcludedClasses(allLoadedClasses);
+		List<Class<?>> filteredClasses = removeGlobalyExcludedClasses(allLoadedClasses);
 
 		Map<IScopeAnalyzer, Set<String>> scopeAnalyzersToProbesMap = createScopeAnalyzerToProbesMapping(allLoadedClasses);
 		Set<FlatInstrumentationEntity> instrumentationEntities = new HashSet<>();
@@ -84,15 +97,14 @@ public class ScopeAnalysisController {
 		for (Entry<IScopeAnalyzer, Set<String>> mapEntry : scopeAnalyzersToProbesMap.entrySet()) {
 			IScopeAnalyzer sAnalyzer = mapEntry.getKey();
 			Set<String> probes = mapEntry.getValue();
-			Set<FlatScopeEntity> scopeEntities = new HashSet<>();
-			for (Class<?> clazz : filteredClasses) {
-				try {
-					sAnalyzer.visitClass(clazz, scopeEntities);
-				} catch (Throwable t) {
-					LOGGER.warn("failed to instrument class {}. Ignoring and resuming instrumentation.",
-							clazz.getName());
-				}
-
+			Set<FlatScopeEntity> scopeEntities;
+			if (sAnalyzer instanceof IIndexedScopeAnalyzer) {
+				List<Class<?>> classesToVisit = selectCandidates((IIndexedScopeAnalyzer) sAnalyzer, filteredClasses);
+				scopeEntities = ANALYSIS_POOL.invoke(new VisitClassesTask(sAnalyzer, classesToVisit, 0, classesToVisit
+						.size()));
+			} else {
+				scopeEntities = new HashSet<>();
+				visitClasses(sAnalyzer, filteredClasses, 0, filteredClasses.size(), scopeEntities);
 			}
 
 			for (FlatScopeEntity fse : scopeEntities) {
@@ -122,9 +134,82 @@ public class ScopeAnalysisController {
 
 	}
 
+	/**
+	 * Selects the classes an indexed scope analyzer needs to visit.
+	 */
+	private List<Class<?>> selectCandidates(IIndexedScopeAnalyzer sAnalyzer, List<Class<?>> filteredClasses) {
+		Collection<Class<?>> candidates = null;
+		try {
+			candidates = sAnalyzer.getCandidateClasses(LoadedClassIndex.getInstance());
+		} catch (InstrumentationException e) {
+			LOGGER.debug("Loaded class index not available, visiting all classes.");
+		}
+		if (candidates == null) {
+			return filteredClasses;
+		}
+		Set<Class<?>> filteredSet = new HashSet<>(filteredClasses);
+		List<Class<?>> result = new ArrayList<>();
+		for (Class<?> candidate : new HashSet<>(candidates)) {
+			if (filteredSet.contains(candidate)) {
+				result.add(candidate);
+			}
+		}
+		return result;
+	}
+
+	private static void visitClasses(IScopeAnalyzer sAnalyzer, List<Class<?>> classes, int from, int to,
+			Set<FlatScopeEntity> scopeEntities) {
+		for (int i = from; i < to; i++) {
+			Class<?> clazz = classes.get(i);
+			try {
+				sAnalyzer.visitClass(clazz, scopeEntities);
+			} catch (Throwable t) {
+				LOGGER.warn("failed to instrument class {}. Ignoring and resuming instrumentation.", clazz.getName());
+			}
+		}
+	}
+
+	/**
+	 * Visits a partition of the classes. Partitions larger than
+	 * {@link ScopeAnalysisController#PARTITION_SIZE} are split and visited in
+	 * parallel.
+	 */
+	private static final class VisitClassesTask extends RecursiveTask<Set<FlatScopeEntity>> {
+		private static final long serialVersionUID = 1L;
+
+		private final IScopeAnalyzer sAnalyzer;
+		private final List<Class<?>> classes;
+		private final int from;
+		private final int to;
+
+		private VisitClassesTask(IScopeAnalyzer sAnalyzer, List<Class<?>> classes, int from, int to) {
+			this.sAnalyzer = sAnalyzer;
+			this.classes = classes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Set<FlatScopeEntity> compute() {
+			if (to - from <= PARTITION_SIZE) {
+				Set<FlatScopeEntity> scopeEntities = new HashSet<>();
+				visitClasses(sAnalyzer, classes, from, to, scopeEntities);
+				return scopeEntities;
+			}
+			int middle = (from + to) >>> 1;
+			VisitClassesTask left = new VisitClassesTask(sAnalyzer, classes, from, middle);
+			left.fork();
+			Set<FlatScopeEntity> scopeEntities = new VisitClassesTask(sAnalyzer, classes, middle, to).compute();
+			scopeEntities.addAll(left.join());
+			return scopeEntities;
+		}
+	}
+
 	@SuppressWarnings("rawtypes")
-	private List<Class> removeGlobalyExcludedClasses(List<Class> allLoadedClasses) {
-		List<Class> toKeep = new ArrayList<>();
+	private List<Class<?>> removeGlobalyExcludedClasses(List<Class> allLoadedClasses) {
+		List<Class<?>> toKeep = new ArrayList<>();
+		// whether a class loader can see the agent classes
+		Map<ClassLoader, Boolean> agentVisibility = new IdentityHashMap<>();
 
 		for (Class clazz : allLoadedClasses) {
 			boolean invalidClass = false;
@@ -140,11 +225,7 @@ public class ScopeAnalysisController {
 						|| clazz.isAnonymousClass() || clazz.isEnum() || clazz.isSynthetic() || clazz.isLocalClass()) {
 					invalidClass = true;
 				} else {
-					try {
-						clazz.getClassLoader().loadClass(this.getClass().getName());
-					} catch (ClassNotFoundException cnfe) {
-						invalidClass = true;
-					}
+					invalidClass = !isAgentVisible(clazz.getClassLoader(), agentVisibility);
 				}
 			} catch (Throwable t) {
 				invalidClass = true;
@@ -157,6 +238,20 @@ public class ScopeAnalysisController {
 		return toKeep;
 	}
 
+	private boolean isAgentVisible(ClassLoader classLoader, Map<ClassLoader, Boolean> agentVisibility) {
+		Boolean visible = agentVisibility.get(classLoader);
+		if (visible == null) {
+			try {
+				classLoader.loadClass(this.getClass().getName());
+				visible = true;
+			} catch (ClassNotFoundException cnfe) {
+				visible = false;
+			}
+			agentVisibility.put(classLoader, visible);
+		}
+		return visible;
+	}
+
 	@SuppressWarnings("rawtypes")
 	private Map<IScopeAnalyzer, Set<String>> createScopeAnalyzerToProbesMapping(List<Class> allLoadedClasses)
 			throws InstrumentationException {
@@ -193,22 +288,8 @@ public class ScopeAnalysisController {
 				continue;
 			}
 
-			Restriction combinedRestriction = new Restriction();
-
-			combinedRestriction.getModifierIncludes().addAll(mScopeEntity.getLocalRestriction().getModifierIncludes());
-			combinedRestriction.getModifierIncludes().addAll(
-					instrumentationDescription.getGlobalRestriction().getModifierIncludes());
-			combinedRestriction.getModifierExcludes().addAll(mScopeEntity.getLocalRestriction().getModifierExcludes());
-			combinedRestriction.getModifierExcludes().addAll(
-					instrumentationDescription.getGlobalRestriction().getModifierExcludes());
-
-			combinedRestriction.getPackageIncludes().addAll(mScopeEntity.getLocalRestriction().getPackageIncludes());
-			combinedRestriction.getPackageIncludes().addAll(
-					instrumentationDescription.getGlobalRestriction().getPackageIncludes());
-			combinedRestriction.getPackageExcludes().addAll(mScopeEntity.getLocalRestriction().getPackageExcludes());
-			combinedRestriction.getPackageExcludes().addAll(
-					instrumentationDescription.getGlobalRestriction().getPackageExcludes());
-
+			Restriction combinedRestriction = combineRestrictions(instrumentationDescription.getGlobalRestriction(),
+					mScopeEntity.getLocalRestriction());
 			scopeAnalyzer.setRestriction(combinedRestriction);
 			scopeAnalyzer.setScopeId(mScopeEntity.getScope().getId());
 			mapping.put(scopeAnalyzer, mScopeEntity.getProbesAsStrings());
@@ -216,4 +297,30 @@ public class ScopeAnalysisController {
 		}
 		return mapping;
 	}
+
+	/**
+	 * Combines the global restriction of an instrumentation description with
+	 * the local restriction of an instrumentation entity.
+	 * 
+	 * @param globalRestriction
+	 *            global restriction of the description
+	 * @param localRestriction
+	 *            local restriction of the entity
+	 * @return restriction containing the includes and excludes of both
+	 *         restrictions
+	 */
+	public static Restriction combineRestrictions(Restriction globalRestriction, Restriction localRestriction) {
+		Restriction combinedRestriction = new Restriction();
+
+		combinedRestriction.getModifierIncludes().addAll(localRestriction.getModifierIncludes());
+		combinedRestriction.getModifierIncludes().addAll(globalRestriction.getModifierIncludes());
+		combinedRestriction.getModifierExcludes().addAll(localRestriction.getModifierExcludes());
+		combinedRestriction.getModifierExcludes().addAll(globalRestriction.getModifierExcludes());
+
+		combinedRestriction.getPackageIncludes().addAll(localRestriction.getPackageIncludes());
+		combinedRestriction.getPackageIncludes().addAll(globalRestriction.getPackageIncludes());
+		combinedRestriction.getPackageExcludes().addAll(localRestriction.getPackageExcludes());
+		combinedRestriction.getPackageExcludes().addAll(globalRestriction.getPackageExcludes());
+		return combinedRestriction;
+	}
 }
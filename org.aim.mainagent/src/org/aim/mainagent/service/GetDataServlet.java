@@ -18,6 +18,8 @@ package org.aim.mainagent.service;
 import java.io.OutputStream;
 
 import org.aim.api.measurement.collector.AbstractDataSource;
+import org.aim.api.measurement.collector.MeasurementDataTransfer;
+import org.aim.api.measurement.collector.RecordIterator;
 import org.aim.logging.AIMLogger;
 import org.aim.logging.AIMLoggerFactory;
 import org.glassfish.grizzly.http.server.Request;
@@ -25,7 +27,14 @@ import org.glassfish.grizzly.http.server.Response;
 import org.glassfish.grizzly.http.util.HttpStatus;
 
 /**
- * Retrieves collected measurement data.
+ * Retrieves collected measurement data. Without any parameters, all records
+ * are transferred as text lines. Clients may request a page of records, the
+ * binary record format and gzip compression (see
+ * {@link MeasurementDataTransfer}). The response is streamed to the client.
+ * 
+ * While the measurement is running, a client may tail the data by repeatedly
+ * requesting the records after its watermark and acknowledging the records
+ * it has already received, which allows the data source to release them.
  * 
  * @author Alexander Wert
  * 
@@ -38,11 +47,51 @@ public class GetDataServlet implements Service {
 		LOGGER.info("Requested data transfer ...");
 		AbstractDataSource dataSource = AbstractDataSource.getDefaultDataSource();
 
+		long offset = parseLong(req.getParameter(MeasurementDataTransfer.PARAM_OFFSET));
+		long limit = parseLong(req.getParameter(MeasurementDataTransfer.PARAM_LIMIT));
+		boolean binary = MeasurementDataTransfer.FORMAT_BINARY.equalsIgnoreCase(req
+				.getParameter(MeasurementDataTransfer.PARAM_FORMAT));
+		boolean gzip = MeasurementDataTransfer.acceptsGzip(req.getHeader(MeasurementDataTransfer.HEADER_ACCEPT_ENCODING));
+		long acknowledged = parseLong(req.getParameter(MeasurementDataTransfer.PARAM_ACKNOWLEDGE));
+
+		if (acknowledged > 0) {
+			dataSource.acknowledge(acknowledged);
+		}
+		long start = Math.max(offset, dataSource.getFirstAvailableSequence());
+
 		final OutputStream oStream = resp.getOutputStream();
-		resp.setContentType("text/plain");
+		resp.setContentType(binary ? MeasurementDataTransfer.CONTENT_TYPE_BINARY
+				: MeasurementDataTransfer.CONTENT_TYPE_TEXT);
+		if (gzip) {
+			resp.setHeader(MeasurementDataTransfer.HEADER_CONTENT_ENCODING, MeasurementDataTransfer.ENCODING_GZIP);
+		}
+		resp.setHeader(MeasurementDataTransfer.HEADER_START_OFFSET, String.valueOf(start));
 		resp.setStatus(HttpStatus.OK_200);
-		dataSource.pipeToOutputStream(oStream);
+
+		if (start <= 0 && limit <= 0 && !binary && !gzip) {
+			dataSource.pipeToOutputStream(oStream);
+		} else {
+			RecordIterator records = dataSource.openRecordIterator(start);
+			try {
+				long count = MeasurementDataTransfer.writeRecords(records, oStream, 0, limit, binary, gzip);
+				LOGGER.debug("Transferred {} records starting at offset {}", count, start);
+			} finally {
+				records.close();
+			}
+		}
 		LOGGER.info("Data transfer finished!");
 
 	}
+
+	private static long parseLong(String value) {
+		if (value == null || value.isEmpty()) {
+			return 0L;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Invalid data transfer parameter {}", value);
+			return 0L;
+		}
+	}
 }
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.service;
+
+import org.aim.mainagent.AgentReadiness;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.http.util.HttpStatus;
+
+/**
+ * Reports whether the agent has finished its initialization. Responds with
+ * status 200 and {@code true} if the agent is ready, and with status 503 and
+ * {@code false} otherwise. Hence, it can be used as a health check.
+ * 
+ * @author Alexander Wert
+ * 
+ */
+public class ReadinessServlet implements Service {
+
+	@Override
+	public void doService(Request req, Response resp) throws Exception {
+		boolean ready = AgentReadiness.isReady();
+		resp.setStatus(ready ? HttpStatus.OK_200 : HttpStatus.SERVICE_UNAVAILABLE_503);
+		resp.setContentType("application/json");
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.writeValue(resp.getOutputStream(), ready);
+	}
+}
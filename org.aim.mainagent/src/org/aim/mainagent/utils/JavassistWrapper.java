@@ -15,7 +15,14 @@
  */
 package org.aim.mainagent.utils;
 
-import javassist.ClassPath;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.LoaderClassPath;
@@ -25,13 +32,22 @@ import org.aim.logging.AIMLogger;
 import org.aim.logging.AIMLoggerFactory;
 
 /**
- * Wraps a javassist pool object for singleton access.
+ * Wraps javassist pool objects for singleton access. As the classes of a
+ * pool must not be modified concurrently, each {@link CtClass} is provided
+ * from a pool which is leased exclusively until the class is released by
+ * {@link #release(CtClass)}. Released pools are kept for reuse, but at most
+ * {@link #MAX_IDLE_POOLS} of them and each only for
+ * {@link #MAX_CLASSES_PER_POOL} classes, thus, the classes cached by the
+ * pools are bounded. {@link #clear()} drops all idle pools at the end of a
+ * weaving pass.
  * 
  * @author Alexander Wert
  * 
  */
 public final class JavassistWrapper {
 	private static final AIMLogger LOGGER = AIMLoggerFactory.getLogger(JavassistWrapper.class);
+	private static final int MAX_IDLE_POOLS = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+	private static final int MAX_CLASSES_PER_POOL = 256;
 	private static JavassistWrapper instance;
 
 	/**
@@ -39,39 +55,153 @@ public final class JavassistWrapper {
 	 * 
 	 * @return singleton
 	 */
-	public static JavassistWrapper getInstance() {
+	public static synchronized JavassistWrapper getInstance() {
 		if (instance == null) {
 			instance = new JavassistWrapper();
 		}
 		return instance;
 	}
 
-	private final ClassPool pool;
+	/**
+	 * Class pool which is leased by one thread at a time.
+	 */
+	private static final class LeasedClassPool extends ClassPool {
+		/**
+		 * Class loaders whose class path has been appended to the pool.
+		 */
+		private final Set<ClassLoader> loaders = Collections
+				.newSetFromMap(new WeakHashMap<ClassLoader, Boolean>());
+		private int numLeases = 0;
+
+		private LeasedClassPool() {
+			super(true);
+		}
+
+		private void appendLoader(ClassLoader loader) {
+			if (loaders.add(loader)) {
+				appendClassPath(new LoaderClassPath(loader));
+			}
+		}
+	}
+
+	private final Deque<LeasedClassPool> idlePools = new ArrayDeque<>();
 
 	private JavassistWrapper() {
-		pool = new ClassPool(true);
+	}
+
+	/**
+	 * Creates a pool and resolves the basic java types, thus, the first
+	 * weaving pass does not need to load them.
+	 */
+	public void warmUp() {
+		LeasedClassPool pool = new LeasedClassPool();
+		pool.getOrNull(Object.class.getName());
+		pool.getOrNull(String.class.getName());
+		releasePool(pool);
 	}
 
 	/**
 	 * @param targetClass
 	 *            class of interest
-	 * @return a CtClass for the given java class
+	 * @return a CtClass for the given java class or null, if the class file
+	 *         cannot be found. The class has to be released by
+	 *         {@link #release(CtClass)} after usage.
 	 * @throws ClassNotFoundException
 	 *             if class cannot be found
 	 * @throws NotFoundException
 	 *             if class cannot be found
 	 */
 	public CtClass getCtClass(Class<?> targetClass) throws NotFoundException, ClassNotFoundException {
-		if (pool.find(targetClass.getName()) == null) {
-			LOGGER.info("CtClass {} not found in the current pool. Extending pool...", targetClass.getName());
-			ClassPath cp = new LoaderClassPath(targetClass.getClassLoader());
-			pool.appendClassPath(cp);
+		LeasedClassPool pool = leasePool();
+		CtClass ctClass = null;
+		try {
+			if (pool.find(targetClass.getName()) == null) {
+				LOGGER.debug("CtClass {} not found in the current pool. Extending pool...", targetClass.getName());
+				pool.appendLoader(targetClass.getClassLoader());
+			}
+
+			ctClass = pool.getOrNull(targetClass.getCanonicalName());
+			if (ctClass != null) {
+				LOGGER.debug("CtClass found: {}", targetClass.getName());
+			}
+			return ctClass;
+		} finally {
+			if (ctClass == null) {
+				releasePool(pool);
+			}
+		}
+	}
+
+	/**
+	 * Creates a CtClass from the given class file. Used for classes which are
+	 * being loaded and, thus, are not available as {@link Class} yet. The
+	 * class has to be released by {@link #release(CtClass)} after usage.
+	 * 
+	 * @param loader
+	 *            class loader defining the class, used to resolve the types
+	 *            referenced by the class
+	 * @param classFile
+	 *            bytecode of the class
+	 * @return a CtClass for the given bytecode
+	 * @throws IOException
+	 *             if the class file cannot be read
+	 */
+	public CtClass makeCtClass(ClassLoader loader, byte[] classFile) throws IOException {
+		LeasedClassPool pool = leasePool();
+		boolean created = false;
+		try {
+			pool.appendLoader(loader);
+			CtClass ctClass = pool.makeClass(new ByteArrayInputStream(classFile));
+			created = true;
+			return ctClass;
+		} finally {
+			if (!created) {
+				releasePool(pool);
+			}
+		}
+	}
+
+	/**
+	 * Detaches the class from its pool and returns the pool for reuse.
+	 * 
+	 * @param ctClass
+	 *            class provided by {@link #getCtClass(Class)} or
+	 *            {@link #makeCtClass(ClassLoader, byte[])}
+	 */
+	public void release(CtClass ctClass) {
+		ClassPool pool = ctClass.getClassPool();
+		ctClass.detach();
+		if (pool instanceof LeasedClassPool) {
+			releasePool((LeasedClassPool) pool);
 		}
+	}
+
+	/**
+	 * Drops all idle pools including the classes they have cached.
+	 */
+	public synchronized void clear() {
+		idlePools.clear();
+	}
+
+	/**
+	 * @return number of pools which are kept for reuse
+	 */
+	synchronized int getNumIdlePools() {
+		return idlePools.size();
+	}
+
+	private synchronized LeasedClassPool leasePool() {
+		LeasedClassPool pool = idlePools.pollFirst();
+		if (pool == null) {
+			pool = new LeasedClassPool();
+		}
+		pool.numLeases++;
+		return pool;
+	}
 
-		CtClass ctClass = pool.getOrNull(targetClass.getCanonicalName());
-		if (ctClass != null) {
-			LOGGER.debug("CtClass found: {}", targetClass.getName());
+	private synchronized void releasePool(LeasedClassPool pool) {
+		if (pool.numLeases < MAX_CLASSES_PER_POOL && idlePools.size() < MAX_IDLE_POOLS) {
+			idlePools.addFirst(pool);
 		}
-		return ctClass;
 	}
 }
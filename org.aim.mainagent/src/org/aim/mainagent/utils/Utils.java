@@ -23,6 +23,7 @@ import java.util.Map;
 import javassist.ClassPool;
 import javassist.CtBehavior;
 import javassist.CtClass;
+import javassist.CtConstructor;
 
 import org.aim.api.exceptions.InstrumentationException;
 import org.lpe.common.util.LpeStringUtils;
@@ -35,6 +36,7 @@ import org.lpe.common.util.LpeStringUtils;
  */
 public final class Utils {
 
+	private static final String PATTERN_SPECIAL_CHARACTERS = "*?([{+|^$\\";
 	private static final Map<String, Class<?>> primitiveTypes;
 
 	static {
@@ -276,6 +278,73 @@ public final class Utils {
 		return className + methodName + "(" + parameterList + ")";
 	}
 
+	/**
+	 * Returns the signature of the given javassist method or constructor in
+	 * the same format as {@link #getMethodSignature(Method, boolean)} and
+	 * {@link #getMethodSignature(Constructor, boolean)}, respectively. The
+	 * signature is derived from the descriptor, thus, the parameter types do
+	 * not need to be available in the class pool.
+	 * 
+	 * @param behaviour
+	 *            method or constructor for which the signature shell be
+	 *            constructed
+	 * @param includeFullClassName
+	 *            specifies whether to include the full qualified name of the
+	 *            declaring class
+	 * @return string representation of the signature
+	 */
+	public static String getMethodSignature(CtBehavior behaviour, boolean includeFullClassName) {
+		boolean constructor = behaviour instanceof CtConstructor;
+		String declaringClassName = behaviour.getDeclaringClass().getName();
+		String methodName = constructor ? declaringClassName : behaviour.getName();
+		String className = "";
+		if (includeFullClassName) {
+			className = declaringClassName + ".";
+		}
+
+		String descriptor = behaviour.getSignature();
+		StringBuilder parameterList = new StringBuilder();
+		int i = 1;
+		while (descriptor.charAt(i) != ')') {
+			int dimensions = 0;
+			while (descriptor.charAt(i) == '[') {
+				dimensions++;
+				i++;
+			}
+			String typeDescriptor;
+			String typeName;
+			if (descriptor.charAt(i) == 'L') {
+				int end = descriptor.indexOf(';', i);
+				typeDescriptor = descriptor.substring(i, end + 1);
+				typeName = descriptor.substring(i + 1, end).replace('/', '.');
+				i = end + 1;
+			} else {
+				typeDescriptor = String.valueOf(descriptor.charAt(i));
+				typeName = primitiveTypes.get(typeDescriptor).getName();
+				i++;
+			}
+
+			if (parameterList.length() > 0) {
+				parameterList.append(',');
+			}
+			if (dimensions == 0) {
+				parameterList.append(typeName);
+			} else if (constructor) {
+				// reflection names of array classes
+				for (int d = 0; d < dimensions; d++) {
+					parameterList.append('[');
+				}
+				parameterList.append(typeDescriptor.replace('/', '.'));
+			} else {
+				parameterList.append(typeName);
+				for (int d = 0; d < dimensions; d++) {
+					parameterList.append("[]");
+				}
+			}
+		}
+		return className + methodName + "(" + parameterList + ")";
+	}
+
 	/**
 	 * Extracts the parameter types of the given method signature.
 	 * 
@@ -325,4 +394,23 @@ public final class Utils {
 		}
 	}
 
+	/**
+	 * Returns the leading part of a name pattern which does not contain any
+	 * wildcard or other special character. All strings matching the pattern
+	 * start with this prefix. The prefix of a method pattern ends before the
+	 * parameter list at the latest.
+	 * 
+	 * @param pattern
+	 *            class or method name pattern
+	 * @return literal prefix of the pattern, may be empty
+	 */
+	public static String getLiteralPrefix(String pattern) {
+		for (int i = 0; i < pattern.length(); i++) {
+			if (PATTERN_SPECIAL_CHARACTERS.indexOf(pattern.charAt(i)) >= 0) {
+				return pattern.substring(0, i);
+			}
+		}
+		return pattern;
+	}
+
 }
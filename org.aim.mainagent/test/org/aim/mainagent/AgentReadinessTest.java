@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AgentReadinessTest {
+
+	private static final long SHORT_TIMEOUT_MILLIS = 50L;
+	private static final long LONG_TIMEOUT_MILLIS = 10000L;
+
+	@Before
+	@After
+	public void resetReadiness() {
+		AgentReadiness.reset();
+	}
+
+	@Test
+	public void testNotReadyWhileStarting() throws InterruptedException {
+		Assert.assertEquals(AgentReadiness.State.STARTING, AgentReadiness.getState());
+		Assert.assertFalse(AgentReadiness.isReady());
+		Assert.assertFalse(AgentReadiness.awaitReady(SHORT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		// requests to dependent services are rejected with 503 after the
+		// timeout, other services are served immediately
+		Assert.assertFalse(AgentReadiness.isServiceAvailable(true, SHORT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(AgentReadiness.isServiceAvailable(false, SHORT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testWaitingRequestIsServedWhenReady() throws InterruptedException {
+		Thread initializer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(SHORT_TIMEOUT_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				AgentReadiness.ready();
+			}
+		});
+		initializer.start();
+		Assert.assertTrue(AgentReadiness.isServiceAvailable(true, LONG_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(AgentReadiness.State.READY, AgentReadiness.getState());
+		Assert.assertTrue(AgentReadiness.isReady());
+		initializer.join();
+	}
+
+	@Test
+	public void testFailedInitialization() throws InterruptedException {
+		IllegalStateException cause = new IllegalStateException("plugin scan failed");
+		AgentReadiness.failed(cause);
+		long start = System.currentTimeMillis();
+		// waiting requests are rejected immediately instead of after the
+		// timeout
+		Assert.assertFalse(AgentReadiness.isServiceAvailable(true, LONG_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(System.currentTimeMillis() - start < LONG_TIMEOUT_MILLIS);
+		Assert.assertEquals(AgentReadiness.State.FAILED, AgentReadiness.getState());
+		Assert.assertSame(cause, AgentReadiness.getFailure());
+		Assert.assertFalse(AgentReadiness.isReady());
+	}
+}
@@ -20,10 +20,12 @@ import static org.junit.Assert.fail;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.List;
 import java.util.Properties;
 
 import junit.framework.Assert;
 
+import org.aim.api.events.IMonitorEventProbe;
 import org.aim.api.exceptions.InstrumentationException;
 import org.aim.api.exceptions.MeasurementException;
 import org.aim.api.measurement.MeasurementData;
@@ -144,6 +146,36 @@ public class CEventAgentTest {
 		Assert.assertEquals(105, data.getRecords(EventTimeStampRecord.class).size());
 	}
 
+	@Test
+	public void bufferedMonitorEventsTest() throws MeasurementException, InterruptedException {
+		int recordsBefore = getData().getRecords(EventTimeStampRecord.class).size();
+
+		// thread id, timestamp, identity hash, class tag << 32 | flags
+		long[] events = { TEST_THREAD.getId(), 100, 0, 4, TEST_THREAD.getId(), 200, 0, 5 };
+		CEventAgentAdapter.processMonitorEvents(events, 2);
+
+		List<EventTimeStampRecord> records = getData().getRecords(EventTimeStampRecord.class);
+		Assert.assertEquals(recordsBefore + 2, records.size());
+		EventTimeStampRecord entered = records.get(records.size() - 1);
+		Assert.assertEquals("null@0", entered.getLocation());
+		Assert.assertEquals("monitor-" + IMonitorEventProbe.TYPE_ENTERED_MONITOR, entered.getEventType());
+		Assert.assertEquals(TEST_THREAD.getId(), entered.getThreadId());
+		Assert.assertEquals(200, entered.getEventNanoTimestamp());
+	}
+
+	@Test
+	public void undecidedMonitorClassTest() throws MeasurementException, InterruptedException {
+		int recordsBefore = getData().getRecords(EventTimeStampRecord.class).size();
+
+		// the class of an undecided monitor is checked against the restriction
+		long[] events = { TEST_THREAD.getId(), 300, 7, 8 };
+		CEventAgentAdapter.processMonitorEvents(events, 1);
+
+		List<EventTimeStampRecord> records = getData().getRecords(EventTimeStampRecord.class);
+		Assert.assertEquals(recordsBefore + 1, records.size());
+		Assert.assertEquals("unknown@7", records.get(records.size() - 1).getLocation());
+	}
+
 	@Test
 	public void loadTest() throws MeasurementException, InterruptedException {
 		final Thread refThread = new Thread();
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.aim.api.exceptions.InstrumentationException;
+import org.aim.api.instrumentation.entities.InstrumentationEntity;
+import org.aim.api.measurement.MeasurementData;
+import org.aim.api.measurement.collector.AbstractDataSource;
+import org.aim.api.measurement.collector.CollectorFactory;
+import org.aim.artifacts.measurement.collector.MemoryDataSource;
+import org.aim.artifacts.probes.ResponsetimeProbe;
+import org.aim.artifacts.records.ResponseTimeRecord;
+import org.aim.description.InstrumentationDescription;
+import org.aim.description.builder.InstrumentationDescriptionBuilder;
+import org.aim.mainagent.instrumentor.JInstrumentation;
+import org.aim.mainagent.instrumentor.LoadTimeWeaver;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lpe.common.config.GlobalConfiguration;
+import org.lpe.common.extension.ExtensionRegistry;
+
+public class LoadTimeWeavingTest {
+	private static final String CLASS_K = "org.test.sut.ClassK";
+	private static final String METHOD_K1 = CLASS_K + ".methodK1()";
+
+	/**
+	 * Defines a fresh version of the test class, which has not been loaded
+	 * before.
+	 */
+	private static final class ChildFirstClassLoader extends ClassLoader {
+		private ChildFirstClassLoader() {
+			super(LoadTimeWeavingTest.class.getClassLoader());
+		}
+
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!CLASS_K.equals(name)) {
+				return super.loadClass(name, resolve);
+			}
+			Class<?> clazz = findLoadedClass(name);
+			if (clazz == null) {
+				try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					byte[] buffer = new byte[4096];
+					int read = in.read(buffer);
+					while (read >= 0) {
+						out.write(buffer, 0, read);
+						read = in.read(buffer);
+					}
+					byte[] byteCode = out.toByteArray();
+					clazz = defineClass(name, byteCode, 0, byteCode.length);
+				} catch (IOException e) {
+					throw new ClassNotFoundException(name, e);
+				}
+			}
+			return clazz;
+		}
+	}
+
+	@BeforeClass
+	public static void prepareCollector() {
+		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
+		AbstractDataSource dataSource = CollectorFactory.createDataSource(MemoryDataSource.class.getName(), null);
+		AbstractDataSource.setDefaultDataSource(dataSource);
+
+		Properties globalProperties = new Properties();
+		String currentDir = System.getProperty("user.dir");
+		globalProperties.setProperty(ExtensionRegistry.APP_ROOT_DIR_PROPERTY_KEY, currentDir);
+		globalProperties.setProperty(ExtensionRegistry.PLUGINS_FOLDER_PROPERTY_KEY, "plugins");
+		GlobalConfiguration.initialize(globalProperties);
+	}
+
+	@Before
+	public void enableLoadTimeWeaving() throws InstrumentationException {
+		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
+		LoadTimeWeaver.getInstance().setEnabled(true);
+		LoadTimeWeaver.getInstance().install(JInstrumentation.getInstance().getjInstrumentation());
+	}
+
+	@After
+	public void revertInstrumentation() throws InstrumentationException {
+		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
+		AdaptiveInstrumentationFacade.getInstance().undoInstrumentation();
+		LoadTimeWeaver.getInstance().setEnabled(false);
+	}
+
+	private static void instrumentClassK() throws InstrumentationException {
+		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
+		InstrumentationDescription descr = idBuilder.newMethodScopeEntity(METHOD_K1)
+				.addProbe(ResponsetimeProbe.MODEL_PROBE).entityDone().build();
+		AdaptiveInstrumentationFacade.getInstance().instrument(descr);
+	}
+
+	private static int countResponseTimeRecords(Object instance) throws Exception {
+		AbstractDataSource dataSource = AbstractDataSource.getDefaultDataSource();
+		dataSource.enable();
+		instance.getClass().getMethod("methodK1").invoke(instance);
+		dataSource.disable();
+		MeasurementData data = dataSource.read();
+		return data.getRecords(ResponseTimeRecord.class).size();
+	}
+
+	@Test
+	public void testClassIsInstrumentedOnLoad() throws Exception {
+		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
+		instrumentClassK();
+		Object instance = new ChildFirstClassLoader().loadClass(CLASS_K).newInstance();
+
+		Assert.assertEquals(1, countResponseTimeRecords(instance));
+		boolean registered = false;
+		for (InstrumentationEntity entity : AdaptiveInstrumentationFacade.getInstance().getInstrumentationState()
+				.getiEntites()) {
+			registered |= METHOD_K1.equals(entity.getMethod());
+		}
+		Assert.assertTrue(registered);
+	}
+
+	@Test
+	public void testUndoRevertsClassesInstrumentedOnLoad() throws Exception {
+		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
+		instrumentClassK();
+		// undone before the class has been registered in the instrumentation
+		// state
+		Object instance = new ChildFirstClassLoader().loadClass(CLASS_K).newInstance();
+		AdaptiveInstrumentationFacade.getInstance().undoInstrumentation();
+
+		Assert.assertEquals(0, countResponseTimeRecords(instance));
+		Assert.assertFalse(LoadTimeWeaver.getInstance().hasPendingClasses());
+	}
+
+	@Test
+	public void testClassLoadedAfterUndoIsNotInstrumented() throws Exception {
+		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
+		instrumentClassK();
+		AdaptiveInstrumentationFacade.getInstance().undoInstrumentation();
+		Object instance = new ChildFirstClassLoader().loadClass(CLASS_K).newInstance();
+
+		Assert.assertEquals(0, countResponseTimeRecords(instance));
+		Assert.assertFalse(LoadTimeWeaver.getInstance().hasPendingClasses());
+	}
+}
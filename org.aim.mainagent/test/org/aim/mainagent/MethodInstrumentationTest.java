@@ -16,12 +16,15 @@
 package org.aim.mainagent;
 
 import java.lang.reflect.Modifier;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 import junit.framework.Assert;
 
 import org.aim.api.exceptions.InstrumentationException;
 import org.aim.api.exceptions.MeasurementException;
+import org.aim.api.instrumentation.entities.InstrumentationEntity;
 import org.aim.api.measurement.MeasurementData;
 import org.aim.api.measurement.collector.AbstractDataSource;
 import org.aim.api.measurement.collector.CollectorFactory;
@@ -50,6 +53,11 @@ import org.test.sut.ClassH;
 import org.test.sut.ClassI;
 
 public class MethodInstrumentationTest {
+	/**
+	 * Maximum depth of the traced calls.
+	 */
+	private static final int TRACE_DEPTH = 4;
+	private static final long TRACE_TIMEOUT = 10000L;
 
 	public static void enableMeasurement() throws MeasurementException {
 		AbstractDataSource dataSource = AbstractDataSource.getDefaultDataSource();
@@ -69,6 +77,14 @@ public class MethodInstrumentationTest {
 		return dataSource.read();
 	}
 
+	/**
+	 * Waits for the incremental trace instrumentation, which is done in the
+	 * background one call level at a time.
+	 */
+	public static void awaitTraceInstrumentation() throws InterruptedException {
+		Assert.assertTrue(TraceInstrumentor.getInstance().awaitPendingInstrumentation(TRACE_TIMEOUT));
+	}
+
 	@BeforeClass
 	public static void prepareCollector() {
 		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
@@ -182,7 +198,8 @@ public class MethodInstrumentationTest {
 	}
 
 	@Test
-	public void testFullTraceScopeInstrumentation() throws InstrumentationException, MeasurementException {
+	public void testFullTraceScopeInstrumentation() throws InstrumentationException, MeasurementException,
+			InterruptedException {
 		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
 		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
 		InstrumentationDescription descr = idBuilder.newTraceScopeEntity()
@@ -194,7 +211,10 @@ public class MethodInstrumentationTest {
 
 		
 
-		f.methodF1();
+		for (int level = 0; level < TRACE_DEPTH; level++) {
+			f.methodF1();
+			awaitTraceInstrumentation();
+		}
 
 		enableMeasurement();
 		f = new ClassF();
@@ -219,7 +239,8 @@ public class MethodInstrumentationTest {
 	}
 	
 	@Test
-	public void testFullTraceScopeWithStaticMethodsInstrumentation() throws InstrumentationException, MeasurementException {
+	public void testFullTraceScopeWithStaticMethodsInstrumentation() throws InstrumentationException, MeasurementException,
+			InterruptedException {
 		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
 		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
 		InstrumentationDescription descr = idBuilder.newTraceScopeEntity()
@@ -234,6 +255,10 @@ public class MethodInstrumentationTest {
 
 		AdaptiveInstrumentationFacade.getInstance().instrument(descr);
 		
+		for (int level = 0; level < TRACE_DEPTH; level++) {
+			i.methodI1();
+			awaitTraceInstrumentation();
+		}
 		enableMeasurement();
 		i = new ClassI();
 		i.methodI1();
@@ -253,7 +278,8 @@ public class MethodInstrumentationTest {
 	}
 
 	@Test
-	public void testIntersectingFullTraceInstrumentationAtOnce() throws InstrumentationException, MeasurementException {
+	public void testIntersectingFullTraceInstrumentationAtOnce() throws InstrumentationException, MeasurementException,
+			InterruptedException {
 		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
 
 		ClassF f = new ClassF();
@@ -269,8 +295,11 @@ public class MethodInstrumentationTest {
 
 		AdaptiveInstrumentationFacade.getInstance().instrument(descr);
 
-		f.methodF1();
-		g.methodG1();
+		for (int level = 0; level < TRACE_DEPTH; level++) {
+			f.methodF1();
+			g.methodG1();
+			awaitTraceInstrumentation();
+		}
 		enableMeasurement();
 		f.methodF1();
 		g.methodG1();
@@ -292,7 +321,7 @@ public class MethodInstrumentationTest {
 
 	@Test
 	public void testIntersectingFullTraceInstrumentationStepwise() throws InstrumentationException,
-			MeasurementException {
+			MeasurementException, InterruptedException {
 		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
 		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
 		InstrumentationDescription descr = idBuilder.newTraceScopeEntity()
@@ -303,8 +332,11 @@ public class MethodInstrumentationTest {
 
 		ClassF f = new ClassF();
 		ClassG g = new ClassG();
-		g.methodG1();
-		f.methodF1();
+		for (int level = 0; level < TRACE_DEPTH; level++) {
+			g.methodG1();
+			f.methodF1();
+			awaitTraceInstrumentation();
+		}
 
 		enableMeasurement();
 		f.methodF1();
@@ -319,8 +351,11 @@ public class MethodInstrumentationTest {
 
 		AdaptiveInstrumentationFacade.getInstance().instrument(descr);
 
-		f.methodF1();
-		g.methodG1();
+		for (int level = 0; level < TRACE_DEPTH; level++) {
+			f.methodF1();
+			g.methodG1();
+			awaitTraceInstrumentation();
+		}
 		enableMeasurement();
 		f.methodF1();
 		g.methodG1();
@@ -341,7 +376,32 @@ public class MethodInstrumentationTest {
 	}
 
 	@Test
-	public void testFullTraceWithMethodScopeInstrumentation() throws InstrumentationException, MeasurementException {
+	public void testTraceCalleesAreInstrumentedInBackground() throws InstrumentationException,
+			InterruptedException {
+		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
+		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
+		InstrumentationDescription descr = idBuilder.newTraceScopeEntity()
+				.setMethodSubScope(ClassG.class.getName() + ".methodG1()").addProbe(ResponsetimeProbe.MODEL_PROBE)
+				.entityDone().build();
+		AdaptiveInstrumentationFacade.getInstance().instrument(descr);
+
+		// the traced call only queues its callees
+		new ClassG().methodG1();
+		awaitTraceInstrumentation();
+
+		Set<String> instrumentedMethods = new HashSet<>();
+		for (InstrumentationEntity entity : AdaptiveInstrumentationFacade.getInstance().getInstrumentationState()
+				.getiEntites()) {
+			instrumentedMethods.add(entity.getMethod());
+		}
+		Assert.assertTrue(instrumentedMethods.contains(ClassG.class.getName() + ".methodG1()"));
+		Assert.assertTrue(instrumentedMethods.contains(ClassD.class.getName() + ".ifMethodA()"));
+		Assert.assertTrue(instrumentedMethods.contains(ClassD.class.getName() + ".ifMethodB()"));
+	}
+
+	@Test
+	public void testFullTraceWithMethodScopeInstrumentation() throws InstrumentationException, MeasurementException,
+			InterruptedException {
 		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
 		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
 		InstrumentationDescription descr = idBuilder.newMethodScopeEntity(ClassD.class.getName() + ".ifMethodB()")
@@ -365,7 +425,10 @@ public class MethodInstrumentationTest {
 
 		f = new ClassF();
 
-		f.methodF1();
+		for (int level = 0; level < TRACE_DEPTH; level++) {
+			f.methodF1();
+			awaitTraceInstrumentation();
+		}
 
 		enableMeasurement();
 		f = new ClassF();
@@ -410,6 +473,35 @@ public class MethodInstrumentationTest {
 		Assert.assertTrue(data.getRecords().isEmpty());
 	}
 
+	@Test
+	public void testRevertMethodKeepsCoLocatedMethods() throws InstrumentationException, MeasurementException {
+		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
+		InstrumentationDescription descr = new InstrumentationDescriptionBuilder()
+				.newMethodScopeEntity(ClassA.class.getName() + ".methodA1()").addProbe(ResponsetimeProbe.MODEL_PROBE)
+				.entityDone().build();
+		AdaptiveInstrumentationFacade.getInstance().instrument(descr);
+		// the second method of the class is added with a different restriction
+		descr = new InstrumentationDescriptionBuilder().newGlobalRestriction().setGranularity(1.0)
+				.excludePackage("org.test.other").restrictionDone()
+				.newMethodScopeEntity(ClassA.class.getName() + ".methodA2(java.lang.Integer)")
+				.addProbe(ResponsetimeProbe.MODEL_PROBE).entityDone().build();
+		AdaptiveInstrumentationFacade.getInstance().instrument(descr);
+
+		Set<String> revertedMethods = new HashSet<>();
+		revertedMethods.add(ClassA.class.getName() + ".methodA1()");
+		AdaptiveInstrumentationFacade.getInstance().revertMethodInstrumentation(revertedMethods);
+
+		enableMeasurement();
+		ClassA a = new ClassA();
+		a.methodA1();
+		a.methodA2(1);
+		disableMeasurement();
+		MeasurementData data = getData();
+		Assert.assertEquals(1, data.getRecords(ResponseTimeRecord.class).size());
+		Assert.assertEquals(ClassA.class.getName() + ".methodA2(java.lang.Integer)",
+				data.getRecords(ResponseTimeRecord.class).get(0).getOperation());
+	}
+
 	@Test
 	public void testGlobalExclusions() throws InstrumentationException, MeasurementException {
 		Assume.assumeNotNull(System.getProperties().get(JInstrumentation.J_INSTRUMENTATION_KEY));
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent;
+
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.aim.api.instrumentation.InvocationStatistics;
+import org.aim.api.instrumentation.entities.DeinstrumentedMethod;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OverheadGuardTest {
+
+	private static final String HOT_METHOD = "org.test.Hot.get()";
+	private static final String COLD_METHOD = "org.test.Cold.run()";
+	private static final String EXPENSIVE_METHOD = "org.test.Expensive.get()";
+	private static final String CHEAP_METHOD = "org.test.Cheap.run()";
+	private static final long NO_AUTOMATIC_CHECK = 3600000L;
+
+	private OverheadGuard guard;
+
+	@Before
+	public void enableGuard() {
+		guard = OverheadGuard.getInstance();
+		guard.configure(1000.0, 0.0, NO_AUTOMATIC_CHECK);
+		// consume statistics of previous tests
+		guard.check(1.0);
+	}
+
+	@After
+	public void disableGuard() {
+		guard.configure(0.0, 0.0, OverheadGuard.DEFAULT_CHECK_INTERVAL);
+		guard.reset();
+	}
+
+	private void call(int id, int numCalls, long probeNanos) {
+		for (int i = 0; i < numCalls; i++) {
+			if (InvocationStatistics.enter(id) != 0L) {
+				InvocationStatistics.exit(id, probeNanos);
+			}
+		}
+	}
+
+	@Test
+	public void testConfiguration() {
+		Properties properties = new Properties();
+		properties.setProperty(OverheadGuard.MAX_OVERHEAD_KEY, "-1");
+		OverheadGuard.configure(properties);
+		Assert.assertFalse(guard.isEnabled());
+
+		properties.setProperty(OverheadGuard.MAX_OVERHEAD_KEY, "0.01");
+		OverheadGuard.configure(properties);
+		Assert.assertTrue(guard.isEnabled());
+	}
+
+	@Test
+	public void testCallRateBudget() {
+		int hotId = InvocationStatistics.register(HOT_METHOD);
+		int coldId = InvocationStatistics.register(COLD_METHOD);
+		call(hotId, 5000, 10L);
+		call(coldId, 500, 10L);
+
+		List<DeinstrumentedMethod> exceeding = guard.check(1.0);
+		Assert.assertEquals(1, exceeding.size());
+		Assert.assertEquals(HOT_METHOD, exceeding.get(0).getMethod());
+		Assert.assertEquals(5000.0, exceeding.get(0).getCallsPerSecond(), 0.0);
+		Assert.assertTrue(guard.isDeinstrumented(HOT_METHOD));
+		Assert.assertFalse(guard.isDeinstrumented(COLD_METHOD));
+		Assert.assertEquals(1, guard.getDeinstrumentedMethods().size());
+
+		// a reverted method is reported only once
+		call(hotId, 5000, 10L);
+		Assert.assertTrue(guard.check(1.0).isEmpty());
+
+		guard.reset();
+		Assert.assertFalse(guard.isDeinstrumented(HOT_METHOD));
+		Assert.assertTrue(guard.getDeinstrumentedMethods().isEmpty());
+	}
+
+	@Test
+	public void testOverheadBudget() {
+		guard.configure(0.0, 0.01, NO_AUTOMATIC_CHECK);
+		int expensiveId = InvocationStatistics.register(EXPENSIVE_METHOD);
+		int cheapId = InvocationStatistics.register(CHEAP_METHOD);
+		// 100000 calls per second with 1 microsecond probe time: 10% CPU
+		call(expensiveId, 100000, 1000L);
+		// 2000 calls per second with 1 microsecond probe time: 0.2% CPU
+		call(cheapId, 2000, 1000L);
+
+		List<DeinstrumentedMethod> exceeding = guard.check(1.0);
+		Assert.assertEquals(1, exceeding.size());
+		Assert.assertEquals(EXPENSIVE_METHOD, exceeding.get(0).getMethod());
+		Assert.assertEquals(0.1, exceeding.get(0).getOverhead(), 0.001);
+		Assert.assertFalse(guard.isDeinstrumented(CHEAP_METHOD));
+	}
+
+	@Test
+	public void testResetDiscardsStatistics() {
+		guard.configure(600.0, 0.0, NO_AUTOMATIC_CHECK);
+		int coldId = InvocationStatistics.register(COLD_METHOD);
+		call(coldId, 500, 10L);
+		Assert.assertTrue(guard.check(1.0).isEmpty());
+
+		guard.reset();
+		Assert.assertTrue(InvocationStatistics.snapshot().isEmpty());
+
+		// the calls after the reset are not compared to the calls before
+		coldId = InvocationStatistics.register(COLD_METHOD);
+		call(coldId, 800, 10L);
+		List<DeinstrumentedMethod> exceeding = guard.check(1.0);
+		Assert.assertEquals(1, exceeding.size());
+		Assert.assertEquals(800.0, exceeding.get(0).getCallsPerSecond(), 0.0);
+	}
+}
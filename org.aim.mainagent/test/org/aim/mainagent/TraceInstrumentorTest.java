@@ -0,0 +1,120 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.Assert;
+
+import org.aim.api.exceptions.InstrumentationException;
+import org.junit.Test;
+
+public class TraceInstrumentorTest {
+
+	/**
+	 * Records the instrumented methods and fails for a given method.
+	 */
+	private static final class RecordingInstrumentation implements TraceInstrumentor.BatchInstrumentation {
+		private final String failingMethod;
+		private final List<List<String>> calls = new ArrayList<>();
+		private final List<String> instrumentedMethods = new ArrayList<>();
+
+		private RecordingInstrumentation(String failingMethod) {
+			this.failingMethod = failingMethod;
+		}
+
+		@Override
+		public void instrument(List<String> methods) throws InstrumentationException {
+			calls.add(new ArrayList<>(methods));
+			if (methods.contains(failingMethod)) {
+				throw new InstrumentationException("Cannot instrument " + failingMethod);
+			}
+			instrumentedMethods.addAll(methods);
+		}
+	}
+
+	@Test
+	public void testBatchIsInstrumentedAtOnce() {
+		RecordingInstrumentation instrumentation = new RecordingInstrumentation(null);
+		Map<String, Throwable> failedMethods = TraceInstrumentor.instrumentWithFallback(
+				Arrays.asList("a.A.m1()", "a.A.m2()", "a.B.m3()"), instrumentation);
+
+		Assert.assertTrue(failedMethods.isEmpty());
+		Assert.assertEquals(1, instrumentation.calls.size());
+		Assert.assertEquals(3, instrumentation.instrumentedMethods.size());
+	}
+
+	@Test
+	public void testFailingMethodDoesNotFailBatch() {
+		RecordingInstrumentation instrumentation = new RecordingInstrumentation("a.A.m2()");
+		Map<String, Throwable> failedMethods = TraceInstrumentor.instrumentWithFallback(
+				Arrays.asList("a.A.m1()", "a.A.m2()", "a.B.m3()"), instrumentation);
+
+		Assert.assertEquals(1, failedMethods.size());
+		Assert.assertTrue(failedMethods.get("a.A.m2()") instanceof InstrumentationException);
+		Assert.assertEquals(Arrays.asList("a.A.m1()", "a.B.m3()"), instrumentation.instrumentedMethods);
+		// the batch and each method on its own
+		Assert.assertEquals(4, instrumentation.calls.size());
+	}
+
+	@Test
+	public void testSingleFailingMethodIsNotRetried() {
+		RecordingInstrumentation instrumentation = new RecordingInstrumentation("a.A.m1()");
+		Map<String, Throwable> failedMethods = TraceInstrumentor.instrumentWithFallback(
+				Collections.singletonList("a.A.m1()"), instrumentation);
+
+		Assert.assertEquals(1, failedMethods.size());
+		Assert.assertEquals(1, instrumentation.calls.size());
+		Assert.assertTrue(instrumentation.instrumentedMethods.isEmpty());
+	}
+
+	@Test
+	public void testBatchOfUndoneJobIsSkipped() throws InterruptedException {
+		final Object lock = new Object();
+		final Map<Long, Boolean> activeJobs = new ConcurrentHashMap<>();
+		activeJobs.put(1L, true);
+		final RecordingInstrumentation instrumentation = new RecordingInstrumentation(null);
+		final TraceInstrumentor.BatchInstrumentation guardedInstrumentation = TraceInstrumentor.whileJobActive(lock,
+				activeJobs, 1L, instrumentation);
+
+		Thread worker = new Thread() {
+			@Override
+			public void run() {
+				TraceInstrumentor.instrumentWithFallback(Collections.singletonList("a.A.m1()"),
+						guardedInstrumentation);
+			}
+		};
+		synchronized (lock) {
+			// the worker blocks on the lock while the job is undone
+			worker.start();
+			while (worker.getState() != Thread.State.BLOCKED) {
+				Thread.sleep(1);
+			}
+			activeJobs.clear();
+		}
+		worker.join();
+		Assert.assertTrue(instrumentation.calls.isEmpty());
+
+		activeJobs.put(1L, true);
+		TraceInstrumentor.instrumentWithFallback(Collections.singletonList("a.A.m1()"), guardedInstrumentation);
+		Assert.assertEquals(1, instrumentation.instrumentedMethods.size());
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.builder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class PrecompiledSnippetsTest {
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testStoreAndRead() throws IOException {
+		MultiSnippet snippet = new MultiSnippet();
+		snippet.getBeforePart().put(Collections.EMPTY_SET, "_Probe_start = System.nanoTime();");
+		Set<String> nameRequirements = new HashSet<>();
+		nameRequirements.add("execute");
+		nameRequirements.add("prepare");
+		snippet.getBeforePart().put(nameRequirements, "_Probe_query = $1;\n");
+		snippet.getAfterPart().put(Collections.EMPTY_SET, "_Probe_end = System.nanoTime();");
+		snippet.setIncrementalPart("org.aim.Foo.bar($0, 1L);");
+
+		PrecompiledSnippets snippets = new PrecompiledSnippets();
+		snippets.add(PrecompiledSnippetsTest.class, snippet);
+		ByteArrayOutputStream oStream = new ByteArrayOutputStream();
+		snippets.store(oStream);
+
+		PrecompiledSnippets readSnippets = new PrecompiledSnippets();
+		readSnippets.read(new ByteArrayInputStream(oStream.toByteArray()));
+		MultiSnippet readSnippet = readSnippets.get(PrecompiledSnippetsTest.class);
+
+		Assert.assertNotNull(readSnippet);
+		Assert.assertEquals(snippet.getBeforePart(), readSnippet.getBeforePart());
+		Assert.assertEquals(snippet.getAfterPart(), readSnippet.getAfterPart());
+		Assert.assertEquals(snippet.getIncrementalPart(), readSnippet.getIncrementalPart());
+		Assert.assertNull(readSnippets.get(MultiSnippet.class));
+	}
+
+	@Test
+	public void testChecksum() throws IOException {
+		Assert.assertEquals(PrecompiledSnippets.checksum(MultiSnippet.class),
+				PrecompiledSnippets.checksum(MultiSnippet.class));
+		Assert.assertTrue(PrecompiledSnippets.checksum(MultiSnippet.class) != PrecompiledSnippets
+				.checksum(PrecompiledSnippetsTest.class));
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.instrumentor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import junit.framework.Assert;
+
+import org.aim.api.instrumentation.InvocationStatistics;
+import org.aim.api.instrumentation.description.internal.FlatInstrumentationEntity;
+import org.aim.api.instrumentation.description.internal.InstrumentationSet;
+import org.aim.description.restrictions.Restriction;
+import org.aim.mainagent.OverheadGuard;
+import org.aim.mainagent.probes.builder.DummyProbe;
+import org.junit.After;
+import org.junit.Test;
+import org.test.sut.ClassA;
+import org.test.sut.ClassB;
+import org.test.sut.ClassC;
+import org.test.sut.ClassF;
+import org.test.sut.ClassG;
+import org.test.sut.ClassI;
+
+public class BCInjectorTest {
+
+	@After
+	public void tearDown() {
+		BCInjector.getInstance().revertInstrumentation();
+		BCInjector.getInstance().setWeavingThreads(BCInjector.DEFAULT_WEAVING_THREADS);
+		BytecodeCache.getInstance().setRetainOnUndo(false);
+		BytecodeCache.getInstance().clear();
+		OverheadGuard.getInstance().configure(0.0, 0.0, OverheadGuard.DEFAULT_CHECK_INTERVAL);
+		InvocationStatistics.reset();
+	}
+
+	private static InstrumentationSet createInstrumentationSet() {
+		List<FlatInstrumentationEntity> entities = new ArrayList<>();
+		entities.add(new FlatInstrumentationEntity(ClassA.class, "org.test.sut.ClassA.methodA1()", DummyProbe.class));
+		entities.add(new FlatInstrumentationEntity(ClassB.class, "org.test.sut.ClassB.methodB1()", DummyProbe.class));
+		entities.add(new FlatInstrumentationEntity(ClassC.class, "org.test.sut.ClassC.methodC1()", DummyProbe.class));
+		entities.add(new FlatInstrumentationEntity(ClassF.class, "org.test.sut.ClassF.methodF1()", DummyProbe.class));
+		entities.add(new FlatInstrumentationEntity(ClassG.class, "org.test.sut.ClassG.methodG1()", DummyProbe.class));
+		entities.add(new FlatInstrumentationEntity(ClassI.class, "org.test.sut.ClassI.methodI1()", DummyProbe.class));
+		return new InstrumentationSet(entities);
+	}
+
+	private static Map<Class<?>, byte[]> weave(int threads) {
+		BCInjector injector = BCInjector.getInstance();
+		injector.setWeavingThreads(threads);
+		Map<Class<?>, byte[]> result = injector.injectInstrumentationProbes(createInstrumentationSet(),
+				new Restriction());
+		injector.revertInstrumentation();
+		BytecodeCache.getInstance().clear();
+		return result;
+	}
+
+	@Test
+	public void testParallelWeavingMatchesSequentialWeaving() {
+		Map<Class<?>, byte[]> sequential = weave(1);
+		Map<Class<?>, byte[]> parallel = weave(4);
+
+		Assert.assertEquals(6, sequential.size());
+		Assert.assertEquals(sequential.keySet(), parallel.keySet());
+		for (Entry<Class<?>, byte[]> entry : sequential.entrySet()) {
+			Assert.assertTrue(entry.getKey().getName(), Arrays.equals(entry.getValue(), parallel.get(entry.getKey())));
+		}
+	}
+
+	@Test
+	public void testOriginalByteCodeIsRegisteredOnce() {
+		BCInjector injector = BCInjector.getInstance();
+		injector.setWeavingThreads(4);
+		injector.injectInstrumentationProbes(createInstrumentationSet(), new Restriction());
+		injector.injectInstrumentationProbes(createInstrumentationSet(), new Restriction());
+		Assert.assertEquals(6, injector.revertInstrumentation().size());
+		Assert.assertTrue(injector.revertInstrumentation().isEmpty());
+	}
+
+	@Test
+	public void testInstrumentAfterUndoFromCache() {
+		BCInjector injector = BCInjector.getInstance();
+		BytecodeCache cache = BytecodeCache.getInstance();
+		cache.setRetainOnUndo(true);
+
+		// without registered ids, the cached bytecode is reused after an undo
+		injector.injectInstrumentationProbes(createInstrumentationSet(), new Restriction());
+		injector.revertInstrumentation();
+		cache.undoInstrumentation();
+		InvocationStatistics.reset();
+		long hits = cache.getHits();
+		injector.injectInstrumentationProbes(createInstrumentationSet(), new Restriction());
+		Assert.assertEquals(hits + 6, cache.getHits());
+		injector.revertInstrumentation();
+
+		// probes woven with ids of the reset statistics are woven again, thus,
+		// the methods are registered again
+		OverheadGuard.getInstance().configure(Double.MAX_VALUE, 0.0, Long.MAX_VALUE);
+		injector.injectInstrumentationProbes(createInstrumentationSet(), new Restriction());
+		injector.revertInstrumentation();
+		cache.undoInstrumentation();
+		InvocationStatistics.reset();
+		hits = cache.getHits();
+		injector.injectInstrumentationProbes(createInstrumentationSet(), new Restriction());
+		Assert.assertEquals(hits, cache.getHits());
+		Assert.assertEquals(6, InvocationStatistics.snapshot().size());
+		Assert.assertTrue(InvocationStatistics.snapshot().containsKey("org.test.sut.ClassA.methodA1()"));
+	}
+}
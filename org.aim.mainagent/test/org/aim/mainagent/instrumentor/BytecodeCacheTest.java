@@ -0,0 +1,177 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.instrumentor;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.aim.api.instrumentation.AbstractEnclosingProbe;
+import org.aim.api.instrumentation.AdaptiveSampler;
+import org.aim.api.instrumentation.InvocationStatistics;
+import org.aim.description.restrictions.Restriction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BytecodeCacheTest {
+	private static final byte[] ORIGINAL = new byte[] { 1, 2, 3, 4 };
+	private static final byte[] INSTRUMENTED = new byte[] { 1, 2, 3, 4, 5, 6 };
+
+	private BytecodeCache cache;
+
+	@Before
+	public void setUp() {
+		cache = BytecodeCache.getInstance();
+		cache.setMaxBytes(BytecodeCache.DEFAULT_MAX_BYTES);
+		cache.clear();
+	}
+
+	@After
+	public void tearDown() {
+		cache.setMaxBytes(BytecodeCache.DEFAULT_MAX_BYTES);
+		cache.setRetainOnUndo(false);
+		cache.clear();
+		InvocationStatistics.reset();
+		AdaptiveSampler.reset();
+	}
+
+	/**
+	 * Defines a class in a new class loader.
+	 */
+	private static Class<?> defineClassInNewLoader() {
+		ClassLoader loader = new ClassLoader(BytecodeCacheTest.class.getClassLoader()) {
+		};
+		return Proxy.getProxyClass(loader, Runnable.class);
+	}
+
+	private static BytecodeCache.Key key(Class<?> clazz, byte[] original, String method, double granularity) {
+		Map<String, Set<Long>> methods = new HashMap<>();
+		methods.put(method, Collections.singleton(1L));
+		Map<String, Set<Class<? extends AbstractEnclosingProbe>>> probes = new HashMap<>();
+		probes.put(method, Collections.<Class<? extends AbstractEnclosingProbe>> emptySet());
+		Restriction restriction = new Restriction();
+		restriction.addPackageExclude("java.*");
+		restriction.setGranularity(granularity);
+		return new BytecodeCache.Key(clazz, original, methods, probes, restriction);
+	}
+
+	@Test
+	public void testHitAndMiss() {
+		Assert.assertNull(cache.get(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL));
+		cache.put(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL, INSTRUMENTED);
+
+		Assert.assertSame(INSTRUMENTED, cache.get(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL));
+		Assert.assertNull(cache.get(key(String.class, ORIGINAL, "n()", 1.0), ORIGINAL));
+		Assert.assertNull(cache.get(key(String.class, ORIGINAL, "m()", 0.5), ORIGINAL));
+		Assert.assertNull(cache.get(key(Integer.class, ORIGINAL, "m()", 1.0), ORIGINAL));
+
+		byte[] changed = new byte[] { 4, 3, 2, 1 };
+		Assert.assertNull(cache.get(key(String.class, changed, "m()", 1.0), changed));
+		Assert.assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testLruEviction() {
+		long entrySize = ORIGINAL.length + INSTRUMENTED.length;
+		cache.setMaxBytes(2 * entrySize);
+		cache.put(key(String.class, ORIGINAL, "a()", 1.0), ORIGINAL, INSTRUMENTED);
+		cache.put(key(String.class, ORIGINAL, "b()", 1.0), ORIGINAL, INSTRUMENTED);
+		Assert.assertNotNull(cache.get(key(String.class, ORIGINAL, "a()", 1.0), ORIGINAL));
+
+		cache.put(key(String.class, ORIGINAL, "c()", 1.0), ORIGINAL, INSTRUMENTED);
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(2 * entrySize, cache.getCachedBytes());
+		Assert.assertNotNull(cache.get(key(String.class, ORIGINAL, "a()", 1.0), ORIGINAL));
+		Assert.assertNull(cache.get(key(String.class, ORIGINAL, "b()", 1.0), ORIGINAL));
+		Assert.assertNotNull(cache.get(key(String.class, ORIGINAL, "c()", 1.0), ORIGINAL));
+
+		cache.setMaxBytes(0);
+		Assert.assertEquals(0, cache.size());
+		cache.put(key(String.class, ORIGINAL, "a()", 1.0), ORIGINAL, INSTRUMENTED);
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testClassesAreIdentifiedByLoaderAndName() {
+		Class<?> clazz = defineClassInNewLoader();
+		Class<?> otherClazz = defineClassInNewLoader();
+		cache.put(key(clazz, ORIGINAL, "m()", 1.0), ORIGINAL, INSTRUMENTED);
+
+		Assert.assertSame(INSTRUMENTED, cache.get(key(clazz, ORIGINAL, "m()", 1.0), ORIGINAL));
+		Assert.assertNull(cache.get(key(otherClazz, ORIGINAL, "m()", 1.0), ORIGINAL));
+	}
+
+	@Test
+	public void testEntriesOfCollectedLoadersAreRemoved() throws InterruptedException {
+		Class<?> clazz = defineClassInNewLoader();
+		WeakReference<ClassLoader> loaderReference = new WeakReference<>(clazz.getClassLoader());
+		cache.put(key(clazz, ORIGINAL, "m()", 1.0), ORIGINAL, INSTRUMENTED);
+		cache.put(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL, INSTRUMENTED);
+		Assert.assertEquals(2, cache.size());
+
+		// the cache does not pin the class
+		clazz = null;
+		for (int i = 0; i < 50 && loaderReference.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		Assert.assertNull(loaderReference.get());
+
+		Assert.assertNotNull(cache.get(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL));
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(ORIGINAL.length + INSTRUMENTED.length, cache.getCachedBytes());
+	}
+
+	@Test
+	public void testUndoClearsCache() {
+		cache.put(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL, INSTRUMENTED);
+		cache.undoInstrumentation();
+		Assert.assertEquals(0, cache.size());
+
+		cache.setRetainOnUndo(true);
+		cache.put(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL, INSTRUMENTED);
+		cache.undoInstrumentation();
+		Assert.assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testEntriesAreBoundToRegisteredIds() {
+		cache.setRetainOnUndo(true);
+		cache.put(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL, INSTRUMENTED);
+
+		// resetting empty registries does not invalidate any woven ids
+		InvocationStatistics.reset();
+		AdaptiveSampler.reset();
+		Assert.assertSame(INSTRUMENTED, cache.get(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL));
+
+		InvocationStatistics.register("m()");
+		cache.put(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL, INSTRUMENTED);
+		cache.undoInstrumentation();
+		InvocationStatistics.reset();
+		Assert.assertNull(cache.get(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL));
+
+		AdaptiveSampler.register("m()", 1.0);
+		cache.put(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL, INSTRUMENTED);
+		AdaptiveSampler.reset();
+		Assert.assertNull(cache.get(key(String.class, ORIGINAL, "m()", 1.0), ORIGINAL));
+	}
+}
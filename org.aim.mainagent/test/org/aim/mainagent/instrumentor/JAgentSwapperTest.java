@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.instrumentor;
+
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class JAgentSwapperTest {
+
+	private static final Class<?>[] CLASSES = { String.class, Integer.class, Long.class, Double.class, Float.class };
+
+	/**
+	 * Sizes of the redefinition calls.
+	 */
+	private final List<Integer> calls = new ArrayList<>();
+
+	/**
+	 * Creates an instrumentation recording the redefinition calls, which
+	 * fails for each call containing the given class.
+	 */
+	private Instrumentation createInstrumentation(final Class<?> unmodifiableClass) {
+		return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { Instrumentation.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args)
+							throws UnmodifiableClassException {
+						if (!method.getName().equals("redefineClasses")) {
+							throw new UnsupportedOperationException(method.getName());
+						}
+						ClassDefinition[] definitions = (ClassDefinition[]) args[0];
+						calls.add(definitions.length);
+						for (ClassDefinition definition : definitions) {
+							if (definition.getDefinitionClass() == unmodifiableClass) {
+								throw new UnmodifiableClassException(unmodifiableClass.getName());
+							}
+						}
+						return null;
+					}
+				});
+	}
+
+	private static Map<Class<?>, byte[]> createByteCodes() {
+		Map<Class<?>, byte[]> byteCodes = new LinkedHashMap<>();
+		for (Class<?> clazz : CLASSES) {
+			byteCodes.put(clazz, new byte[0]);
+		}
+		return byteCodes;
+	}
+
+	@Test
+	public void testClassesAreRedefinedInBatches() {
+		int redefined = JAgentSwapper.redefineClasses(createInstrumentation(null), createByteCodes(), 2);
+		Assert.assertEquals(CLASSES.length, redefined);
+		Assert.assertEquals(3, calls.size());
+		Assert.assertEquals(2, calls.get(0).intValue());
+		Assert.assertEquals(2, calls.get(1).intValue());
+		Assert.assertEquals(1, calls.get(2).intValue());
+	}
+
+	@Test
+	public void testFailedBatchIsRedefinedClassByClass() {
+		int redefined = JAgentSwapper.redefineClasses(createInstrumentation(Integer.class), createByteCodes(), 3);
+		// the first batch fails and is redefined class by class, the second
+		// batch is not affected
+		Assert.assertEquals(CLASSES.length - 1, redefined);
+		Assert.assertEquals(5, calls.size());
+		Assert.assertEquals(3, calls.get(0).intValue());
+		Assert.assertEquals(1, calls.get(1).intValue());
+		Assert.assertEquals(1, calls.get(2).intValue());
+		Assert.assertEquals(1, calls.get(3).intValue());
+		Assert.assertEquals(2, calls.get(4).intValue());
+	}
+
+	@Test
+	public void testFailedSingleClassIsNotRetried() {
+		int redefined = JAgentSwapper.redefineClasses(createInstrumentation(Long.class), createByteCodes(), 1);
+		Assert.assertEquals(CLASSES.length - 1, redefined);
+		Assert.assertEquals(CLASSES.length, calls.size());
+	}
+}
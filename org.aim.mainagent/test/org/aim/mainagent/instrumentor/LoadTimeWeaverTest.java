@@ -0,0 +1,196 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.instrumentor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.aim.api.exceptions.InstrumentationException;
+import org.aim.artifacts.probes.ResponsetimeProbe;
+import org.aim.description.InstrumentationDescription;
+import org.aim.description.builder.InstrumentationDescriptionBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lpe.common.config.GlobalConfiguration;
+import org.lpe.common.extension.ExtensionRegistry;
+
+public class LoadTimeWeaverTest {
+	private static final String CLASS_K = "org.test.sut.ClassK";
+	private static final String METHOD_K1 = CLASS_K + ".methodK1()";
+
+	private LoadTimeWeaver weaver;
+	private Runnable previousRegistrationTask;
+	private CountDownLatch registrations;
+
+	@BeforeClass
+	public static void initializeExtensions() {
+		Properties globalProperties = new Properties();
+		String currentDir = System.getProperty("user.dir");
+		globalProperties.setProperty(ExtensionRegistry.APP_ROOT_DIR_PROPERTY_KEY, currentDir);
+		globalProperties.setProperty(ExtensionRegistry.PLUGINS_FOLDER_PROPERTY_KEY, "plugins");
+		GlobalConfiguration.initialize(globalProperties);
+	}
+
+	@Before
+	public void setUp() throws InstrumentationException {
+		weaver = LoadTimeWeaver.getInstance();
+		previousRegistrationTask = weaver.getRegistrationTask();
+		registrations = new CountDownLatch(1);
+		weaver.setRegistrationTask(new Runnable() {
+			@Override
+			public void run() {
+				registrations.countDown();
+			}
+		});
+		weaver.setEnabled(true);
+		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
+		InstrumentationDescription descr = idBuilder.newMethodScopeEntity(METHOD_K1)
+				.addProbe(ResponsetimeProbe.MODEL_PROBE).entityDone().build();
+		weaver.activate(descr);
+	}
+
+	@After
+	public void tearDown() {
+		weaver.deactivate();
+		weaver.drainWovenClasses();
+		weaver.setEnabled(false);
+		weaver.setRegistrationTask(previousRegistrationTask);
+	}
+
+	private static byte[] readClassFile(String className) throws IOException {
+		try (InputStream in = LoadTimeWeaverTest.class.getResourceAsStream("/" + className.replace('.', '/')
+				+ ".class")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read = in.read(buffer);
+			while (read >= 0) {
+				out.write(buffer, 0, read);
+				read = in.read(buffer);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private byte[] transform(ClassLoader loader, String className) throws IOException {
+		return weaver.transform(loader, className.replace('.', '/'), null, null, readClassFile(className));
+	}
+
+	@Test
+	public void testClassIsWovenOnLoad() throws IOException, InterruptedException {
+		ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+		};
+		byte[] original = readClassFile(CLASS_K);
+		byte[] woven = transform(loader, CLASS_K);
+		Assert.assertNotNull(woven);
+		Assert.assertFalse(Arrays.equals(original, woven));
+
+		// registration is triggered without any further API call
+		Assert.assertTrue(registrations.await(5, TimeUnit.SECONDS));
+
+		List<LoadTimeWeaver.WovenClass> wovenClasses = weaver.drainWovenClasses();
+		Assert.assertEquals(1, wovenClasses.size());
+		LoadTimeWeaver.WovenClass wovenClass = wovenClasses.get(0);
+		Assert.assertEquals(CLASS_K, wovenClass.getClassName());
+		Assert.assertSame(loader, wovenClass.getClassLoader());
+		Assert.assertTrue(Arrays.equals(original, wovenClass.getOriginalByteCode()));
+		Assert.assertEquals(1, wovenClass.getMethodsToInstrument().size());
+		Assert.assertTrue(wovenClass.getMethodsToInstrument().containsKey(METHOD_K1));
+		Assert.assertEquals(weaver.getGeneration(), wovenClass.getGeneration());
+		Assert.assertFalse(weaver.hasPendingClasses());
+	}
+
+	@Test
+	public void testUnmatchedClassIsNotWoven() throws IOException {
+		Assert.assertNull(transform(getClass().getClassLoader(), "org.test.sut.ClassJ"));
+		Assert.assertFalse(weaver.hasPendingClasses());
+	}
+
+	@Test
+	public void testClassWovenBeforeDeactivationIsOutdated() throws IOException {
+		ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+		};
+		Assert.assertNotNull(transform(loader, CLASS_K));
+		weaver.deactivate();
+
+		List<LoadTimeWeaver.WovenClass> wovenClasses = weaver.drainWovenClasses();
+		Assert.assertEquals(1, wovenClasses.size());
+		Assert.assertTrue(wovenClasses.get(0).getGeneration() != weaver.getGeneration());
+
+		// classes loaded after the deactivation stay untouched
+		Assert.assertNull(transform(loader, CLASS_K));
+		Assert.assertFalse(weaver.hasPendingClasses());
+	}
+
+	@Test
+	public void testWovenClassDoesNotPinClassLoader() throws IOException, InterruptedException {
+		ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+		};
+		WeakReference<ClassLoader> loaderReference = new WeakReference<>(loader);
+		Assert.assertNotNull(transform(loader, CLASS_K));
+		loader = null;
+
+		List<LoadTimeWeaver.WovenClass> wovenClasses = weaver.drainWovenClasses();
+		Assert.assertEquals(1, wovenClasses.size());
+		for (int i = 0; i < 50 && loaderReference.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		Assert.assertNull(loaderReference.get());
+		Assert.assertNull(wovenClasses.get(0).getClassLoader());
+
+		// a class whose loader is gone is not queued again
+		weaver.requeue(wovenClasses.get(0));
+		Assert.assertFalse(weaver.hasPendingClasses());
+	}
+
+	@Test
+	public void testConflictingRestrictionsAreNotWovenOnLoad() throws IOException, InstrumentationException {
+		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
+		idBuilder.newGlobalRestriction().setGranularity(0.5).restrictionDone();
+		weaver.activate(idBuilder.newMethodScopeEntity(METHOD_K1).addProbe(ResponsetimeProbe.MODEL_PROBE)
+				.entityDone().build());
+
+		ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+		};
+		Assert.assertNull(transform(loader, CLASS_K));
+		Assert.assertFalse(weaver.hasPendingClasses());
+	}
+
+	@Test
+	public void testEqualRestrictionsAreWovenOnLoad() throws IOException, InstrumentationException {
+		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
+		weaver.activate(idBuilder.newMethodScopeEntity(METHOD_K1).addProbe(ResponsetimeProbe.MODEL_PROBE)
+				.entityDone().build());
+
+		ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+		};
+		Assert.assertNotNull(transform(loader, CLASS_K));
+		List<LoadTimeWeaver.WovenClass> wovenClasses = weaver.drainWovenClasses();
+		Assert.assertEquals(1, wovenClasses.size());
+		Assert.assertTrue(wovenClasses.get(0).getMethodsToInstrument().containsKey(METHOD_K1));
+	}
+}
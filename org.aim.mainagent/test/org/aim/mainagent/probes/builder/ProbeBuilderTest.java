@@ -39,7 +39,7 @@ public class ProbeBuilderTest {
 	public static final String ANOTHER_DUMMY_SNIPPET_CONTROL_SEQUENCE_2 = "_AnotherDummyProbe_record = new "
 			+ ResponseTimeRecord.class.getName() + "()";
 	public static final String ANOTHER_DUMMY_SNIPPET_CONTROL_SEQUENCE_3 = "System.out.println(\"AnotherAfterControlSequence\");";
-	public static final int GENERIC_SNIPPET_NUM_VARIABLES = 4;
+	public static final int GENERIC_SNIPPET_NUM_VARIABLES = 7;
 	public static final int DUMMY_SNIPPET_NUM_VARIABLES = 3;
 	public static final int ANOTHER_DUMMY_SNIPPET_NUM_VARIABLES = 2;
 
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.scope;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.aim.api.exceptions.InstrumentationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.test.sut.AbstractClass1;
+import org.test.sut.ClassA;
+import org.test.sut.ClassB;
+import org.test.sut.ClassC;
+
+public class LoadedClassIndexTest {
+	private static final String CLASS_K = "org.test.sut.ClassK";
+
+	private final AtomicInteger scans = new AtomicInteger();
+	private LoadedClassIndex index;
+
+	/**
+	 * Defines a fresh version of the test class, which has not been loaded
+	 * before.
+	 */
+	private static final class ChildFirstClassLoader extends ClassLoader {
+		private volatile Class<?> definedClass;
+
+		private ChildFirstClassLoader() {
+			super(LoadedClassIndexTest.class.getClassLoader());
+		}
+
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!CLASS_K.equals(name)) {
+				return super.loadClass(name, resolve);
+			}
+			Class<?> clazz = findLoadedClass(name);
+			if (clazz == null) {
+				try {
+					byte[] byteCode = readClassFile(name);
+					clazz = defineClass(name, byteCode, 0, byteCode.length);
+					definedClass = clazz;
+				} catch (IOException e) {
+					throw new ClassNotFoundException(name, e);
+				}
+			}
+			return clazz;
+		}
+	}
+
+	private static byte[] readClassFile(String className) throws IOException {
+		try (InputStream in = LoadedClassIndexTest.class.getResourceAsStream("/" + className.replace('.', '/')
+				+ ".class")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read = in.read(buffer);
+			while (read >= 0) {
+				out.write(buffer, 0, read);
+				read = in.read(buffer);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	@Before
+	public void setUp() {
+		final Class<?>[] initialClasses = { AbstractClass1.class, ClassA.class, ClassB.class, ClassC.class };
+		Instrumentation inst = (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { Instrumentation.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) {
+						if (method.getName().equals("getAllLoadedClasses")) {
+							scans.incrementAndGet();
+							return initialClasses.clone();
+						}
+						if (method.getName().equals("getInitiatedClasses")) {
+							// the classes defined by the test class loaders
+							if (args[0] instanceof ChildFirstClassLoader
+									&& ((ChildFirstClassLoader) args[0]).definedClass != null) {
+								return new Class<?>[] { ((ChildFirstClassLoader) args[0]).definedClass };
+							}
+							return new Class<?>[0];
+						}
+						return null;
+					}
+				});
+		index = new LoadedClassIndex();
+		index.install(inst);
+	}
+
+	private Class<?> loadClassK(ClassLoader loader) throws ClassNotFoundException, IOException {
+		// the JVM calls the hook before the class is defined
+		index.transform(loader, CLASS_K.replace('.', '/'), null, null, readClassFile(CLASS_K));
+		return loader.loadClass(CLASS_K);
+	}
+
+	@Test
+	public void testLookups() throws InstrumentationException {
+		Assert.assertEquals(4, index.getAllClasses().size());
+		Assert.assertEquals(1, index.getClassesByName(ClassA.class.getName()).size());
+		Assert.assertSame(ClassA.class, index.getClassesByName(ClassA.class.getName()).get(0));
+		Assert.assertTrue(index.getClassesByName("org.test.sut.ClassZ").isEmpty());
+		Assert.assertEquals(4, index.getClassesByNamePrefix("org.test.sut.").size());
+		Assert.assertEquals(1, index.getClassesByNamePrefix("org.test.sut.ClassA").size());
+
+		List<Class<?>> subTypes = index.getSubTypes(AbstractClass1.class.getName());
+		Assert.assertTrue(subTypes.contains(AbstractClass1.class));
+		Assert.assertTrue(subTypes.contains(ClassA.class));
+		Assert.assertFalse(subTypes.contains(ClassB.class));
+		Assert.assertEquals(1, scans.get());
+	}
+
+	@Test
+	public void testNewClassesAreAddedWithoutRescan() throws Exception {
+		Assert.assertTrue(index.getClassesByName(CLASS_K).isEmpty());
+		Assert.assertEquals(1, scans.get());
+
+		Class<?> classK = loadClassK(new ChildFirstClassLoader());
+		List<Class<?>> classes = index.getClassesByName(CLASS_K);
+		Assert.assertEquals(1, classes.size());
+		Assert.assertSame(classK, classes.get(0));
+		Assert.assertEquals(5, index.getAllClasses().size());
+
+		// one entry per defining class loader
+		Class<?> otherClassK = loadClassK(new ChildFirstClassLoader());
+		Assert.assertFalse(classK == otherClassK);
+		Assert.assertEquals(2, index.getClassesByName(CLASS_K).size());
+		Assert.assertEquals(1, scans.get());
+	}
+
+	@Test
+	public void testClassesAreNotPinned() throws Exception {
+		index.getAllClasses();
+		ClassLoader loader = new ChildFirstClassLoader();
+		Class<?> classK = loadClassK(loader);
+		Assert.assertEquals(1, index.getClassesByName(CLASS_K).size());
+
+		WeakReference<ClassLoader> loaderReference = new WeakReference<>(loader);
+		loader = null;
+		classK = null;
+		for (int i = 0; i < 50 && loaderReference.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		Assert.assertNull(loaderReference.get());
+		Assert.assertTrue(index.getClassesByName(CLASS_K).isEmpty());
+		Assert.assertEquals(4, index.getAllClasses().size());
+	}
+
+	@Test
+	public void testClearRescans() throws InstrumentationException {
+		index.getAllClasses();
+		index.clear();
+		Assert.assertEquals(4, index.getAllClasses().size());
+		Assert.assertEquals(2, scans.get());
+	}
+
+	@Test
+	public void testSlowDefinitionIsNotMissed() throws Exception {
+		index.getAllClasses();
+		ClassLoader loader = new ChildFirstClassLoader();
+		index.transform(loader, CLASS_K.replace('.', '/'), null, null, readClassFile(CLASS_K));
+
+		// lookups while the class is being defined do not drop the class
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(index.getClassesByName(CLASS_K).isEmpty());
+		}
+		Class<?> classK = loader.loadClass(CLASS_K);
+		Assert.assertEquals(1, index.getClassesByName(CLASS_K).size());
+		Assert.assertSame(classK, index.getClassesByName(CLASS_K).get(0));
+		Assert.assertEquals(1, scans.get());
+	}
+
+	@Test
+	public void testUnresolvedClassTriggersRescan() throws Exception {
+		index.getAllClasses();
+		index.setResolveTimeout(0L);
+		index.transform(new ChildFirstClassLoader(), CLASS_K.replace('.', '/'), null, null, readClassFile(CLASS_K));
+
+		Assert.assertTrue(index.getClassesByName(CLASS_K).isEmpty());
+		Assert.assertEquals(2, scans.get());
+		Assert.assertEquals(4, index.getAllClasses().size());
+		Assert.assertEquals(2, scans.get());
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.scope;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.aim.api.instrumentation.description.internal.FlatInstrumentationEntity;
+import org.aim.artifacts.probes.ResponsetimeProbe;
+import org.aim.description.InstrumentationDescription;
+import org.aim.description.builder.InstrumentationDescriptionBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lpe.common.config.GlobalConfiguration;
+import org.lpe.common.extension.ExtensionRegistry;
+import org.test.sut.ClassA;
+import org.test.sut.ClassB;
+import org.test.sut.ClassC;
+
+public class ScopeAnalysisControllerTest {
+	private static final String CLASS_K = "org.test.sut.ClassK";
+	private static final String METHOD_K1 = CLASS_K + ".methodK1()";
+
+	/**
+	 * More classes than visited by a single analysis task.
+	 */
+	private static final int NUM_VERSIONS = 1000;
+
+	/**
+	 * Defines a separate version of the test class.
+	 */
+	private static final class ChildFirstClassLoader extends ClassLoader {
+		private final byte[] byteCode;
+
+		private ChildFirstClassLoader(byte[] byteCode) {
+			super(ScopeAnalysisControllerTest.class.getClassLoader());
+			this.byteCode = byteCode;
+		}
+
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!CLASS_K.equals(name)) {
+				return super.loadClass(name, resolve);
+			}
+			Class<?> clazz = findLoadedClass(name);
+			if (clazz == null) {
+				clazz = defineClass(name, byteCode, 0, byteCode.length);
+			}
+			return clazz;
+		}
+	}
+
+	@BeforeClass
+	public static void initializeExtensions() {
+		Properties globalProperties = new Properties();
+		String currentDir = System.getProperty("user.dir");
+		globalProperties.setProperty(ExtensionRegistry.APP_ROOT_DIR_PROPERTY_KEY, currentDir);
+		globalProperties.setProperty(ExtensionRegistry.PLUGINS_FOLDER_PROPERTY_KEY, "plugins");
+		GlobalConfiguration.initialize(globalProperties);
+	}
+
+	private static byte[] readClassFile(String className) throws IOException {
+		try (InputStream in = ScopeAnalysisControllerTest.class.getResourceAsStream("/"
+				+ className.replace('.', '/') + ".class")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read = in.read(buffer);
+			while (read >= 0) {
+				out.write(buffer, 0, read);
+				read = in.read(buffer);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testParallelResolutionFindsAllClasses() throws Exception {
+		byte[] byteCode = readClassFile(CLASS_K);
+		Set<Class<?>> versions = new HashSet<>();
+		List<Class> classes = new ArrayList<>();
+		classes.add(ClassA.class);
+		classes.add(ClassB.class);
+		for (int i = 0; i < NUM_VERSIONS; i++) {
+			Class<?> version = new ChildFirstClassLoader(byteCode).loadClass(CLASS_K);
+			versions.add(version);
+			classes.add(version);
+		}
+		classes.add(ClassC.class);
+
+		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
+		InstrumentationDescription descr = idBuilder.newMethodScopeEntity(METHOD_K1)
+				.addProbe(ResponsetimeProbe.MODEL_PROBE).entityDone().build();
+		Set<FlatInstrumentationEntity> entities = new ScopeAnalysisController(descr).resolveScopes(classes);
+
+		Assert.assertEquals(NUM_VERSIONS, entities.size());
+		Set<Class<?>> instrumentedClasses = new HashSet<>();
+		for (FlatInstrumentationEntity entity : entities) {
+			Assert.assertEquals(METHOD_K1, entity.getMethodSignature());
+			Assert.assertEquals(ResponsetimeProbe.class, entity.getProbeType());
+			instrumentedClasses.add(entity.getClazz());
+		}
+		Assert.assertEquals(versions, instrumentedClasses);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testResolutionIsRepeatable() throws Exception {
+		List<Class> classes = new ArrayList<>();
+		classes.add(ClassA.class);
+		classes.add(ClassB.class);
+		classes.add(ClassC.class);
+
+		InstrumentationDescriptionBuilder idBuilder = new InstrumentationDescriptionBuilder();
+		InstrumentationDescription descr = idBuilder.newMethodScopeEntity("org.test.sut.Class*.method*()")
+				.addProbe(ResponsetimeProbe.MODEL_PROBE).entityDone().build();
+		ScopeAnalysisController controller = new ScopeAnalysisController(descr);
+		Set<FlatInstrumentationEntity> first = controller.resolveScopes(classes);
+		Set<FlatInstrumentationEntity> second = controller.resolveScopes(classes);
+
+		Assert.assertFalse(first.isEmpty());
+		Assert.assertEquals(first, second);
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014 SAP AG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aim.mainagent.utils;
+
+import java.io.IOException;
+
+import javassist.CtClass;
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class JavassistWrapperTest {
+
+	@After
+	public void tearDown() {
+		JavassistWrapper.getInstance().clear();
+	}
+
+	@Test
+	public void testConcurrentlyUsedClassesHaveSeparatePools() throws Exception {
+		JavassistWrapper wrapper = JavassistWrapper.getInstance();
+		wrapper.clear();
+		CtClass first = wrapper.getCtClass(DummyClass.class);
+		CtClass second = wrapper.getCtClass(DummyClassB.class);
+		Assert.assertNotNull(first);
+		Assert.assertNotNull(second);
+		Assert.assertNotSame(first.getClassPool(), second.getClassPool());
+		Assert.assertEquals(0, wrapper.getNumIdlePools());
+
+		wrapper.release(first);
+		wrapper.release(second);
+		Assert.assertEquals(2, wrapper.getNumIdlePools());
+
+		CtClass again = wrapper.getCtClass(DummyClass.class);
+		Assert.assertEquals(1, wrapper.getNumIdlePools());
+		Assert.assertFalse(again.isModified());
+		wrapper.release(again);
+	}
+
+	@Test
+	public void testClearDropsIdlePools() throws Exception {
+		JavassistWrapper wrapper = JavassistWrapper.getInstance();
+		wrapper.warmUp();
+		Assert.assertTrue(wrapper.getNumIdlePools() > 0);
+		wrapper.clear();
+		Assert.assertEquals(0, wrapper.getNumIdlePools());
+	}
+
+	@Test
+	public void testPoolIsReleasedIfClassFileIsInvalid() throws Exception {
+		JavassistWrapper wrapper = JavassistWrapper.getInstance();
+		wrapper.clear();
+		try {
+			wrapper.makeCtClass(DummyClass.class.getClassLoader(), new byte[] { 1, 2, 3 });
+			Assert.fail("Invalid class file has been accepted.");
+		} catch (IOException e) {
+			Assert.assertEquals(1, wrapper.getNumIdlePools());
+		}
+	}
+}
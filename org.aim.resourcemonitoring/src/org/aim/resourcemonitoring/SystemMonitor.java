@@ -28,7 +28,6 @@ import org.aim.api.measurement.sampling.SamplingExecuter;
 import org.aim.description.sampling.SamplingDescription;
 import org.aim.logging.AIMLogger;
 import org.aim.logging.AIMLoggerFactory;
-import org.lpe.common.util.system.LpeSystemUtils;
 
 /**
  * System Monitoring Utility. Once configured it manages all recorders and
@@ -111,7 +110,7 @@ public final class SystemMonitor {
 		}
 
 		for (SamplingExecuter samplingExecuter : monitoringJobs.values()) {
-			LpeSystemUtils.submitTask(samplingExecuter);
+			samplingExecuter.start();
 		}
 	}
 